@@ -1,6 +1,7 @@
 package titocc;
 
 import javax.swing.SwingUtilities;
+import titocc.cli.CommandLineCompiler;
 import titocc.gui.UserInterface;
 
 /**
@@ -9,12 +10,17 @@ import titocc.gui.UserInterface;
 public class TitoCC
 {
 	/**
-	 * Program entry point.
+	 * Program entry point. Launches the user interface if there are no
+	 * arguments; otherwise compiles the given files from the command line
+	 * (see CommandLineCompiler) and exits with its exit status.
 	 *
-	 * @param args command line arguments, not used
+	 * @param args command line arguments
 	 */
 	public static void main(String[] args)
 	{
-		SwingUtilities.invokeLater(new UserInterface());
+		if (args.length == 0)
+			SwingUtilities.invokeLater(new UserInterface());
+		else
+			System.exit(new CommandLineCompiler(System.out, System.err).run(args));
 	}
 }
@@ -0,0 +1,18 @@
+package titocc.assembler;
+
+/**
+ * An exception caused by invalid assembly code or an invalid machine code
+ * file.
+ */
+public class AssemblerException extends Exception
+{
+	/**
+	 * Constructs an AssemblerException.
+	 *
+	 * @param message error message
+	 */
+	public AssemblerException(String message)
+	{
+		super(message);
+	}
+}
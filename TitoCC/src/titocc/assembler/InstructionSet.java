@@ -0,0 +1,184 @@
+package titocc.assembler;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Operation codes, instruction word layout and predefined symbols of the
+ * TTK-91 architecture.
+ *
+ * <p> An instruction is a 32-bit word with the fields
+ * <pre>
+ *  31      24 23 21 20 19 18 16 15             0
+ * | opcode   | Rj  | M   | Ri  | address        |
+ * </pre>
+ * where Rj is the first operand register, M the addressing mode (0 immediate,
+ * 1 direct, 2 indirect), Ri the index register (0 for none) and address a
+ * signed 16-bit constant. The second operand is computed by adding the index
+ * register to the address and then reading the memory M times. For store,
+ * jump and call instructions the result is used as an address, so their
+ * addressing mode is encoded one lower than written in the assembly code.
+ */
+public final class InstructionSet
+{
+	// Operation codes.
+	public static final int NOP = 0;
+	public static final int STORE = 1;
+	public static final int LOAD = 2;
+	public static final int IN = 3;
+	public static final int OUT = 4;
+	public static final int ADD = 17;
+	public static final int SUB = 18;
+	public static final int MUL = 19;
+	public static final int DIV = 20;
+	public static final int MOD = 21;
+	public static final int AND = 22;
+	public static final int OR = 23;
+	public static final int XOR = 24;
+	public static final int SHL = 25;
+	public static final int SHR = 26;
+	public static final int NOT = 27;
+	public static final int SHRA = 28;
+	public static final int COMP = 31;
+	public static final int JUMP = 32;
+	public static final int JNEG = 33;
+	public static final int JZER = 34;
+	public static final int JPOS = 35;
+	public static final int JNNEG = 36;
+	public static final int JNZER = 37;
+	public static final int JNPOS = 38;
+	public static final int JLES = 39;
+	public static final int JEQU = 40;
+	public static final int JGRE = 41;
+	public static final int JNLES = 42;
+	public static final int JNEQU = 43;
+	public static final int JNGRE = 44;
+	public static final int CALL = 49;
+	public static final int EXIT = 50;
+	public static final int PUSH = 51;
+	public static final int POP = 52;
+	public static final int PUSHR = 53;
+	public static final int POPR = 54;
+	public static final int SVC = 112;
+	/**
+	 * Register number of the stack pointer.
+	 */
+	public static final int SP = 6;
+	/**
+	 * Register number of the frame pointer.
+	 */
+	public static final int FP = 7;
+	/**
+	 * Device number of the screen.
+	 */
+	public static final int CRT = 0;
+	/**
+	 * Device number of the keyboard.
+	 */
+	public static final int KBD = 1;
+	/**
+	 * Supervisor call that stops the program.
+	 */
+	public static final int HALT = 11;
+	/**
+	 * Mnemonics indexed by operation code; null for unused codes.
+	 */
+	private static final String[] mnemonics = new String[256];
+	/**
+	 * Operation codes by mnemonic.
+	 */
+	private static final Map<String, Integer> opcodes = new HashMap<String, Integer>();
+	/**
+	 * Symbols that are defined in every program.
+	 */
+	private static final Map<String, Integer> predefinedSymbols = new HashMap<String, Integer>();
+
+	static {
+		String[] names = {"nop", "store", "load", "in", "out", "add", "sub", "mul", "div",
+			"mod", "and", "or", "xor", "shl", "shr", "not", "shra", "comp", "jump", "jneg",
+			"jzer", "jpos", "jnneg", "jnzer", "jnpos", "jles", "jequ", "jgre", "jnles",
+			"jnequ", "jngre", "call", "exit", "push", "pop", "pushr", "popr", "svc"};
+		int[] codes = {NOP, STORE, LOAD, IN, OUT, ADD, SUB, MUL, DIV, MOD, AND, OR, XOR,
+			SHL, SHR, NOT, SHRA, COMP, JUMP, JNEG, JZER, JPOS, JNNEG, JNZER, JNPOS, JLES,
+			JEQU, JGRE, JNLES, JNEQU, JNGRE, CALL, EXIT, PUSH, POP, PUSHR, POPR, SVC};
+		for (int i = 0; i < names.length; ++i) {
+			mnemonics[codes[i]] = names[i];
+			opcodes.put(names[i], codes[i]);
+		}
+
+		predefinedSymbols.put("crt", CRT);
+		predefinedSymbols.put("kbd", KBD);
+		predefinedSymbols.put("stdin", 6);
+		predefinedSymbols.put("stdout", 7);
+		predefinedSymbols.put("halt", HALT);
+		predefinedSymbols.put("read", 12);
+		predefinedSymbols.put("write", 13);
+		predefinedSymbols.put("time", 14);
+		predefinedSymbols.put("date", 15);
+	}
+
+	private InstructionSet()
+	{
+	}
+
+	/**
+	 * Returns the operation code for a mnemonic.
+	 *
+	 * @param mnemonic lower case mnemonic
+	 * @return operation code or -1 if the mnemonic is unknown
+	 */
+	public static int getOpcode(String mnemonic)
+	{
+		Integer opcode = opcodes.get(mnemonic);
+		return opcode != null ? opcode : -1;
+	}
+
+	/**
+	 * Returns the mnemonic of an operation code.
+	 *
+	 * @param opcode operation code
+	 * @return lower case mnemonic or null if the code is unused
+	 */
+	public static String getMnemonic(int opcode)
+	{
+		return opcode >= 0 && opcode < mnemonics.length ? mnemonics[opcode] : null;
+	}
+
+	/**
+	 * Returns the value of a predefined symbol such as "crt" or "halt".
+	 *
+	 * @param name lower case symbol name
+	 * @return value or null if the symbol is not predefined
+	 */
+	public static Integer getPredefinedSymbol(String name)
+	{
+		return predefinedSymbols.get(name);
+	}
+
+	/**
+	 * Returns true if the second operand of the instruction is used as an
+	 * address instead of a value, which lowers the encoded addressing mode.
+	 *
+	 * @param opcode operation code
+	 * @return true for store, jump and call instructions
+	 */
+	public static boolean usesAddress(int opcode)
+	{
+		return opcode == STORE || opcode == CALL || (opcode >= JUMP && opcode <= JNGRE);
+	}
+
+	/**
+	 * Encodes an instruction word.
+	 *
+	 * @param opcode operation code
+	 * @param rj first operand register
+	 * @param mode encoded addressing mode
+	 * @param ri index register or 0
+	 * @param address address part; only the low 16 bits are stored
+	 * @return the instruction word
+	 */
+	public static int encode(int opcode, int rj, int mode, int ri, int address)
+	{
+		return (opcode << 24) | (rj << 21) | (mode << 19) | (ri << 16) | (address & 0xffff);
+	}
+}
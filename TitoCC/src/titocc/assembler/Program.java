@@ -0,0 +1,111 @@
+package titocc.assembler;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Loaded TTK-91 program: the memory image with the code segment starting at
+ * address 0 followed by the data segment, and the symbol table.
+ */
+public class Program
+{
+	// Section headers of the .b91 format.
+	static final String B91_HEADER = "___b91___";
+	static final String B91_CODE = "___code___";
+	static final String B91_DATA = "___data___";
+	static final String B91_SYMBOLS = "___symboltable___";
+	static final String B91_END = "___end___";
+	/**
+	 * Code words followed by data words.
+	 */
+	private final int[] image;
+	/**
+	 * Number of words in the code segment.
+	 */
+	private final int codeSize;
+	/**
+	 * Values of the labels and constants in the program.
+	 */
+	private final Map<String, Integer> symbols;
+
+	/**
+	 * Constructs a Program.
+	 *
+	 * @param image code words followed by data words
+	 * @param codeSize number of words in the code segment
+	 * @param symbols symbol table
+	 */
+	public Program(int[] image, int codeSize, Map<String, Integer> symbols)
+	{
+		this.image = image;
+		this.codeSize = codeSize;
+		this.symbols = symbols;
+	}
+
+	/**
+	 * Returns the memory image. The array must not be modified.
+	 *
+	 * @return code words followed by data words
+	 */
+	public int[] getImage()
+	{
+		return image;
+	}
+
+	/**
+	 * Returns the size of the code segment.
+	 *
+	 * @return number of words
+	 */
+	public int getCodeSize()
+	{
+		return codeSize;
+	}
+
+	/**
+	 * Returns the size of the data segment.
+	 *
+	 * @return number of words
+	 */
+	public int getDataSize()
+	{
+		return image.length - codeSize;
+	}
+
+	/**
+	 * Returns the symbol table.
+	 *
+	 * @return unmodifiable map from symbol names to values
+	 */
+	public Map<String, Integer> getSymbols()
+	{
+		return Collections.unmodifiableMap(symbols);
+	}
+
+	/**
+	 * Writes the program in the .b91 machine code format that Titokone can
+	 * load: the address range and the words of the code segment, the same for
+	 * the data segment, and the symbol table.
+	 *
+	 * @param writer stream to write to
+	 * @throws IOException if writer throws
+	 */
+	public void writeBinary(Writer writer) throws IOException
+	{
+		writer.write(B91_HEADER + "\n");
+		writer.write(B91_CODE + "\n");
+		writer.write("0 " + (codeSize - 1) + "\n");
+		for (int i = 0; i < codeSize; ++i)
+			writer.write(image[i] + "\n");
+		writer.write(B91_DATA + "\n");
+		writer.write(codeSize + " " + (image.length - 1) + "\n");
+		for (int i = codeSize; i < image.length; ++i)
+			writer.write(image[i] + "\n");
+		writer.write(B91_SYMBOLS + "\n");
+		for (Map.Entry<String, Integer> symbol : symbols.entrySet())
+			writer.write(symbol.getKey() + " " + symbol.getValue() + "\n");
+		writer.write(B91_END + "\n");
+	}
+}
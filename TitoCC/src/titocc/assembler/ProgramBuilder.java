@@ -0,0 +1,229 @@
+package titocc.assembler;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Assembles symbolic TTK-91 instructions to a Program the same way as
+ * Titokone does it: instructions are placed in the code segment starting from
+ * address 0 and the data areas reserved by "dc" and "ds" are placed after the
+ * code in the order they were added. Labels may be used before they are
+ * defined.
+ */
+public class ProgramBuilder
+{
+	/**
+	 * An added instruction or pseudo instruction.
+	 */
+	private static class Line
+	{
+		int number;
+		String label;
+		String mnemonic;
+		String operand1;
+		String operand2;
+	}
+	/**
+	 * Instructions in the order they were added.
+	 */
+	private final List<Line> code = new ArrayList<Line>();
+	/**
+	 * "dc" and "ds" pseudo instructions in the order they were added.
+	 */
+	private final List<Line> data = new ArrayList<Line>();
+	/**
+	 * "equ" pseudo instructions.
+	 */
+	private final List<Line> constants = new ArrayList<Line>();
+	/**
+	 * Values of the symbols, in the order of definition.
+	 */
+	private Map<String, Integer> symbols;
+
+	/**
+	 * Adds an instruction or a pseudo instruction. Instructions with a single
+	 * operand use the first operand, which is either a register ("not R1") or
+	 * an address ("jump x").
+	 *
+	 * @param lineNumber line number used in error messages
+	 * @param label label or empty string
+	 * @param mnemonic mnemonic in any case
+	 * @param operand1 first operand; null or empty string if none
+	 * @param operand2 second operand or null if none
+	 */
+	public void add(int lineNumber, String label, String mnemonic, String operand1,
+			String operand2)
+	{
+		Line line = new Line();
+		line.number = lineNumber;
+		line.label = label;
+		line.mnemonic = mnemonic.toLowerCase();
+		line.operand1 = operand1 != null && !operand1.isEmpty() ? operand1 : null;
+		line.operand2 = operand2;
+		if (line.mnemonic.equals("dc") || line.mnemonic.equals("ds"))
+			data.add(line);
+		else if (line.mnemonic.equals("equ"))
+			constants.add(line);
+		else
+			code.add(line);
+	}
+
+	/**
+	 * Resolves the symbols and assembles the added instructions.
+	 *
+	 * @return the program
+	 * @throws AssemblerException if the code is invalid
+	 */
+	public Program build() throws AssemblerException
+	{
+		symbols = new LinkedHashMap<String, Integer>();
+		for (int i = 0; i < code.size(); ++i)
+			defineSymbol(code.get(i), i);
+		int dataSize = 0;
+		for (Line line : data) {
+			defineSymbol(line, code.size() + dataSize);
+			dataSize += line.mnemonic.equals("ds") ? parseSize(line) : 1;
+		}
+		for (Line line : constants)
+			defineSymbol(line, parseInteger(line, singleOperand(line)));
+
+		int[] image = new int[code.size() + dataSize];
+		for (int i = 0; i < code.size(); ++i)
+			image[i] = assemble(code.get(i));
+		int address = code.size();
+		for (Line line : data) {
+			if (line.mnemonic.equals("dc"))
+				image[address++] = parseInteger(line, singleOperand(line));
+			else
+				address += parseSize(line);
+		}
+		return new Program(image, code.size(), symbols);
+	}
+
+	private void defineSymbol(Line line, int value) throws AssemblerException
+	{
+		if (line.label.isEmpty()) {
+			if (line.mnemonic.equals("equ"))
+				throw error(line, "Missing name for constant.");
+			return;
+		}
+		if (symbols.containsKey(line.label))
+			throw error(line, "Redefinition of symbol \"" + line.label + "\".");
+		symbols.put(line.label, value);
+	}
+
+	private int assemble(Line line) throws AssemblerException
+	{
+		int opcode = InstructionSet.getOpcode(line.mnemonic);
+		if (opcode < 0)
+			throw error(line, "Unknown instruction \"" + line.mnemonic + "\".");
+
+		String first = line.operand1;
+		String second = line.operand2;
+		if (second == null && first != null && parseRegister(first) < 0) {
+			// A lone operand is the address of "jump x".
+			second = first;
+			first = null;
+		}
+
+		int rj = 0;
+		if (first != null) {
+			rj = parseRegister(first);
+			if (rj < 0)
+				throw error(line, "Invalid register \"" + first + "\".");
+		}
+		if (second == null)
+			return InstructionSet.encode(opcode, rj, 0, 0, 0);
+
+		int mode = 1;
+		String operand = second;
+		if (operand.startsWith("=")) {
+			mode = 0;
+			operand = operand.substring(1);
+		} else if (operand.startsWith("@")) {
+			mode = 2;
+			operand = operand.substring(1);
+		}
+
+		int ri = parseRegister(operand);
+		int address = 0;
+		if (ri >= 0) {
+			// A register operand reads the register instead of the memory.
+			--mode;
+		} else {
+			ri = 0;
+			int paren = operand.indexOf('(');
+			if (paren >= 0) {
+				if (!operand.endsWith(")"))
+					throw error(line, "Invalid operand \"" + second + "\".");
+				ri = parseRegister(operand.substring(paren + 1, operand.length() - 1).trim());
+				if (ri < 0)
+					throw error(line, "Invalid index register in \"" + second + "\".");
+				operand = operand.substring(0, paren).trim();
+			}
+			if (!operand.isEmpty())
+				address = parseValue(line, operand);
+		}
+		if (InstructionSet.usesAddress(opcode))
+			--mode;
+		if (mode < 0)
+			throw error(line, "Invalid addressing mode in \"" + second + "\".");
+		if (address < Short.MIN_VALUE || address > Short.MAX_VALUE)
+			throw error(line, "Address " + address + " does not fit in 16 bits.");
+		return InstructionSet.encode(opcode, rj, mode, ri, address);
+	}
+
+	private int parseValue(Line line, String operand) throws AssemblerException
+	{
+		Integer value = symbols.get(operand);
+		if (value == null)
+			value = InstructionSet.getPredefinedSymbol(operand.toLowerCase());
+		if (value != null)
+			return value;
+		return parseInteger(line, operand);
+	}
+
+	private static int parseRegister(String operand)
+	{
+		String name = operand.toLowerCase();
+		if (name.equals("sp"))
+			return InstructionSet.SP;
+		if (name.equals("fp"))
+			return InstructionSet.FP;
+		if (name.length() == 2 && name.charAt(0) == 'r' && name.charAt(1) >= '0'
+				&& name.charAt(1) <= '7')
+			return name.charAt(1) - '0';
+		return -1;
+	}
+
+	private static String singleOperand(Line line) throws AssemblerException
+	{
+		if (line.operand1 == null || line.operand2 != null)
+			throw error(line, "\"" + line.mnemonic + "\" requires one operand.");
+		return line.operand1;
+	}
+
+	private static int parseSize(Line line) throws AssemblerException
+	{
+		int size = parseInteger(line, singleOperand(line));
+		if (size < 0)
+			throw error(line, "Negative size.");
+		return size;
+	}
+
+	private static int parseInteger(Line line, String text) throws AssemblerException
+	{
+		try {
+			return Integer.parseInt(text);
+		} catch (NumberFormatException e) {
+			throw error(line, "Undefined symbol or invalid number \"" + text + "\".");
+		}
+	}
+
+	private static AssemblerException error(Line line, String message)
+	{
+		return new AssemblerException("Line " + line.number + ": " + message);
+	}
+}
@@ -0,0 +1,158 @@
+package titocc.assembler;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Loads TTK-91 programs for the simulator, either from symbolic assembly code
+ * (.k91) that is assembled with ProgramBuilder or from machine code (.b91)
+ * written by Program.writeBinary() or Titokone.
+ */
+public class ProgramLoader
+{
+	/**
+	 * Number of the line last read.
+	 */
+	private int lineNumber;
+
+	/**
+	 * Reads and assembles a program in symbolic assembly language.
+	 *
+	 * @param reader stream to read the .k91 code from
+	 * @return the assembled program
+	 * @throws IOException if reader throws
+	 * @throws AssemblerException if the code is invalid
+	 */
+	public Program loadSymbolic(Reader reader) throws IOException, AssemblerException
+	{
+		ProgramBuilder builder = new ProgramBuilder();
+		BufferedReader br = new BufferedReader(reader);
+		String text;
+		lineNumber = 0;
+		while ((text = br.readLine()) != null) {
+			++lineNumber;
+			int comment = text.indexOf(';');
+			if (comment >= 0)
+				text = text.substring(0, comment);
+			if (text.trim().isEmpty())
+				continue;
+
+			String label = "";
+			String[] words = text.trim().split("\\s+", 2);
+			if (!Character.isWhitespace(text.charAt(0))) {
+				label = words[0];
+				if (words.length < 2)
+					throw error(lineNumber, "Missing instruction after label.");
+				words = words[1].split("\\s+", 2);
+			}
+			String[] operands = words.length > 1 ? words[1].split(",", -1) : new String[0];
+			if (operands.length > 2)
+				throw error(lineNumber, "Too many operands.");
+			String operand1 = operands.length > 0 ? operands[0].trim() : null;
+			String operand2 = operands.length > 1 ? operands[1].trim() : null;
+			builder.add(lineNumber, label, words[0], operand1, operand2);
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Reads a program in the .b91 machine code format. The code segment must
+	 * start from address 0 and the data segment must follow it.
+	 *
+	 * @param reader stream to read the .b91 code from
+	 * @return the program
+	 * @throws IOException if reader throws
+	 * @throws AssemblerException if the file is invalid
+	 */
+	public Program loadBinary(Reader reader) throws IOException, AssemblerException
+	{
+		BufferedReader br = new BufferedReader(reader);
+		lineNumber = 0;
+		expect(br, Program.B91_HEADER);
+		expect(br, Program.B91_CODE);
+		int[] codeRange = readPair(br);
+		if (codeRange[0] != 0)
+			throw error(lineNumber, "Code segment must start from address 0.");
+		int codeSize = codeRange[1] + 1;
+		int[] code = readWords(br, codeSize);
+		expect(br, Program.B91_DATA);
+		int[] dataRange = readPair(br);
+		if (dataRange[0] != codeSize)
+			throw error(lineNumber, "Data segment must follow the code segment.");
+		int[] data = readWords(br, dataRange[1] - dataRange[0] + 1);
+		expect(br, Program.B91_SYMBOLS);
+
+		Map<String, Integer> symbols = new LinkedHashMap<String, Integer>();
+		String line;
+		while (!(line = readLine(br)).equals(Program.B91_END)) {
+			String[] parts = line.split("\\s+");
+			if (parts.length != 2)
+				throw error(lineNumber, "Invalid symbol definition.");
+			symbols.put(parts[0], parseInteger(parts[1], lineNumber));
+		}
+
+		int[] image = new int[code.length + data.length];
+		System.arraycopy(code, 0, image, 0, code.length);
+		System.arraycopy(data, 0, image, code.length, data.length);
+		return new Program(image, codeSize, symbols);
+	}
+
+	private String readLine(BufferedReader br)
+			throws IOException, AssemblerException
+	{
+		String line;
+		do {
+			line = br.readLine();
+			++lineNumber;
+			if (line == null)
+				throw error(lineNumber, "Unexpected end of file.");
+			line = line.trim();
+		} while (line.isEmpty());
+		return line;
+	}
+
+	private void expect(BufferedReader br, String expected)
+			throws IOException, AssemblerException
+	{
+		if (!readLine(br).equals(expected))
+			throw error(lineNumber, "Expected \"" + expected + "\".");
+	}
+
+	private int[] readPair(BufferedReader br)
+			throws IOException, AssemblerException
+	{
+		String[] parts = readLine(br).split("\\s+");
+		if (parts.length != 2)
+			throw error(lineNumber, "Expected start and end addresses.");
+		return new int[]{parseInteger(parts[0], lineNumber),
+				parseInteger(parts[1], lineNumber)};
+	}
+
+	private int[] readWords(BufferedReader br, int count)
+			throws IOException, AssemblerException
+	{
+		if (count < 0)
+			throw error(lineNumber, "Invalid segment size.");
+		int[] words = new int[count];
+		for (int i = 0; i < count; ++i)
+			words[i] = parseInteger(readLine(br), lineNumber);
+		return words;
+	}
+
+	private static int parseInteger(String text, int lineNumber) throws AssemblerException
+	{
+		try {
+			return Integer.parseInt(text);
+		} catch (NumberFormatException e) {
+			throw error(lineNumber, "Invalid number \"" + text + "\".");
+		}
+	}
+
+	private static AssemblerException error(int lineNumber, String message)
+	{
+		return new AssemblerException("Line " + lineNumber + ": " + message);
+	}
+}
@@ -0,0 +1,285 @@
+package titocc.cli;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import titocc.compiler.Compiler;
+import titocc.compiler.Inliner;
+import titocc.compiler.PeepholeOptimizer;
+import titocc.tokenizer.SyntaxException;
+
+/**
+ * Command line interface that compiles source files without the graphical
+ * user interface. Each file given on the command line and each .c file in the
+ * given directories and their subdirectories is compiled, and the output is
+ * written next to the source file with the extension .k91 (or .b91). Errors
+ * are reported as "file:line:column: error: message". Files are independent
+ * of each other, so they can be compiled concurrently by a pool of worker
+ * threads.
+ *
+ * <p> Usage: titocc [options] file-or-directory...
+ *
+ * <br> --jobs N, -j N: compile N files at a time (default 1)
+ * <br> --b91: write machine code (.b91) instead of assembly code (.k91)
+ * <br> --no-opt: disable the optimizations
+ */
+public class CommandLineCompiler
+{
+	/**
+	 * Exit status when all files were compiled successfully.
+	 */
+	public static final int EXIT_SUCCESS = 0;
+	/**
+	 * Exit status when at least one file could not be compiled.
+	 */
+	public static final int EXIT_FAILURE = 1;
+	/**
+	 * Exit status when the command line arguments are invalid.
+	 */
+	public static final int EXIT_USAGE = 2;
+	/**
+	 * Usage message.
+	 */
+	static final String USAGE = "Usage: titocc [--jobs N] [--b91] [--no-opt] file-or-directory...";
+	/**
+	 * Stream for the usage message.
+	 */
+	private final PrintStream out;
+	/**
+	 * Stream for the error messages.
+	 */
+	private final PrintStream err;
+	/**
+	 * Number of files compiled concurrently.
+	 */
+	private int jobs = 1;
+	/**
+	 * True if the output is machine code (.b91) instead of assembly code.
+	 */
+	private boolean binaryOutput = false;
+	/**
+	 * True if the optimizations are enabled.
+	 */
+	private boolean optimization = true;
+	/**
+	 * Files and directories given on the command line.
+	 */
+	private final List<File> inputs = new ArrayList<File>();
+
+	/**
+	 * Constructs a CommandLineCompiler.
+	 *
+	 * @param out stream for the usage message
+	 * @param err stream for the error messages
+	 */
+	public CommandLineCompiler(PrintStream out, PrintStream err)
+	{
+		this.out = out;
+		this.err = err;
+	}
+
+	/**
+	 * Compiles the files given in the command line arguments.
+	 *
+	 * @param args command line arguments
+	 * @return exit status: EXIT_SUCCESS, EXIT_FAILURE or EXIT_USAGE
+	 */
+	public int run(String[] args)
+	{
+		try {
+			if (!parseArguments(args)) {
+				out.println(USAGE);
+				return EXIT_SUCCESS;
+			}
+		} catch (IllegalArgumentException e) {
+			err.println("titocc: " + e.getMessage());
+			err.println(USAGE);
+			return EXIT_USAGE;
+		}
+
+		int failures = 0;
+		List<File> sources = new ArrayList<File>();
+		for (File input : inputs) {
+			if (input.isDirectory())
+				findSourceFiles(input, sources);
+			else if (input.isFile())
+				sources.add(input);
+			else {
+				err.println(input.getPath() + ": error: No such file or directory.");
+				++failures;
+			}
+		}
+
+		// Messages are printed in the order of the files, so that the output
+		// doesn't depend on the number of jobs.
+		ExecutorService executor = Executors.newFixedThreadPool(jobs);
+		try {
+			List<Future<String>> results = new ArrayList<Future<String>>();
+			for (final File source : sources) {
+				results.add(executor.submit(new Callable<String>()
+				{
+					@Override
+					public String call()
+					{
+						return compileFile(source);
+					}
+				}));
+			}
+			for (int i = 0; i < sources.size(); ++i) {
+				String error = getResult(results.get(i), sources.get(i));
+				if (error != null) {
+					err.println(error);
+					++failures;
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		return failures == 0 ? EXIT_SUCCESS : EXIT_FAILURE;
+	}
+
+	/**
+	 * Compiles a single source file and writes the output file next to it. If
+	 * the compilation fails, the output file is removed.
+	 *
+	 * @param source the source file
+	 * @return error message or null if the file was compiled successfully
+	 */
+	String compileFile(File source)
+	{
+		File outputFile = getOutputFile(source);
+		try {
+			Reader reader = new BufferedReader(new FileReader(source));
+			try {
+				Writer writer = new BufferedWriter(new FileWriter(outputFile));
+				boolean success = false;
+				try {
+					Compiler compiler = new Compiler(reader);
+					if (optimization) {
+						compiler.setPeepholeOptimizer(new PeepholeOptimizer());
+						compiler.setInliner(new Inliner());
+						compiler.setLoopOptimization(true);
+					}
+					compiler.setBinaryOutput(binaryOutput);
+					compiler.compile(writer);
+					success = true;
+				} finally {
+					writer.close();
+					if (!success)
+						outputFile.delete();
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (SyntaxException e) {
+			return source.getPath() + ":" + (e.getLine() + 1) + ":" + (e.getColumn() + 1)
+					+ ": error: " + e.getMessage();
+		} catch (IOException e) {
+			return source.getPath() + ": error: " + e.getMessage();
+		} catch (RuntimeException e) {
+			return source.getPath() + ": internal compiler error: " + e;
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the output file for a source file: the .c extension is replaced
+	 * with .k91 or .b91, or the extension is added if the name doesn't end
+	 * with .c.
+	 *
+	 * @param source the source file
+	 * @return the output file
+	 */
+	File getOutputFile(File source)
+	{
+		String path = source.getPath();
+		if (path.endsWith(".c"))
+			path = path.substring(0, path.length() - 2);
+		return new File(path + (binaryOutput ? ".b91" : ".k91"));
+	}
+
+	/**
+	 * Parses the command line arguments.
+	 *
+	 * @param args command line arguments
+	 * @return false if the usage message was requested
+	 * @throws IllegalArgumentException if the arguments are invalid
+	 */
+	private boolean parseArguments(String[] args)
+	{
+		for (int i = 0; i < args.length; ++i) {
+			String arg = args[i];
+			if (arg.equals("--help") || arg.equals("-h"))
+				return false;
+			else if (arg.equals("--jobs") || arg.equals("-j")) {
+				if (++i == args.length)
+					throw new IllegalArgumentException("Missing value for " + arg + ".");
+				jobs = parseJobs(args[i]);
+			} else if (arg.startsWith("--jobs="))
+				jobs = parseJobs(arg.substring("--jobs=".length()));
+			else if (arg.equals("--b91"))
+				binaryOutput = true;
+			else if (arg.equals("--no-opt"))
+				optimization = false;
+			else if (arg.startsWith("-"))
+				throw new IllegalArgumentException("Unknown option \"" + arg + "\".");
+			else
+				inputs.add(new File(arg));
+		}
+		if (inputs.isEmpty())
+			throw new IllegalArgumentException("No input files.");
+		return true;
+	}
+
+	private static int parseJobs(String value)
+	{
+		try {
+			int n = Integer.parseInt(value);
+			if (n >= 1)
+				return n;
+		} catch (NumberFormatException e) {
+		}
+		throw new IllegalArgumentException("Invalid number of jobs \"" + value + "\".");
+	}
+
+	private static void findSourceFiles(File directory, List<File> sources)
+	{
+		File[] files = directory.listFiles();
+		if (files == null)
+			return;
+		Arrays.sort(files);
+		for (File file : files) {
+			if (file.isDirectory())
+				findSourceFiles(file, sources);
+			else if (file.getName().endsWith(".c"))
+				sources.add(file);
+		}
+	}
+
+	private static String getResult(Future<String> result, File source)
+	{
+		try {
+			return result.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return source.getPath() + ": error: Interrupted.";
+		} catch (ExecutionException e) {
+			return source.getPath() + ": internal compiler error: " + e.getCause();
+		}
+	}
+}
@@ -2,59 +2,279 @@ package titocc.compiler;
 
 import java.io.IOException;
 import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import titocc.assembler.AssemblerException;
+import titocc.assembler.ProgramBuilder;
 
 /**
- * Formats and writes individual instructions to the output stream. Currently
- * just outputs symbolic assembly language (.k91 format) but this could maybe be
- * changed to machine code (.b91) if necessary.
+ * Formats and writes individual instructions to the output stream as symbolic
+ * assembly language (.k91 format). Alternatively the instructions are
+ * assembled to machine code with ProgramBuilder, and finish() writes the
+ * program in the .b91 format.
+ *
+ * <p> A buffering assembler keeps the instructions in memory as intermediate
+ * code until the buffer is flushed by flush(), finish() or addEmptyLines().
+ * The buffered code may use virtual registers, which must be lowered to
+ * physical registers with allocateRegisters() before flushing. If a peephole
+ * optimizer is given, it is applied to the instructions when flushing.
  */
 public class Assembler
 {
+	/**
+	 * Smallest immediate operand in the cache.
+	 */
+	private static final int MIN_CACHED_IMMEDIATE = -128;
+	/**
+	 * Decimal strings "n" of small values, so that emitting common constants
+	 * doesn't allocate strings.
+	 */
+	private static final String[] numbers = new String[1152];
+	/**
+	 * Immediate operands "=n" of the same values.
+	 */
+	private static final String[] immediates = new String[numbers.length];
+
+	static {
+		for (int i = 0; i < numbers.length; ++i) {
+			numbers[i] = Integer.toString(MIN_CACHED_IMMEDIATE + i);
+			immediates[i] = "=" + numbers[i];
+		}
+	}
+
 	/**
 	 * Writer object for outputting the instructions.
 	 */
 	private final Writer writer;
+	/**
+	 * Builder that assembles the output instructions to machine code or null
+	 * if the output is symbolic assembly code.
+	 */
+	private final ProgramBuilder builder;
+	/**
+	 * Number of instructions passed to the builder, used as line numbers in
+	 * its error messages.
+	 */
+	private int builderLines = 0;
 	/**
 	 * Label to add to the next instruction.
 	 */
 	private String label = "";
+	/**
+	 * True if instructions are buffered instead of written directly.
+	 */
+	private final boolean buffered;
+	/**
+	 * Peephole optimizer or null if not used.
+	 */
+	private final PeepholeOptimizer optimizer;
+	/**
+	 * Instructions waiting for optimization.
+	 */
+	private final List<Instruction> buffer = new ArrayList<Instruction>();
+	/**
+	 * Position in the buffer where the next instruction is inserted or -1 if
+	 * instructions are appended.
+	 */
+	private int insertPosition = -1;
+	/**
+	 * True if loops are optimized when registers are allocated.
+	 */
+	private boolean loopOptimization = false;
+	/**
+	 * Reusable buffer for formatting the output lines.
+	 */
+	private char[] line = new char[64];
 
 	/**
-	 * Constructs a new assembler object.
+	 * Constructs a new assembler object that writes instructions directly.
 	 *
 	 * @param writer Writer object that is used for instruction output.
 	 */
 	public Assembler(Writer writer)
 	{
 		this.writer = writer;
+		this.builder = null;
+		this.buffered = false;
+		this.optimizer = null;
 	}
 
 	/**
-	 * Emits an instruction with a single operand.
+	 * Constructs a new assembler object that buffers the instructions.
 	 *
-	 * @param instruction Mnemonic for the intruction.
-	 * @param operand First operand (usually register).
-	 * @throws IOException If thrown by writer.
+	 * @param writer Writer object that is used for instruction output.
+	 * @param optimizer Peephole optimizer or null for no optimization.
 	 */
-	public void emit(String instruction, String operand) throws IOException
+	public Assembler(Writer writer, PeepholeOptimizer optimizer)
 	{
-		writer.append(String.format("%-11s %-7s %s\n", label, instruction, operand));
-		label = "";
+		this(writer, optimizer, false);
+	}
+
+	/**
+	 * Constructs a new assembler object that buffers the instructions and
+	 * outputs either symbolic assembly code or machine code.
+	 *
+	 * @param writer Writer object that is used for the output.
+	 * @param optimizer Peephole optimizer or null for no optimization.
+	 * @param binary True to output machine code (.b91) when finish() is
+	 * called, false to write assembly code (.k91).
+	 */
+	public Assembler(Writer writer, PeepholeOptimizer optimizer, boolean binary)
+	{
+		this.writer = writer;
+		this.builder = binary ? new ProgramBuilder() : null;
+		this.buffered = true;
+		this.optimizer = optimizer;
+	}
+
+	/**
+	 * Emits an instruction whose only operand is a register, for example
+	 * "not R1" or "pushr sp".
+	 *
+	 * @param instruction mnemonic
+	 * @param operand the register
+	 * @throws IOException if writer throws
+	 */
+	public void emit(Mnemonic instruction, Register operand) throws IOException
+	{
+		add(instruction, operand.toString(), null);
+	}
+
+	/**
+	 * Emits an instruction with a single operand, for example "jump label".
+	 *
+	 * @param instruction mnemonic
+	 * @param operand the operand
+	 * @throws IOException if writer throws
+	 */
+	public void emit(Mnemonic instruction, String operand) throws IOException
+	{
+		add(instruction, operand, null);
+	}
+
+	/**
+	 * Emits a pseudo instruction with a numeric operand, for example "dc 5"
+	 * or "equ -2".
+	 *
+	 * @param instruction mnemonic
+	 * @param value the operand
+	 * @throws IOException if writer throws
+	 */
+	public void emit(Mnemonic instruction, int value) throws IOException
+	{
+		add(instruction, number(value), null);
 	}
 
 	/**
-	 * Emits an instruction with two operands.
+	 * Emits an instruction with a register as the second operand.
 	 *
-	 * @param instruction Mnemonic for the intruction.
-	 * @param operand1 First operand (usually register).
-	 * @param operand2 Second (register or memory operand).
-	 * @throws IOException If thrown by writer.
+	 * @param instruction mnemonic
+	 * @param operand1 first operand
+	 * @param operand2 second operand
+	 * @throws IOException if writer throws
 	 */
-	public void emit(String instruction, String operand1, String operand2)
+	public void emit(Mnemonic instruction, Register operand1, Register operand2)
 			throws IOException
 	{
-		writer.append(String.format("%-11s %-7s %s, %s\n", label, instruction, operand1, operand2));
-		label = "";
+		add(instruction, operand1.toString(), operand2.toString());
+	}
+
+	/**
+	 * Emits an instruction with a memory operand or a label as the second
+	 * operand, for example "load R1, x(fp)" or "jzer R1, label".
+	 *
+	 * @param instruction mnemonic
+	 * @param operand1 first operand
+	 * @param operand2 second operand
+	 * @throws IOException if writer throws
+	 */
+	public void emit(Mnemonic instruction, Register operand1, String operand2)
+			throws IOException
+	{
+		add(instruction, operand1.toString(), operand2);
+	}
+
+	/**
+	 * Emits an instruction with an immediate value as the second operand, for
+	 * example "add R1, =5".
+	 *
+	 * @param instruction mnemonic
+	 * @param operand1 first operand
+	 * @param value value of the immediate operand
+	 * @throws IOException if writer throws
+	 */
+	public void emit(Mnemonic instruction, Register operand1, int value) throws IOException
+	{
+		add(instruction, operand1.toString(), immediate(value));
+	}
+
+	/**
+	 * Emits an instruction with an indexed memory operand "address(index)"
+	 * as the second operand.
+	 *
+	 * @param instruction mnemonic
+	 * @param operand1 first operand
+	 * @param address constant part of the address
+	 * @param index index register
+	 * @throws IOException if writer throws
+	 */
+	public void emit(Mnemonic instruction, Register operand1, String address, Register index)
+			throws IOException
+	{
+		add(instruction, operand1.toString(), indexed(address, index));
+	}
+
+	/**
+	 * Returns the immediate operand "=value".
+	 *
+	 * @param value the value
+	 * @return the operand
+	 */
+	public static String immediate(int value)
+	{
+		int i = value - MIN_CACHED_IMMEDIATE;
+		if (i >= 0 && i < immediates.length)
+			return immediates[i];
+		return "=" + value;
+	}
+
+	/**
+	 * Returns the immediate operand "=symbol", whose value is the value of a
+	 * symbol, for example the address of a global variable.
+	 *
+	 * @param symbol the symbol
+	 * @return the operand
+	 */
+	public static String immediate(String symbol)
+	{
+		return "=" + symbol;
+	}
+
+	/**
+	 * Returns the decimal representation of a value.
+	 *
+	 * @param value the value
+	 * @return the string
+	 */
+	private static String number(int value)
+	{
+		int i = value - MIN_CACHED_IMMEDIATE;
+		if (i >= 0 && i < numbers.length)
+			return numbers[i];
+		return Integer.toString(value);
+	}
+
+	/**
+	 * Returns the indexed memory operand "address(index)". The intermediate
+	 * code operands are strings, so this allocates the operand.
+	 *
+	 * @param address constant part of the address
+	 * @param index index register
+	 * @return the operand
+	 */
+	public static String indexed(String address, Register index)
+	{
+		return address + "(" + index + ")";
 	}
 
 	/**
@@ -65,10 +285,43 @@ public class Assembler
 	 */
 	public void addEmptyLines(int n) throws IOException
 	{
+		flush();
+		if (builder != null)
+			return;
 		for (int i = 0; i < n; ++i)
 			writer.append('\n');
 	}
 
+	/**
+	 * Starts inserting the emitted instructions in the middle of the buffered
+	 * instructions instead of appending them. This allows generating code
+	 * whose contents depend on the code that follows it, such as a function
+	 * prologue, after the following code.
+	 *
+	 * @param position index of the buffered instruction before which the
+	 * instructions are inserted
+	 */
+	public void beginInsert(int position)
+	{
+		if (!buffered)
+			throw new InternalCompilerException("Inserting instructions requires buffering.");
+		insertPosition = position;
+	}
+
+	/**
+	 * Stops inserting instructions started by beginInsert(). Emits a "nop"
+	 * instruction if there is a label without a corresponding instruction,
+	 * because the instruction that follows may already have a label.
+	 *
+	 * @throws IOException if writer throws
+	 */
+	public void endInsert() throws IOException
+	{
+		if (!this.label.isEmpty())
+			emit(Mnemonic.NOP, "");
+		insertPosition = -1;
+	}
+
 	/**
 	 * Adds a label for the next instruction.
 	 *
@@ -78,24 +331,67 @@ public class Assembler
 	public void addLabel(String label) throws IOException
 	{
 		if (!this.label.isEmpty())
-			emit("nop", "");
+			emit(Mnemonic.NOP, "");
 		this.label = label;
 	}
 
 	/**
 	 * Emits a "nop" instruction in the end if there is a label without a
-	 * corresponding instruction.
+	 * corresponding instruction, and flushes the buffer. In binary mode,
+	 * writes the assembled program.
 	 *
 	 * @throws IOException if writer throws
 	 */
 	public void finish() throws IOException
 	{
 		if (!this.label.isEmpty())
-			emit("nop", "");
+			emit(Mnemonic.NOP, "");
+		flush();
+		if (builder != null) {
+			try {
+				builder.build().writeBinary(writer);
+			} catch (AssemblerException e) {
+				throw new InternalCompilerException("Assembling failed: " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Maps the virtual registers in the buffered instructions to physical
+	 * registers. Builds a control flow graph of the buffered code and runs the
+	 * register allocator on it.
+	 *
+	 * @param allocator register allocator to use
+	 */
+	public void allocateRegisters(RegisterAllocator allocator)
+	{
+		if (!buffered)
+			throw new InternalCompilerException("Register allocation requires buffering.");
+		List<Instruction> allocated = allocator.allocate(new ControlFlowGraph(buffer));
+		buffer.clear();
+		buffer.addAll(allocated);
+	}
+
+	/**
+	 * Optimizes and writes all buffered instructions. Must be called before
+	 * writing directly to the writer returned by getWriter().
+	 *
+	 * @throws IOException if writer throws
+	 */
+	public void flush() throws IOException
+	{
+		if (buffer.isEmpty())
+			return;
+		if (optimizer != null)
+			optimizer.optimize(buffer);
+		for (Instruction instr : buffer)
+			write(instr);
+		buffer.clear();
 	}
 
 	/**
-	 * Returns the writer object for this Assembler.
+	 * Returns the writer object for this Assembler. Buffered instructions are
+	 * not written until flush() is called.
 	 *
 	 * @return the writer
 	 */
@@ -103,4 +399,65 @@ public class Assembler
 	{
 		return writer;
 	}
+
+	/**
+	 * Returns the peephole optimizer used by this Assembler.
+	 *
+	 * @return the optimizer or null if optimization is disabled
+	 */
+	public PeepholeOptimizer getOptimizer()
+	{
+		return optimizer;
+	}
+
+	/**
+	 * Enables or disables loop optimization for the code compiled with this
+	 * Assembler. Functions pass the setting to their register allocator.
+	 *
+	 * @param loopOptimization true to enable loop optimization
+	 */
+	public void setLoopOptimization(boolean loopOptimization)
+	{
+		this.loopOptimization = loopOptimization;
+	}
+
+	/**
+	 * Returns whether loop optimization is enabled.
+	 *
+	 * @return true if enabled
+	 */
+	public boolean isLoopOptimizationEnabled()
+	{
+		return loopOptimization;
+	}
+
+	private void add(Mnemonic instruction, String operand1, String operand2)
+			throws IOException
+	{
+		add(new Instruction(label, instruction, operand1, operand2));
+	}
+
+	private void add(Instruction instr) throws IOException
+	{
+		label = "";
+		if (insertPosition >= 0)
+			buffer.add(insertPosition++, instr);
+		else if (buffered)
+			buffer.add(instr);
+		else
+			write(instr);
+	}
+
+	private void write(Instruction instr) throws IOException
+	{
+		if (builder != null) {
+			builder.add(++builderLines, instr.getLabel(), instr.getMnemonic(),
+					instr.getOperand1(), instr.getOperand2());
+			return;
+		}
+		int length = instr.getFormattedLength();
+		if (length > line.length)
+			line = new char[Math.max(length, 2 * line.length)];
+		writer.write(line, 0, instr.format(line));
+	}
 }
@@ -0,0 +1,111 @@
+package titocc.compiler;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * A basic block of the intermediate code: a sequence of instructions that can
+ * only be entered through the first instruction and left after the last one.
+ * Successors and predecessors are filled in by ControlFlowGraph.
+ */
+public class BasicBlock
+{
+	/**
+	 * Instructions in the block.
+	 */
+	private final List<Instruction> instructions = new ArrayList<Instruction>();
+	/**
+	 * Blocks that control can flow to from this block.
+	 */
+	private final List<BasicBlock> successors = new ArrayList<BasicBlock>(2);
+	/**
+	 * Blocks that control can flow from to this block.
+	 */
+	private final List<BasicBlock> predecessors = new ArrayList<BasicBlock>(2);
+	/**
+	 * Virtual registers that are live at the start of the block.
+	 */
+	private final BitSet liveIn = new BitSet();
+	/**
+	 * Virtual registers that are live at the end of the block.
+	 */
+	private final BitSet liveOut = new BitSet();
+
+	/**
+	 * Returns the instructions in the block. The list can be modified.
+	 *
+	 * @return list of instructions
+	 */
+	public List<Instruction> getInstructions()
+	{
+		return instructions;
+	}
+
+	/**
+	 * Returns the label of the first instruction.
+	 *
+	 * @return the label or empty string if the block has no label
+	 */
+	public String getLabel()
+	{
+		return instructions.isEmpty() ? "" : instructions.get(0).getLabel();
+	}
+
+	/**
+	 * Returns the last instruction that generates code.
+	 *
+	 * @return the last instruction or null if there are only pseudo
+	 * instructions
+	 */
+	public Instruction getLastInstruction()
+	{
+		for (int i = instructions.size() - 1; i >= 0; --i) {
+			if (!instructions.get(i).isPseudo())
+				return instructions.get(i);
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the successor blocks.
+	 *
+	 * @return list of successors
+	 */
+	public List<BasicBlock> getSuccessors()
+	{
+		return successors;
+	}
+
+	/**
+	 * Returns the predecessor blocks.
+	 *
+	 * @return list of predecessors
+	 */
+	public List<BasicBlock> getPredecessors()
+	{
+		return predecessors;
+	}
+
+	/**
+	 * Returns the virtual registers that are live at the start of the block.
+	 * Valid after ControlFlowGraph.computeLiveness().
+	 *
+	 * @return set of virtual register numbers
+	 */
+	public BitSet getLiveIn()
+	{
+		return liveIn;
+	}
+
+	/**
+	 * Returns the virtual registers that are live at the end of the block.
+	 * Valid after ControlFlowGraph.computeLiveness().
+	 *
+	 * @return set of virtual register numbers
+	 */
+	public BitSet getLiveOut()
+	{
+		return liveOut;
+	}
+}
@@ -0,0 +1,265 @@
+package titocc.compiler;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import titocc.compiler.elements.AssignmentExpression;
+import titocc.compiler.elements.BinaryExpression;
+import titocc.compiler.elements.BlockStatement;
+import titocc.compiler.elements.Declaration;
+import titocc.compiler.elements.DeclarationStatement;
+import titocc.compiler.elements.Expression;
+import titocc.compiler.elements.ExpressionStatement;
+import titocc.compiler.elements.Function;
+import titocc.compiler.elements.FunctionCallExpression;
+import titocc.compiler.elements.IdentifierExpression;
+import titocc.compiler.elements.IfStatement;
+import titocc.compiler.elements.IntrinsicCallExpression;
+import titocc.compiler.elements.PostfixExpression;
+import titocc.compiler.elements.PrefixExpression;
+import titocc.compiler.elements.ReturnStatement;
+import titocc.compiler.elements.Statement;
+import titocc.compiler.elements.SubscriptExpression;
+import titocc.compiler.elements.TranslationUnit;
+import titocc.compiler.elements.WhileStatement;
+
+/**
+ * Call graph of a translation unit. Built from the syntax tree before the
+ * translation unit is compiled. Functions can only be called by name, so the
+ * calls are found by the identifiers of the function call expressions.
+ *
+ * <p> The same traversal of the function bodies also collects the size of
+ * each function and whether it declares local variables, which are used for
+ * selecting the functions to inline.
+ */
+public class CallGraph
+{
+	/**
+	 * Information collected from the body of a function.
+	 */
+	private static class FunctionInfo
+	{
+		/**
+		 * Names of the called functions.
+		 */
+		public final Set<String> calleeNames = new LinkedHashSet<String>();
+		/**
+		 * Called functions.
+		 */
+		public final Set<Function> callees = new LinkedHashSet<Function>();
+		/**
+		 * Number of statements and expressions.
+		 */
+		public int size = 0;
+		/**
+		 * True if the body declares local variables.
+		 */
+		public boolean declaresVariables = false;
+	}
+	/**
+	 * Functions in declaration order.
+	 */
+	private final List<Function> functions = new ArrayList<Function>();
+	/**
+	 * Information about each function.
+	 */
+	private final Map<Function, FunctionInfo> infos = new HashMap<Function, FunctionInfo>();
+
+	/**
+	 * Constructs the call graph of a translation unit.
+	 *
+	 * @param translationUnit the translation unit
+	 */
+	public CallGraph(TranslationUnit translationUnit)
+	{
+		Map<String, Function> functionsByName = new HashMap<String, Function>();
+		for (Declaration decl : translationUnit.getDeclarations()) {
+			if (decl instanceof Function) {
+				Function func = (Function) decl;
+				FunctionInfo info = new FunctionInfo();
+				visit(func.getBody(), info);
+				functions.add(func);
+				functionsByName.put(func.getName(), func);
+				infos.put(func, info);
+			}
+		}
+
+		for (FunctionInfo info : infos.values()) {
+			for (String name : info.calleeNames) {
+				if (functionsByName.containsKey(name))
+					info.callees.add(functionsByName.get(name));
+			}
+		}
+	}
+
+	/**
+	 * Returns the functions in declaration order.
+	 *
+	 * @return list of functions
+	 */
+	public List<Function> getFunctions()
+	{
+		return functions;
+	}
+
+	/**
+	 * Returns the function with given name.
+	 *
+	 * @param name name of the function
+	 * @return the function or null if not found
+	 */
+	public Function getFunction(String name)
+	{
+		for (Function func : functions) {
+			if (func.getName().equals(name))
+				return func;
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the functions called by a function.
+	 *
+	 * @param function the calling function
+	 * @return set of called functions
+	 */
+	public Set<Function> getCallees(Function function)
+	{
+		return infos.get(function).callees;
+	}
+
+	/**
+	 * Returns the number of statements and expressions in the function body.
+	 *
+	 * @param function the function
+	 * @return size of the function
+	 */
+	public int getSize(Function function)
+	{
+		return infos.get(function).size;
+	}
+
+	/**
+	 * Returns whether the function body declares local variables.
+	 *
+	 * @param function the function
+	 * @return true if there are local variable declarations
+	 */
+	public boolean declaresVariables(Function function)
+	{
+		return infos.get(function).declaresVariables;
+	}
+
+	/**
+	 * Returns whether a function can call itself directly or through other
+	 * functions.
+	 *
+	 * @param function the function
+	 * @return true if recursive
+	 */
+	public boolean isRecursive(Function function)
+	{
+		Set<Function> visited = new HashSet<Function>();
+		Deque<Function> stack = new ArrayDeque<Function>(getCallees(function));
+		while (!stack.isEmpty()) {
+			Function func = stack.pop();
+			if (func == function)
+				return true;
+			if (visited.add(func))
+				stack.addAll(getCallees(func));
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the functions that are called from the root function directly
+	 * or indirectly, including the root. Inlined functions are not included
+	 * because they are never called, but the functions they call are.
+	 *
+	 * @param root the root function
+	 * @return set of called functions
+	 */
+	public Set<Function> getCalledFunctions(Function root)
+	{
+		Set<Function> called = new LinkedHashSet<Function>();
+		Set<Function> visited = new HashSet<Function>();
+		Deque<Function> stack = new ArrayDeque<Function>();
+		called.add(root);
+		visited.add(root);
+		stack.push(root);
+		while (!stack.isEmpty()) {
+			for (Function callee : getCallees(stack.pop())) {
+				if (visited.add(callee)) {
+					if (!callee.isInlined())
+						called.add(callee);
+					stack.push(callee);
+				}
+			}
+		}
+		return called;
+	}
+
+	private static void visit(Statement statement, FunctionInfo info)
+	{
+		if (statement == null)
+			return;
+		++info.size;
+		if (statement instanceof BlockStatement) {
+			for (Statement st : ((BlockStatement) statement).getStatements())
+				visit(st, info);
+		} else if (statement instanceof ExpressionStatement) {
+			visit(((ExpressionStatement) statement).expression(), info);
+		} else if (statement instanceof DeclarationStatement) {
+			info.declaresVariables = true;
+			visit(((DeclarationStatement) statement).getDeclaration().getInitializer(), info);
+		} else if (statement instanceof IfStatement) {
+			IfStatement ifStatement = (IfStatement) statement;
+			visit(ifStatement.getTest(), info);
+			visit(ifStatement.getTrueStatement(), info);
+			visit(ifStatement.getElseStatement(), info);
+		} else if (statement instanceof WhileStatement) {
+			visit(((WhileStatement) statement).getTest(), info);
+			visit(((WhileStatement) statement).getStatement(), info);
+		} else if (statement instanceof ReturnStatement) {
+			visit(((ReturnStatement) statement).getExpression(), info);
+		}
+	}
+
+	private static void visit(Expression expression, FunctionInfo info)
+	{
+		if (expression == null)
+			return;
+		++info.size;
+		if (expression instanceof AssignmentExpression) {
+			visit(((AssignmentExpression) expression).getLeft(), info);
+			visit(((AssignmentExpression) expression).getRight(), info);
+		} else if (expression instanceof BinaryExpression) {
+			visit(((BinaryExpression) expression).getLeft(), info);
+			visit(((BinaryExpression) expression).getRight(), info);
+		} else if (expression instanceof PrefixExpression) {
+			visit(((PrefixExpression) expression).getOperand(), info);
+		} else if (expression instanceof PostfixExpression) {
+			visit(((PostfixExpression) expression).getOperand(), info);
+		} else if (expression instanceof SubscriptExpression) {
+			visit(((SubscriptExpression) expression).getArray(), info);
+			visit(((SubscriptExpression) expression).getSubscript(), info);
+		} else if (expression instanceof FunctionCallExpression) {
+			FunctionCallExpression call = (FunctionCallExpression) expression;
+			if (call.getFunction() instanceof IdentifierExpression)
+				info.calleeNames.add(((IdentifierExpression) call.getFunction()).getIdentifier());
+			else
+				visit(call.getFunction(), info);
+			for (Expression arg : call.getArgumentList().getArguments())
+				visit(arg, info);
+		} else if (expression instanceof IntrinsicCallExpression) {
+			for (Expression arg : ((IntrinsicCallExpression) expression).getArgumentList().getArguments())
+				visit(arg, info);
+		}
+	}
+}
@@ -3,6 +3,8 @@ package titocc.compiler;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.Writer;
+import java.util.Set;
+import titocc.compiler.elements.Function;
 import titocc.compiler.elements.TranslationUnit;
 import titocc.tokenizer.SyntaxException;
 import titocc.tokenizer.Tokenizer;
@@ -30,6 +32,26 @@ public class Compiler
 	 * Input TranslationUnit or null if input reader was used instead.
 	 */
 	private TranslationUnit translationUnit;
+	/**
+	 * True if the source should be parsed in packrat mode.
+	 */
+	private boolean packratParsing = false;
+	/**
+	 * Peephole optimizer for the output or null if not used.
+	 */
+	private PeepholeOptimizer optimizer = null;
+	/**
+	 * Inliner for function calls or null if not used.
+	 */
+	private Inliner inliner = null;
+	/**
+	 * True if loops are optimized.
+	 */
+	private boolean loopOptimization = false;
+	/**
+	 * True if the output is machine code (.b91) instead of assembly code.
+	 */
+	private boolean binaryOutput = false;
 
 	/**
 	 * Constructs a compiler object that takes a C source file as input.
@@ -53,6 +75,65 @@ public class Compiler
 		this.translationUnit = translationUnit;
 	}
 
+	/**
+	 * Enables or disables packrat parsing (see Parser.parse(Tokenizer,
+	 * boolean)). Has no effect if the compiler was constructed from a
+	 * TranslationUnit. Disabled by default.
+	 *
+	 * @param packratParsing true to enable packrat parsing
+	 */
+	public void setPackratParsing(boolean packratParsing)
+	{
+		this.packratParsing = packratParsing;
+	}
+
+	/**
+	 * Sets the peephole optimizer that is applied to the generated code. The
+	 * optimizer collects rule hit counts, so the same object can be queried
+	 * after compilation. Disabled (null) by default.
+	 *
+	 * @param optimizer peephole optimizer or null to disable optimization
+	 */
+	public void setPeepholeOptimizer(PeepholeOptimizer optimizer)
+	{
+		this.optimizer = optimizer;
+	}
+
+	/**
+	 * Sets the inliner that selects the functions whose calls are replaced
+	 * with the function body. Disabled (null) by default.
+	 *
+	 * @param inliner inliner or null to disable inlining
+	 */
+	public void setInliner(Inliner inliner)
+	{
+		this.inliner = inliner;
+	}
+
+	/**
+	 * Enables or disables loop-invariant code motion and induction variable
+	 * optimization (see LoopOptimizer). Disabled by default.
+	 *
+	 * @param loopOptimization true to enable loop optimization
+	 */
+	public void setLoopOptimization(boolean loopOptimization)
+	{
+		this.loopOptimization = loopOptimization;
+	}
+
+	/**
+	 * Selects the output format. By default the output is symbolic assembly
+	 * code (.k91). In binary mode the labels, constants and data areas are
+	 * resolved by the compiler and the output is a .b91 load module that
+	 * Titokone and the simulator can load without assembling.
+	 *
+	 * @param binaryOutput true for .b91 output, false for .k91 output
+	 */
+	public void setBinaryOutput(boolean binaryOutput)
+	{
+		this.binaryOutput = binaryOutput;
+	}
+
 	/**
 	 * Compiles the translation unit.
 	 *
@@ -64,9 +145,14 @@ public class Compiler
 	{
 		if (translationUnit == null)
 			tokenizeAndParse();
+		CallGraph callGraph = new CallGraph(translationUnit);
+		if (inliner != null)
+			inliner.analyze(callGraph);
+		removeUncalledFunctions(callGraph);
 		Scope scope = new Scope(null, "");
 		reserveNames(scope);
-		Assembler asm = new Assembler(writer);
+		Assembler asm = new Assembler(writer, optimizer, binaryOutput);
+		asm.setLoopOptimization(loopOptimization);
 		translationUnit.compile(asm, scope, new Registers());
 		asm.finish();
 	}
@@ -80,7 +166,23 @@ public class Compiler
 	private void tokenizeAndParse() throws IOException, SyntaxException
 	{
 		Tokenizer tokenizer = new Tokenizer(reader);
-		translationUnit = Parser.parse(tokenizer.tokenize());
+		translationUnit = Parser.parse(tokenizer, packratParsing);
+	}
+
+	/**
+	 * Marks the functions that are never called from main, so that no code is
+	 * generated for them. Inlined functions are never called.
+	 *
+	 * @param callGraph call graph of the translation unit
+	 */
+	private void removeUncalledFunctions(CallGraph callGraph)
+	{
+		Function main = callGraph.getFunction("main");
+		if (main == null)
+			return;
+		Set<Function> called = callGraph.getCalledFunctions(main);
+		for (Function func : callGraph.getFunctions())
+			func.setUsed(called.contains(func));
 	}
 
 	/**
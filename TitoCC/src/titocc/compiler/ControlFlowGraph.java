@@ -0,0 +1,156 @@
+package titocc.compiler;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Control flow graph of the intermediate code of a function. Splits a linear
+ * list of instructions into basic blocks and connects them according to the
+ * explicit jumps and labels. The blocks are kept in the original order, so that
+ * the linear code can be reconstructed with getInstructions().
+ *
+ * <p> Jumps to labels that are not in the graph (e.g. the function epilogue)
+ * are treated as exits from the graph.
+ */
+public class ControlFlowGraph
+{
+	/**
+	 * Basic blocks in program order. The first one is the entry block.
+	 */
+	private final List<BasicBlock> blocks = new ArrayList<BasicBlock>();
+
+	/**
+	 * Constructs a control flow graph from a list of instructions.
+	 *
+	 * @param instructions instructions in program order
+	 */
+	public ControlFlowGraph(List<Instruction> instructions)
+	{
+		splitBlocks(instructions);
+		connectBlocks();
+	}
+
+	/**
+	 * Returns the basic blocks in program order.
+	 *
+	 * @return list of blocks
+	 */
+	public List<BasicBlock> getBlocks()
+	{
+		return blocks;
+	}
+
+	/**
+	 * Returns the instructions of all blocks in program order.
+	 *
+	 * @return list of instructions
+	 */
+	public List<Instruction> getInstructions()
+	{
+		List<Instruction> instructions = new ArrayList<Instruction>();
+		for (BasicBlock block : blocks)
+			instructions.addAll(block.getInstructions());
+		return instructions;
+	}
+
+	/**
+	 * Computes the live virtual registers at the start and end of each block
+	 * using iterative backwards data flow analysis.
+	 */
+	public void computeLiveness()
+	{
+		int n = blocks.size();
+		BitSet[] uses = new BitSet[n];
+		BitSet[] defs = new BitSet[n];
+		for (int i = 0; i < n; ++i) {
+			uses[i] = new BitSet();
+			defs[i] = new BitSet();
+			for (Instruction instr : blocks.get(i).getInstructions()) {
+				for (int use : instr.getVirtualUses()) {
+					if (!defs[i].get(use))
+						uses[i].set(use);
+				}
+				int def = instr.getVirtualDef();
+				if (def >= 0)
+					defs[i].set(def);
+			}
+			blocks.get(i).getLiveIn().clear();
+			blocks.get(i).getLiveOut().clear();
+		}
+
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (int i = n - 1; i >= 0; --i) {
+				BasicBlock block = blocks.get(i);
+				BitSet out = new BitSet();
+				for (BasicBlock succ : block.getSuccessors())
+					out.or(succ.getLiveIn());
+				BitSet in = (BitSet) out.clone();
+				in.andNot(defs[i]);
+				in.or(uses[i]);
+				if (!in.equals(block.getLiveIn()) || !out.equals(block.getLiveOut())) {
+					block.getLiveIn().clear();
+					block.getLiveIn().or(in);
+					block.getLiveOut().clear();
+					block.getLiveOut().or(out);
+					changed = true;
+				}
+			}
+		}
+	}
+
+	private void splitBlocks(List<Instruction> instructions)
+	{
+		BasicBlock current = new BasicBlock();
+		boolean endOfBlock = false;
+		for (Instruction instr : instructions) {
+			// Labeled instructions can be jump targets so they start a new
+			// block. Labels of pseudo instructions are data and not code.
+			if (!instr.isPseudo() && (endOfBlock || instr.hasLabel())
+					&& !current.getInstructions().isEmpty()) {
+				blocks.add(current);
+				current = new BasicBlock();
+			}
+			current.getInstructions().add(instr);
+			if (!instr.isPseudo())
+				endOfBlock = instr.isJump() || !instr.fallsThrough();
+		}
+		if (!current.getInstructions().isEmpty() || blocks.isEmpty())
+			blocks.add(current);
+	}
+
+	private void connectBlocks()
+	{
+		Map<String, BasicBlock> labels = new HashMap<String, BasicBlock>();
+		for (BasicBlock block : blocks) {
+			for (Instruction instr : block.getInstructions()) {
+				if (instr.hasLabel() && !instr.isPseudo())
+					labels.put(instr.getLabel(), block);
+			}
+		}
+
+		for (int i = 0; i < blocks.size(); ++i) {
+			BasicBlock block = blocks.get(i);
+			Instruction last = block.getLastInstruction();
+			if (last != null && last.isJump()) {
+				BasicBlock target = labels.get(last.getLastOperand());
+				if (target != null)
+					addEdge(block, target);
+			}
+			if ((last == null || last.fallsThrough()) && i + 1 < blocks.size())
+				addEdge(block, blocks.get(i + 1));
+		}
+	}
+
+	private static void addEdge(BasicBlock from, BasicBlock to)
+	{
+		if (!from.getSuccessors().contains(to)) {
+			from.getSuccessors().add(to);
+			to.getPredecessors().add(from);
+		}
+	}
+}
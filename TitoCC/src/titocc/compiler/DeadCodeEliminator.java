@@ -0,0 +1,127 @@
+package titocc.compiler;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Removes code that has no effect from the intermediate code of a function.
+ * Basic blocks that can't be reached from the entry block are removed, which
+ * covers code after return statements and statements with constant false
+ * tests. Instructions that only compute a value to a virtual register that is
+ * never used are also removed. After the local variables have been promoted
+ * to virtual registers, this includes the stores to variables that are never
+ * read.
+ */
+public class DeadCodeEliminator
+{
+	/**
+	 * Instructions that have no effect other than writing their first
+	 * operand.
+	 */
+	private static final Set<String> pureInstructions = new HashSet<String>(
+			Arrays.asList("load", "add", "sub", "mul", "div", "mod", "and", "or", "xor",
+			"shl", "shr", "shra", "not"));
+
+	/**
+	 * Removes the basic blocks that are not reachable from the entry block.
+	 * Pseudo instructions in the removed blocks are kept, because they define
+	 * data and not code.
+	 *
+	 * @param cfg control flow graph of the function
+	 * @return instructions of the reachable blocks
+	 */
+	public List<Instruction> removeUnreachableBlocks(ControlFlowGraph cfg)
+	{
+		List<BasicBlock> blocks = cfg.getBlocks();
+		Set<BasicBlock> reachable = new HashSet<BasicBlock>();
+		Deque<BasicBlock> stack = new ArrayDeque<BasicBlock>();
+		reachable.add(blocks.get(0));
+		stack.push(blocks.get(0));
+		while (!stack.isEmpty()) {
+			for (BasicBlock succ : stack.pop().getSuccessors()) {
+				if (reachable.add(succ))
+					stack.push(succ);
+			}
+		}
+
+		List<Instruction> code = new ArrayList<Instruction>();
+		for (BasicBlock block : blocks) {
+			for (Instruction instr : block.getInstructions()) {
+				if (reachable.contains(block) || instr.isPseudo())
+					code.add(instr);
+			}
+		}
+		return code;
+	}
+
+	/**
+	 * Removes instructions that write a virtual register whose value is never
+	 * used and have no other effects. Repeated until nothing changes, because
+	 * removing an instruction can make the instructions computing its operands
+	 * dead too.
+	 *
+	 * @param code instructions of the function
+	 * @return instructions without the dead definitions
+	 */
+	public List<Instruction> removeDeadDefinitions(List<Instruction> code)
+	{
+		boolean changed = true;
+		while (changed) {
+			ControlFlowGraph cfg = new ControlFlowGraph(code);
+			cfg.computeLiveness();
+			changed = false;
+			code = new ArrayList<Instruction>();
+			for (BasicBlock block : cfg.getBlocks()) {
+				List<Instruction> instructions = block.getInstructions();
+				boolean[] dead = findDeadDefinitions(block);
+				for (int i = 0; i < instructions.size(); ++i) {
+					Instruction instr = instructions.get(i);
+					// findDeadDefinitions() checked that the label can be moved.
+					if (dead[i] && instr.hasLabel())
+						instructions.get(i + 1).setLabel(instr.getLabel());
+					if (dead[i])
+						changed = true;
+					else
+						code.add(instr);
+				}
+			}
+		}
+		return code;
+	}
+
+	private static boolean[] findDeadDefinitions(BasicBlock block)
+	{
+		List<Instruction> instructions = block.getInstructions();
+		boolean[] dead = new boolean[instructions.size()];
+		BitSet live = (BitSet) block.getLiveOut().clone();
+		// A dead instruction with a label is only removed if the label can be
+		// moved to the next kept instruction in the block. Otherwise it is kept
+		// and its operands stay live. labelCanMove tells whether a label can
+		// be moved to the instruction after the current one.
+		boolean labelCanMove = false;
+		for (int i = instructions.size() - 1; i >= 0; --i) {
+			Instruction instr = instructions.get(i);
+			boolean canMove = labelCanMove;
+			labelCanMove = !instr.hasLabel() && !instr.isPseudo();
+			int def = instr.getVirtualDef();
+			if (def >= 0 && !live.get(def) && pureInstructions.contains(instr.getMnemonic())
+					&& (!instr.hasLabel() || canMove)) {
+				dead[i] = true;
+				// A label moved here from the previous instruction moves on.
+				labelCanMove = !instr.hasLabel() && canMove;
+				continue;
+			}
+			if (def >= 0)
+				live.clear(def);
+			for (int use : instr.getVirtualUses())
+				live.set(use);
+		}
+		return dead;
+	}
+}
@@ -0,0 +1,77 @@
+package titocc.compiler;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+import titocc.compiler.elements.Function;
+
+/**
+ * Selects the functions whose calls are replaced with the function body.
+ * Uses the call graph of the translation unit to mark the functions that are
+ * small enough and not recursive.
+ *
+ * <p> The size of a function is the number of statements and expressions in
+ * its body. Functions that declare local variables are never inlined, because
+ * the declarations are themselves the symbols of the variables and can't be
+ * compiled more than once in the same function.
+ */
+public class Inliner
+{
+	/**
+	 * Default maximum size of inlined functions.
+	 */
+	public static final int DEFAULT_MAX_SIZE = 16;
+	/**
+	 * Maximum size of inlined functions.
+	 */
+	private final int maxSize;
+	/**
+	 * Functions that were marked as inlined.
+	 */
+	private final Set<Function> inlinedFunctions = new LinkedHashSet<Function>();
+
+	/**
+	 * Constructs an Inliner with the default maximum size.
+	 */
+	public Inliner()
+	{
+		this(DEFAULT_MAX_SIZE);
+	}
+
+	/**
+	 * Constructs an Inliner.
+	 *
+	 * @param maxSize maximum number of statements and expressions in the body
+	 * of an inlined function
+	 */
+	public Inliner(int maxSize)
+	{
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Marks the functions that are inlined.
+	 *
+	 * @param callGraph call graph of the translation unit
+	 */
+	public void analyze(CallGraph callGraph)
+	{
+		inlinedFunctions.clear();
+		for (Function func : callGraph.getFunctions()) {
+			boolean inlined = callGraph.getSize(func) <= maxSize
+					&& !callGraph.declaresVariables(func) && !callGraph.isRecursive(func);
+			func.setInlined(inlined);
+			if (inlined)
+				inlinedFunctions.add(func);
+		}
+	}
+
+	/**
+	 * Returns the functions that were marked as inlined by analyze().
+	 *
+	 * @return set of functions
+	 */
+	public Set<Function> getInlinedFunctions()
+	{
+		return inlinedFunctions;
+	}
+}
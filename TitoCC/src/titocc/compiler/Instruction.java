@@ -0,0 +1,428 @@
+package titocc.compiler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A single assembly language instruction (or pseudo instruction) with an
+ * optional label. Used by Assembler to buffer instructions so that they can be
+ * optimized before being written out.
+ *
+ * <p> Instructions are also the intermediate representation of the compiler:
+ * operands may refer to virtual registers, which are replaced with physical
+ * registers by RegisterAllocator. The methods for querying control flow and
+ * register usage know the semantics of the ttk-91 instructions the compiler
+ * generates.
+ */
+public class Instruction
+{
+	/**
+	 * Minimum widths of the label and mnemonic columns in the assembly code.
+	 */
+	private static final int LABEL_WIDTH = 11, MNEMONIC_WIDTH = 7;
+	/**
+	 * Pattern that matches virtual register names in operands.
+	 */
+	private static final Pattern virtualRegisterPattern =
+			Pattern.compile(Pattern.quote("" + Register.VIRTUAL_PREFIX) + "(\\d+)");
+	/**
+	 * Pseudo instructions that do not generate code.
+	 */
+	private static final Set<String> pseudoInstructions = new HashSet<String>(
+			Arrays.asList("dc", "ds", "equ"));
+	/**
+	 * Instructions that write their first operand.
+	 */
+	private static final Set<String> firstOperandWriters = new HashSet<String>(
+			Arrays.asList("load", "in", "add", "sub", "mul", "div", "mod", "and", "or",
+			"xor", "shl", "shr", "shra", "not"));
+	/**
+	 * Instructions that write their first operand without reading it.
+	 */
+	private static final Set<String> firstOperandOverwriters = new HashSet<String>(
+			Arrays.asList("load", "in"));
+	/**
+	 * Conditional jumps that test the state register. Their first operand is
+	 * not used.
+	 */
+	private static final Set<String> stateJumps = new HashSet<String>(
+			Arrays.asList("jequ", "jnequ", "jles", "jnles", "jgre", "jngre"));
+	/**
+	 * Label of the instruction or empty string if none.
+	 */
+	private String label;
+	/**
+	 * Mnemonic of the instruction.
+	 */
+	private final String mnemonic;
+	/**
+	 * First operand.
+	 */
+	private final String operand1;
+	/**
+	 * Second operand or null if the instruction has only one operand.
+	 */
+	private final String operand2;
+
+	/**
+	 * Constructs an Instruction.
+	 *
+	 * @param label label of the instruction; empty string for no label
+	 * @param mnemonic mnemonic of the instruction
+	 * @param operand1 first operand
+	 * @param operand2 second operand or null if there is only one operand
+	 */
+	public Instruction(String label, String mnemonic, String operand1, String operand2)
+	{
+		this.label = label;
+		this.mnemonic = mnemonic;
+		this.operand1 = operand1;
+		this.operand2 = operand2;
+	}
+
+	/**
+	 * Constructs an Instruction.
+	 *
+	 * @param label label of the instruction; empty string for no label
+	 * @param mnemonic mnemonic of the instruction
+	 * @param operand1 first operand
+	 * @param operand2 second operand or null if there is only one operand
+	 */
+	public Instruction(String label, Mnemonic mnemonic, String operand1, String operand2)
+	{
+		this(label, mnemonic.toString(), operand1, operand2);
+	}
+
+	/**
+	 * Returns the label.
+	 *
+	 * @return the label or empty string if the instruction has no label
+	 */
+	public String getLabel()
+	{
+		return label;
+	}
+
+	/**
+	 * Sets the label.
+	 *
+	 * @param label new label; empty string for no label
+	 */
+	public void setLabel(String label)
+	{
+		this.label = label;
+	}
+
+	/**
+	 * Returns whether the instruction has a label.
+	 *
+	 * @return true if labeled
+	 */
+	public boolean hasLabel()
+	{
+		return !label.isEmpty();
+	}
+
+	/**
+	 * Returns the mnemonic.
+	 *
+	 * @return the mnemonic
+	 */
+	public String getMnemonic()
+	{
+		return mnemonic;
+	}
+
+	/**
+	 * Returns the first operand.
+	 *
+	 * @return the first operand
+	 */
+	public String getOperand1()
+	{
+		return operand1;
+	}
+
+	/**
+	 * Returns the second operand.
+	 *
+	 * @return the second operand or null if the instruction has only one
+	 * operand
+	 */
+	public String getOperand2()
+	{
+		return operand2;
+	}
+
+	/**
+	 * Returns the last operand, which is the jump target for jump
+	 * instructions.
+	 *
+	 * @return the last operand
+	 */
+	public String getLastOperand()
+	{
+		return operand2 != null ? operand2 : operand1;
+	}
+
+	/**
+	 * Returns whether this is a pseudo instruction (dc, ds, equ) that does not
+	 * generate code.
+	 *
+	 * @return true if pseudo instruction
+	 */
+	public boolean isPseudo()
+	{
+		return pseudoInstructions.contains(mnemonic);
+	}
+
+	/**
+	 * Returns whether the instruction is a jump (conditional or
+	 * unconditional). The jump target is the last operand.
+	 *
+	 * @return true if jump
+	 */
+	public boolean isJump()
+	{
+		return mnemonic.startsWith("j");
+	}
+
+	/**
+	 * Returns whether the execution can continue to the next instruction.
+	 *
+	 * @return false for unconditional jumps and function exits
+	 */
+	public boolean fallsThrough()
+	{
+		return !mnemonic.equals("jump") && !mnemonic.equals("exit");
+	}
+
+	/**
+	 * Returns the virtual register written by the instruction.
+	 *
+	 * @return number of the virtual register or -1 if none
+	 */
+	public int getVirtualDef()
+	{
+		return virtualRegisterNumber(getWrittenOperand());
+	}
+
+	/**
+	 * Returns the register operand written by the instruction. The stack
+	 * pointer updates of push and pop are not included.
+	 *
+	 * @return the written operand or null if none
+	 */
+	public String getWrittenOperand()
+	{
+		if (firstOperandWriters.contains(mnemonic))
+			return operand1;
+		if (mnemonic.equals("pop"))
+			return operand2;
+		return null;
+	}
+
+	/**
+	 * Returns the virtual registers read by the instruction. Registers that are
+	 * used for addressing are included.
+	 *
+	 * @return list of virtual register numbers
+	 */
+	public List<Integer> getVirtualUses()
+	{
+		List<Integer> uses = new ArrayList<Integer>(2);
+		if (!firstOperandOverwriters.contains(mnemonic) && !stateJumps.contains(mnemonic))
+			addVirtualRegisters(operand1, uses);
+		if (operand2 != null && !mnemonic.equals("pop"))
+			addVirtualRegisters(operand2, uses);
+		return uses;
+	}
+
+	/**
+	 * Returns all virtual registers that appear in the operands, including
+	 * ones that are neither read nor written.
+	 *
+	 * @return list of virtual register numbers
+	 */
+	public List<Integer> getVirtualRegisters()
+	{
+		List<Integer> registers = new ArrayList<Integer>(2);
+		addVirtualRegisters(operand1, registers);
+		if (operand2 != null)
+			addVirtualRegisters(operand2, registers);
+		return registers;
+	}
+
+	/**
+	 * Returns a copy of the instruction where virtual registers in operands
+	 * are replaced with given names.
+	 *
+	 * @param names replacement names indexed by virtual register number
+	 * @return new instruction
+	 */
+	public Instruction replaceVirtualRegisters(Map<Integer, String> names)
+	{
+		return new Instruction(label, mnemonic, replaceVirtualRegisters(operand1, names),
+				operand2 != null ? replaceVirtualRegisters(operand2, names) : null);
+	}
+
+	/**
+	 * Returns a copy of the instruction where virtual registers are replaced
+	 * with different names in the first and in the second operand. Needed when
+	 * the written register gets a different name than the read ones.
+	 *
+	 * @param operand1Names replacement names for the first operand
+	 * @param operand2Names replacement names for the second operand
+	 * @return new instruction
+	 */
+	public Instruction replaceVirtualRegisters(Map<Integer, String> operand1Names,
+			Map<Integer, String> operand2Names)
+	{
+		return new Instruction(label, mnemonic, replaceVirtualRegisters(operand1, operand1Names),
+				operand2 != null ? replaceVirtualRegisters(operand2, operand2Names) : null);
+	}
+
+	/**
+	 * Returns a copy of the instruction where one virtual register is renamed
+	 * in both operands. Other virtual registers are kept.
+	 *
+	 * @param vreg number of the renamed virtual register
+	 * @param name new name for the register
+	 * @return new instruction
+	 */
+	public Instruction renameVirtualRegister(int vreg, String name)
+	{
+		Map<Integer, String> names = new HashMap<Integer, String>();
+		for (int r : getVirtualRegisters())
+			names.put(r, Register.virtual(r).toString());
+		names.put(vreg, name);
+		return replaceVirtualRegisters(names);
+	}
+
+	/**
+	 * Returns the number of the virtual register if the operand consists of
+	 * only a virtual register.
+	 *
+	 * @param operand an operand
+	 * @return number of the virtual register or -1 if the operand is
+	 * something else
+	 */
+	public static int getVirtualRegister(String operand)
+	{
+		return virtualRegisterNumber(operand);
+	}
+
+	/**
+	 * Returns the virtual registers that appear in an operand.
+	 *
+	 * @param operand an operand
+	 * @return list of virtual register numbers
+	 */
+	public static List<Integer> getVirtualRegisters(String operand)
+	{
+		List<Integer> registers = new ArrayList<Integer>(1);
+		if (operand != null)
+			addVirtualRegisters(operand, registers);
+		return registers;
+	}
+
+	/**
+	 * Returns the length of the instruction formatted as a line of .k91
+	 * assembly code.
+	 *
+	 * @return number of characters including the line feed
+	 */
+	public int getFormattedLength()
+	{
+		int length = Math.max(label.length(), LABEL_WIDTH) + 1
+				+ Math.max(mnemonic.length(), MNEMONIC_WIDTH) + 1
+				+ String.valueOf(operand1).length() + 1;
+		if (operand2 != null)
+			length += 2 + operand2.length();
+		return length;
+	}
+
+	/**
+	 * Formats the instruction as a line of .k91 assembly code into a character
+	 * buffer. The label and mnemonic columns are padded with spaces.
+	 *
+	 * @param buffer buffer with room for at least getFormattedLength()
+	 * characters
+	 * @return number of characters written
+	 */
+	public int format(char[] buffer)
+	{
+		int n = appendPadded(buffer, 0, label, LABEL_WIDTH);
+		buffer[n++] = ' ';
+		n = appendPadded(buffer, n, mnemonic, MNEMONIC_WIDTH);
+		buffer[n++] = ' ';
+		n = appendPadded(buffer, n, String.valueOf(operand1), 0);
+		if (operand2 != null) {
+			buffer[n++] = ',';
+			buffer[n++] = ' ';
+			n = appendPadded(buffer, n, operand2, 0);
+		}
+		buffer[n++] = '\n';
+		return n;
+	}
+
+	/**
+	 * Returns the instruction formatted as a line of .k91 assembly code.
+	 *
+	 * @return the formatted line including the line feed
+	 */
+	@Override
+	public String toString()
+	{
+		char[] buffer = new char[getFormattedLength()];
+		return new String(buffer, 0, format(buffer));
+	}
+
+	private static int appendPadded(char[] buffer, int offset, String text, int width)
+	{
+		text.getChars(0, text.length(), buffer, offset);
+		int end = offset + text.length();
+		while (end < offset + width)
+			buffer[end++] = ' ';
+		return end;
+	}
+
+	private static int virtualRegisterNumber(String operand)
+	{
+		if (operand == null || operand.isEmpty() || operand.charAt(0) != Register.VIRTUAL_PREFIX)
+			return -1;
+		return Integer.parseInt(operand.substring(1));
+	}
+
+	private static void addVirtualRegisters(String operand, List<Integer> registers)
+	{
+		if (operand.indexOf(Register.VIRTUAL_PREFIX) < 0)
+			return;
+		Matcher m = virtualRegisterPattern.matcher(operand);
+		while (m.find())
+			registers.add(Integer.parseInt(m.group(1)));
+	}
+
+	private static String replaceVirtualRegisters(String operand, Map<Integer, String> names)
+	{
+		if (operand.indexOf(Register.VIRTUAL_PREFIX) < 0)
+			return operand;
+		Matcher m = virtualRegisterPattern.matcher(operand);
+		StringBuffer sb = new StringBuffer();
+		while (m.find()) {
+			String name = names.get(Integer.parseInt(m.group(1)));
+			if (name == null)
+				throw new InternalCompilerException("Unallocated virtual register.");
+			m.appendReplacement(sb, name);
+		}
+		m.appendTail(sb);
+		return sb.toString();
+	}
+}
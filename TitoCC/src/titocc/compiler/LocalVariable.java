@@ -0,0 +1,64 @@
+package titocc.compiler;
+
+import titocc.compiler.types.CType;
+
+/**
+ * Local variable that is generated by the compiler instead of being declared
+ * in the source code. It is allocated in the stack frame of the function like
+ * the declared local variables, and is a candidate for register allocation.
+ */
+public class LocalVariable implements Symbol
+{
+	/**
+	 * Name of the symbol.
+	 */
+	private final String name;
+	/**
+	 * Globally unique name.
+	 */
+	private final String globallyUniqueName;
+	/**
+	 * Type of the variable.
+	 */
+	private final CType type;
+
+	/**
+	 * Constructs a new local variable. The symbol is not added to the scope.
+	 *
+	 * @param name name that is used for looking up the symbol
+	 * @param globalNameBase name from which the globally unique name is
+	 * generated
+	 * @param scope scope of the variable
+	 * @param type type of the variable
+	 */
+	public LocalVariable(String name, String globalNameBase, Scope scope, CType type)
+	{
+		this.name = name;
+		this.globallyUniqueName = scope.makeGloballyUniqueName(globalNameBase);
+		this.type = type;
+	}
+
+	@Override
+	public String getName()
+	{
+		return name;
+	}
+
+	@Override
+	public String getGlobalName()
+	{
+		return globallyUniqueName;
+	}
+
+	@Override
+	public String getReference()
+	{
+		return globallyUniqueName + "(fp)";
+	}
+
+	@Override
+	public CType getType()
+	{
+		return type;
+	}
+}
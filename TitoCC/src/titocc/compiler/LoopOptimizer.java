@@ -0,0 +1,944 @@
+package titocc.compiler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Optimizes the loops in the intermediate code of a function. Works on code
+ * where every live range has its own virtual register, so the value of a
+ * virtual register is computed by a short sequence of instructions that all
+ * write the same register (for example load, add and and for an array
+ * subscript).
+ *
+ * <p> Loop-invariant code motion moves the computations whose operands don't
+ * change in the loop to the preheader: the end of the block that enters the
+ * loop. A computation that ends in a memory access through the computed
+ * address (load R, @R) has its address part moved out of the loop.
+ *
+ * <p> Induction variable optimization finds the basic induction variables
+ * that are changed only by a constant increment, and replaces computations
+ * that are linear in an induction variable (like the address of a[i]) with a
+ * new register that is incremented together with the induction variable.
+ *
+ * <p> Both optimizations make some registers live through the whole loop.
+ * They are only applied while the number of live registers in the loop stays
+ * within the number of physical registers, so that they never cause spills.
+ */
+public class LoopOptimizer
+{
+	/**
+	 * A loop: a range of blocks from the target of a backwards jump to the
+	 * jump, entered from the preceding block.
+	 */
+	private static class Loop
+	{
+		/**
+		 * Index of the first block.
+		 */
+		public int first;
+		/**
+		 * Index of the last block.
+		 */
+		public int last;
+		/**
+		 * Block that the loop is entered from.
+		 */
+		public BasicBlock preheader;
+		/**
+		 * Block where the loop is entered.
+		 */
+		public BasicBlock header;
+		/**
+		 * Index in the preheader where the hoisted instructions are inserted.
+		 */
+		public int insertIndex;
+		/**
+		 * Blocks of the loop.
+		 */
+		public List<BasicBlock> blocks;
+	}
+
+	/**
+	 * Computation of the value of a virtual register that can be moved out of
+	 * a loop.
+	 */
+	private static class Candidate
+	{
+		/**
+		 * The virtual register.
+		 */
+		public int vreg;
+		/**
+		 * Instructions that are moved out of the loop.
+		 */
+		public List<Instruction> moved;
+		/**
+		 * Load instruction that uses the computed address or null if the
+		 * whole computation is moved.
+		 */
+		public Instruction consumer;
+		/**
+		 * Instructions after the computation that read the register, when the
+		 * register is renamed.
+		 */
+		public List<Instruction> uses;
+		/**
+		 * Induction variable or -1 for invariant computations.
+		 */
+		public int inductionVariable;
+		/**
+		 * Coefficient of the induction variable.
+		 */
+		public long coefficient;
+		/**
+		 * Number of instructions saved per iteration.
+		 */
+		public int gain;
+		/**
+		 * Key of the computation for sharing the new register between equal
+		 * computations, or null if the register is not renamed.
+		 */
+		public String key;
+	}
+
+	/**
+	 * Linear function of an induction variable.
+	 */
+	private static class Value
+	{
+		/**
+		 * Induction variable or -1 for invariant values.
+		 */
+		public int inductionVariable = -1;
+		/**
+		 * Coefficient of the induction variable.
+		 */
+		public long coefficient = 0;
+		/**
+		 * True if the value is an integer constant.
+		 */
+		public boolean isConstant = false;
+		/**
+		 * Value of an integer constant.
+		 */
+		public long constant = 0;
+
+		public boolean isInvariant()
+		{
+			return inductionVariable < 0;
+		}
+	}
+	/**
+	 * Registers that are live at each instruction of a loop. Used for checking
+	 * that the registers made live through the loop fit in the physical
+	 * registers.
+	 */
+	private static class Pressure
+	{
+		/**
+		 * Live registers at each instruction, including the written register.
+		 */
+		public final List<BitSet> points = new ArrayList<BitSet>();
+		/**
+		 * Index of the point of each instruction.
+		 */
+		public final Map<Instruction, Integer> indices = new HashMap<Instruction, Integer>();
+		/**
+		 * Number of instructions in the loop that refer to each register.
+		 */
+		public final Map<Integer, Integer> references = new HashMap<Integer, Integer>();
+		/**
+		 * Registers that are live when the loop is exited.
+		 */
+		public final BitSet liveAfter = new BitSet();
+	}
+	/**
+	 * Maximum number of analysis rounds. Each round changes one loop.
+	 */
+	private static final int MAX_ROUNDS = 100;
+	/**
+	 * Smallest and largest value of an immediate operand.
+	 */
+	private static final long MIN_IMMEDIATE = -32768, MAX_IMMEDIATE = 32767;
+	/**
+	 * Instructions that can be in a moved computation besides load.
+	 */
+	private static final Set<String> movableInstructions = new HashSet<String>(
+			Arrays.asList("add", "sub", "mul", "and", "or", "xor", "shl", "shr", "shra", "not"));
+	/**
+	 * Instructions that may write to memory.
+	 */
+	private static final Set<String> memoryWriters = new HashSet<String>(
+			Arrays.asList("store", "call", "svc"));
+	/**
+	 * Number of the next unused virtual register.
+	 */
+	private int nextVirtualRegister;
+
+	/**
+	 * Constructs a LoopOptimizer.
+	 *
+	 * @param nextVirtualRegister number of the first unused virtual register
+	 */
+	public LoopOptimizer(int nextVirtualRegister)
+	{
+		this.nextVirtualRegister = nextVirtualRegister;
+	}
+
+	/**
+	 * Optimizes the loops in the intermediate code of a function.
+	 *
+	 * @param code instructions of the function
+	 * @return optimized instructions
+	 */
+	public List<Instruction> optimize(List<Instruction> code)
+	{
+		code = foldCopies(code);
+		for (int round = 0; round < MAX_ROUNDS; ++round) {
+			ControlFlowGraph cfg = new ControlFlowGraph(code);
+			cfg.computeLiveness();
+			boolean changed = false;
+			for (Loop loop : findLoops(cfg)) {
+				if (optimizeLoop(loop)) {
+					changed = true;
+					break;
+				}
+			}
+			if (!changed)
+				break;
+			code = cfg.getInstructions();
+		}
+		return code;
+	}
+
+	/**
+	 * Returns the number of the next unused virtual register after
+	 * optimize().
+	 *
+	 * @return virtual register number
+	 */
+	public int getNextVirtualRegister()
+	{
+		return nextVirtualRegister;
+	}
+
+	/**
+	 * Removes copies where a value is copied to a temporary register, updated
+	 * and copied back, like the code for i = i + 1. The update is done in the
+	 * original register instead, which makes the increments of induction
+	 * variables recognizable.
+	 */
+	private List<Instruction> foldCopies(List<Instruction> code)
+	{
+		ControlFlowGraph cfg = new ControlFlowGraph(code);
+		cfg.computeLiveness();
+		for (BasicBlock block : cfg.getBlocks()) {
+			List<Instruction> instructions = block.getInstructions();
+			for (int i = 0; i < instructions.size(); ++i) {
+				Instruction copy = instructions.get(i);
+				int temp = copy.getMnemonic().equals("load") ? copy.getVirtualDef() : -1;
+				int original = temp >= 0 ? Instruction.getVirtualRegister(copy.getOperand2()) : -1;
+				if (original < 0 || original == temp || copy.hasLabel())
+					continue;
+				int end = findCopyBack(block, i, temp, original);
+				if (end < 0)
+					continue;
+				String name = Register.virtual(original).toString();
+				for (int j = i + 1; j < end; ++j)
+					instructions.set(j, instructions.get(j).renameVirtualRegister(temp, name));
+				instructions.remove(end);
+				instructions.remove(i);
+				--i;
+			}
+		}
+		return cfg.getInstructions();
+	}
+
+	private static int findCopyBack(BasicBlock block, int start, int temp, int original)
+	{
+		List<Instruction> instructions = block.getInstructions();
+		for (int i = start + 1; i < instructions.size(); ++i) {
+			Instruction instr = instructions.get(i);
+			if (instr.getMnemonic().equals("load") && instr.getVirtualDef() == original
+					&& Instruction.getVirtualRegister(instr.getOperand2()) == temp) {
+				if (instr.hasLabel() || isLiveAfter(block, i, temp))
+					return -1;
+				return i;
+			}
+			if (instr.getVirtualRegisters().contains(original))
+				return -1;
+		}
+		return -1;
+	}
+
+	private static boolean isLiveAfter(BasicBlock block, int index, int vreg)
+	{
+		List<Instruction> instructions = block.getInstructions();
+		for (int i = index + 1; i < instructions.size(); ++i) {
+			Instruction instr = instructions.get(i);
+			if (instr.getVirtualUses().contains(vreg))
+				return true;
+			if (instr.getVirtualDef() == vreg)
+				return false;
+		}
+		return block.getLiveOut().get(vreg);
+	}
+
+	/**
+	 * Finds the loops that have a preheader, innermost loops first.
+	 */
+	private static List<Loop> findLoops(ControlFlowGraph cfg)
+	{
+		// A jump backwards in program order closes a loop that contains the
+		// blocks between the target and the jump.
+		List<BasicBlock> blocks = cfg.getBlocks();
+		Map<BasicBlock, Integer> indices = new HashMap<BasicBlock, Integer>();
+		for (int i = 0; i < blocks.size(); ++i)
+			indices.put(blocks.get(i), i);
+		List<Loop> loops = new ArrayList<Loop>();
+		for (int i = 0; i < blocks.size(); ++i) {
+			for (BasicBlock succ : blocks.get(i).getSuccessors()) {
+				int target = indices.get(succ);
+				if (target > i || target == 0)
+					continue;
+				Loop loop = new Loop();
+				loop.first = target;
+				loop.last = i;
+				if (findPreheader(blocks, indices, loop))
+					loops.add(loop);
+			}
+		}
+		Collections.sort(loops, new Comparator<Loop>()
+		{
+			@Override
+			public int compare(Loop a, Loop b)
+			{
+				return (a.last - a.first) - (b.last - b.first);
+			}
+		});
+		return loops;
+	}
+
+	private static boolean findPreheader(List<BasicBlock> blocks, Map<BasicBlock, Integer> indices,
+			Loop loop)
+	{
+		// The loop must be entered only from the block before it, and only to
+		// one block.
+		BasicBlock preheader = blocks.get(loop.first - 1);
+		for (int i = loop.first; i <= loop.last; ++i) {
+			for (BasicBlock pred : blocks.get(i).getPredecessors()) {
+				int index = indices.get(pred);
+				if (index >= loop.first && index <= loop.last)
+					continue;
+				if (pred != preheader || (loop.header != null && loop.header != blocks.get(i)))
+					return false;
+				loop.header = blocks.get(i);
+			}
+		}
+		if (loop.header == null)
+			return false;
+		loop.preheader = preheader;
+
+		// The hoisted code goes before the jump to the loop, or after the last
+		// instruction if the preheader falls through to the loop. A conditional
+		// jump to the loop would skip it.
+		List<Instruction> instructions = preheader.getInstructions();
+		Instruction last = preheader.getLastInstruction();
+		if (last != null && last.getMnemonic().equals("jump"))
+			loop.insertIndex = instructions.indexOf(last);
+		else if (last != null && last.isJump() && last.getLastOperand().equals(loop.header.getLabel()))
+			return false;
+		else
+			loop.insertIndex = instructions.size();
+		loop.blocks = blocks.subList(loop.first, loop.last + 1);
+		return true;
+	}
+
+	private boolean optimizeLoop(Loop loop)
+	{
+		List<BasicBlock> blocks = loop.blocks;
+
+		// Definitions in the loop.
+		Map<Integer, List<Instruction>> defs = new HashMap<Integer, List<Instruction>>();
+		Map<Integer, BasicBlock> defBlocks = new HashMap<Integer, BasicBlock>();
+		Set<Integer> multiBlockDefs = new HashSet<Integer>();
+		boolean writesMemory = false;
+		for (BasicBlock block : blocks) {
+			for (Instruction instr : block.getInstructions()) {
+				if (memoryWriters.contains(instr.getMnemonic()))
+					writesMemory = true;
+				int def = instr.getVirtualDef();
+				if (def < 0)
+					continue;
+				if (!defs.containsKey(def)) {
+					defs.put(def, new ArrayList<Instruction>());
+					defBlocks.put(def, block);
+				} else if (defBlocks.get(def) != block)
+					multiBlockDefs.add(def);
+				defs.get(def).add(instr);
+			}
+		}
+
+		// Basic induction variables: registers whose only definition in the
+		// loop adds a constant to them.
+		Map<Integer, Long> steps = new HashMap<Integer, Long>();
+		Map<Integer, Instruction> increments = new HashMap<Integer, Instruction>();
+		for (Map.Entry<Integer, List<Instruction>> entry : defs.entrySet()) {
+			if (entry.getValue().size() != 1)
+				continue;
+			Instruction instr = entry.getValue().get(0);
+			String mnemonic = instr.getMnemonic();
+			Long step = parseConstant(instr.getOperand2());
+			if (step != null && (mnemonic.equals("add") || mnemonic.equals("sub"))) {
+				steps.put(entry.getKey(), mnemonic.equals("add") ? step : -step);
+				increments.put(entry.getKey(), instr);
+			}
+		}
+
+		List<Candidate> candidates = new ArrayList<Candidate>();
+		for (int vreg : defs.keySet()) {
+			if (multiBlockDefs.contains(vreg) || steps.containsKey(vreg))
+				continue;
+			Candidate c = analyze(vreg, defBlocks.get(vreg), loop, defs, steps, increments,
+					writesMemory);
+			if (c != null)
+				candidates.add(c);
+		}
+		if (candidates.isEmpty())
+			return false;
+
+		// Equal computations share the new register, so they are moved
+		// together, and the induction variable update is only needed once.
+		Map<String, List<Candidate>> keyed = new HashMap<String, List<Candidate>>();
+		List<List<Candidate>> batches = new ArrayList<List<Candidate>>();
+		for (Candidate c : candidates) {
+			List<Candidate> batch = c.key != null ? keyed.get(c.key) : null;
+			if (batch == null) {
+				batch = new ArrayList<Candidate>();
+				batches.add(batch);
+				if (c.key != null)
+					keyed.put(c.key, batch);
+			}
+			batch.add(c);
+		}
+		Collections.sort(batches, new Comparator<List<Candidate>>()
+		{
+			@Override
+			public int compare(List<Candidate> a, List<Candidate> b)
+			{
+				int gainA = getGain(a), gainB = getGain(b);
+				if (gainA != gainB)
+					return gainB - gainA;
+				// Invariant computations first because they often free the
+				// registers of their operands.
+				return (a.get(0).key != null ? 1 : 0) - (b.get(0).key != null ? 1 : 0);
+			}
+		});
+
+		return apply(loop, batches, computePressure(blocks), increments, steps);
+	}
+
+	private static int getGain(List<Candidate> batch)
+	{
+		int gain = batch.get(0).inductionVariable >= 0 ? -1 : 0;
+		for (Candidate c : batch)
+			gain += c.gain;
+		return gain;
+	}
+
+	/**
+	 * Analyzes the computation of a virtual register in a loop.
+	 *
+	 * @return the candidate for moving or null if the computation can't be
+	 * moved
+	 */
+	private static Candidate analyze(int vreg, BasicBlock block, Loop loop,
+			Map<Integer, List<Instruction>> defs, Map<Integer, Long> steps,
+			Map<Integer, Instruction> increments, boolean writesMemory)
+	{
+		// The computation must start with a load that doesn't read the
+		// register, and the register must not be used by other instructions
+		// in the middle of it.
+		List<Instruction> group = defs.get(vreg);
+		Instruction first = group.get(0);
+		if (!first.getMnemonic().equals("load") || first.getVirtualUses().contains(vreg))
+			return null;
+		List<Instruction> instructions = block.getInstructions();
+		int start = instructions.indexOf(first);
+		int end = instructions.indexOf(group.get(group.size() - 1));
+		for (int i = start; i <= end; ++i) {
+			Instruction instr = instructions.get(i);
+			if (!group.contains(instr) && instr.getVirtualRegisters().contains(vreg))
+				return null;
+		}
+
+		// Evaluate the value as a linear function of an induction variable
+		// until an instruction that can't be moved.
+		Value value = new Value();
+		int count = 0;
+		for (Instruction instr : group) {
+			if (!evaluate(instr, vreg, value, defs, steps, writesMemory))
+				break;
+			++count;
+		}
+		if (count == 0)
+			return null;
+
+		Candidate c = new Candidate();
+		c.vreg = vreg;
+		c.moved = group.subList(0, count);
+		c.inductionVariable = value.inductionVariable;
+		c.coefficient = value.coefficient;
+		int lastUse = end;
+		if (count < group.size()) {
+			// The rest of the computation must start with a load through the
+			// computed address.
+			c.consumer = group.get(count);
+			String operand = c.consumer.getOperand2();
+			if (!c.consumer.getMnemonic().equals("load") || operand.equals("%" + vreg)
+					|| !Instruction.getVirtualRegisters(operand).contains(vreg))
+				return null;
+			lastUse = instructions.indexOf(c.consumer);
+		} else if (c.inductionVariable >= 0) {
+			// The register is renamed, so all uses must be in this block.
+			if (block.getLiveIn().get(vreg) || block.getLiveOut().get(vreg))
+				return null;
+			c.uses = new ArrayList<Instruction>();
+			for (int i = end + 1; i < instructions.size(); ++i) {
+				if (instructions.get(i).getVirtualRegisters().contains(vreg)) {
+					c.uses.add(instructions.get(i));
+					lastUse = i;
+				}
+			}
+		} else if (loop.header.getLiveIn().get(vreg))
+			return null;
+
+		if (c.inductionVariable < 0) {
+			c.gain = count;
+			// A single load in the loop costs the same as the copy or the
+			// operand that would replace it, so it is only moved when it is
+			// the address of a load.
+			if (c.consumer == null && count == 1)
+				return null;
+		} else {
+			// One instruction is added for updating the new induction variable,
+			// so copying the induction variable itself doesn't help.
+			c.gain = count;
+			if (count < 2)
+				return null;
+			// The induction variable must not change while the computed value
+			// is in use.
+			int inc = instructions.indexOf(increments.get(c.inductionVariable));
+			if (inc >= start && inc <= lastUse)
+				return null;
+			long step = c.coefficient * steps.get(c.inductionVariable);
+			if (step < MIN_IMMEDIATE || step > MAX_IMMEDIATE)
+				return null;
+		}
+		if (c.consumer != null || c.inductionVariable >= 0)
+			c.key = makeKey(c);
+		return c;
+	}
+
+	/**
+	 * Updates the value with the effect of an instruction.
+	 *
+	 * @return false if the result is not invariant or linear in an induction
+	 * variable
+	 */
+	private static boolean evaluate(Instruction instr, int vreg, Value value,
+			Map<Integer, List<Instruction>> defs, Map<Integer, Long> steps, boolean writesMemory)
+	{
+		String mnemonic = instr.getMnemonic();
+		if (mnemonic.equals("not"))
+			return value.isInvariant();
+		if (!mnemonic.equals("load") && !movableInstructions.contains(mnemonic))
+			return false;
+		Value operand = evaluateOperand(instr.getOperand2(), vreg, value, defs, steps,
+				writesMemory);
+		if (operand == null)
+			return false;
+
+		if (mnemonic.equals("load")) {
+			if (instr.getVirtualUses().contains(vreg))
+				return false;
+			copy(operand, value);
+		} else if (mnemonic.equals("add") || mnemonic.equals("sub")) {
+			long sign = mnemonic.equals("add") ? 1 : -1;
+			if (!operand.isInvariant()) {
+				if (!value.isInvariant() && value.inductionVariable != operand.inductionVariable)
+					return false;
+				value.inductionVariable = operand.inductionVariable;
+				value.coefficient += sign * operand.coefficient;
+			}
+			value.isConstant = value.isConstant && operand.isConstant;
+			value.constant += sign * operand.constant;
+		} else if (operand.isConstant && (mnemonic.equals("mul") || mnemonic.equals("shl"))) {
+			long factor = mnemonic.equals("mul") ? operand.constant : 1L << (operand.constant & 31);
+			value.coefficient *= factor;
+			value.constant *= factor;
+		} else {
+			if (!value.isInvariant() || !operand.isInvariant())
+				return false;
+			value.isConstant = false;
+		}
+		if (value.coefficient == 0)
+			value.inductionVariable = -1;
+		return true;
+	}
+
+	/**
+	 * Returns the value of the second operand of a moved instruction.
+	 *
+	 * @return the value or null if the operand is neither invariant nor an
+	 * induction variable
+	 */
+	private static Value evaluateOperand(String operand, int vreg, Value current,
+			Map<Integer, List<Instruction>> defs, Map<Integer, Long> steps, boolean writesMemory)
+	{
+		Value value = new Value();
+		if (operand == null)
+			return null;
+		Long constant = parseConstant(operand);
+		if (constant != null) {
+			value.isConstant = true;
+			value.constant = constant;
+			return value;
+		}
+
+		List<Integer> registers = Instruction.getVirtualRegisters(operand);
+		int register = Instruction.getVirtualRegister(operand);
+		if (register == vreg) {
+			copy(current, value);
+			return value;
+		}
+		if (register >= 0) {
+			if (steps.containsKey(register)) {
+				value.inductionVariable = register;
+				value.coefficient = 1;
+				return value;
+			}
+			return defs.containsKey(register) ? null : value;
+		}
+
+		// Immediate addresses and memory operands that don't depend on
+		// registers other than fp. Memory is only read if nothing in the loop
+		// writes to it, and never through a computed address because the
+		// hoisted load is executed even if the loop isn't.
+		if (!registers.isEmpty() || operand.startsWith("@"))
+			return null;
+		int paren = operand.indexOf('(');
+		if (paren >= 0 && !operand.substring(paren).equals("(fp)"))
+			return null;
+		if (!operand.startsWith("=") && (writesMemory || paren < 0 && isRegisterName(operand)))
+			return null;
+		return value;
+	}
+
+	private static void copy(Value from, Value to)
+	{
+		to.inductionVariable = from.inductionVariable;
+		to.coefficient = from.coefficient;
+		to.isConstant = from.isConstant;
+		to.constant = from.constant;
+	}
+
+	private static Long parseConstant(String operand)
+	{
+		if (operand == null || !operand.startsWith("=") || operand.length() < 2)
+			return null;
+		try {
+			return Long.parseLong(operand.substring(1));
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	private static boolean isRegisterName(String operand)
+	{
+		if (operand.equals("sp") || operand.equals("fp"))
+			return true;
+		for (Register reg : Register.getPhysicalRegisters()) {
+			if (reg.toString().equalsIgnoreCase(operand))
+				return true;
+		}
+		return false;
+	}
+
+	private static Pressure computePressure(List<BasicBlock> blocks)
+	{
+		Pressure pressure = new Pressure();
+		for (BasicBlock block : blocks) {
+			BitSet live = (BitSet) block.getLiveOut().clone();
+			List<Instruction> instructions = block.getInstructions();
+			BitSet[] points = new BitSet[instructions.size()];
+			for (int i = instructions.size() - 1; i >= 0; --i) {
+				Instruction instr = instructions.get(i);
+				int def = instr.getVirtualDef();
+				if (def >= 0) {
+					live.set(def);
+					points[i] = (BitSet) live.clone();
+					live.clear(def);
+				}
+				for (int use : instr.getVirtualUses())
+					live.set(use);
+				if (points[i] == null)
+					points[i] = (BitSet) live.clone();
+				else
+					points[i].or(live);
+				for (int vreg : instr.getVirtualRegisters()) {
+					Integer count = pressure.references.get(vreg);
+					pressure.references.put(vreg, count == null ? 1 : count + 1);
+				}
+			}
+			for (int i = 0; i < instructions.size(); ++i) {
+				pressure.indices.put(instructions.get(i), pressure.points.size());
+				pressure.points.add(points[i]);
+			}
+			for (BasicBlock succ : block.getSuccessors()) {
+				if (!blocks.contains(succ))
+					pressure.liveAfter.or(succ.getLiveIn());
+			}
+		}
+		return pressure;
+	}
+
+	/**
+	 * Checks whether a batch of candidates fits in the registers and updates
+	 * the live registers if it does.
+	 *
+	 * @param added register that becomes live in the whole loop
+	 * @return true if the batch was accepted
+	 */
+	private static boolean reserveRegisters(Pressure pressure, List<Candidate> batch, int added)
+	{
+		// Invariant registers that are only used by the moved instructions are
+		// no longer live in the loop.
+		Map<Integer, Integer> movedReferences = new HashMap<Integer, Integer>();
+		Set<Integer> computed = new HashSet<Integer>();
+		for (Candidate c : batch) {
+			computed.add(c.vreg);
+			for (Instruction instr : c.moved) {
+				for (int vreg : instr.getVirtualRegisters()) {
+					Integer count = movedReferences.get(vreg);
+					movedReferences.put(vreg, count == null ? 1 : count + 1);
+				}
+			}
+		}
+		BitSet freed = new BitSet();
+		for (Map.Entry<Integer, Integer> entry : movedReferences.entrySet()) {
+			int vreg = entry.getKey();
+			if (!computed.contains(vreg) && !pressure.liveAfter.get(vreg)
+					&& pressure.references.get(vreg) - entry.getValue() == 0)
+				freed.set(vreg);
+		}
+
+		// A renamed register is no longer live in the loop, and a register
+		// that holds a moved address is only live after the consumer.
+		List<BitSet> points = new ArrayList<BitSet>(pressure.points.size());
+		for (BitSet point : pressure.points) {
+			point = (BitSet) point.clone();
+			point.andNot(freed);
+			point.set(added);
+			points.add(point);
+		}
+		for (Candidate c : batch) {
+			int first = 0, last = points.size();
+			if (c.consumer != null) {
+				first = pressure.indices.get(c.moved.get(0));
+				last = pressure.indices.get(c.consumer);
+			} else if (c.inductionVariable < 0)
+				first = last;
+			for (int i = first; i < last; ++i)
+				points.get(i).clear(c.vreg);
+		}
+		int limit = Register.getPhysicalRegisters().length;
+		for (BitSet point : points) {
+			if (point.cardinality() > limit)
+				return false;
+		}
+
+		for (int i = 0; i < points.size(); ++i)
+			pressure.points.set(i, points.get(i));
+		for (Map.Entry<Integer, Integer> entry : movedReferences.entrySet()) {
+			int vreg = entry.getKey();
+			pressure.references.put(vreg, pressure.references.get(vreg) - entry.getValue());
+		}
+		return true;
+	}
+
+	/**
+	 * Moves the candidate computations out of the loop while they fit in the
+	 * registers. After each accepted batch the batches are tried again from the
+	 * most profitable one, because moving a computation can free registers.
+	 *
+	 * @return true if anything was changed
+	 */
+	private boolean apply(Loop loop, List<List<Candidate>> batches, Pressure pressure,
+			Map<Integer, Instruction> increments, Map<Integer, Long> steps)
+	{
+		List<Instruction> hoisted = new ArrayList<Instruction>();
+		Set<Instruction> removed = new HashSet<Instruction>();
+		Map<Instruction, Instruction> replaced = new HashMap<Instruction, Instruction>();
+		Map<Instruction, List<Instruction>> inserted = new HashMap<Instruction, List<Instruction>>();
+
+		boolean progress = true;
+		while (progress) {
+			progress = false;
+			for (List<Candidate> batch : batches) {
+				for (int i = batch.size() - 1; i >= 0; --i) {
+					if (touches(batch.get(i), removed, replaced))
+						batch.remove(i);
+				}
+				if (batch.isEmpty())
+					continue;
+				Candidate c = batch.get(0);
+				boolean renamed = c.key != null;
+				int added = renamed ? nextVirtualRegister : c.vreg;
+				if (!reserveRegisters(pressure, batch, added))
+					continue;
+
+				String name = renamed ? newVirtualRegister() : Register.virtual(c.vreg).toString();
+				for (Instruction instr : c.moved)
+					hoisted.add(new Instruction("", instr.getMnemonic(), name,
+							instr.getOperand2()).renameVirtualRegister(c.vreg, name));
+				if (c.inductionVariable >= 0)
+					addIncrement(inserted, increments.get(c.inductionVariable), name,
+							c.coefficient * steps.get(c.inductionVariable));
+				for (Candidate member : batch) {
+					removed.addAll(member.moved);
+					if (member.consumer != null)
+						replaced.put(member.consumer, renameAddress(member.consumer, member.vreg,
+								name));
+					else if (member.uses != null) {
+						for (Instruction use : member.uses)
+							replaced.put(use, use.renameVirtualRegister(member.vreg, name));
+					}
+				}
+				batch.clear();
+				progress = true;
+				break;
+			}
+		}
+		if (removed.isEmpty())
+			return false;
+
+		rewriteLoop(loop, removed, replaced, inserted);
+		insertHoisted(loop, hoisted);
+		return true;
+	}
+
+	private static Instruction renameAddress(Instruction instr, int vreg, String name)
+	{
+		// The register is renamed only in the address, not in the result.
+		Map<Integer, String> names = new HashMap<Integer, String>();
+		for (int r : instr.getVirtualRegisters())
+			names.put(r, Register.virtual(r).toString());
+		Map<Integer, String> addressNames = new HashMap<Integer, String>(names);
+		addressNames.put(vreg, name);
+		return instr.replaceVirtualRegisters(names, addressNames);
+	}
+
+	private static boolean touches(Candidate c, Set<Instruction> removed,
+			Map<Instruction, Instruction> replaced)
+	{
+		List<Instruction> all = new ArrayList<Instruction>(c.moved);
+		if (c.consumer != null)
+			all.add(c.consumer);
+		if (c.uses != null)
+			all.addAll(c.uses);
+		for (Instruction instr : all) {
+			if (removed.contains(instr) || replaced.containsKey(instr))
+				return true;
+		}
+		return false;
+	}
+
+	private static String makeKey(Candidate c)
+	{
+		StringBuilder sb = new StringBuilder();
+		for (Instruction instr : c.moved) {
+			sb.append(instr.getMnemonic()).append(' ').append(
+					instr.renameVirtualRegister(c.vreg, "#").getOperand2()).append(';');
+		}
+		return sb.toString();
+	}
+
+	private static void addIncrement(Map<Instruction, List<Instruction>> inserted,
+			Instruction increment, String name, long step)
+	{
+		if (!inserted.containsKey(increment))
+			inserted.put(increment, new ArrayList<Instruction>());
+		if (step < 0)
+			inserted.get(increment).add(new Instruction("", Mnemonic.SUB, name,
+					Assembler.immediate((int) -step)));
+		else
+			inserted.get(increment).add(new Instruction("", Mnemonic.ADD, name,
+					Assembler.immediate((int) step)));
+	}
+
+	private static void rewriteLoop(Loop loop, Set<Instruction> removed,
+			Map<Instruction, Instruction> replaced, Map<Instruction, List<Instruction>> inserted)
+	{
+		for (BasicBlock block : loop.blocks) {
+			List<Instruction> instructions = block.getInstructions();
+			List<Instruction> result = new ArrayList<Instruction>(instructions.size());
+			String label = "";
+			for (Instruction instr : instructions) {
+				if (removed.contains(instr)) {
+					// The label of a removed instruction moves to the next
+					// instruction in the block.
+					if (instr.hasLabel())
+						label = instr.getLabel();
+					continue;
+				}
+				Instruction replacement = replaced.get(instr);
+				if (replacement != null)
+					instr = replacement;
+				if (!label.isEmpty()) {
+					if (instr.hasLabel())
+						result.add(new Instruction(label, Mnemonic.NOP, "", null));
+					else
+						instr = new Instruction(label, instr.getMnemonic(), instr.getOperand1(),
+								instr.getOperand2());
+					label = "";
+				}
+				result.add(instr);
+				if (inserted.containsKey(instr))
+					result.addAll(inserted.get(instr));
+			}
+			if (!label.isEmpty())
+				result.add(new Instruction(label, Mnemonic.NOP, "", null));
+			instructions.clear();
+			instructions.addAll(result);
+		}
+	}
+
+	private static void insertHoisted(Loop loop, List<Instruction> hoisted)
+	{
+		List<Instruction> instructions = loop.preheader.getInstructions();
+		if (loop.insertIndex < instructions.size()) {
+			// The jump to the loop may be a jump target itself.
+			Instruction jump = instructions.get(loop.insertIndex);
+			if (jump.hasLabel()) {
+				hoisted.get(0).setLabel(jump.getLabel());
+				instructions.set(loop.insertIndex, new Instruction("", jump.getMnemonic(),
+						jump.getOperand1(), jump.getOperand2()));
+			}
+		}
+		instructions.addAll(loop.insertIndex, hoisted);
+	}
+
+	private String newVirtualRegister()
+	{
+		return Register.virtual(nextVirtualRegister++).toString();
+	}
+}
@@ -55,7 +55,7 @@ public class Lvalue
 	public void loadAddressToRegister(Assembler asm) throws IOException
 	{
 		if (reference != null)
-			asm.emit("load", register.toString(), "=" + reference);
+			asm.emit(Mnemonic.LOAD, register, Assembler.immediate(reference));
 	}
 
 	/**
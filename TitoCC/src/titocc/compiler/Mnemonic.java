@@ -0,0 +1,23 @@
+package titocc.compiler;
+
+/**
+ * Mnemonics of the ttk-91 instructions and the pseudo instructions used by
+ * the compiler. The toString() method returns the lower case mnemonic as it
+ * appears in the assembly code, without allocating a new string.
+ */
+public enum Mnemonic
+{
+	NOP, STORE, LOAD, IN, OUT, ADD, SUB, MUL, DIV, MOD, AND, OR, XOR, SHL, SHR, NOT, SHRA,
+	COMP, JUMP, JNEG, JZER, JPOS, JNNEG, JNZER, JNPOS, JLES, JEQU, JGRE, JNLES, JNEQU, JNGRE,
+	CALL, EXIT, PUSH, POP, PUSHR, POPR, SVC, DC, DS, EQU;
+	/**
+	 * Mnemonic in the assembly code.
+	 */
+	private final String text = name().toLowerCase();
+
+	@Override
+	public String toString()
+	{
+		return text;
+	}
+}
@@ -1,10 +1,14 @@
 package titocc.compiler;
 
+import java.io.IOException;
 import java.util.List;
+import titocc.compiler.elements.ParseRule;
 import titocc.compiler.elements.TranslationUnit;
+import titocc.tokenizer.EofToken;
 import titocc.tokenizer.SyntaxException;
 import titocc.tokenizer.Token;
 import titocc.tokenizer.TokenStream;
+import titocc.tokenizer.Tokenizer;
 
 /**
  * Main parser class. Really just a wrapper and the actual parsing is done by
@@ -23,8 +27,95 @@ public class Parser
 	 */
 	static public TranslationUnit parse(List<Token> tokens) throws SyntaxException
 	{
-		TokenStream tokenStream = new TokenStream(tokens);
+		return parse(tokens, false);
+	}
+
+	/**
+	 * Parses a list of tokens, optionally in packrat mode. In packrat mode
+	 * results of the main parse rules are memoized for each token position,
+	 * so failed alternatives do not cause the same tokens to be parsed again.
+	 * The resulting tree is the same in both modes.
+	 *
+	 * @param tokens input tokens
+	 * @param packrat true to enable packrat parsing
+	 * @return a TranslationUnit object which is the top level element in the
+	 * code element hierarchy
+	 * @throws SyntaxException if the source code has errors
+	 */
+	static public TranslationUnit parse(List<Token> tokens, boolean packrat) throws SyntaxException
+	{
+		return parse(createTokenStream(new TokenStream(tokens), packrat));
+	}
+
+	/**
+	 * Parses tokens read directly from a tokenizer, without building a token
+	 * list first. Tokenizer errors are reported the same way as they would be
+	 * by Tokenizer.tokenize().
+	 *
+	 * @param tokenizer source tokenizer
+	 * @return a TranslationUnit object which is the top level element in the
+	 * code element hierarchy
+	 * @throws IOException if the tokenizer input throws
+	 * @throws SyntaxException if the source code has errors
+	 */
+	static public TranslationUnit parse(Tokenizer tokenizer) throws IOException, SyntaxException
+	{
+		return parse(tokenizer, false);
+	}
+
+	/**
+	 * Parses tokens read directly from a tokenizer, optionally in packrat
+	 * mode (see parse(List, boolean)).
+	 *
+	 * @param tokenizer source tokenizer
+	 * @param packrat true to enable packrat parsing
+	 * @return a TranslationUnit object which is the top level element in the
+	 * code element hierarchy
+	 * @throws IOException if the tokenizer input throws
+	 * @throws SyntaxException if the source code has errors
+	 */
+	static public TranslationUnit parse(Tokenizer tokenizer, boolean packrat)
+			throws IOException, SyntaxException
+	{
+		TokenStream tokenStream = createTokenStream(new TokenStream(tokenizer), packrat);
+		TranslationUnit trUnit;
+		try {
+			trUnit = parse(tokenStream);
+		} catch (SyntaxException e) {
+			// Tokenizer errors come first, as if the whole input was
+			// tokenized before parsing.
+			throwTokenizerError(tokenStream);
+			while (!(tokenizer.nextToken() instanceof EofToken))
+				;
+			throw e;
+		}
+		throwTokenizerError(tokenStream);
+		return trUnit;
+	}
+
+	/**
+	 * Enables memoization in a token stream if packrat mode is requested.
+	 *
+	 * @param tokenStream token stream
+	 * @param packrat true to enable packrat parsing
+	 * @return the token stream
+	 */
+	static private TokenStream createTokenStream(TokenStream tokenStream, boolean packrat)
+	{
+		if (packrat)
+			tokenStream.enableMemoization(ParseRule.COUNT);
+		return tokenStream;
+	}
 
+	/**
+	 * Parses a translation unit from a token stream.
+	 *
+	 * @param tokenStream source token stream
+	 * @return the TranslationUnit object
+	 * @throws SyntaxException if the source code has errors
+	 */
+	static private TranslationUnit parse(TokenStream tokenStream) throws SyntaxException
+	{
 		TranslationUnit trUnit = TranslationUnit.parse(tokenStream);
 		if (trUnit == null) {
 			Token token = tokenStream.getFurthestReadToken();
@@ -35,4 +126,21 @@ public class Parser
 		}
 		return trUnit;
 	}
+
+	/**
+	 * Rethrows an error thrown by the tokenizer of a stream, if any.
+	 *
+	 * @param tokenStream token stream
+	 * @throws IOException if the tokenizer threw IOException
+	 * @throws SyntaxException if the tokenizer threw SyntaxException
+	 */
+	static private void throwTokenizerError(TokenStream tokenStream)
+			throws IOException, SyntaxException
+	{
+		Exception e = tokenStream.getTokenizerError();
+		if (e instanceof IOException)
+			throw (IOException) e;
+		if (e instanceof SyntaxException)
+			throw (SyntaxException) e;
+	}
 }
@@ -0,0 +1,280 @@
+package titocc.compiler;
+
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Peephole optimizer for buffered instructions. Applies a configurable set of
+ * rewrite rules to short instruction sequences and counts how many times each
+ * rule was applied. All the rules preserve the values of registers and memory,
+ * so they do not need liveness information.
+ *
+ * <p> A sequence is never rewritten if any instruction after the first one has
+ * a label, because control can enter the sequence through the label.
+ */
+public class PeepholeOptimizer
+{
+	/**
+	 * Available rewrite rules.
+	 */
+	public enum Rule
+	{
+		/**
+		 * "store R, X" followed by "load R, X" -> "store R, X".
+		 */
+		REDUNDANT_LOAD,
+		/**
+		 * "load R, X" followed by "load R, Y" where Y does not use R ->
+		 * "load R, Y".
+		 */
+		OVERWRITTEN_LOAD,
+		/**
+		 * Comparison result that is materialized as 0/1 and then immediately
+		 * tested with jzer or jnzer:
+		 *
+		 * <br> comp A, B / load R, =1 / jCC R, L / load R, =0 / L jzer R, T
+		 *
+		 * <br> -> comp A, B / load R, =0 / jNCC R, T / load R, =1
+		 *
+		 * <br> comp A, B / load R, =1 / jCC R, L / load R, =0 / L jnzer R, T
+		 *
+		 * <br> -> comp A, B / load R, =1 / jCC R, T / load R, =0
+		 *
+		 * <br> Only applied if L is not referenced elsewhere.
+		 */
+		BOOLEAN_BRANCH,
+		/**
+		 * "jump L" where the next instruction has label L -> removed.
+		 */
+		JUMP_TO_NEXT
+	}
+	/**
+	 * Negations of the conditional jumps that test the state register.
+	 */
+	private static final Map<String, String> negatedJumps = new HashMap<String, String>()
+	{
+		{
+			put("jequ", "jnequ");
+			put("jnequ", "jequ");
+			put("jles", "jnles");
+			put("jnles", "jles");
+			put("jgre", "jngre");
+			put("jngre", "jgre");
+		}
+	};
+	/**
+	 * Enabled rules.
+	 */
+	private final Set<Rule> rules;
+	/**
+	 * Number of times each rule has been applied.
+	 */
+	private final Map<Rule, Integer> hitCounts = new EnumMap<Rule, Integer>(Rule.class);
+	/**
+	 * Total number of instructions removed.
+	 */
+	private int removedCount = 0;
+
+	/**
+	 * Constructs a PeepholeOptimizer with all rules enabled.
+	 */
+	public PeepholeOptimizer()
+	{
+		this(EnumSet.allOf(Rule.class));
+	}
+
+	/**
+	 * Constructs a PeepholeOptimizer with given rules enabled.
+	 *
+	 * @param rules rules to apply
+	 */
+	public PeepholeOptimizer(Set<Rule> rules)
+	{
+		this.rules = EnumSet.noneOf(Rule.class);
+		this.rules.addAll(rules);
+		for (Rule rule : Rule.values())
+			hitCounts.put(rule, 0);
+	}
+
+	/**
+	 * Optimizes a list of instructions in place. Rules are applied repeatedly
+	 * until none of them matches.
+	 *
+	 * @param instructions instructions to optimize
+	 */
+	public void optimize(List<Instruction> instructions)
+	{
+		int i = 0;
+		while (i < instructions.size()) {
+			Rule applied = applyRules(instructions, i);
+			if (applied != null) {
+				hitCounts.put(applied, hitCounts.get(applied) + 1);
+				// A rewrite may create a new match that starts a few
+				// instructions earlier.
+				i = Math.max(0, i - 4);
+			} else
+				++i;
+		}
+	}
+
+	/**
+	 * Returns how many times a rule has been applied.
+	 *
+	 * @param rule the rule
+	 * @return number of hits
+	 */
+	public int getHitCount(Rule rule)
+	{
+		return hitCounts.get(rule);
+	}
+
+	/**
+	 * Returns the total number of instructions removed by all rules.
+	 *
+	 * @return number of removed instructions
+	 */
+	public int getRemovedCount()
+	{
+		return removedCount;
+	}
+
+	/**
+	 * Returns a summary of the rule hit counts.
+	 *
+	 * @return summary as a string
+	 */
+	@Override
+	public String toString()
+	{
+		StringBuilder sb = new StringBuilder();
+		sb.append(removedCount).append(" instructions removed");
+		for (Rule rule : rules)
+			sb.append(", ").append(rule.name().toLowerCase()).append(": ").append(hitCounts.get(rule));
+		return sb.toString();
+	}
+
+	private Rule applyRules(List<Instruction> instructions, int i)
+	{
+		if (rules.contains(Rule.REDUNDANT_LOAD) && removeRedundantLoad(instructions, i))
+			return Rule.REDUNDANT_LOAD;
+		if (rules.contains(Rule.OVERWRITTEN_LOAD) && removeOverwrittenLoad(instructions, i))
+			return Rule.OVERWRITTEN_LOAD;
+		if (rules.contains(Rule.BOOLEAN_BRANCH) && simplifyBooleanBranch(instructions, i))
+			return Rule.BOOLEAN_BRANCH;
+		if (rules.contains(Rule.JUMP_TO_NEXT) && removeJumpToNext(instructions, i))
+			return Rule.JUMP_TO_NEXT;
+		return null;
+	}
+
+	private boolean removeRedundantLoad(List<Instruction> instructions, int i)
+	{
+		if (i + 1 >= instructions.size())
+			return false;
+		Instruction store = instructions.get(i);
+		Instruction load = instructions.get(i + 1);
+		if (!store.getMnemonic().equals("store") || !load.getMnemonic().equals("load")
+				|| load.hasLabel() || !sameOperands(store, load))
+			return false;
+
+		instructions.remove(i + 1);
+		++removedCount;
+		return true;
+	}
+
+	private boolean removeOverwrittenLoad(List<Instruction> instructions, int i)
+	{
+		if (i + 1 >= instructions.size())
+			return false;
+		Instruction first = instructions.get(i);
+		Instruction second = instructions.get(i + 1);
+		if (!first.getMnemonic().equals("load") || !second.getMnemonic().equals("load")
+				|| second.hasLabel() || !first.getOperand1().equals(second.getOperand1())
+				|| second.getOperand2().contains(first.getOperand1()))
+			return false;
+
+		second.setLabel(first.getLabel());
+		instructions.remove(i);
+		++removedCount;
+		return true;
+	}
+
+	private boolean simplifyBooleanBranch(List<Instruction> instructions, int i)
+	{
+		if (i + 4 >= instructions.size())
+			return false;
+		Instruction comp = instructions.get(i);
+		Instruction loadOne = instructions.get(i + 1);
+		Instruction jump = instructions.get(i + 2);
+		Instruction loadZero = instructions.get(i + 3);
+		Instruction test = instructions.get(i + 4);
+		if (!comp.getMnemonic().equals("comp"))
+			return false;
+		if (!isLoad(loadOne, "=1") || loadOne.hasLabel())
+			return false;
+		String register = loadOne.getOperand1();
+		String negatedJump = negatedJumps.get(jump.getMnemonic());
+		if (negatedJump == null || jump.hasLabel() || !register.equals(jump.getOperand1()))
+			return false;
+		if (!isLoad(loadZero, "=0") || loadZero.hasLabel() || !register.equals(loadZero.getOperand1()))
+			return false;
+		boolean jumpIfZero = test.getMnemonic().equals("jzer");
+		if (!(jumpIfZero || test.getMnemonic().equals("jnzer"))
+				|| !register.equals(test.getOperand1())
+				|| !test.getLabel().equals(jump.getLastOperand())
+				|| countReferences(instructions, test.getLabel()) != 1)
+			return false;
+
+		String target = test.getLastOperand();
+		if (jumpIfZero) {
+			instructions.set(i + 1, new Instruction("", Mnemonic.LOAD, register,
+					Assembler.immediate(0)));
+			instructions.set(i + 2, new Instruction("", negatedJump, register, target));
+			instructions.set(i + 3, new Instruction("", Mnemonic.LOAD, register,
+					Assembler.immediate(1)));
+		} else
+			instructions.set(i + 2, new Instruction("", jump.getMnemonic(), register, target));
+		instructions.remove(i + 4);
+		++removedCount;
+		return true;
+	}
+
+	private boolean removeJumpToNext(List<Instruction> instructions, int i)
+	{
+		if (i + 1 >= instructions.size())
+			return false;
+		Instruction jump = instructions.get(i);
+		Instruction next = instructions.get(i + 1);
+		if (!jump.getMnemonic().equals("jump") || jump.hasLabel()
+				|| !next.getLabel().equals(jump.getLastOperand()))
+			return false;
+
+		instructions.remove(i);
+		++removedCount;
+		return true;
+	}
+
+	private static boolean isLoad(Instruction instr, String value)
+	{
+		return instr.getMnemonic().equals("load") && value.equals(instr.getOperand2());
+	}
+
+	private static boolean sameOperands(Instruction a, Instruction b)
+	{
+		return a.getOperand1().equals(b.getOperand1()) && b.getOperand2() != null
+				&& b.getOperand2().equals(a.getOperand2());
+	}
+
+	private static int countReferences(List<Instruction> instructions, String label)
+	{
+		int count = 0;
+		for (Instruction instr : instructions) {
+			if (label.equals(instr.getOperand1()) || label.equals(instr.getOperand2()))
+				++count;
+		}
+		return count;
+	}
+}
@@ -1,12 +1,105 @@
 package titocc.compiler;
 
 /**
- * Enumeration of the registers in ttk-91 machine. Names are chosen so that
- * .toString() method can be used to output register names in the assembly code.
- * R0 is not included because it has different behavior, and all the registers
- * defined here need to be usable by the register allocator.
+ * Register in the intermediate code. Physical registers correspond to the
+ * registers in ttk-91 machine and virtual registers are placeholders that are
+ * mapped to physical registers by RegisterAllocator. Names are chosen so that
+ * .toString() method can be used to output register names in the assembly
+ * code. R0 is not included because it has different behavior. The stack
+ * pointer is defined for emitting stack instructions, but it is not one of the
+ * physical registers returned by getPhysicalRegisters(), which are the ones
+ * usable by the register allocator.
  */
-public enum Register
+public final class Register
 {
-	R1, R2, R3, R4, R5
-};
+	public static final Register R1 = new Register("R1", -1);
+	public static final Register R2 = new Register("R2", -1);
+	public static final Register R3 = new Register("R3", -1);
+	public static final Register R4 = new Register("R4", -1);
+	public static final Register R5 = new Register("R5", -1);
+	public static final Register SP = new Register("sp", -1);
+	/**
+	 * Prefix of virtual register names. It cannot appear in identifiers or
+	 * labels, so virtual registers can be found from operand strings.
+	 */
+	public static final char VIRTUAL_PREFIX = '%';
+	/**
+	 * All physical registers in allocation order.
+	 */
+	private static final Register[] physicalRegisters = {R1, R2, R3, R4, R5};
+	/**
+	 * Name of the register.
+	 */
+	private final String name;
+	/**
+	 * Number of virtual register or -1 if physical.
+	 */
+	private final int number;
+
+	private Register(String name, int number)
+	{
+		this.name = name;
+		this.number = number;
+	}
+
+	/**
+	 * Creates a new virtual register.
+	 *
+	 * @param number unique number of the virtual register
+	 * @return the virtual register
+	 */
+	public static Register virtual(int number)
+	{
+		return new Register(VIRTUAL_PREFIX + "" + number, number);
+	}
+
+	/**
+	 * Returns the physical registers in allocation order.
+	 *
+	 * @return array of physical registers
+	 */
+	public static Register[] getPhysicalRegisters()
+	{
+		return physicalRegisters.clone();
+	}
+
+	/**
+	 * Returns whether this is a virtual register.
+	 *
+	 * @return true if virtual
+	 */
+	public boolean isVirtual()
+	{
+		return number >= 0;
+	}
+
+	/**
+	 * Returns the number of a virtual register.
+	 *
+	 * @return the number or -1 for physical registers
+	 */
+	public int getNumber()
+	{
+		return number;
+	}
+
+	@Override
+	public boolean equals(Object obj)
+	{
+		if (!(obj instanceof Register))
+			return false;
+		return name.equals(((Register) obj).name);
+	}
+
+	@Override
+	public int hashCode()
+	{
+		return name.hashCode();
+	}
+
+	@Override
+	public String toString()
+	{
+		return name;
+	}
+}
@@ -0,0 +1,891 @@
+package titocc.compiler;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import titocc.compiler.types.Types;
+
+/**
+ * Maps the virtual registers of a function to physical registers by coloring
+ * the interference graph of the virtual registers (Chaitin-Briggs style
+ * simplify and select). Virtual registers that cannot be colored are spilled to
+ * stack frame slots: every access is rewritten to use the slot directly as a
+ * memory operand or through a short lived temporary register, and the graph is
+ * colored again. Spill candidates are chosen by use count weighted by loop
+ * nesting depth, so values used in inner loops stay in registers.
+ *
+ * <p> Scalar local variables and parameters added with addVariable() are
+ * promoted to virtual registers before allocation if their address is never
+ * taken. This keeps hot variables in registers across statements instead of
+ * loading and storing them in every statement.
+ *
+ * <p> Unreachable code is removed before allocation, and dead definitions are
+ * removed after promotion, using DeadCodeEliminator. If loop optimization is
+ * enabled, LoopOptimizer is run after the live ranges have been split.
+ */
+public class RegisterAllocator
+{
+	/**
+	 * Interference graph of the virtual registers.
+	 */
+	private static class InterferenceGraph
+	{
+		/**
+		 * Interfering virtual registers of each virtual register.
+		 */
+		public final Map<Integer, Set<Integer>> edges = new TreeMap<Integer, Set<Integer>>();
+		/**
+		 * Virtual registers that are copied to or from each virtual register.
+		 * Used for preferring the same color for both.
+		 */
+		public final Map<Integer, Set<Integer>> moves = new HashMap<Integer, Set<Integer>>();
+		/**
+		 * Copy instructions as pairs of virtual registers, with the weight of
+		 * each copy in copyWeights.
+		 */
+		public final List<int[]> copies = new ArrayList<int[]>();
+		/**
+		 * Weights of the copies (10^loop depth).
+		 */
+		public final List<Double> copyWeights = new ArrayList<Double>();
+		/**
+		 * Spill cost of each virtual register.
+		 */
+		public final Map<Integer, Double> costs = new HashMap<Integer, Double>();
+		/**
+		 * Virtual registers that were coalesced into another virtual register.
+		 */
+		public final Map<Integer, Integer> aliases = new HashMap<Integer, Integer>();
+
+		public void addNode(int vreg)
+		{
+			if (!edges.containsKey(vreg))
+				edges.put(vreg, new HashSet<Integer>());
+		}
+
+		public void addEdge(int a, int b)
+		{
+			if (a == b)
+				return;
+			addNode(a);
+			addNode(b);
+			edges.get(a).add(b);
+			edges.get(b).add(a);
+		}
+
+		public void addMove(int a, int b, double weight)
+		{
+			if (!moves.containsKey(a))
+				moves.put(a, new HashSet<Integer>());
+			if (!moves.containsKey(b))
+				moves.put(b, new HashSet<Integer>());
+			moves.get(a).add(b);
+			moves.get(b).add(a);
+			copies.add(new int[]{a, b});
+			copyWeights.add(weight);
+		}
+
+		public int find(int vreg)
+		{
+			Integer alias = aliases.get(vreg);
+			while (alias != null) {
+				vreg = alias;
+				alias = aliases.get(vreg);
+			}
+			return vreg;
+		}
+
+		public void merge(int into, int from)
+		{
+			for (int neighbor : edges.remove(from)) {
+				edges.get(neighbor).remove(from);
+				addEdge(into, neighbor);
+			}
+			addCost(into, costs.remove(from));
+			aliases.put(from, into);
+		}
+
+		public void addCost(int vreg, double cost)
+		{
+			Double old = costs.get(vreg);
+			costs.put(vreg, old == null ? cost : old + cost);
+		}
+	}
+	/**
+	 * Maximum number of coloring rounds before giving up. Each round after the
+	 * first only colors the temporaries created by spilling, so a few rounds
+	 * are always enough.
+	 */
+	private static final int MAX_ROUNDS = 20;
+	/**
+	 * Scope used for naming the spill slots.
+	 */
+	private final Scope scope;
+	/**
+	 * Spill slots created by the allocator.
+	 */
+	private final List<Symbol> spillSlots = new ArrayList<Symbol>();
+	/**
+	 * Local variables that may be promoted to registers.
+	 */
+	private final List<Symbol> variables = new ArrayList<Symbol>();
+	/**
+	 * Parameters that may be promoted to registers.
+	 */
+	private final List<Symbol> parameters = new ArrayList<Symbol>();
+	/**
+	 * Variables and parameters that were promoted to registers.
+	 */
+	private final List<Symbol> promotedVariables = new ArrayList<Symbol>();
+	/**
+	 * Physical registers that are written by the allocated code.
+	 */
+	private final List<Register> writtenRegisters = new ArrayList<Register>();
+	/**
+	 * Temporary registers created for spill code. They are never spilled.
+	 */
+	private final Set<Integer> spillTemporaries = new HashSet<Integer>();
+	/**
+	 * Number of the next unused virtual register.
+	 */
+	private int nextVirtualRegister;
+	/**
+	 * True if loops are optimized before allocation.
+	 */
+	private boolean loopOptimization = false;
+
+	/**
+	 * Constructs a RegisterAllocator.
+	 *
+	 * @param scope function scope, used for generating unique names for the
+	 * spill slots
+	 */
+	public RegisterAllocator(Scope scope)
+	{
+		this.scope = scope;
+	}
+
+	/**
+	 * Adds a local variable or a parameter that can be kept in a register.
+	 * Only variables of size 1 whose address is never taken are promoted.
+	 *
+	 * @param variable symbol of the variable
+	 * @param parameter true if the variable is a parameter, which is loaded to
+	 * the register at function entry
+	 */
+	public void addVariable(Symbol variable, boolean parameter)
+	{
+		if (variable.getType().getSize() == 1)
+			(parameter ? parameters : variables).add(variable);
+	}
+
+	/**
+	 * Enables or disables loop-invariant code motion and induction variable
+	 * optimization (see LoopOptimizer). Disabled by default.
+	 *
+	 * @param loopOptimization true to enable loop optimization
+	 */
+	public void setLoopOptimization(boolean loopOptimization)
+	{
+		this.loopOptimization = loopOptimization;
+	}
+
+	/**
+	 * Allocates physical registers for the code in a control flow graph.
+	 *
+	 * @param cfg control flow graph of the function body
+	 * @return instructions with only physical registers
+	 */
+	public List<Instruction> allocate(ControlFlowGraph cfg)
+	{
+		DeadCodeEliminator eliminator = new DeadCodeEliminator();
+		List<Instruction> code = eliminator.removeUnreachableBlocks(cfg);
+		nextVirtualRegister = 0;
+		for (Instruction instr : code) {
+			for (int vreg : instr.getVirtualRegisters())
+				nextVirtualRegister = Math.max(nextVirtualRegister, vreg + 1);
+		}
+		code = promoteVariables(code);
+		code = eliminator.removeDeadDefinitions(code);
+		code = splitLiveRanges(code);
+		if (loopOptimization) {
+			LoopOptimizer loopOptimizer = new LoopOptimizer(nextVirtualRegister);
+			code = loopOptimizer.optimize(code);
+			nextVirtualRegister = loopOptimizer.getNextVirtualRegister();
+		}
+
+		Register[] registers = Register.getPhysicalRegisters();
+		for (int round = 0; round < MAX_ROUNDS; ++round) {
+			ControlFlowGraph graph = new ControlFlowGraph(code);
+			graph.computeLiveness();
+			InterferenceGraph interference = buildInterferenceGraph(graph);
+			Map<Integer, Register> colors = new HashMap<Integer, Register>();
+			List<Integer> spilled = color(interference, registers, colors);
+			if (spilled.isEmpty()) {
+				code = rewrite(code, colors, registers);
+				findWrittenRegisters(code, registers);
+				return code;
+			}
+			code = insertSpillCode(code, interference, spilled);
+		}
+		throw new InternalCompilerException("Register allocation did not converge.");
+	}
+
+	/**
+	 * Returns the spill slots that were needed by allocate(). The caller must
+	 * reserve space for them in the stack frame like for local variables.
+	 *
+	 * @return list of spill slot symbols
+	 */
+	public List<Symbol> getSpillSlots()
+	{
+		return spillSlots;
+	}
+
+	/**
+	 * Returns the variables and parameters that were promoted to registers by
+	 * allocate(). The local variables among them no longer need space in the
+	 * stack frame.
+	 *
+	 * @return list of variable symbols
+	 */
+	public List<Symbol> getPromotedVariables()
+	{
+		return promotedVariables;
+	}
+
+	/**
+	 * Returns the physical registers that are written by the code returned by
+	 * allocate(), in register order. The function must save and restore them
+	 * because the callers expect all registers to be preserved.
+	 *
+	 * @return list of registers
+	 */
+	public List<Register> getWrittenRegisters()
+	{
+		return writtenRegisters;
+	}
+
+	private List<Instruction> promoteVariables(List<Instruction> code)
+	{
+		List<Instruction> entry = new ArrayList<Instruction>();
+		Map<String, String> promoted = new HashMap<String, String>();
+		for (Symbol var : variables) {
+			if (isPromotable(code, var.getReference(), false)) {
+				promoted.put(var.getReference(), newVirtualRegister());
+				promotedVariables.add(var);
+			}
+		}
+		for (Symbol prm : parameters) {
+			if (isPromotable(code, prm.getReference(), true)) {
+				String vreg = newVirtualRegister();
+				promoted.put(prm.getReference(), vreg);
+				entry.add(new Instruction("", Mnemonic.LOAD, vreg, prm.getReference()));
+				promotedVariables.add(prm);
+			}
+		}
+		if (promoted.isEmpty())
+			return code;
+
+		// Loads and stores become register copies and other instructions use
+		// the register instead of the memory operand.
+		List<Instruction> result = new ArrayList<Instruction>(entry);
+		for (Instruction instr : code) {
+			String vreg = instr.getOperand2() != null ? promoted.get(instr.getOperand2()) : null;
+			if (vreg == null)
+				result.add(instr);
+			else if (instr.getMnemonic().equals("store"))
+				result.add(new Instruction(instr.getLabel(), Mnemonic.LOAD, vreg, instr.getOperand1()));
+			else
+				result.add(new Instruction(instr.getLabel(), instr.getMnemonic(),
+						instr.getOperand1(), vreg));
+		}
+		return result;
+	}
+
+	private static boolean isPromotable(List<Instruction> code, String reference,
+			boolean mustBeReferenced)
+	{
+		boolean referenced = false;
+		for (Instruction instr : code) {
+			if (instr.getOperand1().contains(reference))
+				return false;
+			String operand2 = instr.getOperand2();
+			if (operand2 == null || !operand2.contains(reference))
+				continue;
+			if (!operand2.equals(reference) || instr.getMnemonic().equals("pop"))
+				return false;
+			referenced = true;
+		}
+		return referenced || !mustBeReferenced;
+	}
+
+	/**
+	 * Renames the virtual registers so that each live range (web of
+	 * definitions and the uses they reach) gets its own virtual register. The
+	 * code generator reuses the same virtual register for the results of
+	 * unrelated statements, and these must not interfere with each other.
+	 */
+	private List<Instruction> splitLiveRanges(List<Instruction> code)
+	{
+		// Definition sites: every instruction that writes a register and an
+		// entry site for every register, for values used without a definition.
+		int[] siteOfInstruction = new int[code.size()];
+		Map<Integer, Integer> entrySites = new TreeMap<Integer, Integer>();
+		Map<Integer, BitSet> sitesOfRegister = new HashMap<Integer, BitSet>();
+		int siteCount = 0;
+		for (Instruction instr : code) {
+			for (int vreg : instr.getVirtualRegisters()) {
+				if (!entrySites.containsKey(vreg)) {
+					entrySites.put(vreg, siteCount);
+					sitesOfRegister.put(vreg, new BitSet());
+					sitesOfRegister.get(vreg).set(siteCount++);
+				}
+			}
+		}
+		for (int i = 0; i < code.size(); ++i) {
+			int def = code.get(i).getVirtualDef();
+			siteOfInstruction[i] = def >= 0 ? siteCount++ : -1;
+			if (def >= 0)
+				sitesOfRegister.get(def).set(siteOfInstruction[i]);
+		}
+
+		// Reaching definitions at the start of each block.
+		ControlFlowGraph cfg = new ControlFlowGraph(code);
+		List<BasicBlock> blocks = cfg.getBlocks();
+		Map<BasicBlock, Integer> firstIndices = new HashMap<BasicBlock, Integer>();
+		Map<BasicBlock, BitSet> reachIn = new HashMap<BasicBlock, BitSet>();
+		Map<BasicBlock, BitSet> reachOut = new HashMap<BasicBlock, BitSet>();
+		int index = 0;
+		for (BasicBlock block : blocks) {
+			firstIndices.put(block, index);
+			index += block.getInstructions().size();
+			reachIn.put(block, new BitSet());
+			reachOut.put(block, new BitSet());
+		}
+		for (int site : entrySites.values())
+			reachIn.get(blocks.get(0)).set(site);
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (BasicBlock block : blocks) {
+				BitSet in = reachIn.get(block);
+				for (BasicBlock pred : block.getPredecessors())
+					in.or(reachOut.get(pred));
+				BitSet out = (BitSet) in.clone();
+				int i = firstIndices.get(block);
+				for (Instruction instr : block.getInstructions()) {
+					int def = instr.getVirtualDef();
+					if (def >= 0) {
+						out.andNot(sitesOfRegister.get(def));
+						out.set(siteOfInstruction[i]);
+					}
+					++i;
+				}
+				if (!out.equals(reachOut.get(block))) {
+					reachOut.put(block, out);
+					changed = true;
+				}
+			}
+		}
+
+		// Join the definitions that reach the same use. A register that is
+		// read and written by the same instruction must stay in one range.
+		int[] parent = new int[siteCount];
+		for (int i = 0; i < siteCount; ++i)
+			parent[i] = i;
+		List<Map<Integer, Integer>> useSites = new ArrayList<Map<Integer, Integer>>(code.size());
+		for (BasicBlock block : blocks) {
+			BitSet reach = (BitSet) reachIn.get(block).clone();
+			int i = firstIndices.get(block);
+			for (Instruction instr : block.getInstructions()) {
+				Map<Integer, Integer> sites = new HashMap<Integer, Integer>();
+				List<Integer> uses = instr.getVirtualUses();
+				for (int vreg : instr.getVirtualRegisters()) {
+					BitSet reaching = (BitSet) sitesOfRegister.get(vreg).clone();
+					reaching.and(reach);
+					int first = reaching.nextSetBit(0);
+					if (first < 0)
+						first = entrySites.get(vreg);
+					// Operands that are not read (e.g. the register of jequ)
+					// don't join anything.
+					if (uses.contains(vreg)) {
+						for (int site = reaching.nextSetBit(first + 1); site >= 0;
+								site = reaching.nextSetBit(site + 1))
+							union(parent, first, site);
+					}
+					sites.put(vreg, first);
+				}
+				int def = instr.getVirtualDef();
+				if (def >= 0) {
+					if (instr.getVirtualUses().contains(def))
+						union(parent, sites.get(def), siteOfInstruction[i]);
+					reach.andNot(sitesOfRegister.get(def));
+					reach.set(siteOfInstruction[i]);
+				}
+				useSites.add(sites);
+				++i;
+			}
+		}
+
+		// Number the ranges and rename the registers.
+		Map<Integer, String> names = new HashMap<Integer, String>();
+		nextVirtualRegister = 0;
+		List<Instruction> result = new ArrayList<Instruction>(code.size());
+		for (int i = 0; i < code.size(); ++i) {
+			Instruction instr = code.get(i);
+			if (instr.getVirtualRegisters().isEmpty()) {
+				result.add(instr);
+				continue;
+			}
+			Map<Integer, String> operand1Names = new HashMap<Integer, String>();
+			Map<Integer, String> operand2Names = new HashMap<Integer, String>();
+			for (Map.Entry<Integer, Integer> entry : useSites.get(i).entrySet()) {
+				String name = getRangeName(names, find(parent, entry.getValue()));
+				operand1Names.put(entry.getKey(), name);
+				operand2Names.put(entry.getKey(), name);
+			}
+			int def = instr.getVirtualDef();
+			if (def >= 0) {
+				String name = getRangeName(names, find(parent, siteOfInstruction[i]));
+				(instr.getMnemonic().equals("pop") ? operand2Names : operand1Names).put(def, name);
+			}
+			result.add(instr.replaceVirtualRegisters(operand1Names, operand2Names));
+		}
+		return result;
+	}
+
+	private String getRangeName(Map<Integer, String> names, int site)
+	{
+		String name = names.get(site);
+		if (name == null) {
+			name = newVirtualRegister();
+			names.put(site, name);
+		}
+		return name;
+	}
+
+	private static int find(int[] parent, int site)
+	{
+		while (parent[site] != site) {
+			parent[site] = parent[parent[site]];
+			site = parent[site];
+		}
+		return site;
+	}
+
+	private static void union(int[] parent, int a, int b)
+	{
+		parent[find(parent, b)] = find(parent, a);
+	}
+
+	private String newVirtualRegister()
+	{
+		return Register.virtual(nextVirtualRegister++).toString();
+	}
+
+	private InterferenceGraph buildInterferenceGraph(ControlFlowGraph cfg)
+	{
+		InterferenceGraph graph = new InterferenceGraph();
+		List<BasicBlock> blocks = cfg.getBlocks();
+		int[] loopDepths = computeLoopDepths(blocks);
+
+		for (int i = 0; i < blocks.size(); ++i) {
+			BasicBlock block = blocks.get(i);
+			double weight = Math.pow(10, Math.min(loopDepths[i], 6));
+			BitSet live = (BitSet) block.getLiveOut().clone();
+			List<Instruction> instructions = block.getInstructions();
+			for (int j = instructions.size() - 1; j >= 0; --j) {
+				Instruction instr = instructions.get(j);
+				for (int vreg : instr.getVirtualRegisters()) {
+					graph.addNode(vreg);
+					graph.addCost(vreg, weight);
+				}
+				int def = instr.getVirtualDef();
+				if (def >= 0) {
+					// The source of a copy doesn't interfere with the target
+					// because they contain the same value.
+					int source = getCopySource(instr);
+					for (int r = live.nextSetBit(0); r >= 0; r = live.nextSetBit(r + 1)) {
+						if (r != source)
+							graph.addEdge(def, r);
+					}
+					if (source >= 0)
+						graph.addMove(def, source, weight);
+					live.clear(def);
+				}
+				for (int use : instr.getVirtualUses())
+					live.set(use);
+			}
+		}
+
+		// Registers that are live at function entry (e.g. uninitialized
+		// variables) have no definition where the interference would be
+		// noticed.
+		if (!blocks.isEmpty()) {
+			BitSet entry = blocks.get(0).getLiveIn();
+			for (int a = entry.nextSetBit(0); a >= 0; a = entry.nextSetBit(a + 1)) {
+				for (int b = entry.nextSetBit(a + 1); b >= 0; b = entry.nextSetBit(b + 1))
+					graph.addEdge(a, b);
+			}
+		}
+		return graph;
+	}
+
+	private static int[] computeLoopDepths(List<BasicBlock> blocks)
+	{
+		// A jump backwards in program order closes a loop that contains the
+		// blocks between the target and the jump.
+		Map<BasicBlock, Integer> indices = new HashMap<BasicBlock, Integer>();
+		for (int i = 0; i < blocks.size(); ++i)
+			indices.put(blocks.get(i), i);
+		int[] depths = new int[blocks.size()];
+		for (int i = 0; i < blocks.size(); ++i) {
+			for (BasicBlock succ : blocks.get(i).getSuccessors()) {
+				int target = indices.get(succ);
+				if (target <= i) {
+					for (int j = target; j <= i; ++j)
+						++depths[j];
+				}
+			}
+		}
+		return depths;
+	}
+
+	private static int getCopySource(Instruction instr)
+	{
+		if (!instr.getMnemonic().equals("load"))
+			return -1;
+		String operand = instr.getOperand2();
+		if (operand.length() < 2 || operand.charAt(0) != Register.VIRTUAL_PREFIX)
+			return -1;
+		for (int i = 1; i < operand.length(); ++i) {
+			if (!Character.isDigit(operand.charAt(i)))
+				return -1;
+		}
+		return Integer.parseInt(operand.substring(1));
+	}
+
+	private void coalesce(InterferenceGraph graph, int k)
+	{
+		// Copies in inner loops are coalesced first. Two registers are only
+		// coalesced if the result has fewer than k neighbors of significant
+		// degree (the Briggs test), so coalescing never makes the graph
+		// uncolorable.
+		List<Integer> order = new ArrayList<Integer>();
+		for (int i = 0; i < graph.copies.size(); ++i)
+			order.add(i);
+		final List<Double> weights = graph.copyWeights;
+		Collections.sort(order, new Comparator<Integer>()
+		{
+			@Override
+			public int compare(Integer a, Integer b)
+			{
+				return Double.compare(weights.get(b), weights.get(a));
+			}
+		});
+
+		for (int i : order) {
+			int a = graph.find(graph.copies.get(i)[0]);
+			int b = graph.find(graph.copies.get(i)[1]);
+			if (a == b || graph.edges.get(a).contains(b)
+					|| spillTemporaries.contains(a) || spillTemporaries.contains(b))
+				continue;
+			Set<Integer> neighbors = new HashSet<Integer>(graph.edges.get(a));
+			neighbors.addAll(graph.edges.get(b));
+			int significant = 0;
+			for (int n : neighbors) {
+				int degree = graph.edges.get(n).size();
+				if (graph.edges.get(n).contains(a) && graph.edges.get(n).contains(b))
+					--degree;
+				if (degree >= k)
+					++significant;
+			}
+			if (significant < k)
+				graph.merge(Math.min(a, b), Math.max(a, b));
+		}
+	}
+
+	private List<Integer> color(InterferenceGraph graph, Register[] registers,
+			Map<Integer, Register> colors)
+	{
+		int k = registers.length;
+		coalesce(graph, k);
+
+		// Simplify: repeatedly remove a node with fewer than k neighbors. If
+		// there is none, optimistically remove the cheapest spill candidate.
+		Map<Integer, Integer> degrees = new HashMap<Integer, Integer>();
+		TreeSet<Integer> remaining = new TreeSet<Integer>();
+		for (Map.Entry<Integer, Set<Integer>> entry : graph.edges.entrySet()) {
+			degrees.put(entry.getKey(), entry.getValue().size());
+			remaining.add(entry.getKey());
+		}
+		Deque<Integer> stack = new ArrayDeque<Integer>();
+		while (!remaining.isEmpty()) {
+			Integer node = null;
+			for (int vreg : remaining) {
+				if (degrees.get(vreg) < k) {
+					node = vreg;
+					break;
+				}
+			}
+			if (node == null)
+				node = chooseSpillCandidate(graph, remaining, degrees);
+			remaining.remove(node);
+			stack.push(node);
+			for (int neighbor : graph.edges.get(node)) {
+				if (remaining.contains(neighbor))
+					degrees.put(neighbor, degrees.get(neighbor) - 1);
+			}
+		}
+
+		// Select: color the nodes in reverse order, preferring the colors of
+		// copy related registers so that the copies can be removed.
+		List<Integer> spilled = new ArrayList<Integer>();
+		while (!stack.isEmpty()) {
+			int node = stack.pop();
+			Set<Register> used = new HashSet<Register>();
+			for (int neighbor : graph.edges.get(node)) {
+				if (colors.containsKey(neighbor))
+					used.add(colors.get(neighbor));
+			}
+			Register color = null;
+			Set<Integer> related = graph.moves.get(node);
+			if (related != null) {
+				for (int vreg : related) {
+					Register c = colors.get(graph.find(vreg));
+					if (c != null && !used.contains(c)) {
+						color = c;
+						break;
+					}
+				}
+			}
+			for (int i = 0; color == null && i < k; ++i) {
+				if (!used.contains(registers[i]))
+					color = registers[i];
+			}
+			if (color != null)
+				colors.put(node, color);
+			else
+				spilled.add(node);
+		}
+
+		// Coalesced registers share the color or the spill slot.
+		for (int vreg : graph.aliases.keySet()) {
+			int representative = graph.find(vreg);
+			if (colors.containsKey(representative))
+				colors.put(vreg, colors.get(representative));
+		}
+		return spilled;
+	}
+
+	private int chooseSpillCandidate(InterferenceGraph graph, Set<Integer> remaining,
+			Map<Integer, Integer> degrees)
+	{
+		int best = -1;
+		double bestCost = Double.POSITIVE_INFINITY;
+		for (int vreg : remaining) {
+			double cost = spillTemporaries.contains(vreg) ? Double.POSITIVE_INFINITY
+					: graph.costs.get(vreg) / degrees.get(vreg);
+			if (best < 0 || cost < bestCost) {
+				best = vreg;
+				bestCost = cost;
+			}
+		}
+		return best;
+	}
+
+	private List<Instruction> insertSpillCode(List<Instruction> code, InterferenceGraph graph,
+			List<Integer> spilled)
+	{
+		// Registers that are only loaded with an immediate value are not
+		// stored at all; the immediate operand is used instead of the slot.
+		// Coalesced registers share the spill slot.
+		Map<Integer, Instruction> constantDefs = findConstantDefinitions(code, graph);
+		Map<Integer, String> slots = new HashMap<Integer, String>();
+		for (int vreg : spilled) {
+			Instruction def = constantDefs.get(vreg);
+			if (def != null)
+				slots.put(vreg, def.getOperand2());
+			else {
+				Symbol slot = new InternalSymbol("Spill", scope, "(fp)", Types.INT);
+				spillSlots.add(slot);
+				slots.put(vreg, slot.getReference());
+			}
+		}
+		for (int vreg : graph.aliases.keySet()) {
+			String slot = slots.get(graph.find(vreg));
+			if (slot != null)
+				slots.put(vreg, slot);
+		}
+		Set<Instruction> removed = new HashSet<Instruction>(constantDefs.values());
+
+		List<Instruction> result = new ArrayList<Instruction>(code.size());
+		for (Instruction instr : code) {
+			if (removed.contains(instr) && slots.containsKey(instr.getVirtualDef()))
+				continue;
+			List<Integer> vregs = instr.getVirtualRegisters();
+			Map<Integer, String> names = new HashMap<Integer, String>();
+			for (int vreg : vregs) {
+				if (!names.containsKey(vreg))
+					names.put(vreg, Register.VIRTUAL_PREFIX + "" + vreg);
+			}
+			String label = instr.getLabel();
+			List<Instruction> stores = new ArrayList<Instruction>(1);
+			boolean changed = false;
+			for (int vreg : new TreeSet<Integer>(vregs)) {
+				String slot = slots.get(vreg);
+				if (slot == null)
+					continue;
+				changed = true;
+
+				// Copies within a spill slot are removed, copying a register to
+				// a spilled register is a store and a spilled register that is
+				// only read as the second operand can be accessed directly from
+				// memory.
+				int source = getCopySource(instr);
+				if (instr.getVirtualDef() == vreg && source >= 0 && !instr.hasLabel()
+						&& slot.equals(slots.get(source))) {
+					instr = null;
+					break;
+				}
+				if (instr.getVirtualDef() == vreg && source >= 0 && !slots.containsKey(source)) {
+					instr = new Instruction(instr.getLabel(), Mnemonic.STORE, instr.getOperand2(), slot);
+					names.put(vreg, slot);
+					break;
+				}
+				if (isMemoryOperand(instr, vreg)) {
+					names.put(vreg, slot);
+					continue;
+				}
+
+				String temporary = newVirtualRegister();
+				spillTemporaries.add(Integer.parseInt(temporary.substring(1)));
+				names.put(vreg, temporary);
+				if (instr.getVirtualUses().contains(vreg)) {
+					result.add(new Instruction(label, Mnemonic.LOAD, temporary, slot));
+					label = "";
+				}
+				if (instr.getVirtualDef() == vreg)
+					stores.add(new Instruction("", Mnemonic.STORE, temporary, slot));
+			}
+			if (instr == null)
+				continue;
+			if (!changed) {
+				result.add(instr);
+				continue;
+			}
+			Instruction rewritten = instr.replaceVirtualRegisters(names);
+			rewritten.setLabel(label);
+			result.add(rewritten);
+			result.addAll(stores);
+		}
+		return result;
+	}
+
+	private static Map<Integer, Instruction> findConstantDefinitions(List<Instruction> code,
+			InterferenceGraph graph)
+	{
+		// Definitions of each set of coalesced registers, ignoring the copies
+		// inside the set.
+		Map<Integer, List<Instruction>> defs = new HashMap<Integer, List<Instruction>>();
+		for (Instruction instr : code) {
+			int def = instr.getVirtualDef();
+			if (def < 0)
+				continue;
+			int representative = graph.find(def);
+			int source = getCopySource(instr);
+			if (source >= 0 && graph.find(source) == representative)
+				continue;
+			if (!defs.containsKey(representative))
+				defs.put(representative, new ArrayList<Instruction>(1));
+			defs.get(representative).add(instr);
+		}
+
+		Map<Integer, Instruction> constantDefs = new HashMap<Integer, Instruction>();
+		for (Map.Entry<Integer, List<Instruction>> entry : defs.entrySet()) {
+			if (entry.getValue().size() != 1)
+				continue;
+			Instruction def = entry.getValue().get(0);
+			if (def.getMnemonic().equals("load") && !def.hasLabel()
+					&& def.getOperand2().startsWith("=")
+					&& def.getOperand2().indexOf(Register.VIRTUAL_PREFIX) < 0)
+				constantDefs.put(entry.getKey(), def);
+		}
+		return constantDefs;
+	}
+
+	private static boolean isMemoryOperand(Instruction instr, int vreg)
+	{
+		String name = Register.VIRTUAL_PREFIX + "" + vreg;
+		String mnemonic = instr.getMnemonic();
+		return name.equals(instr.getOperand2()) && !name.equals(instr.getOperand1())
+				&& !mnemonic.equals("pop") && !mnemonic.equals("store");
+	}
+
+	private static List<Instruction> rewrite(List<Instruction> instructions,
+			Map<Integer, Register> colors, Register[] registers)
+	{
+		Map<Integer, String> names = new HashMap<Integer, String>();
+		for (Map.Entry<Integer, Register> entry : colors.entrySet())
+			names.put(entry.getKey(), entry.getValue().toString());
+
+		List<Instruction> result = new ArrayList<Instruction>(instructions.size());
+		String pendingLabel = "";
+		for (int i = 0; i < instructions.size(); ++i) {
+			Instruction instr = instructions.get(i);
+
+			// Registers that are never live (e.g. the ignored register operand
+			// of jequ) can be replaced with any register.
+			for (int vreg : instr.getVirtualRegisters()) {
+				if (!names.containsKey(vreg))
+					names.put(vreg, registers[0].toString());
+			}
+			Instruction allocated = instr.replaceVirtualRegisters(names);
+			if (!pendingLabel.isEmpty()) {
+				allocated.setLabel(pendingLabel);
+				pendingLabel = "";
+			}
+
+			// Copies between registers that got the same color are removed.
+			// A label of a removed copy moves to the next instruction.
+			if (allocated.getMnemonic().equals("load")
+					&& allocated.getOperand1().equals(allocated.getOperand2())) {
+				if (!allocated.hasLabel())
+					continue;
+				Instruction next = i + 1 < instructions.size() ? instructions.get(i + 1) : null;
+				if (next != null && !next.hasLabel() && !next.isPseudo()) {
+					pendingLabel = allocated.getLabel();
+					continue;
+				}
+			}
+			result.add(allocated);
+		}
+		return result;
+	}
+
+	private void findWrittenRegisters(List<Instruction> code, Register[] registers)
+	{
+		Set<String> written = new HashSet<String>();
+		for (Instruction instr : code) {
+			String operand = instr.getWrittenOperand();
+			if (operand != null)
+				written.add(operand);
+		}
+		writtenRegisters.clear();
+		for (Register reg : registers) {
+			if (written.contains(reg.toString()))
+				writtenRegisters.add(reg);
+		}
+	}
+}
@@ -4,12 +4,17 @@ import java.io.IOException;
 import java.util.LinkedList;
 
 /**
- * Manages active and available registers. Active registers are the ones used
- * for current instruction, and there's is always at least one active register,
+ * Manages active virtual registers. Active registers are the ones used for
+ * current instruction, and there's is always at least one active register,
  * which is used for returning expression's value. Number of active registers
  * can be increased with allocate(). When evaluating subexpressions, active
  * registers containing temporary values can be removed without deallocating
  * them with removeFirst().
+ *
+ * <p> Every allocate() returns a new virtual register, so nothing is ever
+ * pushed to stack. The virtual registers are mapped to physical registers
+ * later by RegisterAllocator, which also decides which values are kept in
+ * memory if there are not enough registers.
  */
 public class Registers
 {
@@ -18,30 +23,20 @@ public class Registers
 	 */
 	private final LinkedList<Register> activeRegisters = new LinkedList<Register>();
 	/**
-	 * Registers that don't contain important data.
+	 * Registers that are in use, but are inactive.
 	 */
-	private final LinkedList<Register> freeRegisters = new LinkedList<Register>();
-	/**
-	 * Registers that have been pushed to the program stack.
-	 */
-	private final LinkedList<Register> pushedRegisters = new LinkedList<Register>();
+	private final LinkedList<Register> reservedRegisters = new LinkedList<Register>();
 	/**
-	 * Registers that are in use, but are inactive. These are available for
-	 * reallocation by storing them to memory.
+	 * Number of the next virtual register.
 	 */
-	private final LinkedList<Register> reservedRegisters = new LinkedList<Register>();
+	private int nextVirtualRegister = 0;
 
 	/**
 	 * Constructs a new register manager that starts with one active register.
 	 */
 	public Registers()
 	{
-		// Use all general purpose registers except R0 because it behaves differently.
-		freeRegisters.addFirst(Register.R5);
-		freeRegisters.addFirst(Register.R4);
-		freeRegisters.addFirst(Register.R3);
-		freeRegisters.addFirst(Register.R2);
-		activeRegisters.addFirst(Register.R1);
+		activeRegisters.addFirst(Register.virtual(nextVirtualRegister++));
 	}
 
 	/**
@@ -90,56 +85,28 @@ public class Registers
 	}
 
 	/**
-	 * Increases the number of currently active registers. If there are not
-	 * enough available registers, then pushes one of the reserved registers to
-	 * stack and it will be added as the last to available registers.
+	 * Increases the number of currently active registers by adding a new
+	 * virtual register.
 	 *
-	 * @param asm assembler used for emitting the push instruction
+	 * @param asm assembler used for emitting instructions (currently unused)
 	 * @throws IOException if assembler throws
 	 */
 	public void allocate(Assembler asm) throws IOException
 	{
-		// Free up a register if there's none.
-		Register pushedRegister = null;
-		if (freeRegisters.isEmpty()) {
-			// Get first non-available register.
-			if (reservedRegisters.isEmpty())
-				throw new InternalCompilerException("Too many registers allocated.");
-			pushedRegister = reservedRegisters.removeFirst();
-
-			freeRegisters.addLast(pushedRegister);
-
-			// Push chosen register to stack.
-			asm.emit("push", "sp", pushedRegister.toString());
-		}
-		pushedRegisters.push(pushedRegister);
-
-		activeRegisters.addLast(freeRegisters.removeFirst());
+		activeRegisters.addLast(Register.virtual(nextVirtualRegister++));
 	}
 
 	/**
 	 * Decreases the number of active registers by deallocating the register
-	 * allocated by the previous call to allocate(). If allocate() pushed a
-	 * register to stack, then popRegister will emit the corresponding pop
-	 * instruction and remove the register from available registers.
+	 * allocated by the previous call to allocate().
 	 *
-	 * @param asm assembler used for emitting the pop instruction
+	 * @param asm assembler used for emitting instructions (currently unused)
 	 * @throws IOException if assembler throws
 	 */
 	public void deallocate(Assembler asm) throws IOException
 	{
 		if (activeRegisters.isEmpty())
 			throw new InternalCompilerException("No registers to deallocate.");
-
-		freeRegisters.addFirst(activeRegisters.removeLast());
-
-		Register pushedRegister = pushedRegisters.pop();
-		if (pushedRegister != null) {
-			// Pop register from stack.
-			asm.emit("pop", "sp", pushedRegister.toString());
-
-			// Put back to reserved registers.
-			reservedRegisters.addFirst(freeRegisters.removeLast());
-		}
+		activeRegisters.removeLast();
 	}
 }
@@ -5,8 +5,11 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import titocc.compiler.Assembler;
+import titocc.compiler.Mnemonic;
+import titocc.compiler.Register;
 import titocc.compiler.Registers;
 import titocc.compiler.Scope;
+import titocc.compiler.Symbol;
 import titocc.compiler.types.CType;
 import titocc.tokenizer.SyntaxException;
 import titocc.tokenizer.TokenStream;
@@ -67,15 +70,46 @@ public class ArgumentList extends CodeElement
 
 		Iterator<CType> paramIterator = paramTypes.iterator();
 		for (Expression arg : arguments) {
-			CType paramType = paramIterator.next();
-			if (!arg.isAssignableTo(paramType, scope))
-				throw new SyntaxException("Argument type doesn't match type of the parameter.", arg.getLine(), arg.getColumn());
+			compileArgument(asm, scope, regs, arg, paramIterator.next());
+			asm.emit(Mnemonic.PUSH, Register.SP, regs.get(0));
+		}
+	}
+
+	/**
+	 * Generates assembly code to evaluate the arguments from left to right and
+	 * store the values to variables. Used for passing the arguments to an
+	 * inlined function.
+	 *
+	 * @param asm assembler used for code generation
+	 * @param scope scope in which the arguments are evaluated
+	 * @param regs available registers; must have at least one active register
+	 * @param parameters variables that receive the argument values
+	 * @throws SyntaxException if argument list contains an error
+	 * @throws IOException if assembler throws
+	 */
+	public void compileToVariables(Assembler asm, Scope scope, Registers regs,
+			List<Symbol> parameters) throws SyntaxException, IOException
+	{
+		if (parameters.size() != arguments.size())
+			throw new SyntaxException("Number of arguments doesn't match the number of parameters.", getLine(), getColumn());
 
-			arg.compile(asm, scope, regs);
-			asm.emit("push", "sp", regs.get(0).toString());
+		Iterator<Symbol> paramIterator = parameters.iterator();
+		for (Expression arg : arguments) {
+			Symbol param = paramIterator.next();
+			compileArgument(asm, scope, regs, arg, param.getType());
+			asm.emit(Mnemonic.STORE, regs.get(0), param.getReference());
 		}
 	}
 
+	private void compileArgument(Assembler asm, Scope scope, Registers regs, Expression arg,
+			CType paramType) throws SyntaxException, IOException
+	{
+		if (!arg.isAssignableTo(paramType, scope))
+			throw new SyntaxException("Argument type doesn't match type of the parameter.", arg.getLine(), arg.getColumn());
+
+		arg.compile(asm, scope, regs);
+	}
+
 	@Override
 	public String toString()
 	{
@@ -95,6 +129,10 @@ public class ArgumentList extends CodeElement
 	 */
 	public static ArgumentList parse(TokenStream tokens)
 	{
+		if (tokens.isMemoized(ParseRule.ARGUMENT_LIST))
+			return (ArgumentList) tokens.recall(ParseRule.ARGUMENT_LIST);
+
+		int start = tokens.getPosition();
 		int line = tokens.getLine(), column = tokens.getColumn();
 		tokens.pushMark();
 		ArgumentList argList = null;
@@ -116,6 +154,7 @@ public class ArgumentList extends CodeElement
 		}
 
 		tokens.popMark(argList == null);
+		tokens.memoize(ParseRule.ARGUMENT_LIST, start, argList);
 		return argList;
 	}
 }
@@ -5,6 +5,7 @@ import java.util.HashMap;
 import java.util.Map;
 import titocc.compiler.Assembler;
 import titocc.compiler.Lvalue;
+import titocc.compiler.Mnemonic;
 import titocc.compiler.Registers;
 import titocc.compiler.Scope;
 import titocc.compiler.types.CType;
@@ -36,10 +37,10 @@ public class AssignmentExpression extends Expression
 	 */
 	private static class Operator
 	{
-		public String mnemonic;
+		public Mnemonic mnemonic;
 		public Type type;
 
-		public Operator(String mnemonic, Type type)
+		public Operator(Mnemonic mnemonic, Type type)
 		{
 			this.mnemonic = mnemonic;
 			this.type = type;
@@ -51,17 +52,17 @@ public class AssignmentExpression extends Expression
 	static final Map<String, Operator> assignmentOperators = new HashMap<String, Operator>()
 	{
 		{
-			put("=", new Operator("", Type.SIMPLE));
-			put("+=", new Operator("add", Type.COMMUTATIVE));
-			put("*=", new Operator("mul", Type.COMMUTATIVE));
-			put("&=", new Operator("and", Type.COMMUTATIVE));
-			put("|=", new Operator("or", Type.COMMUTATIVE));
-			put("^=", new Operator("xor", Type.COMMUTATIVE));
-			put("-=", new Operator("sub", Type.NONCOMMUTATIVE));
-			put("/=", new Operator("div", Type.NONCOMMUTATIVE));
-			put("%=", new Operator("mod", Type.NONCOMMUTATIVE));
-			put("<<=", new Operator("shl", Type.NONCOMMUTATIVE));
-			put(">>=", new Operator("shr", Type.NONCOMMUTATIVE));
+			put("=", new Operator(null, Type.SIMPLE));
+			put("+=", new Operator(Mnemonic.ADD, Type.COMMUTATIVE));
+			put("*=", new Operator(Mnemonic.MUL, Type.COMMUTATIVE));
+			put("&=", new Operator(Mnemonic.AND, Type.COMMUTATIVE));
+			put("|=", new Operator(Mnemonic.OR, Type.COMMUTATIVE));
+			put("^=", new Operator(Mnemonic.XOR, Type.COMMUTATIVE));
+			put("-=", new Operator(Mnemonic.SUB, Type.NONCOMMUTATIVE));
+			put("/=", new Operator(Mnemonic.DIV, Type.NONCOMMUTATIVE));
+			put("%=", new Operator(Mnemonic.MOD, Type.NONCOMMUTATIVE));
+			put("<<=", new Operator(Mnemonic.SHL, Type.NONCOMMUTATIVE));
+			put(">>=", new Operator(Mnemonic.SHR, Type.NONCOMMUTATIVE));
 		}
 	};
 	/**
@@ -159,7 +160,7 @@ public class AssignmentExpression extends Expression
 		// Evaluate LHS and load address to 2nd register.
 		Lvalue leftVal = compileLeft(asm, scope, regs);
 
-		asm.emit("store", regs.get(0).toString(), leftVal.getReference());
+		asm.emit(Mnemonic.STORE, regs.get(0), leftVal.getReference());
 	}
 
 	private void compileCommutative(Assembler asm, Scope scope, Registers regs)
@@ -170,17 +171,15 @@ public class AssignmentExpression extends Expression
 
 		// If operation is POINTER += INTEGER, we need to scale the integer value.
 		int incSize = left.getType(scope).getIncrementSize();
-		if (incSize > 1) {
-			asm.emit("mul", regs.get(0).toString(), "=" + incSize);
-		}
+		compileMultiplication(asm, regs.get(0), incSize);
 
 		// Evaluate LHS; load address to 2nd register.
 		Lvalue leftVal = compileLeft(asm, scope, regs);
 
 		// Because the operation is symmetric, we can use the left operand
 		// as the right operand in the assembly instruction, saving one register.
-		asm.emit(operator.mnemonic, regs.get(0).toString(), leftVal.getReference());
-		asm.emit("store", regs.get(0).toString(), leftVal.getReference());
+		asm.emit(operator.mnemonic, regs.get(0), leftVal.getReference());
+		asm.emit(Mnemonic.STORE, regs.get(0), leftVal.getReference());
 	}
 
 	private void compileNoncommutative(Assembler asm, Scope scope, Registers regs)
@@ -189,6 +188,16 @@ public class AssignmentExpression extends Expression
 		// Evaluate LHS; load address to 2nd register.
 		Lvalue leftVal = compileLeft(asm, scope, regs);
 
+		// Constant or variable RHS can be used directly as the operand.
+		int incSize = left.getType(scope).getIncrementSize();
+		String rightOperand = incSize > 1 ? null : right.getDirectOperand(scope);
+		if (rightOperand != null) {
+			asm.emit(Mnemonic.LOAD, regs.get(0), leftVal.getReference());
+			asm.emit(operator.mnemonic, regs.get(0), rightOperand);
+			asm.emit(Mnemonic.STORE, regs.get(0), leftVal.getReference());
+			return;
+		}
+
 		// Evaluate RHS; load value to 3rd register.
 		regs.allocate(asm);
 		regs.removeFirst();
@@ -198,17 +207,14 @@ public class AssignmentExpression extends Expression
 		regs.addFirst();
 
 		// If operation is POINTER -= INTEGER, we need to scale the integer value.
-		int incSize = left.getType(scope).getIncrementSize();
-		if (incSize > 1) {
-			asm.emit("mul", regs.get(2).toString(), "=" + incSize);
-		}
+		compileMultiplication(asm, regs.get(2), incSize);
 
 		// Load LHS value to 1st register and operate on it.
-		asm.emit("load", regs.get(0).toString(), leftVal.getReference());
-		asm.emit(operator.mnemonic, regs.get(0).toString(), regs.get(2).toString());
+		asm.emit(Mnemonic.LOAD, regs.get(0), leftVal.getReference());
+		asm.emit(operator.mnemonic, regs.get(0), regs.get(2));
 
 		// Store result to LHS variable.
-		asm.emit("store", regs.get(0).toString(), leftVal.getReference());
+		asm.emit(Mnemonic.STORE, regs.get(0), leftVal.getReference());
 
 		// Deallocate the third register.
 		regs.deallocate(asm);
@@ -244,7 +250,7 @@ public class AssignmentExpression extends Expression
 	}
 
 	@Override
-	public CType getType(Scope scope) throws SyntaxException
+	protected CType resolveType(Scope scope) throws SyntaxException
 	{
 		return left.getType(scope);
 	}
@@ -264,6 +270,10 @@ public class AssignmentExpression extends Expression
 	 */
 	public static Expression parse(TokenStream tokens)
 	{
+		if (tokens.isMemoized(ParseRule.ASSIGNMENT_EXPRESSION))
+			return (Expression) tokens.recall(ParseRule.ASSIGNMENT_EXPRESSION);
+
+		int start = tokens.getPosition();
 		int line = tokens.getLine(), column = tokens.getColumn();
 		tokens.pushMark();
 		Expression expr = BinaryExpression.parse(tokens);
@@ -281,6 +291,7 @@ public class AssignmentExpression extends Expression
 		}
 
 		tokens.popMark(expr == null);
+		tokens.memoize(ParseRule.ASSIGNMENT_EXPRESSION, start, expr);
 		return expr;
 	}
 }
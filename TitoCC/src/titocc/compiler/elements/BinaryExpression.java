@@ -1,15 +1,21 @@
 package titocc.compiler.elements;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import titocc.compiler.Assembler;
+import titocc.compiler.Mnemonic;
+import titocc.compiler.Register;
 import titocc.compiler.Registers;
 import titocc.compiler.Scope;
 import titocc.compiler.types.CType;
-import titocc.compiler.types.IntType;
+import titocc.compiler.types.Types;
 import titocc.compiler.types.VoidType;
+import titocc.tokenizer.PunctuatorToken;
 import titocc.tokenizer.SyntaxException;
+import titocc.tokenizer.Token;
 import titocc.tokenizer.TokenStream;
 
 /**
@@ -55,11 +61,11 @@ public class BinaryExpression extends Expression
 	 */
 	private static class Operator
 	{
-		public String mnemonic;
+		public Mnemonic mnemonic;
 		public Type type;
 		int priority;
 
-		public Operator(String mnemonic, Type type, int priority)
+		public Operator(Mnemonic mnemonic, Type type, int priority)
 		{
 			this.mnemonic = mnemonic;
 			this.type = type;
@@ -72,26 +78,68 @@ public class BinaryExpression extends Expression
 	static final Map<String, Operator> binaryOperators = new HashMap<String, Operator>()
 	{
 		{
-			put("||", new Operator("jnzer", Type.LOGICAL, 1));
-			put("&&", new Operator("jzer", Type.LOGICAL, 2));
-			put("|", new Operator("or", Type.BITWISE, 3));
-			put("^", new Operator("xor", Type.BITWISE, 4));
-			put("&", new Operator("and", Type.BITWISE, 5));
-			put("==", new Operator("jequ", Type.EQUALITY, 6));
-			put("!=", new Operator("jnequ", Type.EQUALITY, 7));
-			put("<", new Operator("jles", Type.RELATIONAL, 8));
-			put("<=", new Operator("jngre", Type.RELATIONAL, 8));
-			put(">", new Operator("jgre", Type.RELATIONAL, 8));
-			put(">=", new Operator("jnles", Type.RELATIONAL, 8));
-			put("<<", new Operator("shl", Type.BITWISE, 9));
-			put(">>", new Operator("shr", Type.BITWISE, 9));
-			put("+", new Operator("add", Type.ARITHMETIC, 10));
-			put("-", new Operator("sub", Type.ARITHMETIC, 10));
-			put("*", new Operator("mul", Type.ARITHMETIC, 11));
-			put("/", new Operator("div", Type.ARITHMETIC, 11));
-			put("%", new Operator("mod", Type.ARITHMETIC, 11));
+			put("||", new Operator(Mnemonic.JNZER, Type.LOGICAL, 1));
+			put("&&", new Operator(Mnemonic.JZER, Type.LOGICAL, 2));
+			put("|", new Operator(Mnemonic.OR, Type.BITWISE, 3));
+			put("^", new Operator(Mnemonic.XOR, Type.BITWISE, 4));
+			put("&", new Operator(Mnemonic.AND, Type.BITWISE, 5));
+			put("==", new Operator(Mnemonic.JEQU, Type.EQUALITY, 6));
+			put("!=", new Operator(Mnemonic.JNEQU, Type.EQUALITY, 7));
+			put("<", new Operator(Mnemonic.JLES, Type.RELATIONAL, 8));
+			put("<=", new Operator(Mnemonic.JNGRE, Type.RELATIONAL, 8));
+			put(">", new Operator(Mnemonic.JGRE, Type.RELATIONAL, 8));
+			put(">=", new Operator(Mnemonic.JNLES, Type.RELATIONAL, 8));
+			put("<<", new Operator(Mnemonic.SHL, Type.BITWISE, 9));
+			put(">>", new Operator(Mnemonic.SHR, Type.BITWISE, 9));
+			put("+", new Operator(Mnemonic.ADD, Type.ARITHMETIC, 10));
+			put("-", new Operator(Mnemonic.SUB, Type.ARITHMETIC, 10));
+			put("*", new Operator(Mnemonic.MUL, Type.ARITHMETIC, 11));
+			put("/", new Operator(Mnemonic.DIV, Type.ARITHMETIC, 11));
+			put("%", new Operator(Mnemonic.MOD, Type.ARITHMETIC, 11));
 		}
 	};
+	/**
+	 * Negations of the conditional jumps used for comparison operators.
+	 */
+	private static final Map<Mnemonic, Mnemonic> negatedJumps = new HashMap<Mnemonic, Mnemonic>()
+	{
+		{
+			put(Mnemonic.JEQU, Mnemonic.JNEQU);
+			put(Mnemonic.JNEQU, Mnemonic.JEQU);
+			put(Mnemonic.JLES, Mnemonic.JNLES);
+			put(Mnemonic.JNLES, Mnemonic.JLES);
+			put(Mnemonic.JGRE, Mnemonic.JNGRE);
+			put(Mnemonic.JNGRE, Mnemonic.JGRE);
+		}
+	};
+	/**
+	 * Binary operators indexed by punctuator index. Null for punctuators that
+	 * are not binary operators.
+	 */
+	private static final Operator[] operatorTable = new Operator[PunctuatorToken.getPunctuatorCount()];
+
+	static {
+		for (Map.Entry<String, Operator> entry : binaryOperators.entrySet())
+			operatorTable[PunctuatorToken.indexOf(entry.getKey())] = entry.getValue();
+	}
+
+	/**
+	 * Operand and the position of its first token. The position is needed
+	 * because it is not always the position of the operand expression (e.g.
+	 * for parenthesized expressions).
+	 */
+	private static class Operand
+	{
+		public Expression expression;
+		public int line, column;
+
+		public Operand(Expression expression, int line, int column)
+		{
+			this.expression = expression;
+			this.line = line;
+			this.column = column;
+		}
+	}
 	/**
 	 * Binary operator as a string.
 	 */
@@ -104,6 +152,14 @@ public class BinaryExpression extends Expression
 	 * Right hand side expression.
 	 */
 	private Expression right;
+	/**
+	 * Cached compile time value or null if not constant.
+	 */
+	private Integer compileTimeValue;
+	/**
+	 * True if compileTimeValue has been computed.
+	 */
+	private boolean compileTimeValueComputed = false;
 
 	/**
 	 * Constructs a BinaryExpression.
@@ -159,18 +215,34 @@ public class BinaryExpression extends Expression
 	{
 		checkTypes(scope);
 
+		if (compileConstantExpression(asm, scope, regs))
+			return;
+
+		Type opType = binaryOperators.get(operator).type;
+		if (opType == Type.LOGICAL) {
+			compileLogicalOperator(asm, scope, regs);
+			return;
+		}
+
 		// Evaluate LHS; load value to 1st register.
 		left.compile(asm, scope, regs);
 
+		// Constant or variable right operand can be used directly.
+		String rightOperand = getRightOperand(scope);
+		if (rightOperand != null) {
+			if (opType == Type.RELATIONAL || opType == Type.EQUALITY)
+				compileComparison(asm, scope, regs, rightOperand);
+			else if (!compileConstantOperator(asm, scope, regs))
+				asm.emit(binaryOperators.get(operator).mnemonic, regs.get(0), rightOperand);
+			return;
+		}
+
 		// Allocate a second register for right operand.
 		regs.allocate(asm);
 
 		// Compile right expression and the operator.
-		Type opType = binaryOperators.get(operator).type;
 		if (opType == Type.BITWISE || opType == Type.ARITHMETIC)
 			compileSimpleOperator(asm, scope, regs);
-		else if (opType == Type.LOGICAL)
-			compileLogicalOperator(asm, scope, regs);
 		else if (opType == Type.RELATIONAL || opType == Type.EQUALITY)
 			compileComparisonOperator(asm, scope, regs);
 
@@ -178,6 +250,115 @@ public class BinaryExpression extends Expression
 		regs.deallocate(asm);
 	}
 
+	@Override
+	public void compileAsCondition(Assembler asm, Scope scope, Registers regs,
+			String label, boolean jumpIfTrue) throws SyntaxException, IOException
+	{
+		checkTypes(scope);
+
+		Type opType = binaryOperators.get(operator).type;
+		if (getCompileTimeValue() != null
+				|| (opType != Type.LOGICAL && opType != Type.RELATIONAL && opType != Type.EQUALITY)) {
+			super.compileAsCondition(asm, scope, regs, label, jumpIfTrue);
+			return;
+		}
+
+		if (opType == Type.LOGICAL) {
+			// Short circuit evaluation. The left operand either decides the
+			// result (jump to label) or skips to after the right operand.
+			boolean and = operator.equals("&&");
+			if (and == jumpIfTrue) {
+				String skipLabel = scope.makeGloballyUniqueName("lbl");
+				left.compileAsCondition(asm, scope, regs, skipLabel, !and);
+				right.compileAsCondition(asm, scope, regs, label, jumpIfTrue);
+				asm.addLabel(skipLabel);
+			} else {
+				left.compileAsCondition(asm, scope, regs, label, jumpIfTrue);
+				right.compileAsCondition(asm, scope, regs, label, jumpIfTrue);
+			}
+			return;
+		}
+
+		// Compare and jump directly on the state register.
+		left.compile(asm, scope, regs);
+		String rightOperand = getRightOperand(scope);
+		if (rightOperand == null) {
+			regs.allocate(asm);
+			compileRight(asm, scope, regs);
+			asm.emit(Mnemonic.COMP, regs.get(0), regs.get(1));
+			regs.deallocate(asm);
+		} else
+			asm.emit(Mnemonic.COMP, regs.get(0), rightOperand);
+		Mnemonic jump = binaryOperators.get(operator).mnemonic;
+		asm.emit(jumpIfTrue ? jump : negatedJumps.get(jump), regs.get(0), label);
+	}
+
+	/**
+	 * Returns the right operand as an immediate or memory operand if it can be
+	 * used directly in the instruction of the operator.
+	 *
+	 * @param scope scope in which the expression is evaluated
+	 * @return the operand or null if it must be evaluated to a register
+	 * @throws SyntaxException if expression contains an error
+	 */
+	private String getRightOperand(Scope scope) throws SyntaxException
+	{
+		String operand = right.getDirectOperand(scope);
+		if (operand == null)
+			return null;
+
+		Type opType = binaryOperators.get(operator).type;
+		if (opType == Type.RELATIONAL || opType == Type.EQUALITY)
+			return operand;
+		int leftIncrSize = left.getType(scope).getIncrementSize();
+		int rightIncrSize = right.getType(scope).getIncrementSize();
+		if (leftIncrSize <= 1 && rightIncrSize <= 1)
+			return operand;
+
+		// POINTER + CONSTANT or POINTER - CONSTANT; scale the constant.
+		Integer value = right.getCompileTimeValue();
+		if (value != null && rightIncrSize <= 1) {
+			long scaled = (long) value * leftIncrSize;
+			if (scaled < 32768 && scaled >= -32768)
+				return Assembler.immediate((int) scaled);
+		}
+		return null;
+	}
+
+	/**
+	 * Generates cheaper code for multiplication, division and modulo by a
+	 * constant if possible. Left operand has already been evaluated to the
+	 * first register.
+	 *
+	 * @param asm assembler used for code generation
+	 * @param scope scope in which the expression is evaluated
+	 * @param regs available registers; the first one contains the left operand
+	 * @return true if code was generated
+	 * @throws SyntaxException if expression contains an error
+	 * @throws IOException if assembler throws
+	 */
+	private boolean compileConstantOperator(Assembler asm, Scope scope, Registers regs)
+			throws SyntaxException, IOException
+	{
+		Integer value = right.getCompileTimeValue();
+		if (value == null || left.getType(scope).getIncrementSize() > 1)
+			return false;
+
+		Register register = regs.get(0);
+		if (operator.equals("*") && (value == 1 || log2(value) > 0)) {
+			compileMultiplication(asm, register, value);
+			return true;
+		} else if (operator.equals("/") && value == 1) {
+			return true;
+		} else if (operator.equals("%") && log2(value) >= 0 && left.isNonNegative(scope)) {
+			// Remainder of a negative value is negative, so this is only
+			// correct for non-negative left operand.
+			asm.emit(Mnemonic.AND, register, value - 1);
+			return true;
+		}
+		return false;
+	}
+
 	private void compileRight(Assembler asm, Scope scope, Registers regs)
 			throws SyntaxException, IOException
 	{
@@ -196,21 +377,21 @@ public class BinaryExpression extends Expression
 		if (leftIncrSize > 1 && rightIncrSize > 1) {
 			// POINTER - POINTER.
 			compileRight(asm, scope, regs);
-			asm.emit(binaryOperators.get(operator).mnemonic, regs.get(0).toString(), regs.get(1).toString());
-			asm.emit("div", regs.get(0).toString(), "=" + leftIncrSize);
+			asm.emit(binaryOperators.get(operator).mnemonic, regs.get(0), regs.get(1));
+			compileExactDivision(asm, regs.get(0), leftIncrSize);
 		} else if (leftIncrSize > 1) {
 			// POINTER + INTEGER or POINTER - INTEGER.
 			compileRight(asm, scope, regs);
-			asm.emit("mul", regs.get(1).toString(), "=" + leftIncrSize);
-			asm.emit(binaryOperators.get(operator).mnemonic, regs.get(0).toString(), regs.get(1).toString());
+			compileMultiplication(asm, regs.get(1), leftIncrSize);
+			asm.emit(binaryOperators.get(operator).mnemonic, regs.get(0), regs.get(1));
 		} else if (rightIncrSize > 1) {
 			// INTEGER + POINTER.
-			asm.emit("mul", regs.get(0).toString(), "=" + rightIncrSize);
+			compileMultiplication(asm, regs.get(0), rightIncrSize);
 			compileRight(asm, scope, regs);
-			asm.emit(binaryOperators.get(operator).mnemonic, regs.get(0).toString(), regs.get(1).toString());
+			asm.emit(binaryOperators.get(operator).mnemonic, regs.get(0), regs.get(1));
 		} else {
 			compileRight(asm, scope, regs);
-			asm.emit(binaryOperators.get(operator).mnemonic, regs.get(0).toString(), regs.get(1).toString());
+			asm.emit(binaryOperators.get(operator).mnemonic, regs.get(0), regs.get(1));
 		}
 	}
 
@@ -218,39 +399,129 @@ public class BinaryExpression extends Expression
 			throws IOException, SyntaxException
 	{
 		compileRight(asm, scope, regs);
+		compileComparison(asm, scope, regs, regs.get(1).toString());
+	}
+
+	private void compileComparison(Assembler asm, Scope scope, Registers regs, String rightOperand)
+			throws IOException, SyntaxException
+	{
 		String jumpLabel = scope.makeGloballyUniqueName("lbl");
-		asm.emit("comp", regs.get(0).toString(), regs.get(1).toString());
-		asm.emit("load", regs.get(0).toString(), "=1");
-		asm.emit(binaryOperators.get(operator).mnemonic, regs.get(0).toString(), jumpLabel);
-		asm.emit("load", regs.get(0).toString(), "=0");
+		asm.emit(Mnemonic.COMP, regs.get(0), rightOperand);
+		asm.emit(Mnemonic.LOAD, regs.get(0), 1);
+		asm.emit(binaryOperators.get(operator).mnemonic, regs.get(0), jumpLabel);
+		asm.emit(Mnemonic.LOAD, regs.get(0), 0);
 		asm.addLabel(jumpLabel);
 	}
 
 	private void compileLogicalOperator(Assembler asm, Scope scope, Registers regs)
 			throws IOException, SyntaxException
 	{
-		// Short circuit evaluation; only evaluate RHS if necessary.
-		String jumpLabel = scope.makeGloballyUniqueName("lbl");
-		String jumpLabel2 = scope.makeGloballyUniqueName("lbl");
-		asm.emit(binaryOperators.get(operator).mnemonic, regs.get(0).toString(), jumpLabel);
-		compileRight(asm, scope, regs);
-		asm.emit(binaryOperators.get(operator).mnemonic, regs.get(1).toString(), jumpLabel);
-		asm.emit("load", regs.get(0).toString(), operator.equals("||") ? "=0" : "=1");
-		asm.emit("jump", regs.get(0).toString(), jumpLabel2);
-		asm.addLabel(jumpLabel);
-		asm.emit("load", regs.get(0).toString(), operator.equals("||") ? "=1" : "=0");
-		asm.addLabel(jumpLabel2);
+		// Evaluate as a condition and materialize the result as 0 or 1.
+		String falseLabel = scope.makeGloballyUniqueName("lbl");
+		String endLabel = scope.makeGloballyUniqueName("lbl");
+		compileAsCondition(asm, scope, regs, falseLabel, false);
+		asm.emit(Mnemonic.LOAD, regs.get(0), 1);
+		asm.emit(Mnemonic.JUMP, regs.get(0), endLabel);
+		asm.addLabel(falseLabel);
+		asm.emit(Mnemonic.LOAD, regs.get(0), 0);
+		asm.addLabel(endLabel);
 	}
 
 	@Override
-	public Integer getCompileTimeValue()
+	public boolean isNonNegative(Scope scope) throws SyntaxException
 	{
-		// Compile time evaluation of binary operators could be implemented here.
+		if (getCompileTimeValue() != null)
+			return super.isNonNegative(scope);
+
+		Type opType = binaryOperators.get(operator).type;
+		if (opType == Type.LOGICAL || opType == Type.RELATIONAL || opType == Type.EQUALITY)
+			return true;
+		if (operator.equals("&"))
+			return left.isNonNegative(scope) || right.isNonNegative(scope);
+		if (operator.equals("|") || operator.equals("^") || operator.equals("/"))
+			return left.isNonNegative(scope) && right.isNonNegative(scope);
+		if (operator.equals("%"))
+			return left.isNonNegative(scope);
+		if (operator.equals(">>")) {
+			// Right shift is logical, so shifting by at least one clears the
+			// sign bit.
+			Integer shift = right.getCompileTimeValue();
+			return left.isNonNegative(scope) || (shift != null && shift >= 1 && shift <= 31);
+		}
+		return false;
+	}
+
+	@Override
+	public Integer getCompileTimeValue() throws SyntaxException
+	{
+		// The value is cached because every enclosing binary expression asks
+		// for the value of its operands.
+		if (!compileTimeValueComputed) {
+			compileTimeValue = evaluate();
+			compileTimeValueComputed = true;
+		}
+		return compileTimeValue;
+	}
+
+	private Integer evaluate() throws SyntaxException
+	{
+		Integer leftValue = left.getCompileTimeValue();
+		if (leftValue == null)
+			return null;
+		Integer rightValue = right.getCompileTimeValue();
+		if (rightValue == null)
+			return null;
+
+		// Arithmetic wraps around like 32-bit ttk-91 arithmetic does. Division
+		// and modulo truncate towards zero like the div and mod instructions.
+		int l = leftValue, r = rightValue;
+		if (operator.equals("||"))
+			return (l != 0 || r != 0) ? 1 : 0;
+		else if (operator.equals("&&"))
+			return (l != 0 && r != 0) ? 1 : 0;
+		else if (operator.equals("|"))
+			return l | r;
+		else if (operator.equals("^"))
+			return l ^ r;
+		else if (operator.equals("&"))
+			return l & r;
+		else if (operator.equals("=="))
+			return l == r ? 1 : 0;
+		else if (operator.equals("!="))
+			return l != r ? 1 : 0;
+		else if (operator.equals("<"))
+			return l < r ? 1 : 0;
+		else if (operator.equals("<="))
+			return l <= r ? 1 : 0;
+		else if (operator.equals(">"))
+			return l > r ? 1 : 0;
+		else if (operator.equals(">="))
+			return l >= r ? 1 : 0;
+		else if (operator.equals("+"))
+			return l + r;
+		else if (operator.equals("-"))
+			return l - r;
+		else if (operator.equals("*"))
+			return l * r;
+
+		// Division by zero and shifts by an amount outside 0..31 are left to
+		// run time so that the program behaves the same as without folding.
+		if (operator.equals("/"))
+			return r != 0 ? l / r : null;
+		else if (operator.equals("%"))
+			return r != 0 ? l % r : null;
+		else if (r < 0 || r > 31)
+			return null;
+		else if (operator.equals("<<"))
+			return l << r;
+		else if (operator.equals(">>"))
+			return l >>> r; // shr is a logical shift.
+
 		return null;
 	}
 
 	@Override
-	public CType getType(Scope scope) throws SyntaxException
+	protected CType resolveType(Scope scope) throws SyntaxException
 	{
 		return checkTypes(scope);
 	}
@@ -271,47 +542,47 @@ public class BinaryExpression extends Expression
 
 		if (op.type == Type.LOGICAL) {
 			if (leftType.isScalar() && rightType.isScalar())
-				return new IntType();
+				return Types.INT;
 		} else if (op.type == Type.EQUALITY) {
 			if (leftType.isArithmetic() && rightType.isArithmetic())
-				return new IntType();
+				return Types.INT;
 			if (leftDeref.equals(rightDeref))
-				return new IntType();
+				return Types.INT;
 			if (leftDeref.isValid() && rightDeref.isValid()
 					&& (leftDeref instanceof VoidType || rightDeref instanceof VoidType))
-				return new IntType();
+				return Types.INT;
 			if (leftDeref.isValid() && rightType.isInteger()
 					&& new Integer(0).equals(right.getCompileTimeValue()))
-				return new IntType();
+				return Types.INT;
 			if (rightDeref.isValid() && leftType.isInteger()
 					&& new Integer(0).equals(left.getCompileTimeValue()))
-				return new IntType();
+				return Types.INT;
 		} else if (op.type == Type.RELATIONAL) {
 			if (leftType.isArithmetic() && rightType.isArithmetic())
-				return new IntType();
+				return Types.INT;
 			if (leftDeref.equals(rightDeref))
-				return new IntType();
+				return Types.INT;
 		} else if (operator.equals("+")) {
 			if (leftType.isArithmetic() && rightType.isArithmetic())
-				return new IntType();
+				return Types.INT;
 			if (leftDeref.isObject() && rightType.isInteger())
 				return leftType;
 			if (leftType.isInteger() && rightDeref.isObject())
 				return rightType;
 		} else if (operator.equals("-")) {
 			if (leftType.isArithmetic() && rightType.isArithmetic())
-				return new IntType();
+				return Types.INT;
 			if (leftDeref.isObject() && rightType.isInteger())
 				return leftType;
 			if (leftDeref.isObject() && rightDeref.equals(leftDeref))
-				return new IntType();
+				return Types.INT;
 		} else if (op.type == Type.BITWISE) {
 			if (leftType.isInteger() && rightType.isInteger())
-				return new IntType();
+				return Types.INT;
 		} else if (op.type == Type.ARITHMETIC) {
 			if (leftType.isArithmetic() && (rightType.isInteger()
 					|| (!operator.equals("%") && rightType.isArithmetic())))
-				return new IntType();
+				return Types.INT;
 		}
 
 		throw new SyntaxException("Incompatible operands for operator " + operator + ".", getLine(), getColumn());
@@ -321,43 +592,95 @@ public class BinaryExpression extends Expression
 	 * Attempts to parse a syntactic binary expression from token stream. If
 	 * parsing fails the stream is reset to its initial position.
 	 *
+	 * <p> Uses operator precedence parsing with explicit stacks: each operand
+	 * (a prefix expression) is parsed once, and the operator priorities are
+	 * looked up from a table indexed by the punctuator index. The resulting
+	 * trees are the same as from the recursive grammar in the class
+	 * description.
+	 *
 	 * @param tokens source token stream
 	 * @return Expression object or null if tokens don't form a valid expression
 	 */
 	public static Expression parse(TokenStream tokens)
 	{
-		return parseImpl(tokens, 0);
-	}
-
-	/**
-	 * Recursive implementation of the parsing method. Each call parses one
-	 * priority level of binary operators.
-	 */
-	private static Expression parseImpl(TokenStream tokens, int priority)
-	{
-		if (priority == 12)
-			return PrefixExpression.parse(tokens);
+		if (tokens.isMemoized(ParseRule.BINARY_EXPRESSION))
+			return (Expression) tokens.recall(ParseRule.BINARY_EXPRESSION);
 
-		int line = tokens.getLine(), column = tokens.getColumn();
-		tokens.pushMark();
-		Expression expr = parseImpl(tokens, priority + 1);
+		int start = tokens.getPosition();
+		List<Operand> operands = new ArrayList<Operand>();
+		List<PunctuatorToken> operators = new ArrayList<PunctuatorToken>();
 
-		if (expr != null)
+		Operand first = parseOperand(tokens);
+		if (first != null) {
+			operands.add(first);
 			while (true) {
 				tokens.pushMark();
-				Expression right = null;
-				String op = tokens.read().toString();
-				if (binaryOperators.containsKey(op) && binaryOperators.get(op).priority == priority)
-					right = parseImpl(tokens, priority + 1);
+				Operator op = null;
+				Operand right = null;
+				Token token = tokens.read();
+				if (token instanceof PunctuatorToken)
+					op = getOperator((PunctuatorToken) token);
+				if (op != null)
+					right = parseOperand(tokens);
 
 				tokens.popMark(right == null);
-				if (right != null)
-					expr = new BinaryExpression(op, expr, right, line, column);
-				else
+				if (right == null)
 					break;
+
+				// All operators are left associative, so reduce every pending
+				// operator with equal or higher priority first.
+				while (!operators.isEmpty()
+						&& getOperator(operators.get(operators.size() - 1)).priority >= op.priority)
+					reduce(operands, operators);
+				operators.add((PunctuatorToken) token);
+				operands.add(right);
 			}
 
-		tokens.popMark(expr == null);
+			while (!operators.isEmpty())
+				reduce(operands, operators);
+		}
+
+		Expression expr = first != null ? operands.get(0).expression : null;
+		tokens.memoize(ParseRule.BINARY_EXPRESSION, start, expr);
 		return expr;
 	}
+
+	/**
+	 * Returns the binary operator of a punctuator token.
+	 *
+	 * @param token punctuator token
+	 * @return the operator or null if the punctuator is not a binary operator
+	 */
+	private static Operator getOperator(PunctuatorToken token)
+	{
+		return operatorTable[token.getIndex()];
+	}
+
+	/**
+	 * Parses an operand of a binary operator.
+	 *
+	 * @param tokens source token stream
+	 * @return the operand or null if parsing failed
+	 */
+	private static Operand parseOperand(TokenStream tokens)
+	{
+		int line = tokens.getLine(), column = tokens.getColumn();
+		Expression expr = PrefixExpression.parse(tokens);
+		return expr != null ? new Operand(expr, line, column) : null;
+	}
+
+	/**
+	 * Combines the last operator and two last operands into a new operand.
+	 *
+	 * @param operands operand stack
+	 * @param operators operator stack
+	 */
+	private static void reduce(List<Operand> operands, List<PunctuatorToken> operators)
+	{
+		Operand right = operands.remove(operands.size() - 1);
+		Operand left = operands.remove(operands.size() - 1);
+		String op = operators.remove(operators.size() - 1).toString();
+		operands.add(new Operand(new BinaryExpression(op, left.expression,
+				right.expression, left.line, left.column), left.line, left.column));
+	}
 }
@@ -48,6 +48,10 @@ public abstract class Declaration extends CodeElement
 	 */
 	public static Declaration parse(TokenStream tokens)
 	{
+		if (tokens.isMemoized(ParseRule.DECLARATION))
+			return (Declaration) tokens.recall(ParseRule.DECLARATION);
+
+		int start = tokens.getPosition();
 		int line = tokens.getLine(), column = tokens.getColumn();
 		tokens.pushMark();
 
@@ -57,6 +61,7 @@ public abstract class Declaration extends CodeElement
 			declaration = Function.parse(tokens);
 
 		tokens.popMark(declaration == null);
+		tokens.memoize(ParseRule.DECLARATION, start, declaration);
 		return declaration;
 	}
 }
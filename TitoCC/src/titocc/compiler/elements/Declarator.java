@@ -1,8 +1,7 @@
 package titocc.compiler.elements;
 
-import titocc.compiler.types.ArrayType;
 import titocc.compiler.types.CType;
-import titocc.compiler.types.PointerType;
+import titocc.compiler.types.Types;
 import titocc.tokenizer.IdentifierToken;
 import titocc.tokenizer.SyntaxException;
 import titocc.tokenizer.Token;
@@ -86,7 +85,7 @@ public abstract class Declarator extends CodeElement
 				throw new SyntaxException("Array length must be a compile time constant.", getLine(), getColumn());
 			else if (len <= 0)
 				throw new SyntaxException("Array length must be a positive integer.", getLine(), getColumn());
-			return subDeclarator.getModifiedType(new ArrayType(type, len));
+			return subDeclarator.getModifiedType(Types.arrayOf(type, len));
 		}
 
 		@Override
@@ -118,7 +117,7 @@ public abstract class Declarator extends CodeElement
 		@Override
 		public CType getModifiedType(CType type) throws SyntaxException
 		{
-			return subDeclarator.getModifiedType(new PointerType(type));
+			return subDeclarator.getModifiedType(Types.pointerTo(type));
 		}
 
 		@Override
@@ -166,6 +165,10 @@ public abstract class Declarator extends CodeElement
 	 */
 	public static Declarator parse(TokenStream tokens)
 	{
+		if (tokens.isMemoized(ParseRule.DECLARATOR))
+			return (Declarator) tokens.recall(ParseRule.DECLARATOR);
+
+		int start = tokens.getPosition();
 		int line = tokens.getLine(), column = tokens.getColumn();
 		tokens.pushMark();
 		Declarator declarator = null;
@@ -181,6 +184,7 @@ public abstract class Declarator extends CodeElement
 		if (declarator == null)
 			declarator = parseDirectDeclarator(tokens);
 
+		tokens.memoize(ParseRule.DECLARATOR, start, declarator);
 		return declarator;
 	}
 
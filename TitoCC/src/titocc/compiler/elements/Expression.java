@@ -3,6 +3,8 @@ package titocc.compiler.elements;
 import java.io.IOException;
 import titocc.compiler.Assembler;
 import titocc.compiler.Lvalue;
+import titocc.compiler.Mnemonic;
+import titocc.compiler.Register;
 import titocc.compiler.Registers;
 import titocc.compiler.Scope;
 import titocc.compiler.types.CType;
@@ -19,6 +21,15 @@ import titocc.tokenizer.TokenStream;
  */
 public abstract class Expression extends CodeElement
 {
+	/**
+	 * Scope in which the cached type was resolved.
+	 */
+	private Scope typeScope;
+	/**
+	 * Cached type of the expression or null if not yet resolved.
+	 */
+	private CType type;
+
 	/**
 	 * Constructs an Expression.
 	 *
@@ -44,6 +55,57 @@ public abstract class Expression extends CodeElement
 	public abstract void compile(Assembler asm, Scope scope, Registers regs)
 			throws SyntaxException, IOException;
 
+	/**
+	 * Returns the expression as an operand that can be used directly as the
+	 * second operand of an instruction, without evaluating it to a register
+	 * first. Compile time constants that fit in 16 bits are immediate operands.
+	 * Subclasses may also return memory operands.
+	 *
+	 * @param scope scope in which the expression is evaluated
+	 * @return the operand or null if the expression must be evaluated to a
+	 * register
+	 * @throws SyntaxException if expression contains an error
+	 */
+	public String getDirectOperand(Scope scope) throws SyntaxException
+	{
+		Integer value = getCompileTimeValue();
+		if (value != null && value < 32768 && value >= -32768)
+			return Assembler.immediate(value);
+		return null;
+	}
+
+	/**
+	 * Generates code that evaluates the expression as a branch condition and
+	 * jumps to a label if the value is true (non-zero) or false (zero).
+	 * Execution continues after the generated code if the jump is not taken.
+	 * Comparisons and logical operators override this to jump directly on the
+	 * comparison result without computing a 0 or 1 value. The default
+	 * implementation evaluates the value to the first register and tests it.
+	 *
+	 * @param asm assembler used for code generation
+	 * @param scope scope in which the expression is evaluated
+	 * @param regs available registers; must have at least one active register
+	 * @param label label to jump to
+	 * @param jumpIfTrue true to jump if the expression is true, false to jump
+	 * if it is false
+	 * @throws SyntaxException if expression contains an error
+	 * @throws IOException if assembler throws
+	 */
+	public void compileAsCondition(Assembler asm, Scope scope, Registers regs,
+			String label, boolean jumpIfTrue) throws SyntaxException, IOException
+	{
+		Integer value = getCompileTimeValue();
+		if (value != null) {
+			// Constant condition is either an unconditional jump or nothing.
+			if ((value != 0) == jumpIfTrue)
+				asm.emit(Mnemonic.JUMP, label);
+			return;
+		}
+
+		compile(asm, scope, regs);
+		asm.emit(jumpIfTrue ? Mnemonic.JNZER : Mnemonic.JZER, regs.get(0), label);
+	}
+
 	/**
 	 * Evaluates the expression at compile time if possible.
 	 *
@@ -91,13 +153,37 @@ public abstract class Expression extends CodeElement
 	}
 
 	/**
-	 * Returns the type of the expression.
+	 * Returns the type of the expression. The type is resolved once and cached
+	 * in the expression node, so that type checking and code generation can
+	 * ask for the types of subexpressions repeatedly without walking the
+	 * whole subtree each time. The cache is tied to the scope object. An
+	 * expression is always compiled in one scope, and declarations are added
+	 * to that scope before the expression is compiled, so the cached type
+	 * stays valid.
 	 *
 	 * @param scope scope in which the expression is evaluated
 	 * @return the type
 	 * @throws SyntaxException if expression contains errors
 	 */
-	public abstract CType getType(Scope scope) throws SyntaxException;
+	public final CType getType(Scope scope) throws SyntaxException
+	{
+		if (type == null || scope != typeScope) {
+			CType resolvedType = resolveType(scope);
+			typeScope = scope;
+			type = resolvedType;
+		}
+		return type;
+	}
+
+	/**
+	 * Determines the type of the expression. Called by getType() when the
+	 * type has not been cached yet.
+	 *
+	 * @param scope scope in which the expression is evaluated
+	 * @return the type
+	 * @throws SyntaxException if expression contains errors
+	 */
+	protected abstract CType resolveType(Scope scope) throws SyntaxException;
 
 	/**
 	 * Attempts to parse an expression from token stream. If parsing fails the
@@ -133,18 +219,89 @@ public abstract class Expression extends CodeElement
 			// Use immediate operand if value fits in 16 bits; otherwise allocate
 			// a data constant. Load value in first available register.
 			if (value < 32768 && value >= -32768)
-				asm.emit("load", regs.get(0).toString(), "=" + value);
+				asm.emit(Mnemonic.LOAD, regs.get(0), (int) value);
 			else {
 				String name = scope.makeGloballyUniqueName("int");
 				asm.addLabel(name);
-				asm.emit("dc", "" + value);
-				asm.emit("load", regs.get(0).toString(), name);
+				asm.emit(Mnemonic.DC, (int) value);
+				asm.emit(Mnemonic.LOAD, regs.get(0), name);
 			}
 			return true;
 		} else
 			return false;
 	}
 
+	/**
+	 * Returns whether the value of the expression is known to be non-negative.
+	 * Some operations have cheaper instructions that are only correct for
+	 * non-negative operands. The default implementation only knows the values
+	 * of compile time constants.
+	 *
+	 * @param scope scope in which the expression is evaluated
+	 * @return true if the value is never negative
+	 * @throws SyntaxException if expression contains an error
+	 */
+	public boolean isNonNegative(Scope scope) throws SyntaxException
+	{
+		Integer value = getCompileTimeValue();
+		return value != null && value >= 0;
+	}
+
+	/**
+	 * Generates code that multiplies a register by a constant. Multiplication
+	 * by one is omitted and multiplication by a power of two is replaced with
+	 * a left shift. All instructions take the same time in ttk-91, so other
+	 * constants are not worth replacing with sequences of shifts and adds.
+	 *
+	 * @param asm assembler used for code generation
+	 * @param register the multiplied register
+	 * @param factor the constant factor
+	 * @throws IOException if assembler throws
+	 */
+	protected static void compileMultiplication(Assembler asm, Register register, int factor)
+			throws IOException
+	{
+		int shift = log2(factor);
+		if (shift > 0)
+			asm.emit(Mnemonic.SHL, register, shift);
+		else if (shift < 0)
+			asm.emit(Mnemonic.MUL, register, factor);
+	}
+
+	/**
+	 * Generates code that divides a register by a constant that is known to
+	 * divide the value exactly, such as the element size when subtracting
+	 * pointers. Exact division by a power of two is an arithmetic right shift
+	 * also for negative values.
+	 *
+	 * @param asm assembler used for code generation
+	 * @param register the divided register
+	 * @param divisor the constant divisor
+	 * @throws IOException if assembler throws
+	 */
+	protected static void compileExactDivision(Assembler asm, Register register, int divisor)
+			throws IOException
+	{
+		int shift = log2(divisor);
+		if (shift > 0)
+			asm.emit(Mnemonic.SHRA, register, shift);
+		else if (shift < 0)
+			asm.emit(Mnemonic.DIV, register, divisor);
+	}
+
+	/**
+	 * Returns the base 2 logarithm of a power of two.
+	 *
+	 * @param value a value
+	 * @return the logarithm or -1 if value is not a positive power of two
+	 */
+	protected static int log2(int value)
+	{
+		if (value <= 0 || Integer.bitCount(value) != 1)
+			return -1;
+		return Integer.numberOfTrailingZeros(value);
+	}
+
 	/**
 	 * Returns whether the expression can be assigned to the target type. Target
 	 * type must be the actual type and not not decayed type.
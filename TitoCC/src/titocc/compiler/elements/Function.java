@@ -3,15 +3,20 @@ package titocc.compiler.elements;
 import java.io.IOException;
 import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import titocc.compiler.Assembler;
 import titocc.compiler.InternalSymbol;
+import titocc.compiler.LocalVariable;
+import titocc.compiler.Mnemonic;
+import titocc.compiler.Register;
+import titocc.compiler.RegisterAllocator;
 import titocc.compiler.Registers;
 import titocc.compiler.Scope;
 import titocc.compiler.Symbol;
 import titocc.compiler.types.CType;
-import titocc.compiler.types.FunctionType;
-import titocc.compiler.types.VoidType;
+import titocc.compiler.types.Types;
 import titocc.tokenizer.IdentifierToken;
 import titocc.tokenizer.SyntaxException;
 import titocc.tokenizer.Token;
@@ -29,6 +34,13 @@ import titocc.tokenizer.TokenStream;
  */
 public class Function extends Declaration implements Symbol
 {
+	/**
+	 * Maximum number of registers that are saved with separate push and pop
+	 * instructions. If the function writes more registers, all registers are
+	 * saved with pushr and popr, which take 6 memory accesses but only one
+	 * instruction.
+	 */
+	private static final int MAX_SEPARATELY_SAVED_REGISTERS = 3;
 	/**
 	 * Return type specifier. Note that this is just type specifier (void or
 	 * int) because abstract declarators are not supported.
@@ -59,10 +71,24 @@ public class Function extends Declaration implements Symbol
 	 * Symbol for function end location. Set when compiling the function.
 	 */
 	private InternalSymbol endSymbol;
+	/**
+	 * Symbol for the start of the function body, where self tail calls jump
+	 * to. Null if the function has no self tail calls.
+	 */
+	private InternalSymbol startSymbol;
 	/**
 	 * Type of the function. Set when compiling the function.
 	 */
 	private CType type;
+	/**
+	 * True if calls to the function are replaced with the function body.
+	 */
+	private boolean inlined = false;
+	/**
+	 * False if code is not generated for the function because it is never
+	 * called.
+	 */
+	private boolean used = true;
 
 	/**
 	 * Constructs a Function.
@@ -114,6 +140,71 @@ public class Function extends Declaration implements Symbol
 		return paramTypes;
 	}
 
+	/**
+	 * Returns the parameters.
+	 *
+	 * @return list of parameters
+	 */
+	public List<Parameter> getParameters()
+	{
+		return parameterList.getParameters();
+	}
+
+	/**
+	 * Returns the symbol for the start of the function body. Self tail calls
+	 * are compiled as jumps to this location.
+	 *
+	 * @return the symbol or null if the function has no self tail calls
+	 */
+	public Symbol getStartSymbol()
+	{
+		return startSymbol;
+	}
+
+	/**
+	 * Returns whether calls to the function are replaced with the function
+	 * body.
+	 *
+	 * @return true if the function is inlined
+	 */
+	public boolean isInlined()
+	{
+		return inlined;
+	}
+
+	/**
+	 * Sets whether calls to the function are replaced with the function body.
+	 * The function must not be recursive and must not declare local variables.
+	 *
+	 * @param inlined true if the function is inlined
+	 */
+	public void setInlined(boolean inlined)
+	{
+		this.inlined = inlined;
+	}
+
+	/**
+	 * Returns whether code is generated for the function.
+	 *
+	 * @return false if the function is never called
+	 */
+	public boolean isUsed()
+	{
+		return used;
+	}
+
+	/**
+	 * Sets whether code is generated for the function. Functions that are not
+	 * used are still compiled for finding errors, but their code is
+	 * discarded.
+	 *
+	 * @param used false if the function is never called
+	 */
+	public void setUsed(boolean used)
+	{
+		this.used = used;
+	}
+
 	/**
 	 * Returns the function body.
 	 *
@@ -142,6 +233,10 @@ public class Function extends Declaration implements Symbol
 			throw new SyntaxException("Redefinition of \"" + name + "\".", getLine(), getColumn());
 		globallyUniqueName = scope.makeGloballyUniqueName(name);
 
+		// Code for unused functions is discarded.
+		if (!used)
+			asm = new Assembler(new StringWriter(), null);
+
 		asm.addEmptyLines(1);
 
 		// Create new scope.
@@ -150,30 +245,56 @@ public class Function extends Declaration implements Symbol
 
 		addInternalSymbols(functionScope);
 		List<CType> paramTypes = compileParameters(asm, functionScope);
-		type = new FunctionType(returnType.getType(), paramTypes);
+		type = Types.function(returnType.getType(), paramTypes);
 
 		// Compile body before prologue because we want to know all the local
-		// variables in the prologue.
-		StringWriter bodyWriter = new StringWriter();
-		Assembler bodyAsm = new Assembler(bodyWriter);
-		compileBody(bodyAsm, functionScope, regs);
+		// variables in the prologue. The body is buffered as intermediate code
+		// that is lowered to physical registers before adding the epilogue,
+		// because the variables kept in registers and the spill slots of the
+		// register allocator change the stack frame. The prologue is then
+		// inserted in front of the body, so that the whole function is
+		// optimized and written from the same buffer.
+		asm.flush();
+		compileBody(asm, functionScope, regs);
 		List<Symbol> localVariables = getLocalVariables(functionScope);
-		bodyAsm.finish();
-
-		compilePrologue(asm, localVariables);
-		asm.getWriter().append(bodyWriter.toString());
-		compileEpilogue(asm, localVariables);
+		RegisterAllocator allocator = new RegisterAllocator(functionScope);
+		allocator.setLoopOptimization(asm.isLoopOptimizationEnabled());
+		for (Symbol var : localVariables)
+			allocator.addVariable(var, false);
+		for (Parameter prm : parameterList.getParameters())
+			allocator.addVariable(prm, true);
+		asm.allocateRegisters(allocator);
+		localVariables.removeAll(allocator.getPromotedVariables());
+		localVariables.addAll(allocator.getSpillSlots());
+		List<Register> savedRegisters = allocator.getWrittenRegisters();
+		compileEpilogue(asm, localVariables, savedRegisters);
+		asm.beginInsert(0);
+		compilePrologue(asm, localVariables, savedRegisters);
+		asm.endInsert();
+		asm.flush();
 	}
 
 	private void addInternalSymbols(Scope scope)
 	{
 		// Add symbol for the function end so that return statements can jump to it.
-		endSymbol = new InternalSymbol("End", scope, "", new VoidType()); //__End
+		endSymbol = new InternalSymbol("End", scope, "", Types.VOID); //__End
 		scope.add(endSymbol);
 
 		// Add symbol for location of the return value.
 		retValSymbol = new InternalSymbol("Ret", scope, "(fp)", returnType.getType()); //__Ret
 		scope.add(retValSymbol);
+
+		// Add symbol for the start of the body if there are self tail calls
+		// and no pointers to the stack frame that the calls would overwrite.
+		startSymbol = null;
+		Set<String> frameNames = new HashSet<String>();
+		for (Parameter prm : parameterList.getParameters())
+			frameNames.add(prm.getName());
+		if (containsSelfTailCall(body)
+				&& !takesFrameAddress(body, frameNames, new HashSet<String>())) {
+			startSymbol = new InternalSymbol("Start", scope, "", Types.VOID); //__Start
+			scope.add(startSymbol);
+		}
 	}
 
 	private List<CType> compileParameters(Assembler asm, Scope scope)
@@ -181,18 +302,18 @@ public class Function extends Declaration implements Symbol
 	{
 		// Define constants for return value and parameters and add their symbols.
 		asm.addLabel(retValSymbol.getGlobalName());
-		asm.emit("equ", "-" + (getParameterCount() + 2));
+		asm.emit(Mnemonic.EQU, -(getParameterCount() + 2));
 		return parameterList.compile(asm, scope);
 	}
 
-	private void compilePrologue(Assembler asm, List<Symbol> localVariables)
-			throws IOException, SyntaxException
+	private void compilePrologue(Assembler asm, List<Symbol> localVariables,
+			List<Register> savedRegisters) throws IOException, SyntaxException
 	{
 		// Define constants for local variables.
 		int varOffset = 0;
 		for (Symbol var : localVariables) {
 			asm.addLabel(var.getGlobalName());
-			asm.emit("equ", "" + (1 + varOffset));
+			asm.emit(Mnemonic.EQU, 1 + varOffset);
 			varOffset += var.getType().getSize();
 		}
 
@@ -201,37 +322,174 @@ public class Function extends Declaration implements Symbol
 
 		// Allocate stack space for local variables.
 		if (varOffset > 0)
-			asm.emit("add", "sp", "=" + varOffset);
-
-		// Push registers.
-		asm.emit("pushr", "sp");
+			asm.emit(Mnemonic.ADD, Register.SP, varOffset);
+
+		// Push the registers that the body writes. Callers expect all
+		// registers to be preserved, but a function that doesn't modify a
+		// register doesn't need to save it. Pushr is used when it is cheaper
+		// than pushing the registers one at a time.
+		if (savedRegisters.size() > MAX_SEPARATELY_SAVED_REGISTERS)
+			asm.emit(Mnemonic.PUSHR, Register.SP);
+		else {
+			for (Register reg : savedRegisters)
+				asm.emit(Mnemonic.PUSH, Register.SP, reg);
+		}
 	}
 
 	private void compileBody(Assembler asm, Scope scope, Registers registers)
 			throws IOException, SyntaxException
 	{
+		// Parameters kept in registers are loaded before the start label, so
+		// that self tail calls can pass the arguments in the same registers.
+		if (startSymbol != null)
+			asm.addLabel(startSymbol.getReference());
+
 		// Compile statements directly, so that BlockStatement doesn't create
 		// new scope, and the statements are in the same scope as parameters.
 		for (Statement st : body.getStatements())
 			st.compile(asm, scope, registers);
 	}
 
-	private void compileEpilogue(Assembler asm, List<Symbol> localVariables)
-			throws IOException, SyntaxException
+	private void compileEpilogue(Assembler asm, List<Symbol> localVariables,
+			List<Register> savedRegisters) throws IOException, SyntaxException
 	{
 		// Pop registers from stack.
 		asm.addLabel(endSymbol.getReference());
-		asm.emit("popr", "sp");
+		if (savedRegisters.size() > MAX_SEPARATELY_SAVED_REGISTERS)
+			asm.emit(Mnemonic.POPR, Register.SP);
+		else {
+			for (int i = savedRegisters.size() - 1; i >= 0; --i)
+				asm.emit(Mnemonic.POP, Register.SP, savedRegisters.get(i));
+		}
 
 		// Remove local variables from stack.
 		int localVarTotalSize = 0;
 		for (Symbol var : localVariables)
 			localVarTotalSize += var.getType().getSize();
 		if (localVarTotalSize > 0)
-			asm.emit("sub", "sp", "=" + localVarTotalSize);
+			asm.emit(Mnemonic.SUB, Register.SP, localVarTotalSize);
 
 		// Exit from function.
-		asm.emit("exit", "sp", "=" + getParameterCount());
+		asm.emit(Mnemonic.EXIT, Register.SP, getParameterCount());
+	}
+
+	private boolean containsSelfTailCall(Statement statement)
+	{
+		if (statement instanceof BlockStatement) {
+			for (Statement st : ((BlockStatement) statement).getStatements()) {
+				if (containsSelfTailCall(st))
+					return true;
+			}
+		} else if (statement instanceof IfStatement) {
+			IfStatement ifStatement = (IfStatement) statement;
+			return containsSelfTailCall(ifStatement.getTrueStatement())
+					|| containsSelfTailCall(ifStatement.getElseStatement());
+		} else if (statement instanceof WhileStatement) {
+			return containsSelfTailCall(((WhileStatement) statement).getStatement());
+		} else if (statement instanceof ReturnStatement) {
+			Expression expr = ((ReturnStatement) statement).getExpression();
+			if (expr instanceof FunctionCallExpression) {
+				Expression func = ((FunctionCallExpression) expr).getFunction();
+				return func instanceof IdentifierExpression
+						&& ((IdentifierExpression) func).getIdentifier().equals(name);
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns true if a pointer to a parameter or a local variable may be
+	 * created in the statement, either with the address operator or by using
+	 * a local array as a pointer. Self tail calls overwrite the parameters and
+	 * reuse the stack frame, so they can't be used if such a pointer may be
+	 * passed to the call. Names are collected in the order of declaration, so
+	 * shadowed names only make the check more conservative.
+	 *
+	 * @param statement the statement
+	 * @param frameNames names of the parameters and the local variables
+	 * declared so far
+	 * @param arrayNames names of the local arrays declared so far
+	 * @return true if an address in the stack frame may be taken
+	 */
+	private static boolean takesFrameAddress(Statement statement, Set<String> frameNames,
+			Set<String> arrayNames)
+	{
+		if (statement instanceof BlockStatement) {
+			for (Statement st : ((BlockStatement) statement).getStatements()) {
+				if (takesFrameAddress(st, frameNames, arrayNames))
+					return true;
+			}
+		} else if (statement instanceof ExpressionStatement) {
+			return takesFrameAddress(((ExpressionStatement) statement).expression(),
+					frameNames, arrayNames);
+		} else if (statement instanceof DeclarationStatement) {
+			VariableDeclaration decl = ((DeclarationStatement) statement).getDeclaration();
+			frameNames.add(decl.getName());
+			if (decl.isArray())
+				arrayNames.add(decl.getName());
+			return takesFrameAddress(decl.getInitializer(), frameNames, arrayNames);
+		} else if (statement instanceof IfStatement) {
+			IfStatement ifStatement = (IfStatement) statement;
+			return takesFrameAddress(ifStatement.getTest(), frameNames, arrayNames)
+					|| takesFrameAddress(ifStatement.getTrueStatement(), frameNames, arrayNames)
+					|| takesFrameAddress(ifStatement.getElseStatement(), frameNames, arrayNames);
+		} else if (statement instanceof WhileStatement) {
+			WhileStatement whileStatement = (WhileStatement) statement;
+			return takesFrameAddress(whileStatement.getTest(), frameNames, arrayNames)
+					|| takesFrameAddress(whileStatement.getStatement(), frameNames, arrayNames);
+		} else if (statement instanceof ReturnStatement) {
+			return takesFrameAddress(((ReturnStatement) statement).getExpression(),
+					frameNames, arrayNames);
+		}
+		return false;
+	}
+
+	private static boolean takesFrameAddress(Expression expression, Set<String> frameNames,
+			Set<String> arrayNames)
+	{
+		if (expression instanceof IdentifierExpression) {
+			// Local arrays decay to pointers to the stack frame.
+			return arrayNames.contains(((IdentifierExpression) expression).getIdentifier());
+		} else if (expression instanceof PrefixExpression) {
+			PrefixExpression prefix = (PrefixExpression) expression;
+			if (prefix.getOperator().equals("&") && prefix.getOperand() instanceof IdentifierExpression
+					&& frameNames.contains(((IdentifierExpression) prefix.getOperand()).getIdentifier()))
+				return true;
+			return takesFrameAddress(prefix.getOperand(), frameNames, arrayNames);
+		} else if (expression instanceof PostfixExpression) {
+			return takesFrameAddress(((PostfixExpression) expression).getOperand(),
+					frameNames, arrayNames);
+		} else if (expression instanceof AssignmentExpression) {
+			AssignmentExpression assignment = (AssignmentExpression) expression;
+			return takesFrameAddress(assignment.getLeft(), frameNames, arrayNames)
+					|| takesFrameAddress(assignment.getRight(), frameNames, arrayNames);
+		} else if (expression instanceof BinaryExpression) {
+			BinaryExpression binary = (BinaryExpression) expression;
+			return takesFrameAddress(binary.getLeft(), frameNames, arrayNames)
+					|| takesFrameAddress(binary.getRight(), frameNames, arrayNames);
+		} else if (expression instanceof SubscriptExpression) {
+			SubscriptExpression subscript = (SubscriptExpression) expression;
+			return takesFrameAddress(subscript.getArray(), frameNames, arrayNames)
+					|| takesFrameAddress(subscript.getSubscript(), frameNames, arrayNames);
+		} else if (expression instanceof FunctionCallExpression) {
+			FunctionCallExpression call = (FunctionCallExpression) expression;
+			return takesFrameAddress(call.getFunction(), frameNames, arrayNames)
+					|| takesFrameAddress(call.getArgumentList(), frameNames, arrayNames);
+		} else if (expression instanceof IntrinsicCallExpression) {
+			return takesFrameAddress(((IntrinsicCallExpression) expression).getArgumentList(),
+					frameNames, arrayNames);
+		}
+		return false;
+	}
+
+	private static boolean takesFrameAddress(ArgumentList arguments, Set<String> frameNames,
+			Set<String> arrayNames)
+	{
+		for (Expression arg : arguments.getArguments()) {
+			if (takesFrameAddress(arg, frameNames, arrayNames))
+				return true;
+		}
+		return false;
 	}
 
 	private List<Symbol> getLocalVariables(Scope scope)
@@ -239,7 +497,7 @@ public class Function extends Declaration implements Symbol
 		List<Symbol> localVariables = new ArrayList<Symbol>();
 
 		for (Symbol symbol : scope.getSymbols()) {
-			if (symbol instanceof VariableDeclaration)
+			if (symbol instanceof VariableDeclaration || symbol instanceof LocalVariable)
 				localVariables.add(symbol);
 		}
 
@@ -272,7 +530,7 @@ public class Function extends Declaration implements Symbol
 		List<CType> paramTypes = new ArrayList<CType>();
 		for (Parameter p : parameterList.getParameters())
 			paramTypes.add(p.getType());
-		type = new FunctionType(returnType.getType(), paramTypes);
+		type = Types.function(returnType.getType(), paramTypes);
 	}
 
 	@Override
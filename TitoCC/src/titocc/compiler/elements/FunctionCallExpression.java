@@ -1,16 +1,24 @@
 package titocc.compiler.elements;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import titocc.compiler.Assembler;
+import titocc.compiler.InternalSymbol;
+import titocc.compiler.LocalVariable;
+import titocc.compiler.Mnemonic;
+import titocc.compiler.Register;
 import titocc.compiler.Registers;
 import titocc.compiler.Scope;
+import titocc.compiler.Symbol;
 import titocc.compiler.types.CType;
-import titocc.compiler.types.VoidType;
+import titocc.compiler.types.Types;
 import titocc.tokenizer.SyntaxException;
 import titocc.tokenizer.TokenStream;
 
 /**
- * Function call expression.
+ * Function call expression. Calls to functions that are marked as inlined are
+ * replaced with the body of the function.
  *
  * <p> EBNF definition:
  *
@@ -67,20 +75,108 @@ public class FunctionCallExpression extends Expression
 	public void compile(Assembler asm, Scope scope, Registers regs) throws SyntaxException, IOException
 	{
 		Function func = validateFunction(scope);
+		if (func.isInlined()) {
+			compileInline(asm, scope, regs, func);
+			return;
+		}
 
 		// Reserve space for return value.
-		if (!func.getReturnType().equals(new VoidType()))
-			asm.emit("add", "sp", "=1");
+		if (!func.getReturnType().equals(Types.VOID))
+			asm.emit(Mnemonic.ADD, Register.SP, 1);
 
 		// Push arguments to stack.
 		argumentList.compile(asm, scope, regs, func.getParameterTypes());
 
 		// Make the call.
-		asm.emit("call", "sp", func.getReference());
+		asm.emit(Mnemonic.CALL, Register.SP, func.getReference());
+
+		// Read the return value.
+		if (!func.getReturnType().equals(Types.VOID))
+			asm.emit(Mnemonic.POP, Register.SP, regs.get(0));
+	}
+
+	/**
+	 * Generates code for a call to the enclosing function in a return
+	 * statement. The arguments are assigned to the parameters and execution
+	 * jumps to the start of the function body, so that the stack doesn't grow.
+	 *
+	 * @param asm assembler used for code generation
+	 * @param scope scope in which the call is evaluated
+	 * @param regs available registers; must have at least one active register
+	 * @throws SyntaxException if the call contains an error
+	 * @throws IOException if assembler throws
+	 */
+	public void compileTailCall(Assembler asm, Scope scope, Registers regs)
+			throws SyntaxException, IOException
+	{
+		Function func = validateFunction(scope);
+
+		// Evaluate all arguments before assigning any parameters, because the
+		// arguments can use the parameters. The temporaries are in their own
+		// scope so that their names don't clash with other tail calls.
+		Scope callScope = new Scope(scope, "");
+		scope.addSubScope(callScope);
+		List<Symbol> arguments = new ArrayList<Symbol>();
+		for (Parameter prm : func.getParameters()) {
+			Symbol arg = new LocalVariable("__Arg" + arguments.size(), "Arg", callScope,
+					prm.getType());
+			callScope.add(arg);
+			arguments.add(arg);
+		}
+		argumentList.compileToVariables(asm, scope, regs, arguments);
+
+		for (int i = 0; i < arguments.size(); ++i) {
+			asm.emit(Mnemonic.LOAD, regs.get(0), arguments.get(i).getReference());
+			asm.emit(Mnemonic.STORE, regs.get(0),
+					func.getParameters().get(i).getReference());
+		}
+		asm.emit(Mnemonic.JUMP, Register.SP, func.getStartSymbol().getReference());
+	}
+
+	private void compileInline(Assembler asm, Scope scope, Registers regs, Function func)
+			throws SyntaxException, IOException
+	{
+		// The body is compiled in a scope whose parent is the global scope so
+		// that it doesn't see the local variables of the caller. It is still
+		// added as a subscope of the caller, so that the parameters and the
+		// return value become local variables of the caller.
+		Scope globalScope = scope;
+		while (!globalScope.isGlobal())
+			globalScope = globalScope.getParent();
+		Scope inlineScope = new Scope(globalScope,
+				scope.makeGloballyUniqueName(func.getName()) + "_");
+		scope.addSubScope(inlineScope);
+
+		// Store arguments to the parameter variables.
+		List<Symbol> parameters = new ArrayList<Symbol>();
+		for (Parameter prm : func.getParameters()) {
+			Symbol param = new LocalVariable(prm.getName(), prm.getName(), inlineScope,
+					prm.getType());
+			inlineScope.add(param);
+			parameters.add(param);
+		}
+		argumentList.compileToVariables(asm, scope, regs, parameters);
+
+		// Add symbols for return value and end of the body so that return
+		// statements store to a local variable and jump to the end of the
+		// inlined code.
+		CType returnType = func.getReturnType();
+		Symbol retVal;
+		if (returnType.equals(Types.VOID))
+			retVal = new InternalSymbol("Ret", inlineScope, "", returnType);
+		else
+			retVal = new LocalVariable("__Ret", "Ret", inlineScope, returnType);
+		inlineScope.add(retVal);
+		Symbol end = new InternalSymbol("End", inlineScope, "", Types.VOID);
+		inlineScope.add(end);
+
+		for (Statement st : func.getBody().getStatements())
+			st.compile(asm, inlineScope, regs);
+		asm.addLabel(end.getReference());
 
 		// Read the return value.
-		if (!func.getReturnType().equals(new VoidType()))
-			asm.emit("pop", "sp", regs.get(0).toString());
+		if (!returnType.equals(Types.VOID))
+			asm.emit(Mnemonic.LOAD, regs.get(0), retVal.getReference());
 	}
 
 	private Function validateFunction(Scope scope) throws SyntaxException
@@ -92,7 +188,7 @@ public class FunctionCallExpression extends Expression
 	}
 
 	@Override
-	public CType getType(Scope scope) throws SyntaxException
+	protected CType resolveType(Scope scope) throws SyntaxException
 	{
 		Function func = validateFunction(scope);
 		return func.getReturnType();
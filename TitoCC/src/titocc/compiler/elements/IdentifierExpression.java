@@ -3,6 +3,7 @@ package titocc.compiler.elements;
 import java.io.IOException;
 import titocc.compiler.Assembler;
 import titocc.compiler.Lvalue;
+import titocc.compiler.Mnemonic;
 import titocc.compiler.Registers;
 import titocc.compiler.Scope;
 import titocc.compiler.Symbol;
@@ -24,6 +25,14 @@ import titocc.tokenizer.TokenStream;
 public class IdentifierExpression extends Expression
 {
 	private String identifier;
+	/**
+	 * Scope in which the cached symbol was found.
+	 */
+	private Scope symbolScope;
+	/**
+	 * Cached symbol that the identifier refers to or null.
+	 */
+	private Symbol cachedSymbol;
 
 	/**
 	 * Construcs an IdentifierExpression.
@@ -58,9 +67,21 @@ public class IdentifierExpression extends Expression
 
 		// Load value to first register (or address if we have an array).
 		if (symbol.getType() instanceof ArrayType)
-			asm.emit("load", regs.get(0).toString(), "=" + symbol.getReference());
+			asm.emit(Mnemonic.LOAD, regs.get(0), Assembler.immediate(symbol.getReference()));
 		else
-			asm.emit("load", regs.get(0).toString(), symbol.getReference());
+			asm.emit(Mnemonic.LOAD, regs.get(0), symbol.getReference());
+	}
+
+	@Override
+	public String getDirectOperand(Scope scope) throws SyntaxException
+	{
+		// Variables are memory operands and arrays decay to their address.
+		Symbol symbol = findSymbol(scope);
+		if (!symbol.getType().isObject())
+			return null;
+		if (symbol.getType() instanceof ArrayType)
+			return Assembler.immediate(symbol.getReference());
+		return symbol.getReference();
 	}
 
 	@Override
@@ -85,7 +106,7 @@ public class IdentifierExpression extends Expression
 	}
 
 	@Override
-	public CType getType(Scope scope) throws SyntaxException
+	protected CType resolveType(Scope scope) throws SyntaxException
 	{
 		return findSymbol(scope).getType();
 	}
@@ -98,10 +119,14 @@ public class IdentifierExpression extends Expression
 
 	private Symbol findSymbol(Scope scope) throws SyntaxException
 	{
-		Symbol symbol = scope.find(identifier);
-		if (symbol == null)
-			throw new SyntaxException("Undeclared identifier \"" + identifier + "\".", getLine(), getColumn());
-		return symbol;
+		if (cachedSymbol == null || scope != symbolScope) {
+			Symbol foundSymbol = scope.find(identifier);
+			if (foundSymbol == null)
+				throw new SyntaxException("Undeclared identifier \"" + identifier + "\".", getLine(), getColumn());
+			symbolScope = scope;
+			cachedSymbol = foundSymbol;
+		}
+		return cachedSymbol;
 	}
 
 	/**
@@ -2,6 +2,7 @@ package titocc.compiler.elements;
 
 import java.io.IOException;
 import titocc.compiler.Assembler;
+import titocc.compiler.Mnemonic;
 import titocc.compiler.Registers;
 import titocc.compiler.Scope;
 import titocc.tokenizer.SyntaxException;
@@ -86,12 +87,9 @@ public class IfStatement extends Statement
 		if (!test.getType(scope).decay().isScalar())
 			throw new SyntaxException("Scalar expression required.", test.getLine(), test.getColumn());
 
-		// Evaluates and loads the test expression in the first register.
-		test.compile(asm, scope, regs);
-
-		// Skip true statement if test was false.
+		// Evaluate the test and skip true statement if it was false.
 		String skipTrueLabel = scope.makeGloballyUniqueName("lbl");
-		asm.emit("jzer", regs.get(0).toString(), skipTrueLabel);
+		test.compileAsCondition(asm, scope, regs, skipTrueLabel, false);
 
 		// True statement.
 		compileInNewScope(asm, scope, regs, trueStatement);
@@ -99,7 +97,7 @@ public class IfStatement extends Statement
 		// Else statement.
 		if (elseStatement != null) {
 			String skipElseLabel = scope.makeGloballyUniqueName("lbl");
-			asm.emit("jump", skipElseLabel);
+			asm.emit(Mnemonic.JUMP, skipElseLabel);
 			asm.addLabel(skipTrueLabel);
 			compileInNewScope(asm, scope, regs, elseStatement);
 			asm.addLabel(skipElseLabel);
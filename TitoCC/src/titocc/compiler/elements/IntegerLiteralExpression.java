@@ -6,7 +6,7 @@ import titocc.compiler.Assembler;
 import titocc.compiler.Registers;
 import titocc.compiler.Scope;
 import titocc.compiler.types.CType;
-import titocc.compiler.types.IntType;
+import titocc.compiler.types.Types;
 import titocc.tokenizer.IntegerLiteralToken;
 import titocc.tokenizer.SyntaxException;
 import titocc.tokenizer.Token;
@@ -74,9 +74,9 @@ public class IntegerLiteralExpression extends Expression
 	}
 
 	@Override
-	public CType getType(Scope scope)
+	protected CType resolveType(Scope scope)
 	{
-		return new IntType();
+		return Types.INT;
 	}
 
 	@Override
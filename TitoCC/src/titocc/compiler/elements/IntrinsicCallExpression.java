@@ -3,11 +3,11 @@ package titocc.compiler.elements;
 import java.io.IOException;
 import java.util.Arrays;
 import titocc.compiler.Assembler;
+import titocc.compiler.Mnemonic;
 import titocc.compiler.Registers;
 import titocc.compiler.Scope;
 import titocc.compiler.types.CType;
-import titocc.compiler.types.IntType;
-import titocc.compiler.types.VoidType;
+import titocc.compiler.types.Types;
 import titocc.tokenizer.SyntaxException;
 import titocc.tokenizer.TokenStream;
 
@@ -87,7 +87,7 @@ public class IntrinsicCallExpression extends Expression
 		if (!argumentList.getArguments().isEmpty())
 			throw new SyntaxException("Number of arguments doesn't match the number of parameters.", getLine(), getColumn());
 
-		asm.emit("in", regs.get(0).toString(), "=kbd");
+		asm.emit(Mnemonic.IN, regs.get(0), "=kbd");
 	}
 
 	private void compileOut(Assembler asm, Scope scope, Registers regs)
@@ -97,16 +97,16 @@ public class IntrinsicCallExpression extends Expression
 			throw new SyntaxException("Number of arguments doesn't match the number of parameters.", getLine(), getColumn());
 
 		argumentList.getArguments().get(0).compile(asm, scope, regs);
-		asm.emit("out", regs.get(0).toString(), "=crt");
+		asm.emit(Mnemonic.OUT, regs.get(0), "=crt");
 	}
 
 	@Override
-	public CType getType(Scope scope)
+	protected CType resolveType(Scope scope)
 	{
 		if (name.equals("in"))
-			return new IntType();
+			return Types.INT;
 		else if (name.equals("out"))
-			return new VoidType();
+			return Types.VOID;
 		return null;
 	}
 
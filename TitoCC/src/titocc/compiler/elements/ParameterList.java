@@ -5,6 +5,7 @@ import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 import titocc.compiler.Assembler;
+import titocc.compiler.Mnemonic;
 import titocc.compiler.Scope;
 import titocc.compiler.types.CType;
 import titocc.tokenizer.SyntaxException;
@@ -64,7 +65,7 @@ public class ParameterList extends CodeElement
 		for (Parameter p : parameters) {
 			paramTypes.add(p.compile(scope));
 			asm.addLabel(p.getGlobalName());
-			asm.emit("equ", "" + paramOffset);
+			asm.emit(Mnemonic.EQU, paramOffset);
 			++paramOffset;
 		}
 		return paramTypes;
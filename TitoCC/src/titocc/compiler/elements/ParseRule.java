@@ -0,0 +1,29 @@
+package titocc.compiler.elements;
+
+/**
+ * Identifiers for the parse rules whose results are memoized in packrat
+ * parsing mode (see TokenStream.enableMemoization()). Each rule is memoized
+ * by the parse() method of the corresponding element class.
+ */
+public final class ParseRule
+{
+	public static final int DECLARATION = 0;
+	public static final int VARIABLE_DECLARATION = 1;
+	public static final int TYPE_SPECIFIER = 2;
+	public static final int DECLARATOR = 3;
+	public static final int STATEMENT = 4;
+	public static final int ASSIGNMENT_EXPRESSION = 5;
+	public static final int PREFIX_EXPRESSION = 6;
+	public static final int POSTFIX_EXPRESSION = 7;
+	public static final int PRIMARY_EXPRESSION = 8;
+	public static final int ARGUMENT_LIST = 9;
+	public static final int BINARY_EXPRESSION = 10;
+	/**
+	 * Number of rules.
+	 */
+	public static final int COUNT = 11;
+
+	private ParseRule()
+	{
+	}
+}
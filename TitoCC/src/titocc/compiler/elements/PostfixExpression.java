@@ -4,6 +4,7 @@ import java.io.IOException;
 import java.util.Arrays;
 import titocc.compiler.Assembler;
 import titocc.compiler.Lvalue;
+import titocc.compiler.Mnemonic;
 import titocc.compiler.Registers;
 import titocc.compiler.Scope;
 import titocc.compiler.types.CType;
@@ -84,22 +85,22 @@ public class PostfixExpression extends Expression
 		regs.addFirst();
 
 		// Load value to 1st register.
-		asm.emit("load", regs.get(0).toString(), val.getReference());
+		asm.emit(Mnemonic.LOAD, regs.get(0), val.getReference());
 
 		// Modify and write back the value.
 		int incSize = operand.getType(scope).getIncrementSize();
-		asm.emit(operator.equals("++") ? "add" : "sub", regs.get(0).toString(), "=" + incSize);
-		asm.emit("store", regs.get(0).toString(), val.getReference());
+		asm.emit(operator.equals("++") ? Mnemonic.ADD : Mnemonic.SUB, regs.get(0), incSize);
+		asm.emit(Mnemonic.STORE, regs.get(0), val.getReference());
 
 		// Expression must return the old value.
-		asm.emit(operator.equals("++") ? "sub" : "add", regs.get(0).toString(), "=" + incSize);
+		asm.emit(operator.equals("++") ? Mnemonic.SUB : Mnemonic.ADD, regs.get(0), incSize);
 
 		// Deallocate the second register.
 		regs.deallocate(asm);
 	}
 
 	@Override
-	public CType getType(Scope scope) throws SyntaxException
+	protected CType resolveType(Scope scope) throws SyntaxException
 	{
 		return operand.getType(scope);
 	}
@@ -119,6 +120,10 @@ public class PostfixExpression extends Expression
 	 */
 	public static Expression parse(TokenStream tokens)
 	{
+		if (tokens.isMemoized(ParseRule.POSTFIX_EXPRESSION))
+			return (Expression) tokens.recall(ParseRule.POSTFIX_EXPRESSION);
+
+		int start = tokens.getPosition();
 		int line = tokens.getLine(), column = tokens.getColumn();
 		tokens.pushMark();
 
@@ -150,6 +155,7 @@ public class PostfixExpression extends Expression
 		}
 
 		tokens.popMark(expr == null);
+		tokens.memoize(ParseRule.POSTFIX_EXPRESSION, start, expr);
 		return expr;
 	}
 }
@@ -5,12 +5,12 @@ import java.math.BigInteger;
 import java.util.Arrays;
 import titocc.compiler.Assembler;
 import titocc.compiler.Lvalue;
+import titocc.compiler.Mnemonic;
 import titocc.compiler.Registers;
 import titocc.compiler.Scope;
 import titocc.compiler.types.ArrayType;
 import titocc.compiler.types.CType;
-import titocc.compiler.types.IntType;
-import titocc.compiler.types.PointerType;
+import titocc.compiler.types.Types;
 import titocc.tokenizer.SyntaxException;
 import titocc.tokenizer.TokenStream;
 
@@ -106,6 +106,22 @@ public class PrefixExpression extends Expression
 		return new Lvalue(regs.get(0));
 	}
 
+	@Override
+	public void compileAsCondition(Assembler asm, Scope scope, Registers regs,
+			String label, boolean jumpIfTrue) throws SyntaxException, IOException
+	{
+		if (!operator.equals("!") || getCompileTimeValue() != null) {
+			super.compileAsCondition(asm, scope, regs, label, jumpIfTrue);
+			return;
+		}
+
+		if (!operand.getType(scope).decay().isScalar())
+			throw new SyntaxException("Operator " + operator + " requires a scalar type.", getLine(), getColumn());
+
+		// Logical negation just swaps the condition.
+		operand.compileAsCondition(asm, scope, regs, label, !jumpIfTrue);
+	}
+
 	private void compileIncDec(Assembler asm, Scope scope, Registers regs)
 			throws IOException, SyntaxException
 	{
@@ -120,12 +136,12 @@ public class PrefixExpression extends Expression
 		regs.addFirst();
 
 		// Load value to first register.
-		asm.emit("load", regs.get(0).toString(), val.getReference());
+		asm.emit(Mnemonic.LOAD, regs.get(0), val.getReference());
 
 		// Modify and write back the value.
 		int incSize = operand.getType(scope).getIncrementSize();
-		asm.emit(operator.equals("++") ? "add" : "sub", regs.get(0).toString(), "=" + incSize);
-		asm.emit("store", regs.get(0).toString(), val.getReference());
+		asm.emit(operator.equals("++") ? Mnemonic.ADD : Mnemonic.SUB, regs.get(0), incSize);
+		asm.emit(Mnemonic.STORE, regs.get(0), val.getReference());
 
 		// Deallocate the second register.
 		regs.deallocate(asm);
@@ -138,12 +154,11 @@ public class PrefixExpression extends Expression
 			throw new SyntaxException("Operator " + operator + " requires an arithmetic type.", getLine(), getColumn());
 
 		operand.compile(asm, scope, regs);
-		operand.compile(asm, scope, regs);
 
 		// Negative in two's complement: negate all bits and add 1.
 		if (operator.equals("-")) {
-			asm.emit("xor", regs.get(0).toString(), "=-1");
-			asm.emit("add", regs.get(0).toString(), "=1");
+			asm.emit(Mnemonic.XOR, regs.get(0), -1);
+			asm.emit(Mnemonic.ADD, regs.get(0), 1);
 		}
 	}
 
@@ -157,11 +172,11 @@ public class PrefixExpression extends Expression
 
 		// Compares operand to zero and sets register value according to
 		// the result.
-		asm.emit("comp", regs.get(0).toString(), "=0");
-		asm.emit("load", regs.get(0).toString(), "=1");
+		asm.emit(Mnemonic.COMP, regs.get(0), 0);
+		asm.emit(Mnemonic.LOAD, regs.get(0), 1);
 		String jumpLabel = scope.makeGloballyUniqueName("lbl");
-		asm.emit("jequ", jumpLabel);
-		asm.emit("load", regs.get(0).toString(), "=0");
+		asm.emit(Mnemonic.JEQU, jumpLabel);
+		asm.emit(Mnemonic.LOAD, regs.get(0), 0);
 		asm.addLabel(jumpLabel);
 	}
 
@@ -175,7 +190,7 @@ public class PrefixExpression extends Expression
 
 		// -1 has representation of all 1 bits (0xFFFFFFFF), and therefore
 		// xoring with it gives the bitwise negation.
-		asm.emit("xor", regs.get(0).toString(), "=-1");
+		asm.emit(Mnemonic.XOR, regs.get(0), -1);
 	}
 
 	private void compileAddressOf(Assembler asm, Scope scope, Registers regs)
@@ -197,24 +212,30 @@ public class PrefixExpression extends Expression
 
 		// Dereference the pointer unless the result type is an array!
 		if (!(getType(scope) instanceof ArrayType))
-			asm.emit("load", regs.get(0).toString(), "@" + regs.get(0).toString());
+			asm.emit(Mnemonic.LOAD, regs.get(0), "@" + regs.get(0));
 	}
 
 	@Override
-	public CType getType(Scope scope) throws SyntaxException
+	protected CType resolveType(Scope scope) throws SyntaxException
 	{
 		if (operator.equals("&")) {
-			return new PointerType(operand.getType(scope));
+			return Types.pointerTo(operand.getType(scope));
 		} else if (operator.equals("*")) {
 			if (!operand.getType(scope).dereference().isValid())
 				throw new SyntaxException("Operator * requires a pointer or array type.", getLine(), getColumn());
 			return operand.getType(scope).dereference();
 		} else if (operator.equals("!") || operator.equals("~")) {
-			return new IntType();
+			return Types.INT;
 		} else
 			return operand.getType(scope).decay();
 	}
 
+	@Override
+	public boolean isNonNegative(Scope scope) throws SyntaxException
+	{
+		return operator.equals("!") || super.isNonNegative(scope);
+	}
+
 	@Override
 	public Integer getCompileTimeValue() throws SyntaxException
 	{
@@ -248,6 +269,10 @@ public class PrefixExpression extends Expression
 	 */
 	public static Expression parse(TokenStream tokens)
 	{
+		if (tokens.isMemoized(ParseRule.PREFIX_EXPRESSION))
+			return (Expression) tokens.recall(ParseRule.PREFIX_EXPRESSION);
+
+		int start = tokens.getPosition();
 		int line = tokens.getLine(), column = tokens.getColumn();
 		tokens.pushMark();
 		Expression expr = null;
@@ -264,6 +289,7 @@ public class PrefixExpression extends Expression
 		if (expr == null)
 			expr = PostfixExpression.parse(tokens);
 
+		tokens.memoize(ParseRule.PREFIX_EXPRESSION, start, expr);
 		return expr;
 	}
 }
@@ -29,6 +29,10 @@ public abstract class PrimaryExpression extends Expression
 	 */
 	public static Expression parse(TokenStream tokens)
 	{
+		if (tokens.isMemoized(ParseRule.PRIMARY_EXPRESSION))
+			return (Expression) tokens.recall(ParseRule.PRIMARY_EXPRESSION);
+
+		int start = tokens.getPosition();
 		int line = tokens.getLine(), column = tokens.getColumn();
 		tokens.pushMark();
 
@@ -46,6 +50,7 @@ public abstract class PrimaryExpression extends Expression
 		}
 
 		tokens.popMark(expr == null);
+		tokens.memoize(ParseRule.PRIMARY_EXPRESSION, start, expr);
 		return expr;
 	}
 }
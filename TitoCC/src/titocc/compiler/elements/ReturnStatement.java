@@ -2,10 +2,12 @@ package titocc.compiler.elements;
 
 import java.io.IOException;
 import titocc.compiler.Assembler;
+import titocc.compiler.Mnemonic;
+import titocc.compiler.Register;
 import titocc.compiler.Registers;
 import titocc.compiler.Scope;
 import titocc.compiler.Symbol;
-import titocc.compiler.types.VoidType;
+import titocc.compiler.types.Types;
 import titocc.tokenizer.SyntaxException;
 import titocc.tokenizer.TokenStream;
 
@@ -59,17 +61,34 @@ public class ReturnStatement extends Statement
 			if (!expression.isAssignableTo(retVal.getType(), scope))
 				throw new SyntaxException("Returned expression doesn't match return value type.", getLine(), getColumn());
 
+			// A call to the enclosing function reuses the stack frame.
+			if (isSelfTailCall(scope)) {
+				((FunctionCallExpression) expression).compileTailCall(asm, scope, regs);
+				return;
+			}
+
 			// Load expression to first register and store to the return value.
 			expression.compile(asm, scope, regs);
-			asm.emit("store", regs.get(0).toString(), retVal.getReference());
+			asm.emit(Mnemonic.STORE, regs.get(0), retVal.getReference());
 		} else {
-			if (!retVal.getType().equals(new VoidType()))
+			if (!retVal.getType().equals(Types.VOID))
 				throw new SyntaxException("Function must return a value.", getLine(), getColumn());
 		}
 
 		// Jump to function end
 		Symbol functionEnd = scope.find("__End");
-		asm.emit("jump", "sp", functionEnd.getReference());
+		asm.emit(Mnemonic.JUMP, Register.SP, functionEnd.getReference());
+	}
+
+	private boolean isSelfTailCall(Scope scope) throws SyntaxException
+	{
+		// Functions define the start symbol only if they have self tail calls.
+		// It is not visible in inlined function bodies.
+		Symbol start = scope.find("__Start");
+		if (start == null || !(expression instanceof FunctionCallExpression))
+			return false;
+		Function func = ((FunctionCallExpression) expression).getFunction().getFunction(scope);
+		return func != null && func.getStartSymbol() == start;
 	}
 
 	@Override
@@ -50,6 +50,10 @@ public abstract class Statement extends CodeElement
 	 */
 	public static Statement parse(TokenStream tokens)
 	{
+		if (tokens.isMemoized(ParseRule.STATEMENT))
+			return (Statement) tokens.recall(ParseRule.STATEMENT);
+
+		int start = tokens.getPosition();
 		int line = tokens.getLine(), column = tokens.getColumn();
 		tokens.pushMark();
 
@@ -75,6 +79,7 @@ public abstract class Statement extends CodeElement
 			statement = new BlockStatement(new LinkedList<Statement>(), line, column);
 
 		tokens.popMark(statement == null);
+		tokens.memoize(ParseRule.STATEMENT, start, statement);
 		return statement;
 	}
 }
@@ -3,6 +3,7 @@ package titocc.compiler.elements;
 import java.io.IOException;
 import titocc.compiler.Assembler;
 import titocc.compiler.Lvalue;
+import titocc.compiler.Mnemonic;
 import titocc.compiler.Registers;
 import titocc.compiler.Scope;
 import titocc.compiler.types.ArrayType;
@@ -45,8 +46,28 @@ public class SubscriptExpression extends Expression
 		this.subscript = subscript;
 	}
 
+	/**
+	 * Returns the array operand.
+	 *
+	 * @return the array operand
+	 */
+	public Expression getArray()
+	{
+		return array;
+	}
+
+	/**
+	 * Returns the subscript operand.
+	 *
+	 * @return the subscript operand
+	 */
+	public Expression getSubscript()
+	{
+		return subscript;
+	}
+
 	@Override
-	public CType getType(Scope scope) throws SyntaxException
+	protected CType resolveType(Scope scope) throws SyntaxException
 	{
 		return getActualArrayOperand(scope).getType(scope).dereference();
 	}
@@ -62,39 +83,98 @@ public class SubscriptExpression extends Expression
 	public Lvalue compileAsLvalue(Assembler asm, Scope scope, Registers regs)
 			throws SyntaxException, IOException
 	{
-		compile(asm, scope, regs, true);
-		return new Lvalue(regs.get(0));
+		String reference = compile(asm, scope, regs, true);
+		return new Lvalue(regs.get(0), reference);
 	}
 
-	private void compile(Assembler asm, Scope scope, Registers regs, boolean lvalue)
+	/**
+	 * Compiles the subscript expression.
+	 *
+	 * @return indexed reference to the element if the lvalue was requested
+	 * and the element can be addressed without computing its address, or null
+	 * if the address is in the first register
+	 */
+	private String compile(Assembler asm, Scope scope, Registers regs, boolean lvalue)
 			throws SyntaxException, IOException
 	{
 		// Standard allows the operands to be switched so get the actual operands.
 		Expression actualArrayOperand = getActualArrayOperand(scope);
 		Expression actualSubscriptOperand = getActualSubscriptOperand(scope);
+		int incSize = actualArrayOperand.getType(scope).getIncrementSize();
+		String subscriptOperand = getSubscriptOperand(scope, actualSubscriptOperand, incSize);
+
+		// Elements of global arrays are accessed with the indexed addressing
+		// mode, so that the address of the array is not added to the
+		// subscript in a register.
+		String base = getIndexedBase(scope, actualArrayOperand);
+		if (base != null) {
+			if (subscriptOperand != null)
+				asm.emit(Mnemonic.LOAD, regs.get(0), subscriptOperand);
+			else {
+				actualSubscriptOperand.compile(asm, scope, regs);
+				compileMultiplication(asm, regs.get(0), incSize);
+			}
+			String reference = Assembler.indexed(base, regs.get(0));
+			if (lvalue)
+				return reference;
+			if (getType(scope) instanceof ArrayType)
+				asm.emit(Mnemonic.LOAD, regs.get(0), Assembler.immediate(reference));
+			else
+				asm.emit(Mnemonic.LOAD, regs.get(0), reference);
+			return null;
+		}
 
 		// Evaluate array expression in first register.
 		actualArrayOperand.compile(asm, scope, regs);
 
-		// Allocate second register and evaluate subscript in it.
-		regs.allocate(asm);
-		regs.removeFirst();
-		actualSubscriptOperand.compile(asm, scope, regs);
-		regs.addFirst();
-
-		// If increment size > 1 then multiply subscript.
-		int incSize = actualArrayOperand.getType(scope).getIncrementSize();
-		if (incSize != 1)
-			asm.emit("mul", regs.get(1).toString(), "=" + incSize);
+		// Add subscript to the array pointer. A constant subscript is scaled
+		// at compile time and a variable subscript with increment size 1 is
+		// used directly as the operand.
+		if (subscriptOperand != null)
+			asm.emit(Mnemonic.ADD, regs.get(0), subscriptOperand);
+		else {
+			// Allocate second register and evaluate subscript in it.
+			regs.allocate(asm);
+			regs.removeFirst();
+			actualSubscriptOperand.compile(asm, scope, regs);
+			regs.addFirst();
+
+			// Scale the subscript by increment size.
+			compileMultiplication(asm, regs.get(1), incSize);
+
+			asm.emit(Mnemonic.ADD, regs.get(0), regs.get(1));
+
+			// Deallocate second register.
+			regs.deallocate(asm);
+		}
 
-		// Add subscript to the array pointer. Dereference the result if lvalue
-		// is not explicitly requested and result is not an array.
-		asm.emit("add", regs.get(0).toString(), regs.get(1).toString());
+		// Dereference the result if lvalue is not explicitly requested and
+		// result is not an array.
 		if (!lvalue && !(getType(scope) instanceof ArrayType))
-			asm.emit("load", regs.get(0).toString(), "@" + regs.get(0).toString());
+			asm.emit(Mnemonic.LOAD, regs.get(0), "@" + regs.get(0));
+		return null;
+	}
+
+	private static String getIndexedBase(Scope scope, Expression array) throws SyntaxException
+	{
+		// Global arrays decay to a constant address "=name". Local arrays are
+		// already indexed by the frame pointer.
+		String operand = array.getDirectOperand(scope);
+		if (operand == null || !operand.startsWith("=") || operand.indexOf('(') >= 0
+				|| array.getCompileTimeValue() != null)
+			return null;
+		return operand.substring(1);
+	}
 
-		// Deallocate second register.
-		regs.deallocate(asm);
+	private static String getSubscriptOperand(Scope scope, Expression subscript, int incSize)
+			throws SyntaxException
+	{
+		Integer value = subscript.getCompileTimeValue();
+		if (value != null) {
+			long scaled = (long) value * incSize;
+			return scaled < 32768 && scaled >= -32768 ? Assembler.immediate((int) scaled) : null;
+		}
+		return incSize == 1 ? subscript.getDirectOperand(scope) : null;
 	}
 
 	private Expression getActualArrayOperand(Scope scope) throws SyntaxException
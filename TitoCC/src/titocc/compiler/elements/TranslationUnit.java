@@ -4,10 +4,12 @@ import java.io.IOException;
 import java.util.LinkedList;
 import java.util.List;
 import titocc.compiler.Assembler;
+import titocc.compiler.Mnemonic;
+import titocc.compiler.Register;
 import titocc.compiler.Registers;
 import titocc.compiler.Scope;
 import titocc.compiler.Symbol;
-import titocc.compiler.types.IntType;
+import titocc.compiler.types.Types;
 import titocc.tokenizer.EofToken;
 import titocc.tokenizer.SyntaxException;
 import titocc.tokenizer.TokenStream;
@@ -65,9 +67,9 @@ public class TranslationUnit extends CodeElement
 	public void compile(Assembler asm, Scope scope, Registers regs) throws IOException, SyntaxException
 	{
 		// Call main function and then halt.
-		asm.emit("add", "sp", "=1");
-		asm.emit("call", "sp", "main");
-		asm.emit("svc", "sp", "=halt");
+		asm.emit(Mnemonic.ADD, Register.SP, 1);
+		asm.emit(Mnemonic.CALL, Register.SP, "main");
+		asm.emit(Mnemonic.SVC, Register.SP, "=halt");
 
 		for (Declaration decl : declarations)
 			decl.compile(asm, scope, regs);
@@ -77,8 +79,10 @@ public class TranslationUnit extends CodeElement
 	}
 
 	/**
-	 * Attempts to parse a translation unit from token stream. If parsing fails
-	 * the stream is reset to its initial position.
+	 * Attempts to parse a translation unit from token stream. Unlike other
+	 * elements this does not reset the stream if parsing fails, so that no
+	 * mark is held over the whole source and the stream can release tokens
+	 * that have already been parsed.
 	 *
 	 * @param tokens source token stream
 	 * @return TranslationUnit object or null if tokens don't form a valid
@@ -86,8 +90,6 @@ public class TranslationUnit extends CodeElement
 	 */
 	public static TranslationUnit parse(TokenStream tokens)
 	{
-		int line = tokens.getLine(), column = tokens.getColumn();
-		tokens.pushMark();
 		TranslationUnit translUnit = null;
 
 		List<Declaration> declarations = new LinkedList<Declaration>();
@@ -101,7 +103,6 @@ public class TranslationUnit extends CodeElement
 		if (tokens.read() instanceof EofToken)
 			translUnit = new TranslationUnit(declarations, 0, 0);
 
-		tokens.popMark(translUnit == null);
 		return translUnit;
 	}
 
@@ -127,6 +128,6 @@ public class TranslationUnit extends CodeElement
 			return false;
 
 		Function main = (Function) sym;
-		return main.getReturnType().equals(new IntType()) && main.getParameterCount() == 0;
+		return main.getReturnType().equals(Types.INT) && main.getParameterCount() == 0;
 	}
 }
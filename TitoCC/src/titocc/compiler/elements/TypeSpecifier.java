@@ -3,8 +3,7 @@ package titocc.compiler.elements;
 import java.util.HashMap;
 import java.util.Map;
 import titocc.compiler.types.CType;
-import titocc.compiler.types.IntType;
-import titocc.compiler.types.VoidType;
+import titocc.compiler.types.Types;
 import titocc.tokenizer.Token;
 import titocc.tokenizer.TokenStream;
 
@@ -23,8 +22,8 @@ public class TypeSpecifier extends CodeElement
 	static final Map<String, CType> typeMap = new HashMap<String, CType>()
 	{
 		{
-			put("void", new VoidType());
-			put("int", new IntType());
+			put("void", Types.VOID);
+			put("int", Types.INT);
 		}
 	};
 	/**
@@ -80,6 +79,10 @@ public class TypeSpecifier extends CodeElement
 	 */
 	public static TypeSpecifier parse(TokenStream tokens)
 	{
+		if (tokens.isMemoized(ParseRule.TYPE_SPECIFIER))
+			return (TypeSpecifier) tokens.recall(ParseRule.TYPE_SPECIFIER);
+
+		int start = tokens.getPosition();
 		int line = tokens.getLine(), column = tokens.getColumn();
 		tokens.pushMark();
 		TypeSpecifier type = null;
@@ -89,6 +92,7 @@ public class TypeSpecifier extends CodeElement
 			type = new TypeSpecifier(token.toString(), line, column);
 
 		tokens.popMark(type == null);
+		tokens.memoize(ParseRule.TYPE_SPECIFIER, start, type);
 		return type;
 	}
 }
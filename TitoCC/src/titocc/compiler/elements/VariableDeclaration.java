@@ -2,11 +2,13 @@ package titocc.compiler.elements;
 
 import java.io.IOException;
 import titocc.compiler.Assembler;
+import titocc.compiler.Mnemonic;
 import titocc.compiler.Registers;
 import titocc.compiler.Scope;
 import titocc.compiler.Symbol;
 import titocc.compiler.types.ArrayType;
 import titocc.compiler.types.CType;
+import titocc.compiler.types.Types;
 import titocc.tokenizer.SyntaxException;
 import titocc.tokenizer.TokenStream;
 
@@ -83,6 +85,22 @@ public class VariableDeclaration extends Declaration implements Symbol
 		return declarator.getName();
 	}
 
+	/**
+	 * Returns whether the variable is an array. Unlike getType(), this can be
+	 * used before the declaration has been compiled.
+	 *
+	 * @return true if the declarator declares an array
+	 */
+	public boolean isArray()
+	{
+		try {
+			return declarator.getModifiedType(Types.INT) instanceof ArrayType;
+		} catch (SyntaxException e) {
+			// Invalid declarators are reported when the declaration is compiled.
+			return true;
+		}
+	}
+
 	/**
 	 * Returns the initializer expression.
 	 *
@@ -147,9 +165,9 @@ public class VariableDeclaration extends Declaration implements Symbol
 
 		asm.addLabel(globallyUniqueName);
 		if (type instanceof ArrayType)
-			asm.emit("ds", "" + type.getSize());
+			asm.emit(Mnemonic.DS, type.getSize());
 		else
-			asm.emit("dc", "" + initValue);
+			asm.emit(Mnemonic.DC, (int) initValue);
 	}
 
 	private void compileLocalVariable(Assembler asm, Scope scope, Registers regs)
@@ -157,7 +175,7 @@ public class VariableDeclaration extends Declaration implements Symbol
 	{
 		if (initializer != null) {
 			initializer.compile(asm, scope, regs);
-			asm.emit("store", regs.get(0).toString(), getReference());
+			asm.emit(Mnemonic.STORE, regs.get(0), getReference());
 		}
 	}
 
@@ -171,6 +189,10 @@ public class VariableDeclaration extends Declaration implements Symbol
 	 */
 	public static VariableDeclaration parse(TokenStream tokens)
 	{
+		if (tokens.isMemoized(ParseRule.VARIABLE_DECLARATION))
+			return (VariableDeclaration) tokens.recall(ParseRule.VARIABLE_DECLARATION);
+
+		int start = tokens.getPosition();
 		int line = tokens.getLine(), column = tokens.getColumn();
 		tokens.pushMark();
 		VariableDeclaration varDeclaration = null;
@@ -187,6 +209,7 @@ public class VariableDeclaration extends Declaration implements Symbol
 		}
 
 		tokens.popMark(varDeclaration == null);
+		tokens.memoize(ParseRule.VARIABLE_DECLARATION, start, varDeclaration);
 		return varDeclaration;
 	}
 
@@ -2,6 +2,7 @@ package titocc.compiler.elements;
 
 import java.io.IOException;
 import titocc.compiler.Assembler;
+import titocc.compiler.Mnemonic;
 import titocc.compiler.Registers;
 import titocc.compiler.Scope;
 import titocc.tokenizer.SyntaxException;
@@ -70,7 +71,7 @@ public class WhileStatement extends Statement
 		// Loop start.
 		String loopStartLabel = scope.makeGloballyUniqueName("lbl");
 		String loopTestLabel = scope.makeGloballyUniqueName("lbl");
-		asm.emit("jump", loopTestLabel);
+		asm.emit(Mnemonic.JUMP, loopTestLabel);
 		asm.addLabel(loopStartLabel);
 
 		// Body.
@@ -81,8 +82,7 @@ public class WhileStatement extends Statement
 		// Loop test code is after the body so that we only need one
 		// jump instruction per iteration.
 		asm.addLabel(loopTestLabel);
-		test.compile(asm, scope, regs);
-		asm.emit("jnzer", regs.get(0).toString(), loopStartLabel);
+		test.compileAsCondition(asm, scope, regs, loopStartLabel, true);
 	}
 
 	@Override
@@ -48,16 +48,30 @@ public class ArrayType extends CType
 	@Override
 	public CType decay()
 	{
-		return new PointerType(elementType);
+		return Types.pointerTo(elementType);
 	}
 
 	@Override
 	public boolean equals(Object obj)
 	{
-		if (!(obj instanceof ArrayType))
+		if (obj == this)
+			return true;
+		if (!(obj instanceof ArrayType) || !mayEqual((ArrayType) obj))
 			return false;
 
 		return elementType.equals(((ArrayType) obj).elementType)
 				&& length == (((ArrayType) obj).length);
 	}
+
+	@Override
+	public int hashCode()
+	{
+		return 31 * elementType.hashCode() + length;
+	}
+
+	@Override
+	CType intern()
+	{
+		return Types.arrayOf(elementType, length);
+	}
 }
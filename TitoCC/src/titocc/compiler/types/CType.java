@@ -1,11 +1,29 @@
 package titocc.compiler.types;
 
+import java.util.Map;
+
 /**
  * Abstract base class for representing types in C type system. Allows testing
  * equality between types and querying their features.
  */
 public abstract class CType
 {
+	/**
+	 * True if this instance was handed out by Types. Canonical types are equal
+	 * only if they are the same object.
+	 */
+	boolean canonical;
+	/**
+	 * Canonical pointer to this type or null if not created yet. Only used
+	 * for canonical types.
+	 */
+	CType pointerType;
+	/**
+	 * Canonical arrays of this type indexed by length or null if none have
+	 * been created. Only used for canonical types.
+	 */
+	Map<Integer, ArrayType> arrayTypes;
+
 	/**
 	 * Returns whether the type is an object (i.e. not a function or void).
 	 *
@@ -44,7 +62,7 @@ public abstract class CType
 	 */
 	public CType dereference()
 	{
-		return new InvalidType();
+		return Types.INVALID;
 	}
 
 	/**
@@ -109,4 +127,25 @@ public abstract class CType
 	{
 		return this;
 	}
+
+	/**
+	 * Returns the canonical instance that equals this type. Called by
+	 * Types.intern() for types that are not canonical.
+	 *
+	 * @return the canonical type
+	 */
+	abstract CType intern();
+
+	/**
+	 * Tests whether two types known to be of the same class can be equal. Two
+	 * distinct canonical types are never equal, so the structural comparison
+	 * is only needed if either of them was created with a constructor.
+	 *
+	 * @param other the other type
+	 * @return false if the types are known to differ
+	 */
+	boolean mayEqual(CType other)
+	{
+		return !(canonical && other.canonical);
+	}
 }
@@ -33,7 +33,9 @@ public class FunctionType extends CType
 	@Override
 	public boolean equals(Object obj)
 	{
-		if (!(obj instanceof FunctionType))
+		if (obj == this)
+			return true;
+		if (!(obj instanceof FunctionType) || !mayEqual((FunctionType) obj))
 			return false;
 
 		FunctionType func = (FunctionType) obj;
@@ -47,4 +49,16 @@ public class FunctionType extends CType
 	{
 		return 0;
 	}
+
+	@Override
+	public int hashCode()
+	{
+		return 31 * returnType.hashCode() + parameterTypes.hashCode();
+	}
+
+	@Override
+	CType intern()
+	{
+		return Types.function(returnType, parameterTypes);
+	}
 }
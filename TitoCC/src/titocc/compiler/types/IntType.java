@@ -47,4 +47,16 @@ public class IntType extends CType
 	{
 		return obj instanceof IntType;
 	}
+
+	@Override
+	public int hashCode()
+	{
+		return 1;
+	}
+
+	@Override
+	CType intern()
+	{
+		return Types.INT;
+	}
 }
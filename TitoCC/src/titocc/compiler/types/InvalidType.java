@@ -13,4 +13,10 @@ public class InvalidType extends CType
 	{
 		return false;
 	}
+
+	@Override
+	CType intern()
+	{
+		return Types.INVALID;
+	}
 }
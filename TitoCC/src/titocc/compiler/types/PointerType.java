@@ -42,15 +42,29 @@ public class PointerType extends CType
 	@Override
 	public boolean equals(Object obj)
 	{
-		if (!(obj instanceof PointerType))
+		if (obj == this)
+			return true;
+		if (!(obj instanceof PointerType) || !mayEqual((PointerType) obj))
 			return false;
 
 		return pointedType.equals(((PointerType) obj).pointedType);
 	}
 
+	@Override
+	public int hashCode()
+	{
+		return 31 * pointedType.hashCode() + 3;
+	}
+
 	@Override
 	public int getSize()
 	{
 		return 1;
 	}
+
+	@Override
+	CType intern()
+	{
+		return Types.pointerTo(pointedType);
+	}
 }
@@ -0,0 +1,112 @@
+package titocc.compiler.types;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Factory for canonical type instances. Structurally equal types obtained from
+ * this class are the same object, so they can be compared with reference
+ * equality and no new objects need to be allocated when the same type is
+ * needed again. Types constructed directly with the constructors still work,
+ * but they are not canonical and equals() has to compare them structurally.
+ */
+public final class Types
+{
+	/**
+	 * The int type.
+	 */
+	public static final CType INT = canonical(new IntType());
+	/**
+	 * The void type.
+	 */
+	public static final CType VOID = canonical(new VoidType());
+	/**
+	 * The invalid type returned by dereference() of non-pointer types.
+	 */
+	public static final CType INVALID = canonical(new InvalidType());
+	/**
+	 * Canonical function types. Function types are rare so a map keyed by
+	 * structure is enough for them.
+	 */
+	private static final Map<FunctionType, FunctionType> functionTypes =
+			new HashMap<FunctionType, FunctionType>();
+
+	private Types()
+	{
+	}
+
+	/**
+	 * Returns the canonical instance of a type. If the type is already
+	 * canonical then it is returned as is.
+	 *
+	 * @param type any type
+	 * @return canonical type that equals the given type
+	 */
+	public static CType intern(CType type)
+	{
+		return type.canonical ? type : type.intern();
+	}
+
+	/**
+	 * Returns the canonical pointer type that points to the given type.
+	 *
+	 * @param pointedType type of the pointed object
+	 * @return canonical pointer type
+	 */
+	public static synchronized CType pointerTo(CType pointedType)
+	{
+		pointedType = intern(pointedType);
+		if (pointedType.pointerType == null)
+			pointedType.pointerType = canonical(new PointerType(pointedType));
+		return pointedType.pointerType;
+	}
+
+	/**
+	 * Returns the canonical array type with given element type and length.
+	 *
+	 * @param elementType type of the elements in the array
+	 * @param length length of the array
+	 * @return canonical array type
+	 */
+	public static synchronized CType arrayOf(CType elementType, int length)
+	{
+		elementType = intern(elementType);
+		if (elementType.arrayTypes == null)
+			elementType.arrayTypes = new HashMap<Integer, ArrayType>();
+		ArrayType arrayType = elementType.arrayTypes.get(length);
+		if (arrayType == null) {
+			arrayType = canonical(new ArrayType(elementType, length));
+			elementType.arrayTypes.put(length, arrayType);
+		}
+		return arrayType;
+	}
+
+	/**
+	 * Returns the canonical function type with given return and parameter
+	 * types.
+	 *
+	 * @param returnType return type
+	 * @param parameterTypes types of all the parameters
+	 * @return canonical function type
+	 */
+	public static synchronized CType function(CType returnType, List<CType> parameterTypes)
+	{
+		List<CType> canonicalParameterTypes = new ArrayList<CType>(parameterTypes.size());
+		for (CType t : parameterTypes)
+			canonicalParameterTypes.add(intern(t));
+		FunctionType functionType = new FunctionType(intern(returnType), canonicalParameterTypes);
+		FunctionType existing = functionTypes.get(functionType);
+		if (existing != null)
+			return existing;
+		functionTypes.put(functionType, canonical(functionType));
+		return functionType;
+	}
+
+	private static <T extends CType> T canonical(T type)
+	{
+		type.canonical = true;
+		return type;
+	}
+}
@@ -19,4 +19,16 @@ public class VoidType extends CType
 	{
 		return obj instanceof VoidType;
 	}
+
+	@Override
+	public int hashCode()
+	{
+		return 2;
+	}
+
+	@Override
+	CType intern()
+	{
+		return Types.VOID;
+	}
 }
@@ -7,16 +7,16 @@ import java.io.IOException;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.io.Writer;
-import java.util.List;
 import java.util.Scanner;
 import javax.swing.text.BadLocationException;
 import javax.swing.text.Document;
 import javax.swing.text.PlainDocument;
 import titocc.compiler.Compiler;
+import titocc.compiler.Inliner;
 import titocc.compiler.Parser;
+import titocc.compiler.PeepholeOptimizer;
 import titocc.compiler.elements.TranslationUnit;
 import titocc.tokenizer.SyntaxException;
-import titocc.tokenizer.Token;
 import titocc.tokenizer.Tokenizer;
 
 /**
@@ -105,17 +105,19 @@ public class SourceFile
 		String sourceCode = getText();
 		Tokenizer tokenizer = new Tokenizer(new StringReader(sourceCode));
 		try {
-			List<Token> tokens = tokenizer.tokenize();
-			log.logMessage("Tokenization completed successfully.");
-
-			TranslationUnit trUnit = Parser.parse(tokens);
+			TranslationUnit trUnit = Parser.parse(tokenizer);
 			//writer.append(";PARSER OUTPUT: " + trUnit.toString() + "\n");
-			log.logMessage("Parsing completed successfully.");
+			log.logMessage("Tokenization and parsing completed successfully.");
 
 			Compiler compiler = new Compiler(trUnit);
+			PeepholeOptimizer optimizer = new PeepholeOptimizer();
+			compiler.setPeepholeOptimizer(optimizer);
+			compiler.setInliner(new Inliner());
+			compiler.setLoopOptimization(true);
 			assemblyCode = new StringWriter();
 			compiler.compile(assemblyCode);
 			log.logMessage("Compilation completed successfully.");
+			log.logMessage("Peephole optimization: " + optimizer + ".");
 			writer.write(assemblyCode.toString());
 		} catch (SyntaxException e) {
 			int line = e.getLine() + 1;
@@ -0,0 +1,15 @@
+package titocc.sim;
+
+/**
+ * Device that provides the values read by "in" instructions.
+ */
+public interface InputDevice
+{
+	/**
+	 * Reads the next value.
+	 *
+	 * @return the value
+	 * @throws SimulatorException if no more values are available
+	 */
+	int read() throws SimulatorException;
+}
@@ -0,0 +1,15 @@
+package titocc.sim;
+
+/**
+ * Device that receives the values written by "out" instructions.
+ */
+public interface OutputDevice
+{
+	/**
+	 * Writes a value.
+	 *
+	 * @param value the value
+	 * @throws SimulatorException if the value can't be written
+	 */
+	void write(int value) throws SimulatorException;
+}
@@ -0,0 +1,399 @@
+package titocc.sim;
+
+import titocc.assembler.InstructionSet;
+import titocc.assembler.Program;
+
+/**
+ * TTK-91 processor simulator. Executes a loaded program in a flat word
+ * addressed memory and counts the executed instructions and the data memory
+ * accesses, so that the cost of the generated code can be measured without
+ * Titokone. Instruction fetches are not counted as memory accesses.
+ *
+ * <p> The program is copied to the beginning of the memory. The stack and
+ * frame pointers initially point to the last word of the program and the
+ * stack grows upwards. Values read by "in R, =kbd" come from the keyboard
+ * device and values written by "out R, =crt" go to the screen device. The
+ * only supported supervisor call is "svc sp, =halt".
+ */
+public class Simulator
+{
+	/**
+	 * Memory size used by default, in words.
+	 */
+	public static final int DEFAULT_MEMORY_SIZE = 65536;
+	/**
+	 * Memory words.
+	 */
+	private final int[] memory;
+	/**
+	 * Registers R0-R7. R6 is the stack pointer and R7 the frame pointer.
+	 */
+	private final int[] registers = new int[8];
+	/**
+	 * Address of the next instruction.
+	 */
+	private int pc = 0;
+	/**
+	 * Comparison result bits of the state register.
+	 */
+	private boolean less, equal, greater;
+	/**
+	 * True after the program has executed "svc sp, =halt".
+	 */
+	private boolean halted = false;
+	/**
+	 * Number of executed instructions.
+	 */
+	private long instructionCount = 0;
+	/**
+	 * Number of data memory reads and writes.
+	 */
+	private long memoryAccessCount = 0;
+	/**
+	 * Keyboard device or null if not connected.
+	 */
+	private InputDevice keyboard = null;
+	/**
+	 * Screen device or null if not connected.
+	 */
+	private OutputDevice crt = null;
+
+	/**
+	 * Constructs a simulator with the default memory size.
+	 *
+	 * @param program program to load
+	 * @throws SimulatorException if the program does not fit in the memory
+	 */
+	public Simulator(Program program) throws SimulatorException
+	{
+		this(program, DEFAULT_MEMORY_SIZE);
+	}
+
+	/**
+	 * Constructs a simulator.
+	 *
+	 * @param program program to load
+	 * @param memorySize memory size in words
+	 * @throws SimulatorException if the program does not fit in the memory
+	 */
+	public Simulator(Program program, int memorySize) throws SimulatorException
+	{
+		int[] image = program.getImage();
+		if (image.length > memorySize)
+			throw new SimulatorException("Program does not fit in the memory.");
+		memory = new int[memorySize];
+		System.arraycopy(image, 0, memory, 0, image.length);
+		registers[InstructionSet.SP] = image.length - 1;
+		registers[InstructionSet.FP] = image.length - 1;
+	}
+
+	/**
+	 * Connects the keyboard device.
+	 *
+	 * @param keyboard device or null to disconnect
+	 */
+	public void setKeyboard(InputDevice keyboard)
+	{
+		this.keyboard = keyboard;
+	}
+
+	/**
+	 * Connects the screen device.
+	 *
+	 * @param crt device or null to disconnect
+	 */
+	public void setCrt(OutputDevice crt)
+	{
+		this.crt = crt;
+	}
+
+	/**
+	 * Runs the program until it halts or the instruction limit is reached.
+	 *
+	 * @param maxInstructions maximum number of instructions to execute
+	 * @return true if the program halted, false if the limit was reached
+	 * @throws SimulatorException if the program fails
+	 */
+	public boolean run(long maxInstructions) throws SimulatorException
+	{
+		for (long i = 0; i < maxInstructions && !halted; ++i)
+			step();
+		return halted;
+	}
+
+	/**
+	 * Executes one instruction.
+	 *
+	 * @throws SimulatorException if the instruction fails or the program has
+	 * already halted
+	 */
+	public void step() throws SimulatorException
+	{
+		if (halted)
+			throw new SimulatorException("Program has halted.");
+		if (pc < 0 || pc >= memory.length)
+			throw new SimulatorException("Program counter out of memory: " + pc + ".");
+		int address = pc;
+		int word = memory[pc++];
+		++instructionCount;
+
+		int opcode = word >>> 24;
+		int rj = (word >>> 21) & 7;
+		int mode = (word >>> 19) & 3;
+		int ri = (word >>> 16) & 7;
+		int value = (short) word;
+		if (ri != 0)
+			value += registers[ri];
+		for (; mode > 0; --mode)
+			value = read(value);
+
+		int[] r = registers;
+		switch (opcode) {
+			case InstructionSet.NOP:
+				break;
+			case InstructionSet.STORE:
+				write(value, r[rj]);
+				break;
+			case InstructionSet.LOAD:
+				r[rj] = value;
+				break;
+			case InstructionSet.IN:
+				r[rj] = input(value);
+				break;
+			case InstructionSet.OUT:
+				output(value, r[rj]);
+				break;
+			case InstructionSet.ADD:
+				r[rj] += value;
+				break;
+			case InstructionSet.SUB:
+				r[rj] -= value;
+				break;
+			case InstructionSet.MUL:
+				r[rj] *= value;
+				break;
+			case InstructionSet.DIV:
+				if (value == 0)
+					throw error(address, "Division by zero.");
+				r[rj] /= value;
+				break;
+			case InstructionSet.MOD:
+				if (value == 0)
+					throw error(address, "Division by zero.");
+				r[rj] %= value;
+				break;
+			case InstructionSet.AND:
+				r[rj] &= value;
+				break;
+			case InstructionSet.OR:
+				r[rj] |= value;
+				break;
+			case InstructionSet.XOR:
+				r[rj] ^= value;
+				break;
+			case InstructionSet.SHL:
+				r[rj] <<= value;
+				break;
+			case InstructionSet.SHR:
+				r[rj] >>>= value;
+				break;
+			case InstructionSet.NOT:
+				r[rj] = ~r[rj];
+				break;
+			case InstructionSet.SHRA:
+				r[rj] >>= value;
+				break;
+			case InstructionSet.COMP:
+				less = r[rj] < value;
+				equal = r[rj] == value;
+				greater = r[rj] > value;
+				break;
+			case InstructionSet.JUMP:
+				pc = value;
+				break;
+			case InstructionSet.JNEG:
+				if (r[rj] < 0)
+					pc = value;
+				break;
+			case InstructionSet.JZER:
+				if (r[rj] == 0)
+					pc = value;
+				break;
+			case InstructionSet.JPOS:
+				if (r[rj] > 0)
+					pc = value;
+				break;
+			case InstructionSet.JNNEG:
+				if (r[rj] >= 0)
+					pc = value;
+				break;
+			case InstructionSet.JNZER:
+				if (r[rj] != 0)
+					pc = value;
+				break;
+			case InstructionSet.JNPOS:
+				if (r[rj] <= 0)
+					pc = value;
+				break;
+			case InstructionSet.JLES:
+				if (less)
+					pc = value;
+				break;
+			case InstructionSet.JEQU:
+				if (equal)
+					pc = value;
+				break;
+			case InstructionSet.JGRE:
+				if (greater)
+					pc = value;
+				break;
+			case InstructionSet.JNLES:
+				if (!less)
+					pc = value;
+				break;
+			case InstructionSet.JNEQU:
+				if (!equal)
+					pc = value;
+				break;
+			case InstructionSet.JNGRE:
+				if (!greater)
+					pc = value;
+				break;
+			case InstructionSet.CALL:
+				push(rj, pc);
+				push(rj, r[InstructionSet.FP]);
+				r[InstructionSet.FP] = r[rj];
+				pc = value;
+				break;
+			case InstructionSet.EXIT:
+				r[rj] = r[InstructionSet.FP];
+				r[InstructionSet.FP] = pop(rj);
+				pc = pop(rj);
+				r[rj] -= value;
+				break;
+			case InstructionSet.PUSH:
+				push(rj, value);
+				break;
+			case InstructionSet.POP:
+				// The destination is the index register field.
+				r[ri] = pop(rj);
+				break;
+			case InstructionSet.PUSHR:
+				for (int i = 0; i <= 5; ++i)
+					push(rj, r[i]);
+				break;
+			case InstructionSet.POPR:
+				for (int i = 5; i >= 0; --i)
+					r[i] = pop(rj);
+				break;
+			case InstructionSet.SVC:
+				if (value != InstructionSet.HALT)
+					throw error(address, "Unsupported supervisor call " + value + ".");
+				halted = true;
+				break;
+			default:
+				throw error(address, "Invalid operation code " + opcode + ".");
+		}
+	}
+
+	/**
+	 * Returns true if the program has halted.
+	 *
+	 * @return true if halted
+	 */
+	public boolean isHalted()
+	{
+		return halted;
+	}
+
+	/**
+	 * Returns the value of a register.
+	 *
+	 * @param register register number 0-7
+	 * @return the value
+	 */
+	public int getRegister(int register)
+	{
+		return registers[register];
+	}
+
+	/**
+	 * Returns the value of a memory word without counting it as an access.
+	 *
+	 * @param address the address
+	 * @return the value
+	 */
+	public int getMemory(int address)
+	{
+		return memory[address];
+	}
+
+	/**
+	 * Returns the number of executed instructions.
+	 *
+	 * @return instruction count
+	 */
+	public long getInstructionCount()
+	{
+		return instructionCount;
+	}
+
+	/**
+	 * Returns the number of data memory reads and writes, including the
+	 * stack accesses of push, pop, call and exit instructions.
+	 *
+	 * @return memory access count
+	 */
+	public long getMemoryAccessCount()
+	{
+		return memoryAccessCount;
+	}
+
+	private int read(int address) throws SimulatorException
+	{
+		if (address < 0 || address >= memory.length)
+			throw error(pc - 1, "Memory read out of bounds: " + address + ".");
+		++memoryAccessCount;
+		return memory[address];
+	}
+
+	private void write(int address, int value) throws SimulatorException
+	{
+		if (address < 0 || address >= memory.length)
+			throw error(pc - 1, "Memory write out of bounds: " + address + ".");
+		++memoryAccessCount;
+		memory[address] = value;
+	}
+
+	private void push(int sp, int value) throws SimulatorException
+	{
+		write(++registers[sp], value);
+	}
+
+	private int pop(int sp) throws SimulatorException
+	{
+		return read(registers[sp]--);
+	}
+
+	private int input(int device) throws SimulatorException
+	{
+		if (device != InstructionSet.KBD)
+			throw error(pc - 1, "Unsupported input device " + device + ".");
+		if (keyboard == null)
+			throw error(pc - 1, "Keyboard is not connected.");
+		return keyboard.read();
+	}
+
+	private void output(int device, int value) throws SimulatorException
+	{
+		if (device != InstructionSet.CRT)
+			throw error(pc - 1, "Unsupported output device " + device + ".");
+		if (crt != null)
+			crt.write(value);
+	}
+
+	private static SimulatorException error(int address, String message)
+	{
+		return new SimulatorException("Address " + address + ": " + message);
+	}
+}
@@ -0,0 +1,18 @@
+package titocc.sim;
+
+/**
+ * An exception caused by an invalid program when executing it in the
+ * simulator.
+ */
+public class SimulatorException extends Exception
+{
+	/**
+	 * Constructs a SimulatorException.
+	 *
+	 * @param message error message
+	 */
+	public SimulatorException(String message)
+	{
+		super(message);
+	}
+}
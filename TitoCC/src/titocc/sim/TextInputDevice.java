@@ -0,0 +1,49 @@
+package titocc.sim;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Input device that reads decimal integers separated by whitespace from a
+ * character stream, for example the standard input.
+ */
+public class TextInputDevice implements InputDevice
+{
+	/**
+	 * Stream to read from.
+	 */
+	private final Reader reader;
+
+	/**
+	 * Constructs a TextInputDevice.
+	 *
+	 * @param reader stream to read from
+	 */
+	public TextInputDevice(Reader reader)
+	{
+		this.reader = reader;
+	}
+
+	@Override
+	public int read() throws SimulatorException
+	{
+		try {
+			int c = reader.read();
+			while (c != -1 && Character.isWhitespace(c))
+				c = reader.read();
+			if (c == -1)
+				throw new SimulatorException("End of input.");
+
+			StringBuilder sb = new StringBuilder();
+			while (c != -1 && !Character.isWhitespace(c)) {
+				sb.append((char) c);
+				c = reader.read();
+			}
+			return Integer.parseInt(sb.toString());
+		} catch (IOException e) {
+			throw new SimulatorException("Reading input failed: " + e.getMessage());
+		} catch (NumberFormatException e) {
+			throw new SimulatorException("Invalid input: " + e.getMessage());
+		}
+	}
+}
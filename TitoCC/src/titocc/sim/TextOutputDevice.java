@@ -0,0 +1,37 @@
+package titocc.sim;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Output device that writes each value as a line of text to a character
+ * stream, for example the standard output.
+ */
+public class TextOutputDevice implements OutputDevice
+{
+	/**
+	 * Stream to write to.
+	 */
+	private final Writer writer;
+
+	/**
+	 * Constructs a TextOutputDevice.
+	 *
+	 * @param writer stream to write to
+	 */
+	public TextOutputDevice(Writer writer)
+	{
+		this.writer = writer;
+	}
+
+	@Override
+	public void write(int value) throws SimulatorException
+	{
+		try {
+			writer.write(value + "\n");
+			writer.flush();
+		} catch (IOException e) {
+			throw new SimulatorException("Writing output failed: " + e.getMessage());
+		}
+	}
+}
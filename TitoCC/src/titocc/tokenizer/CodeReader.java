@@ -1,41 +1,55 @@
 package titocc.tokenizer;
 
 import java.io.IOException;
-import java.io.LineNumberReader;
 import java.io.Reader;
 
 /**
- * Wrapper for Reader interface that reads characters one at a time and keeps
- * track of lines and columns. Also supports unreading single character back
- * into the input stream.
+ * Buffered scanner that reads characters one at a time and keeps track of
+ * lines and columns. The whole input is loaded into a character array (in
+ * large chunks) on first access, after which reading, lookahead and unreading
+ * any number of characters are plain array operations. Line terminators
+ * ("\n", "\r\n" and "\r") are all converted to a single '\n' character.
  */
 public class CodeReader
 {
 	/**
-	 * Length of the previous line. Needed when unreading line changes.
+	 * Size of the chunks used when loading the input.
 	 */
-	private int previousLineLength;
+	private static final int CHUNK_SIZE = 8192;
 	/**
-	 * LineNumberReader that wraps the given reader object and keeps track of
-	 * the line number.
+	 * Reader from which the input is loaded. Set to null after the input has
+	 * been loaded.
 	 */
-	private final LineNumberReader reader;
+	private Reader reader;
+	/**
+	 * Input characters with line terminators converted to '\n'.
+	 */
+	private char[] buffer = new char[0];
+	/**
+	 * Number of valid characters in the buffer.
+	 */
+	private int length;
+	/**
+	 * Index of the next character to be read.
+	 */
+	private int position;
+	/**
+	 * Current line number.
+	 */
+	private int line;
 	/**
 	 * Current column number.
 	 */
 	private int column;
 
-	/**
-	 *
-	 */
 	/**
 	 * Constructs a CodeReader.
 	 *
-	 * @param reader
+	 * @param reader reader for the source text
 	 */
 	public CodeReader(Reader reader)
 	{
-		this.reader = new LineNumberReader(reader);
+		this.reader = reader;
 	}
 
 	/**
@@ -46,35 +60,94 @@ public class CodeReader
 	 */
 	public char read() throws IOException
 	{
-		reader.mark(1);
-		int c = reader.read();
+		load();
 
-		if (c == -1)
+		if (position >= length)
 			return '\0';
 
-		// Store previous line length so we can unread newline
+		char c = buffer[position++];
 		if (c == '\n') {
-			previousLineLength = column;
+			++line;
 			column = 0;
 		} else
 			++column;
 
-		return (char) c;
+		return c;
+	}
+
+	/**
+	 * Returns the next character without consuming it.
+	 *
+	 * @return next character or null character if end of the stream
+	 * @throws IOException if the underlying reader throws
+	 */
+	public char peek() throws IOException
+	{
+		return peek(0);
+	}
+
+	/**
+	 * Returns a character ahead of the current position without consuming
+	 * anything.
+	 *
+	 * @param offset number of characters to look past the next character; 0
+	 * returns the next character
+	 * @return the character or null character if it is past the end of the
+	 * stream
+	 * @throws IOException if the underlying reader throws
+	 */
+	public char peek(int offset) throws IOException
+	{
+		load();
+
+		int index = position + offset;
+		if (offset < 0 || index >= length)
+			return '\0';
+		return buffer[index];
 	}
 
 	/**
-	 * Puts the previously read character back into the stream. This cannot be
-	 * called more than once between two read() calls.
+	 * Puts the previously read character back into the stream.
 	 *
-	 * @throws IOException if reader.reset() throws
+	 * @throws IOException if the underlying reader throws
 	 */
 	public void unread() throws IOException
 	{
-		if (column == 0)
-			column = previousLineLength;
-		else
-			--column;
-		reader.reset();
+		unread(1);
+	}
+
+	/**
+	 * Puts previously read characters back into the stream. End of stream
+	 * (null characters) must not be unread.
+	 *
+	 * @param count number of characters to unread
+	 * @throws IOException if the underlying reader throws
+	 * @throws IllegalArgumentException if count is negative or larger than the
+	 * number of characters read so far
+	 */
+	public void unread(int count) throws IOException
+	{
+		load();
+
+		if (count < 0 || count > position)
+			throw new IllegalArgumentException("Cannot unread " + count + " characters.");
+
+		boolean crossedLine = false;
+		for (int i = 0; i < count; ++i) {
+			if (buffer[--position] == '\n') {
+				--line;
+				crossedLine = true;
+			}
+		}
+
+		if (crossedLine) {
+			// Column is the distance to the start of the line.
+			int lineStart = position;
+			while (lineStart > 0 && buffer[lineStart - 1] != '\n')
+				--lineStart;
+			column = position - lineStart;
+		} else
+			column -= count;
 	}
 
 	/**
@@ -84,7 +157,7 @@ public class CodeReader
 	 */
 	public int getLineNumber()
 	{
-		return reader.getLineNumber();
+		return line;
 	}
 
 	/**
@@ -97,6 +170,33 @@ public class CodeReader
 		return column;
 	}
 
+	/**
+	 * Returns the index of the next character in the input. Can be used
+	 * together with getText() to extract the text of a token without building
+	 * it character by character.
+	 *
+	 * @return current position
+	 */
+	public int getPosition()
+	{
+		return position;
+	}
+
+	/**
+	 * Returns a part of the input text.
+	 *
+	 * @param begin index of the first character
+	 * @param end index after the last character
+	 * @return the text between the indices
+	 * @throws IOException if the underlying reader throws
+	 */
+	public String getText(int begin, int end) throws IOException
+	{
+		load();
+
+		return new String(buffer, begin, end - begin);
+	}
+
 	/**
 	 * Reads and ignores characters until next non-whitespace character is
 	 * found.
@@ -105,12 +205,43 @@ public class CodeReader
 	 */
 	public void skipWhiteSpace() throws IOException
 	{
-		char c;
-		do {
-			c = read();
-		} while (Character.isWhitespace(c));
+		load();
+
+		while (position < length && Character.isWhitespace(buffer[position]))
+			read();
+	}
+
+	/**
+	 * Loads the whole input into the buffer if it has not been loaded yet.
+	 *
+	 * @throws IOException if the underlying reader throws
+	 */
+	private void load() throws IOException
+	{
+		if (reader == null)
+			return;
+
+		char[] chunk = new char[CHUNK_SIZE];
+		boolean pendingCarriageReturn = false;
+		int n;
+		while ((n = reader.read(chunk, 0, CHUNK_SIZE)) != -1) {
+			if (length + n > buffer.length) {
+				char[] newBuffer = new char[Math.max(buffer.length * 2, length + n)];
+				System.arraycopy(buffer, 0, newBuffer, 0, length);
+				buffer = newBuffer;
+			}
+
+			for (int i = 0; i < n; ++i) {
+				char c = chunk[i];
+				if (c == '\n' && pendingCarriageReturn) {
+					pendingCarriageReturn = false;
+					continue;
+				}
+				pendingCarriageReturn = c == '\r';
+				buffer[length++] = pendingCarriageReturn ? '\n' : c;
+			}
+		}
 
-		if (c != '\0')
-			unread();
+		reader = null;
 	}
 }
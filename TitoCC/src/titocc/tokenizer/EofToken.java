@@ -32,10 +32,10 @@ public class EofToken extends Token
 		EofToken token = null;
 		int line = reader.getLineNumber(), column = reader.getColumn();
 
-		if (reader.read() == '\0')
+		if (reader.peek() == '\0') {
+			reader.read();
 			token = new EofToken(line, column);
-		else
-			reader.unread();
+		}
 
 		return token;
 	}
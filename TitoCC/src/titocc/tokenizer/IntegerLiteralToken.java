@@ -73,30 +73,21 @@ public class IntegerLiteralToken extends Token
 		IntegerLiteralToken token = null;
 		int line = reader.getLineNumber(), column = reader.getColumn();
 
-		StringBuilder digits = new StringBuilder();
+		int begin = reader.getPosition();
+		while (Character.isDigit(reader.peek()))
+			reader.read();
 
-		char c = reader.read();
-		while (Character.isDigit(c)) {
-			digits.append(c);
-			c = reader.read();
-		}
-
-		String digitStr = digits.toString();
-		if (digitStr.length() > 0) {
-			StringBuilder suffix = new StringBuilder();
-			while (AsciiUtil.isIdentifierCharacter(c)) {
-				suffix.append(c);
-				c = reader.read();
-			}
+		int valueEnd = reader.getPosition();
+		if (valueEnd > begin) {
+			while (AsciiUtil.isIdentifierCharacter(reader.peek()))
+				reader.read();
 
-			String tokenString = digitStr + suffix.toString();
-			token = new IntegerLiteralToken(tokenString,
-					line, column, digitStr, suffix.toString());
+			int end = reader.getPosition();
+			token = new IntegerLiteralToken(reader.getText(begin, end),
+					line, column, reader.getText(begin, valueEnd),
+					reader.getText(valueEnd, end));
 		}
 
-		if (c != '\0')
-			reader.unread();
-
 		return token;
 	}
 }
@@ -1,19 +1,18 @@
 package titocc.tokenizer;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.List;
 
 /**
  * Operator or other punctuator.
  */
 public class PunctuatorToken extends Token
 {
-	// List of all punctuators. An important fact is that all multi-character
-	// punctuators start with some other punctuator (e.g. "<<=" contains "<<"
-	// which contains "<"). This means that when an unmatching character is
-	// encountered only that character needs to be unread back into the reader.
+	// List of all punctuators. Matching is done with an automaton built from
+	// this list (see transitions), so any new punctuator only needs to be
+	// added here.
 	private static final String[] punctuatorList = {
 		"+",
 		"++",
@@ -58,7 +57,54 @@ public class PunctuatorToken extends Token
 		";",
 		","
 	};
-	private static Set<String> punctuators = new HashSet<String>(Arrays.asList(punctuatorList));
+	/**
+	 * Width of the transition table. Punctuators consist of ASCII characters
+	 * only.
+	 */
+	private static final int TABLE_WIDTH = 128;
+	/**
+	 * Transition table of the punctuator matching automaton. Row is the
+	 * current state and column the next input character; the value is the
+	 * next state or -1 if there is no transition. State 0 is the start state.
+	 */
+	private static final int[][] transitions;
+	/**
+	 * Index (in punctuatorList) of the punctuator accepted in each state or -1
+	 * if the state is not accepting.
+	 */
+	private static final int[] acceptedPunctuators;
+	/**
+	 * Index of the punctuator in punctuatorList.
+	 */
+	private final int index;
+
+	static {
+		// One state for each distinct prefix; the start state is the empty
+		// prefix.
+		List<String> prefixes = new ArrayList<String>();
+		prefixes.add("");
+		for (String p : punctuatorList) {
+			for (int i = 1; i <= p.length(); ++i) {
+				if (!prefixes.contains(p.substring(0, i)))
+					prefixes.add(p.substring(0, i));
+			}
+		}
+
+		transitions = new int[prefixes.size()][TABLE_WIDTH];
+		acceptedPunctuators = new int[prefixes.size()];
+		for (int[] row : transitions)
+			Arrays.fill(row, -1);
+		Arrays.fill(acceptedPunctuators, -1);
+
+		for (int state = 1; state < prefixes.size(); ++state) {
+			String prefix = prefixes.get(state);
+			int from = prefixes.indexOf(prefix.substring(0, prefix.length() - 1));
+			transitions[from][prefix.charAt(prefix.length() - 1)] = state;
+		}
+
+		for (int i = 0; i < punctuatorList.length; ++i)
+			acceptedPunctuators[prefixes.indexOf(punctuatorList[i])] = i;
+	}
 
 	/**
 	 * Constructs a PunctuatorToken.
@@ -69,7 +115,69 @@ public class PunctuatorToken extends Token
 	 */	
 	public PunctuatorToken(String string, int line, int column)
 	{
-		super(string, line, column);
+		this(indexOf(string), line, column);
+	}
+
+	/**
+	 * Constructs a PunctuatorToken from a punctuator index.
+	 *
+	 * @param index index of the punctuator
+	 * @param line line number where the token is located
+	 * @param column column number where the token is located
+	 */
+	private PunctuatorToken(int index, int line, int column)
+	{
+		super(punctuatorList[index], line, column);
+		this.index = index;
+	}
+
+	/**
+	 * Returns the index of the punctuator. Indices are between 0 and
+	 * getPunctuatorCount() - 1, and can be used for indexing tables that
+	 * contain information about punctuators.
+	 *
+	 * @return the index
+	 */
+	public int getIndex()
+	{
+		return index;
+	}
+
+	/**
+	 * Returns the number of different punctuators.
+	 *
+	 * @return number of punctuators
+	 */
+	public static int getPunctuatorCount()
+	{
+		return punctuatorList.length;
+	}
+
+	/**
+	 * Returns the index of a punctuator string.
+	 *
+	 * @param punctuator the punctuator
+	 * @return index of the punctuator
+	 * @throws IllegalArgumentException if the string is not a punctuator
+	 */
+	public static int indexOf(String punctuator)
+	{
+		for (int i = 0; i < punctuatorList.length; ++i) {
+			if (punctuatorList[i].equals(punctuator))
+				return i;
+		}
+		throw new IllegalArgumentException("Not a punctuator: " + punctuator);
+	}
+
+	/**
+	 * Tests whether a character is the first character of some punctuator.
+	 *
+	 * @param c a character
+	 * @return true if a punctuator can start with the character
+	 */
+	public static boolean isPunctuatorStart(char c)
+	{
+		return c < TABLE_WIDTH && transitions[0][c] >= 0;
 	}
 
 	/**
@@ -86,19 +194,26 @@ public class PunctuatorToken extends Token
 		PunctuatorToken token = null;
 		int line = reader.getLineNumber(), column = reader.getColumn();
 
-		StringBuilder tokenString = new StringBuilder();
-
-		char c = reader.read();
-		while (punctuators.contains(tokenString.toString() + c)) {
-			tokenString.append(c);
-			c = reader.read();
+		// Follow the transition table as far as possible and remember the
+		// longest accepted punctuator (maximal munch).
+		int match = -1;
+		int state = 0;
+		for (int i = 0; ; ++i) {
+			char c = reader.peek(i);
+			if (c >= TABLE_WIDTH)
+				break;
+			state = transitions[state][c];
+			if (state < 0)
+				break;
+			if (acceptedPunctuators[state] >= 0)
+				match = acceptedPunctuators[state];
 		}
 
-		if (tokenString.length() > 0)
-			token = new PunctuatorToken(tokenString.toString(), line, column);
-
-		if (c != '\0')
-			reader.unread();
+		if (match >= 0) {
+			for (int i = 0; i < punctuatorList[match].length(); ++i)
+				reader.read();
+			token = new PunctuatorToken(match, line, column);
+		}
 
 		return token;
 	}
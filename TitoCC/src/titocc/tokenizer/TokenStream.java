@@ -1,35 +1,93 @@
 package titocc.tokenizer;
 
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.List;
-import java.util.ListIterator;
-import java.util.Stack;
+import java.util.NoSuchElementException;
 
 /**
  * Stream of tokens that allows marking positions in the stream and returning
  * back to them.
+ *
+ * <p> Tokens from a list are copied into an array and stream positions and
+ * marks are plain array indices, so resetting to a mark takes constant time.
+ *
+ * <p> Tokens from a Tokenizer are pulled on demand and kept in a ring buffer.
+ * Only tokens at or after the oldest mark (or the current position if there
+ * are no marks) are retained, so memory use is bounded by the backtracking
+ * depth of the parser instead of the length of the source.
+ *
+ * <p> Optionally the stream also stores parse results for packrat parsing:
+ * once memoization is enabled, a parse rule can store its result for a
+ * starting position with memoize() and later get it back with recall(), which
+ * also moves the stream to the end position of the result. Results are stored
+ * with the tokens, so they are released together with them.
  */
 public class TokenStream
 {
 	/**
-	 * Source tokens.
+	 * Initial ring buffer size. Must be a power of two.
 	 */
-	private final List<Token> tokens;
+	private static final int INITIAL_CAPACITY = 64;
 	/**
-	 * Saved stream positions.
+	 * All tokens if the stream was constructed from a list, otherwise null.
 	 */
-	private final Stack<Integer> marks = new Stack<Integer>();
+	private final Token[] tokens;
 	/**
-	 * Current position.
+	 * Source tokenizer or null if reading from a list.
 	 */
-	private final ListIterator<Token> position;
+	private final Tokenizer tokenizer;
 	/**
-	 * Tokens since the last mark.
+	 * Ring buffer of tokens when reading from a tokenizer. Token with absolute
+	 * index i is stored at index (i &amp; (buffer.length - 1)).
 	 */
-	private int sinceLastMark;
+	private Token[] buffer;
+	/**
+	 * Number of tokens pulled from the source so far.
+	 */
+	private int fetched;
+	/**
+	 * True if an EofToken has been pulled from the tokenizer.
+	 */
+	private boolean endReached;
+	/**
+	 * Stack of saved stream positions (absolute token indices).
+	 */
+	private int[] marks = new int[16];
+	/**
+	 * Number of marks in the stack.
+	 */
+	private int markCount;
+	/**
+	 * Current position (absolute token index).
+	 */
+	private int position;
 	/**
 	 * Read token that has biggest line number/column.
 	 */
 	private Token furthestReadToken;
+	/**
+	 * First error thrown by the tokenizer or null if there have been none.
+	 */
+	private Exception tokenizerError;
+	/**
+	 * Number of tokens read, including tokens read again after a reset.
+	 */
+	private int readCount;
+	/**
+	 * Number of memoized parse rules or 0 if memoization is disabled.
+	 */
+	private int ruleCount;
+	/**
+	 * Memoized parse results for each token slot (array index or ring buffer
+	 * index). Rows are allocated when first needed.
+	 */
+	private Object[][] memoResults;
+	/**
+	 * End positions of the memoized parse results plus one, so that 0 means
+	 * the rule has not been memoized at that position.
+	 */
+	private int[][] memoEnds;
 
 	/**
 	 * Constructs a TokenStream from a list of tokens.
@@ -38,9 +96,23 @@ public class TokenStream
 	 */
 	public TokenStream(List<Token> tokens)
 	{
-		this.tokens = tokens;
-		position = this.tokens.listIterator();
-		sinceLastMark = 0;
+		this.tokens = tokens.toArray(new Token[tokens.size()]);
+		this.tokenizer = null;
+		this.fetched = this.tokens.length;
+	}
+
+	/**
+	 * Constructs a TokenStream that reads tokens lazily from a tokenizer. If
+	 * the tokenizer throws, the error is stored (see getTokenizerError()) and
+	 * the stream continues with end of file tokens.
+	 *
+	 * @param tokenizer source tokenizer
+	 */
+	public TokenStream(Tokenizer tokenizer)
+	{
+		this.tokens = null;
+		this.tokenizer = tokenizer;
+		this.buffer = new Token[INITIAL_CAPACITY];
 	}
 
 	/**
@@ -49,8 +121,9 @@ public class TokenStream
 	 */
 	public void pushMark()
 	{
-		marks.push(sinceLastMark);
-		sinceLastMark = 0;
+		if (markCount == marks.length)
+			marks = Arrays.copyOf(marks, marks.length * 2);
+		marks[markCount++] = position;
 	}
 
 	/**
@@ -61,13 +134,9 @@ public class TokenStream
 	 */
 	public void popMark(boolean reset)
 	{
-		if (reset) {
-			while (sinceLastMark > 0) {
-				--sinceLastMark;
-				position.previous();
-			}
-		}
-		sinceLastMark += marks.pop();
+		int mark = marks[--markCount];
+		if (reset)
+			position = mark;
 	}
 
 	/**
@@ -77,8 +146,8 @@ public class TokenStream
 	 */
 	public Token read()
 	{
-		++sinceLastMark;
-		Token next = position.next();
+		++readCount;
+		Token next = get(position++);
 		if (isNewFurthestReadToken(next))
 			furthestReadToken = next;
 		return next;
@@ -91,7 +160,9 @@ public class TokenStream
 	 */
 	public boolean hasNext()
 	{
-		return position.hasNext();
+		if (position < fetched)
+			return true;
+		return tokens == null && !endReached;
 	}
 
 	/**
@@ -101,9 +172,7 @@ public class TokenStream
 	 */
 	public int getLine()
 	{
-		Token t = position.next();
-		position.previous();
-		return t.getLine();
+		return get(position).getLine();
 	}
 
 	/**
@@ -113,9 +182,7 @@ public class TokenStream
 	 */
 	public int getColumn()
 	{
-		Token t = position.next();
-		position.previous();
-		return t.getColumn();
+		return get(position).getColumn();
 	}
 
 	/**
@@ -130,6 +197,218 @@ public class TokenStream
 		return furthestReadToken;
 	}
 
+	/**
+	 * Returns the first error thrown by the source tokenizer. Tokens after the
+	 * error are end of file tokens, so a parse result is only valid if this
+	 * returns null.
+	 *
+	 * @return IOException or SyntaxException from the tokenizer, or null
+	 */
+	public Exception getTokenizerError()
+	{
+		return tokenizerError;
+	}
+
+	/**
+	 * Returns the current position in the stream.
+	 *
+	 * @return number of tokens before the current position
+	 */
+	public int getPosition()
+	{
+		return position;
+	}
+
+	/**
+	 * Returns the number of tokens read from the stream. Tokens read again
+	 * after resetting to a mark are counted again, so this measures how much
+	 * backtracking the parser has done.
+	 *
+	 * @return number of read() calls
+	 */
+	public int getReadCount()
+	{
+		return readCount;
+	}
+
+	/**
+	 * Enables memoization of parse results.
+	 *
+	 * @param ruleCount number of parse rules; rule identifiers used with the
+	 * memoization methods must be between 0 and ruleCount - 1
+	 */
+	public void enableMemoization(int ruleCount)
+	{
+		this.ruleCount = ruleCount;
+		int slots = tokens != null ? tokens.length + 1 : buffer.length;
+		memoResults = new Object[slots][];
+		memoEnds = new int[slots][];
+	}
+
+	/**
+	 * Checks whether a result of a parse rule has been memoized for the
+	 * current position. Always false if memoization is not enabled.
+	 *
+	 * @param rule parse rule identifier
+	 * @return true if recall() can be used
+	 */
+	public boolean isMemoized(int rule)
+	{
+		if (ruleCount == 0)
+			return false;
+
+		// getSlot() may grow the buffer and replace the memo arrays.
+		int slot = getSlot(position);
+		int[] ends = memoEnds[slot];
+		return ends != null && ends[rule] != 0;
+	}
+
+	/**
+	 * Returns a memoized parse result for the current position and moves the
+	 * stream to the end position of the result. Must only be called if
+	 * isMemoized() returns true.
+	 *
+	 * @param rule parse rule identifier
+	 * @return the memoized result (possibly null for a failed parse)
+	 */
+	public Object recall(int rule)
+	{
+		int slot = getSlot(position);
+		position = memoEnds[slot][rule] - 1;
+		return memoResults[slot][rule];
+	}
+
+	/**
+	 * Stores the result of a parse rule. The end position of the result is
+	 * the current position, or the start position if the parse failed. Does
+	 * nothing if memoization is not enabled.
+	 *
+	 * @param rule parse rule identifier
+	 * @param start position where the rule was started
+	 * @param result parse result or null if the parse failed
+	 */
+	public void memoize(int rule, int start, Object result)
+	{
+		if (ruleCount == 0)
+			return;
+
+		// The start token may have already been released.
+		if (tokens == null && start < fetched - buffer.length)
+			return;
+
+		int slot = getSlot(start);
+		if (memoEnds[slot] == null) {
+			memoEnds[slot] = new int[ruleCount];
+			memoResults[slot] = new Object[ruleCount];
+		}
+		memoEnds[slot][rule] = (result != null ? position : start) + 1;
+		memoResults[slot][rule] = result;
+	}
+
+	/**
+	 * Returns the memoization slot of a token position.
+	 *
+	 * @param index absolute token index
+	 * @return slot index
+	 */
+	private int getSlot(int index)
+	{
+		if (tokens != null)
+			return index;
+
+		while (fetched <= index)
+			fetch();
+		return index & (buffer.length - 1);
+	}
+
+	/**
+	 * Returns the token at an absolute index, pulling tokens from the
+	 * tokenizer as needed.
+	 *
+	 * @param index token index; must not be before the oldest retained token
+	 * @return the token
+	 */
+	private Token get(int index)
+	{
+		if (tokens != null) {
+			if (index >= tokens.length)
+				throw new NoSuchElementException();
+			return tokens[index];
+		}
+
+		while (fetched <= index)
+			fetch();
+		return buffer[index & (buffer.length - 1)];
+	}
+
+	/**
+	 * Pulls one token from the tokenizer into the ring buffer. Tokens before
+	 * the oldest mark and the current position are overwritten; if there are
+	 * none the buffer is grown.
+	 */
+	private void fetch()
+	{
+		int retainedFrom = markCount == 0 ? position : Math.min(marks[0], position);
+		if (fetched - retainedFrom >= buffer.length)
+			grow();
+
+		int slot = fetched & (buffer.length - 1);
+		buffer[slot] = pull();
+		if (memoEnds != null) {
+			memoEnds[slot] = null;
+			memoResults[slot] = null;
+		}
+		++fetched;
+	}
+
+	/**
+	 * Doubles the ring buffer size keeping tokens at their absolute indices.
+	 */
+	private void grow()
+	{
+		int newLength = buffer.length * 2;
+		Token[] newBuffer = new Token[newLength];
+		Object[][] newResults = memoEnds != null ? new Object[newLength][] : null;
+		int[][] newEnds = memoEnds != null ? new int[newLength][] : null;
+		for (int i = fetched - buffer.length; i < fetched; ++i) {
+			int oldSlot = i & (buffer.length - 1), newSlot = i & (newLength - 1);
+			newBuffer[newSlot] = buffer[oldSlot];
+			if (memoEnds != null) {
+				newResults[newSlot] = memoResults[oldSlot];
+				newEnds[newSlot] = memoEnds[oldSlot];
+			}
+		}
+		buffer = newBuffer;
+		memoResults = newResults;
+		memoEnds = newEnds;
+	}
+
+	/**
+	 * Gets the next token from the tokenizer.
+	 *
+	 * @return the token
+	 */
+	private Token pull()
+	{
+		Token token;
+		if (tokenizerError == null) {
+			try {
+				token = tokenizer.nextToken();
+			} catch (IOException e) {
+				tokenizerError = e;
+				token = new EofToken(0, 0);
+			} catch (SyntaxException e) {
+				tokenizerError = e;
+				token = new EofToken(e.getLine(), e.getColumn());
+			}
+		} else
+			token = new EofToken(0, 0);
+
+		if (token instanceof EofToken)
+			endReached = true;
+		return token;
+	}
+
 	/**
 	 * Checks if the new token is further in the text. It first checks based on
 	 * line number and if they are the same then based on column.
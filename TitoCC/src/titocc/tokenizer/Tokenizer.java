@@ -4,6 +4,7 @@ import java.io.IOException;
 import java.io.Reader;
 import java.util.LinkedList;
 import java.util.List;
+import titocc.util.AsciiUtil;
 
 /**
  * Main tokenizer class. Converts input text into a list of tokens. There are
@@ -12,6 +13,34 @@ import java.util.List;
  */
 public class Tokenizer
 {
+	/**
+	 * Character classes used for choosing the token class from the first
+	 * character of a token.
+	 */
+	private enum CharacterClass
+	{
+		INVALID, DIGIT, WORD, PUNCTUATOR, END
+	};
+	/**
+	 * Table of character classes for ASCII characters. Other characters are
+	 * either digits or invalid.
+	 */
+	private static final CharacterClass[] characterClasses = new CharacterClass[128];
+
+	static {
+		for (char c = 0; c < characterClasses.length; ++c) {
+			if (c == '\0')
+				characterClasses[c] = CharacterClass.END;
+			else if (Character.isDigit(c))
+				characterClasses[c] = CharacterClass.DIGIT;
+			else if (AsciiUtil.isIdentifierStart(c))
+				characterClasses[c] = CharacterClass.WORD;
+			else if (PunctuatorToken.isPunctuatorStart(c))
+				characterClasses[c] = CharacterClass.PUNCTUATOR;
+			else
+				characterClasses[c] = CharacterClass.INVALID;
+		}
+	}
 	/**
 	 * Input reader.
 	 */
@@ -40,8 +69,7 @@ public class Tokenizer
 
 		Token token;
 		do {
-			input.skipWhiteSpace();
-			token = getNextToken();
+			token = nextToken();
 			tokens.add(token);
 		} while (!(token instanceof EofToken));
 
@@ -49,7 +77,23 @@ public class Tokenizer
 	}
 
 	/**
-	 * Parses the next token from the input stream.
+	 * Reads the next token from the input. Once the end of input has been
+	 * reached this keeps returning end of file tokens.
+	 *
+	 * @return next token
+	 * @throws IOException if input reader throws
+	 * @throws SyntaxException if an invalid token is encountered
+	 */
+	public Token nextToken() throws IOException, SyntaxException
+	{
+		input.skipWhiteSpace();
+		return getNextToken();
+	}
+
+	/**
+	 * Parses the next token from the input stream. The token class is chosen
+	 * from the class of the first character, so each token is scanned only
+	 * once.
 	 *
 	 * @return next token
 	 * @throws IOException if code reader throws
@@ -57,23 +101,41 @@ public class Tokenizer
 	 */
 	private Token getNextToken() throws IOException, SyntaxException
 	{
-		Token token = IntegerLiteralToken.parse(input);
-		if (token != null)
-			return token;
+		Token token = null;
 
-		token = PunctuatorToken.parse(input);
-		if (token != null)
-			return token;
+		switch (getCharacterClass(input.peek())) {
+			case DIGIT:
+				token = IntegerLiteralToken.parse(input);
+				break;
+			case WORD:
+				token = WordToken.parse(input); // KeywordToken or IdentifierToken
+				break;
+			case PUNCTUATOR:
+				token = PunctuatorToken.parse(input);
+				break;
+			case END:
+				token = EofToken.parse(input);
+				break;
+		}
 
-		token = WordToken.parse(input); // KeywordToken or IdentifierToken
-		if (token != null)
-			return token;
+		if (token == null) {
+			throw new SyntaxException("Unrecognized token.", input.getLineNumber(),
+					input.getColumn());
+		}
 
-		token = EofToken.parse(input);
-		if (token != null)
-			return token;
+		return token;
+	}
 
-		throw new SyntaxException("Unrecognized token.", input.getLineNumber(),
-				input.getColumn());
+	/**
+	 * Returns the class of a character from the character class table.
+	 *
+	 * @param c a character
+	 * @return character class
+	 */
+	private static CharacterClass getCharacterClass(char c)
+	{
+		if (c < characterClasses.length)
+			return characterClasses[c];
+		return Character.isDigit(c) ? CharacterClass.DIGIT : CharacterClass.INVALID;
 	}
 }
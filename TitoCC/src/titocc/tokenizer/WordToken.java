@@ -37,24 +37,19 @@ public abstract class WordToken extends Token
 		WordToken token = null;
 		int line = reader.getLineNumber(), column = reader.getColumn();
 
-		char c = reader.read();
-
-		if (AsciiUtil.isIdentifierStart(c)) {
-			StringBuilder tokenString = new StringBuilder();
+		if (AsciiUtil.isIdentifierStart(reader.peek())) {
+			int begin = reader.getPosition();
 			do {
-				tokenString.append((char) c);
-				c = reader.read();
-			} while (AsciiUtil.isIdentifierCharacter(c));
+				reader.read();
+			} while (AsciiUtil.isIdentifierCharacter(reader.peek()));
 
-			if (KeywordToken.isKeyword(tokenString.toString()))
-				token = new KeywordToken(tokenString.toString(), line, column);
+			String tokenString = reader.getText(begin, reader.getPosition());
+			if (KeywordToken.isKeyword(tokenString))
+				token = new KeywordToken(tokenString, line, column);
 			else
-				token = new IdentifierToken(tokenString.toString(), line, column);
+				token = new IdentifierToken(tokenString, line, column);
 		}
 
-		if (c != '\0')
-			reader.unread();
-
 		return token;
 	}
 }
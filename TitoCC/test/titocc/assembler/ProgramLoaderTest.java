@@ -0,0 +1,130 @@
+package titocc.assembler;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class ProgramLoaderTest
+{
+	private Program load(String code) throws IOException, AssemblerException
+	{
+		return new ProgramLoader().loadSymbolic(new StringReader(code));
+	}
+
+	private void assertLoadError(String code, String message) throws IOException
+	{
+		try {
+			load(code);
+			fail("AssemblerException not thrown.");
+		} catch (AssemblerException e) {
+			assertEquals(message, e.getMessage());
+		}
+	}
+
+	@Test
+	public void dataIsPlacedAfterCode() throws IOException, AssemblerException
+	{
+		Program program = load("x           dc      7\n"
+				+ "            load    R1, x\n"
+				+ "t           ds      3\n"
+				+ "y           dc      -2\n"
+				+ "            svc     sp, =halt\n");
+		assertEquals(2, program.getCodeSize());
+		assertEquals(5, program.getDataSize());
+		assertEquals(2, (int) program.getSymbols().get("x"));
+		assertEquals(3, (int) program.getSymbols().get("t"));
+		assertEquals(6, (int) program.getSymbols().get("y"));
+		assertEquals(7, program.getImage()[2]);
+		assertEquals(-2, program.getImage()[6]);
+	}
+
+	@Test
+	public void instructionFieldsAreEncoded() throws IOException, AssemblerException
+	{
+		int[] image = load("a           equ     -3\n"
+				+ "            load    R1, =5\n"
+				+ "            add     R2, a(fp)\n"
+				+ "            load    R3, @R4\n"
+				+ "            load    R1, =a(R5)\n"
+				+ "            pop     sp, R2\n").getImage();
+		assertEquals(InstructionSet.encode(InstructionSet.LOAD, 1, 0, 0, 5), image[0]);
+		assertEquals(InstructionSet.encode(InstructionSet.ADD, 2, 1, 7, -3), image[1]);
+		assertEquals(InstructionSet.encode(InstructionSet.LOAD, 3, 1, 4, 0), image[2]);
+		assertEquals(InstructionSet.encode(InstructionSet.LOAD, 1, 0, 5, -3), image[3]);
+		assertEquals(InstructionSet.encode(InstructionSet.POP, 6, 0, 2, 0), image[4]);
+	}
+
+	@Test
+	public void storeAndJumpModesAreLowered() throws IOException, AssemblerException
+	{
+		int[] image = load("loop        store   R1, x\n"
+				+ "            store   R1, @R2\n"
+				+ "            jles    R1, loop\n"
+				+ "            jump    loop\n"
+				+ "x           dc      0\n").getImage();
+		assertEquals(InstructionSet.encode(InstructionSet.STORE, 1, 0, 0, 4), image[0]);
+		assertEquals(InstructionSet.encode(InstructionSet.STORE, 1, 0, 2, 0), image[1]);
+		assertEquals(InstructionSet.encode(InstructionSet.JLES, 1, 0, 0, 0), image[2]);
+		assertEquals(InstructionSet.encode(InstructionSet.JUMP, 0, 0, 0, 0), image[3]);
+	}
+
+	@Test
+	public void predefinedSymbolsAndCommentsAreRecognized() throws IOException, AssemblerException
+	{
+		int[] image = load("; comment line\n"
+				+ "            out     R1, =CRT ; comment\n"
+				+ "            not     R1\n"
+				+ "            svc     sp, =halt\n").getImage();
+		assertEquals(3, image.length);
+		assertEquals(InstructionSet.encode(InstructionSet.OUT, 1, 0, 0, 0), image[0]);
+		assertEquals(InstructionSet.encode(InstructionSet.NOT, 1, 0, 0, 0), image[1]);
+		assertEquals(InstructionSet.encode(InstructionSet.SVC, 6, 0, 0, 11), image[2]);
+	}
+
+	@Test
+	public void errorsReportLineNumbers() throws IOException
+	{
+		assertLoadError("\n            foo     R1, =1\n", "Line 2: Unknown instruction \"foo\".");
+		assertLoadError("            load    R1, y\n", "Line 1: Undefined symbol or invalid number \"y\".");
+		assertLoadError("            store   R1, =1\n", "Line 1: Invalid addressing mode in \"=1\".");
+		assertLoadError("            load    R1, =40000\n", "Line 1: Address 40000 does not fit in 16 bits.");
+		assertLoadError("x           dc      1\nx           dc      2\n",
+				"Line 2: Redefinition of symbol \"x\".");
+	}
+
+	@Test
+	public void binaryFormatRoundTrips() throws IOException, AssemblerException
+	{
+		Program program = load("x           dc      7\n"
+				+ "main        load    R1, x\n"
+				+ "t           ds      2\n"
+				+ "c           equ     -4\n"
+				+ "            svc     sp, =halt\n");
+		StringWriter writer = new StringWriter();
+		program.writeBinary(writer);
+		assertEquals("___b91___\n___code___\n0 1\n"
+				+ InstructionSet.encode(InstructionSet.LOAD, 1, 1, 0, 2) + "\n"
+				+ InstructionSet.encode(InstructionSet.SVC, 6, 0, 0, 11) + "\n"
+				+ "___data___\n2 4\n7\n0\n0\n"
+				+ "___symboltable___\nmain 0\nx 2\nt 3\nc -4\n___end___\n",
+				writer.toString());
+
+		Program loaded = new ProgramLoader().loadBinary(new StringReader(writer.toString()));
+		assertArrayEquals(program.getImage(), loaded.getImage());
+		assertEquals(2, loaded.getCodeSize());
+		assertEquals(program.getSymbols(), loaded.getSymbols());
+	}
+
+	@Test
+	public void invalidBinaryIsRejected() throws IOException
+	{
+		try {
+			new ProgramLoader().loadBinary(new StringReader("___b91___\n___code___\n0 1\n5\n"));
+			fail("AssemblerException not thrown.");
+		} catch (AssemblerException e) {
+			assertEquals("Line 5: Unexpected end of file.", e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,164 @@
+package titocc.cli;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.Writer;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CommandLineCompilerTest
+{
+	private File dir;
+	private ByteArrayOutputStream out;
+	private ByteArrayOutputStream err;
+
+	@Before
+	public void setUp() throws IOException
+	{
+		dir = File.createTempFile("titocc", "");
+		dir.delete();
+		dir.mkdir();
+		out = new ByteArrayOutputStream();
+		err = new ByteArrayOutputStream();
+	}
+
+	@After
+	public void tearDown()
+	{
+		delete(dir);
+	}
+
+	private int run(String... args)
+	{
+		return new CommandLineCompiler(new PrintStream(out), new PrintStream(err)).run(args);
+	}
+
+	private File writeFile(String name, String text) throws IOException
+	{
+		File file = new File(dir, name);
+		file.getParentFile().mkdirs();
+		Writer writer = new FileWriter(file);
+		writer.write(text);
+		writer.close();
+		return file;
+	}
+
+	private String readFile(File file) throws IOException
+	{
+		StringBuilder text = new StringBuilder();
+		Reader reader = new FileReader(file);
+		int c;
+		while ((c = reader.read()) != -1)
+			text.append((char) c);
+		reader.close();
+		return text.toString();
+	}
+
+	private void delete(File file)
+	{
+		File[] files = file.listFiles();
+		if (files != null) {
+			for (File f : files)
+				delete(f);
+		}
+		file.delete();
+	}
+
+	@Test
+	public void compilesFileAndWritesOutputNextToIt() throws IOException
+	{
+		File source = writeFile("a.c", "int main() { return 0; }");
+		assertEquals(CommandLineCompiler.EXIT_SUCCESS, run(source.getPath()));
+		assertTrue(readFile(new File(dir, "a.k91")).contains("main"));
+		assertEquals("", err.toString());
+	}
+
+	@Test
+	public void compilesSourceFilesInDirectoriesRecursively() throws IOException
+	{
+		writeFile("a.c", "int main() { return 0; }");
+		writeFile("sub/b.c", "int main() { return 1; }");
+		writeFile("sub/c.txt", "not C");
+		assertEquals(CommandLineCompiler.EXIT_SUCCESS, run(dir.getPath()));
+		assertTrue(new File(dir, "a.k91").exists());
+		assertTrue(new File(dir, "sub/b.k91").exists());
+		assertFalse(new File(dir, "sub/c.k91").exists());
+	}
+
+	@Test
+	public void syntaxErrorIsReportedWithFileLineAndColumn() throws IOException
+	{
+		File source = writeFile("bad.c", "int main()\n{\n  return x;\n}\n");
+		assertEquals(CommandLineCompiler.EXIT_FAILURE, run(source.getPath()));
+		assertTrue(err.toString().startsWith(source.getPath() + ":3:10: error: "));
+		assertFalse(new File(dir, "bad.k91").exists());
+	}
+
+	@Test
+	public void failureDoesNotStopOtherFiles() throws IOException
+	{
+		writeFile("a.c", "int main() { return y; }");
+		writeFile("b.c", "int main() { return 0; }");
+		assertEquals(CommandLineCompiler.EXIT_FAILURE, run(dir.getPath()));
+		assertTrue(new File(dir, "b.k91").exists());
+	}
+
+	@Test
+	public void missingFileFails()
+	{
+		File missing = new File(dir, "missing.c");
+		assertEquals(CommandLineCompiler.EXIT_FAILURE, run(missing.getPath()));
+		assertTrue(err.toString().startsWith(missing.getPath() + ": error: "));
+	}
+
+	@Test
+	public void concurrentCompilationGivesSameOutput() throws IOException
+	{
+		for (int i = 0; i < 8; ++i)
+			writeFile("f" + i + ".c", "int f(int x) { return x * " + i + "; }\n"
+					+ "int main() { return f(" + i + "); }\n");
+		writeFile("g.c", "int main() { return z; }");
+		assertEquals(CommandLineCompiler.EXIT_FAILURE, run("--jobs", "1", dir.getPath()));
+		String[] sequential = new String[8];
+		for (int i = 0; i < 8; ++i)
+			sequential[i] = readFile(new File(dir, "f" + i + ".k91"));
+		String sequentialErrors = err.toString();
+
+		err.reset();
+		assertEquals(CommandLineCompiler.EXIT_FAILURE, run("-j", "4", dir.getPath()));
+		for (int i = 0; i < 8; ++i)
+			assertEquals(sequential[i], readFile(new File(dir, "f" + i + ".k91")));
+		assertEquals(sequentialErrors, err.toString());
+	}
+
+	@Test
+	public void binaryOptionWritesB91File() throws IOException
+	{
+		File source = writeFile("a.c", "int main() { return 0; }");
+		assertEquals(CommandLineCompiler.EXIT_SUCCESS, run("--b91", source.getPath()));
+		assertTrue(readFile(new File(dir, "a.b91")).startsWith("___b91___"));
+	}
+
+	@Test
+	public void invalidArgumentsAreUsageErrors()
+	{
+		assertEquals(CommandLineCompiler.EXIT_USAGE, run());
+		assertEquals(CommandLineCompiler.EXIT_USAGE, run("--jobs", "0", "a.c"));
+		assertEquals(CommandLineCompiler.EXIT_USAGE, run("--jobs"));
+		assertEquals(CommandLineCompiler.EXIT_USAGE, run("--foo", "a.c"));
+	}
+
+	@Test
+	public void helpPrintsUsage()
+	{
+		assertEquals(CommandLineCompiler.EXIT_SUCCESS, run("--help"));
+		assertEquals(CommandLineCompiler.USAGE + "\n", out.toString().replace("\r", ""));
+	}
+}
@@ -25,15 +25,15 @@ public class AssemblerTest
 	@Test
 	public void singleOperandFormatIsCorrect() throws IOException
 	{
-		asm.emit("abc", "xy");
-		assertEquals("            abc     xy\n", asm.getWriter().toString());
+		asm.emit(Mnemonic.JUMP, "xy");
+		assertEquals("            jump    xy\n", asm.getWriter().toString());
 	}
 
 	@Test
 	public void doubleOperandFormatIsCorrect() throws IOException
 	{
-		asm.emit("abc", "xy", "zv");
-		assertEquals("            abc     xy, zv\n", asm.getWriter().toString());
+		asm.emit(Mnemonic.LOAD, Register.R1, "zv");
+		assertEquals("            load    R1, zv\n", asm.getWriter().toString());
 	}
 
 	@Test
@@ -47,32 +47,32 @@ public class AssemblerTest
 	public void labelIsAddedToSingleOperandInstruction() throws IOException
 	{
 		asm.addLabel("lbl");
-		asm.emit("abc", "xy");
-		assertEquals("lbl         abc     xy\n", asm.getWriter().toString());
+		asm.emit(Mnemonic.JUMP, "xy");
+		assertEquals("lbl         jump    xy\n", asm.getWriter().toString());
 	}
 
 	@Test
 	public void labelIsAddedToDoubleOperandInstruction() throws IOException
 	{
 		asm.addLabel("lbl2");
-		asm.emit("abc", "xy", "zv");
-		assertEquals("lbl2        abc     xy, zv\n", asm.getWriter().toString());
+		asm.emit(Mnemonic.LOAD, Register.R1, "zv");
+		assertEquals("lbl2        load    R1, zv\n", asm.getWriter().toString());
 	}
 
 	@Test
 	public void longLabelWithSingleOperandInstruction() throws IOException
 	{
 		asm.addLabel("this_is_a_very_long_label");
-		asm.emit("abc", "xy");
-		assertEquals("this_is_a_very_long_label abc     xy\n", asm.getWriter().toString());
+		asm.emit(Mnemonic.JUMP, "xy");
+		assertEquals("this_is_a_very_long_label jump    xy\n", asm.getWriter().toString());
 	}
 
 	@Test
 	public void longLabelWithDoubleOperandInstruction() throws IOException
 	{
 		asm.addLabel("this_is_a_very_long_label");
-		asm.emit("abc", "xy", "zv");
-		assertEquals("this_is_a_very_long_label abc     xy, zv\n", asm.getWriter().toString());
+		asm.emit(Mnemonic.LOAD, Register.R1, "zv");
+		assertEquals("this_is_a_very_long_label load    R1, zv\n", asm.getWriter().toString());
 	}
 
 	@Test
@@ -80,44 +80,90 @@ public class AssemblerTest
 	{
 		asm.addLabel("lbl1");
 		asm.addLabel("lbl2");
-		asm.emit("abc", "xy", "zv");
-		assertEquals("lbl1        nop     \nlbl2        abc     xy, zv\n", asm.getWriter().toString());
+		asm.emit(Mnemonic.LOAD, Register.R1, "zv");
+		assertEquals("lbl1        nop     \nlbl2        load    R1, zv\n", asm.getWriter().toString());
 	}
 
 	@Test
 	public void finishDoesNothingIfNoLabel() throws IOException
 	{
-		asm.emit("abc", "xy", "zv");
+		asm.emit(Mnemonic.LOAD, Register.R1, "zv");
 		asm.finish();
-		assertEquals("            abc     xy, zv\n", asm.getWriter().toString());
+		assertEquals("            load    R1, zv\n", asm.getWriter().toString());
 	}
 
 	@Test
 	public void finishAddsNopInstructionIfLabel() throws IOException
 	{
-		asm.emit("abc", "xy", "zv");
+		asm.emit(Mnemonic.LOAD, Register.R1, "zv");
 		asm.addLabel("l");
 		asm.finish();
-		assertEquals("            abc     xy, zv\nl           nop     \n", asm.getWriter().toString());
+		assertEquals("            load    R1, zv\nl           nop     \n", asm.getWriter().toString());
 	}
 
 	@Test
 	public void addEmptyLinesWorksWithZeroLines() throws IOException
 	{
-		asm.emit("abc", "xy");
+		asm.emit(Mnemonic.JUMP, "xy");
 		asm.addLabel("l");
 		asm.addEmptyLines(0);
-		asm.emit("abc", "xy");
-		assertEquals("            abc     xy\nl           abc     xy\n", asm.getWriter().toString());
+		asm.emit(Mnemonic.JUMP, "xy");
+		assertEquals("            jump    xy\nl           jump    xy\n", asm.getWriter().toString());
 	}
 
 	@Test
 	public void addEmptyLinesWorksWithTwoLines() throws IOException
 	{
-		asm.emit("abc", "xy");
+		asm.emit(Mnemonic.JUMP, "xy");
 		asm.addLabel("l");
 		asm.addEmptyLines(2);
-		asm.emit("abc", "xy");
-		assertEquals("            abc     xy\n\n\nl           abc     xy\n", asm.getWriter().toString());
+		asm.emit(Mnemonic.JUMP, "xy");
+		assertEquals("            jump    xy\n\n\nl           jump    xy\n", asm.getWriter().toString());
+	}
+
+	@Test
+	public void typedOperandsAreFormattedLikeStrings() throws IOException
+	{
+		asm.emit(Mnemonic.LOAD, Register.R1, 5);
+		asm.emit(Mnemonic.ADD, Register.SP, Register.R2);
+		asm.emit(Mnemonic.STORE, Register.R1, "x", Register.R2);
+		asm.emit(Mnemonic.NOT, Register.R3);
+		asm.addLabel("c");
+		asm.emit(Mnemonic.EQU, -70000);
+		assertEquals("            load    R1, =5\n"
+				+ "            add     sp, R2\n"
+				+ "            store   R1, x(R2)\n"
+				+ "            not     R3\n"
+				+ "c           equ     -70000\n", asm.getWriter().toString());
+	}
+
+	@Test
+	public void immediateOperandsAreCorrectInsideAndOutsideCache()
+	{
+		assertEquals("=0", Assembler.immediate(0));
+		assertEquals("=-128", Assembler.immediate(-128));
+		assertEquals("=-129", Assembler.immediate(-129));
+		assertEquals("=1023", Assembler.immediate(1023));
+		assertEquals("=1024", Assembler.immediate(1024));
+		assertSame(Assembler.immediate(7), Assembler.immediate(7));
+	}
+
+	@Test
+	public void insertedInstructionsGoBeforeBufferedInstructions() throws IOException
+	{
+		Assembler buffered = new Assembler(new StringWriter(), null);
+		buffered.emit(Mnemonic.JUMP, "xy");
+		buffered.flush();
+		buffered.addLabel("l2");
+		buffered.emit(Mnemonic.NOT, Register.R2);
+		buffered.beginInsert(0);
+		buffered.emit(Mnemonic.PUSHR, Register.SP);
+		buffered.addLabel("l1");
+		buffered.endInsert();
+		buffered.flush();
+		assertEquals("            jump    xy\n"
+				+ "            pushr   sp\n"
+				+ "l1          nop     \n"
+				+ "l2          not     R2\n", buffered.getWriter().toString());
 	}
 }
@@ -0,0 +1,80 @@
+package titocc.compiler;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Set;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import titocc.compiler.elements.Function;
+import titocc.tokenizer.SyntaxException;
+import titocc.tokenizer.Tokenizer;
+
+public class CallGraphTest
+{
+	private CallGraph build(String code) throws IOException, SyntaxException
+	{
+		return new CallGraph(Parser.parse(new Tokenizer(new StringReader(code))));
+	}
+
+	@Test
+	public void findsCallees() throws IOException, SyntaxException
+	{
+		CallGraph graph = build("int f() { return 1; } int g() { return f() + f(); }"
+				+ " int main() { out(g()); return f(); }");
+		Function f = graph.getFunction("f");
+		Function g = graph.getFunction("g");
+		assertTrue(graph.getCallees(f).isEmpty());
+		assertEquals(1, graph.getCallees(g).size());
+		assertTrue(graph.getCallees(g).contains(f));
+		assertEquals(2, graph.getCallees(graph.getFunction("main")).size());
+		assertNull(graph.getFunction("h"));
+	}
+
+	@Test
+	public void findsCallsInAllStatements() throws IOException, SyntaxException
+	{
+		CallGraph graph = build("int a() { return 1; } int b() { return 1; } int c() { return 1; }"
+				+ " int d() { return 1; } int main() { int x = a(); if (b()) while (c()) out(d()); return 0; }");
+		assertEquals(4, graph.getCallees(graph.getFunction("main")).size());
+		assertTrue(graph.declaresVariables(graph.getFunction("main")));
+		assertFalse(graph.declaresVariables(graph.getFunction("a")));
+	}
+
+	@Test
+	public void computesSize() throws IOException, SyntaxException
+	{
+		CallGraph graph = build("int f(int x) { return x + 1; } int main() { return 0; }");
+		// Block, return, binary expression and two operands.
+		assertEquals(5, graph.getSize(graph.getFunction("f")));
+	}
+
+	@Test
+	public void detectsRecursion() throws IOException, SyntaxException
+	{
+		CallGraph graph = build("int f(int x) { if (x) return f(x - 1); return 0; }"
+				+ " int g() { return f(1); } int main() { return g(); }");
+		assertTrue(graph.isRecursive(graph.getFunction("f")));
+		assertFalse(graph.isRecursive(graph.getFunction("g")));
+		assertFalse(graph.isRecursive(graph.getFunction("main")));
+	}
+
+	@Test
+	public void calledFunctionsAreReachableFromRoot() throws IOException, SyntaxException
+	{
+		CallGraph graph = build("int f() { return 1; } int g() { return f(); } int h() { return 2; }"
+				+ " int main() { return g(); }");
+		Set<Function> called = graph.getCalledFunctions(graph.getFunction("main"));
+		assertEquals(3, called.size());
+		assertFalse(called.contains(graph.getFunction("h")));
+	}
+
+	@Test
+	public void inlinedFunctionsAreNotCalled() throws IOException, SyntaxException
+	{
+		CallGraph graph = build("int f() { return 1; } int g() { return f(); } int main() { return g(); }");
+		graph.getFunction("g").setInlined(true);
+		Set<Function> called = graph.getCalledFunctions(graph.getFunction("main"));
+		assertFalse(called.contains(graph.getFunction("g")));
+		assertTrue(called.contains(graph.getFunction("f")));
+	}
+}
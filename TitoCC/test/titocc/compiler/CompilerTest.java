@@ -3,8 +3,16 @@ package titocc.compiler;
 import java.io.IOException;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
 import static org.junit.Assert.*;
 import org.junit.Test;
+import titocc.assembler.AssemblerException;
+import titocc.assembler.Program;
+import titocc.assembler.ProgramLoader;
+import titocc.sim.OutputDevice;
+import titocc.sim.Simulator;
+import titocc.sim.SimulatorException;
 import titocc.tokenizer.SyntaxException;
 
 public class CompilerTest
@@ -17,6 +25,23 @@ public class CompilerTest
 		return writer.toString();
 	}
 
+	private List<Integer> run(String s) throws IOException, SyntaxException, AssemblerException, SimulatorException
+	{
+		Program program = new ProgramLoader().loadSymbolic(new StringReader(compile(s)));
+		Simulator sim = new Simulator(program);
+		final List<Integer> output = new ArrayList<Integer>();
+		sim.setCrt(new OutputDevice()
+		{
+			@Override
+			public void write(int value)
+			{
+				output.add(value);
+			}
+		});
+		assertTrue(sim.run(1000000));
+		return output;
+	}
+
 	private void testErr(String src, String msg, int line, int column) throws IOException
 	{
 		try {
@@ -28,6 +53,13 @@ public class CompilerTest
 		}
 	}
 
+	@Test
+	public void tokenizerErrorsAreReportedBeforeParserErrors() throws IOException
+	{
+		testErr("int main() { x = ; } #", "Unrecognized token.", 0, 21);
+		testErr("int main() { return 0; } #", "Unrecognized token.", 0, 25);
+	}
+
 	@Test
 	public void errorWhenMainNotFound() throws IOException
 	{
@@ -474,4 +506,272 @@ public class CompilerTest
 	{
 		testErr("\nvoid f() { while(f()); }", "Scalar expression required.", 1, 17);
 	}
+
+	@Test
+	public void globalInitializersAreFolded() throws IOException, SyntaxException
+	{
+		String asm = compile("int a = 1 << 4; int b = -7 / 2 * 10 + -7 % 2; int c = -1 >> 28;"
+				+ " int d = 2147483647 + 1; int e = (3 < 4) && (5 != 5); int main() { return 0; }");
+		assertTrue(asm.contains("a           dc      16\n"));
+		assertTrue(asm.contains("b           dc      -31\n"));
+		assertTrue(asm.contains("c           dc      15\n"));
+		assertTrue(asm.contains("d           dc      -2147483648\n"));
+		assertTrue(asm.contains("e           dc      0\n"));
+	}
+
+	@Test
+	public void constantSubexpressionsAreFoldedIntoOneLoad() throws IOException, SyntaxException
+	{
+		String asm = compile("int main() { return (1 + 2) * (10 - 4) << 2; }");
+		assertTrue(asm.contains("load    R1, =72\n"));
+		assertFalse(asm.contains("mul"));
+		assertFalse(asm.contains("shl"));
+	}
+
+	@Test
+	public void divisionByZeroIsNotFolded() throws IOException
+	{
+		testErr("\nint a = 1 / 0;\nint main() { return 0; }",
+				"Global variable must be initialized with a compile time constant.", 1, 0);
+	}
+
+	@Test
+	public void comparisonInWhileTestJumpsDirectly() throws IOException, SyntaxException
+	{
+		String asm = compile("int main() { int i; i = 0; while (i < 10) i = i + 1; return i; }");
+		assertTrue(asm.matches("(?s).*comp    R[1-5], =10\n +jles    R[1-5], main_lbl\n.*"));
+		assertFalse(asm.contains("jnzer"));
+	}
+
+	@Test
+	public void comparisonInIfTestJumpsOnNegatedCondition() throws IOException, SyntaxException
+	{
+		String asm = compile("int main() { int a; a = in(); if (a == 3) out(1); return 0; }");
+		assertTrue(asm.contains("jnequ"));
+		assertFalse(asm.contains("jzer"));
+	}
+
+	@Test
+	public void logicalOperatorsInTestShortCircuitWithoutValues() throws IOException, SyntaxException
+	{
+		String asm = compile("int main() { int a; int b; a = in(); b = in();"
+				+ " if (a < b && !(b > 5) || a == 0) out(1); return 0; }");
+		assertFalse(asm.contains("jzer"));
+		assertFalse(asm.contains("jnzer"));
+		assertTrue(asm.contains("jnles"));
+		assertTrue(asm.contains("jngre"));
+		assertTrue(asm.contains("jnequ"));
+	}
+
+	@Test
+	public void constantLoopTestIsUnconditionalJump() throws IOException, SyntaxException
+	{
+		String asm = compile("int main() { while (1) out(1); }");
+		assertFalse(asm.contains("jnzer"));
+		assertTrue(asm.matches("(?s).*jump +main_lbl\n.*"));
+	}
+
+	@Test
+	public void constantRightOperandIsImmediate() throws IOException, SyntaxException
+	{
+		String asm = compile("int main() { int a; a = in(); out(a * 5 - 3); return 0; }");
+		assertTrue(asm.matches("(?s).*mul     R[1-5], =5\n +sub     R[1-5], =3\n.*"));
+	}
+
+	@Test
+	public void globalRightOperandIsMemoryOperand() throws IOException, SyntaxException
+	{
+		String asm = compile("int g; int *t; int main() { int a; a = in(); out(a + g); out(t[2]); return 0; }");
+		assertTrue(asm.matches("(?s).*add     R[1-5], g\n.*"));
+		assertTrue(asm.matches("(?s).*add     R[1-5], =2\n.*"));
+	}
+
+	@Test
+	public void functionSavesOnlyWrittenRegisters() throws IOException, SyntaxException
+	{
+		String asm = compile("int f(int x) { return x + 1; } int main() { return f(1); }");
+		assertTrue(asm.contains("f           push    sp, R1\n"));
+		assertTrue(asm.contains("f_End       pop     sp, R1\n            exit    sp, =1\n"));
+		assertFalse(asm.contains("pushr"));
+		assertFalse(asm.contains("popr"));
+	}
+
+	@Test
+	public void functionWithoutRegisterUseHasNoSaves() throws IOException, SyntaxException
+	{
+		String asm = compile("void f() { } int main() { f(); return 0; }");
+		assertTrue(asm.contains("f           nop     \nf_End       exit    sp, =0\n"));
+	}
+
+	@Test
+	public void functionWritingManyRegistersUsesPushr() throws IOException, SyntaxException
+	{
+		String asm = compile("int f(int a, int b, int c, int d) { return a * b + c * d + a * c + b * d; }"
+				+ " int main() { return f(1, 2, 3, 4); }");
+		assertTrue(asm.contains("pushr"));
+		assertTrue(asm.contains("popr"));
+	}
+
+	@Test
+	public void selfTailCallJumpsToFunctionStart() throws IOException, SyntaxException
+	{
+		String asm = compile("int gcd(int a, int b) { if (b == 0) return a; return gcd(b, a % b); }"
+				+ " int main() { return gcd(12, 8); }");
+		String gcd = asm.substring(asm.indexOf("gcd_Ret"), asm.indexOf("main_Ret"));
+		assertFalse(gcd.contains("call"));
+		assertTrue(gcd.contains("gcd_Start"));
+		assertTrue(gcd.contains("jump    sp, gcd_Start\n"));
+	}
+
+	@Test
+	public void selfTailCallIsNotUsedIfAddressOfLocalIsTaken()
+			throws IOException, SyntaxException, AssemblerException, SimulatorException
+	{
+		String src = "int f(int *p, int n) { int x; x = n; if (n == 0) return *p; return f(&x, n - 1); }"
+				+ " int main() { int y; y = 5; out(f(&y, 1)); return 0; }";
+		assertFalse(compile(src).contains("f_Start"));
+		assertEquals(1, (int) run(src).get(0));
+	}
+
+	@Test
+	public void selfTailCallIsNotUsedIfLocalArrayIsUsedAsPointer()
+			throws IOException, SyntaxException, AssemblerException, SimulatorException
+	{
+		String src = "int h(int *a, int k) { int local[2]; local[0] = a[0] + k;"
+				+ " if (k == 0) return a[0]; return h(local, k - 1); }"
+				+ " int main() { int b[2]; b[0] = 7; out(h(b, 2)); return 0; }";
+		assertFalse(compile(src).contains("h_Start"));
+		assertEquals(10, (int) run(src).get(0));
+	}
+
+	@Test
+	public void selfTailCallIsUsedIfOnlyGlobalAddressesAreTaken() throws IOException, SyntaxException
+	{
+		String asm = compile("int g; int f(int *p, int n) { if (n == 0) return *p; return f(&g, n - 1); }"
+				+ " int main() { return f(&g, 3); }");
+		assertTrue(asm.contains("jump    sp, f_Start\n"));
+	}
+
+	@Test
+	public void nonTailRecursionIsCompiledAsCall() throws IOException, SyntaxException
+	{
+		String asm = compile("int f(int n) { if (n == 0) return 1; return n * f(n - 1); }"
+				+ " int main() { return f(5); }");
+		assertTrue(asm.contains("call    sp, f\n"));
+		assertFalse(asm.contains("f_Start"));
+	}
+
+	@Test
+	public void multiplicationByPowerOfTwoIsShift() throws IOException, SyntaxException
+	{
+		String asm = compile("int a[4][8]; int main() { int i; i = in(); out(i * 16); out(a[i][1]); return 0; }");
+		assertTrue(asm.contains("shl     R"));
+		assertTrue(asm.contains(", =4\n"));
+		assertTrue(asm.contains(", =3\n"));
+		assertFalse(asm.contains("mul"));
+	}
+
+	@Test
+	public void multiplicationAndDivisionByOneAreOmitted() throws IOException, SyntaxException
+	{
+		String asm = compile("int main() { int i; i = in(); out(i * 1 / 1); return 0; }");
+		assertFalse(asm.contains("mul"));
+		assertFalse(asm.contains("div"));
+	}
+
+	@Test
+	public void moduloByPowerOfTwoIsAndOnlyForNonNegativeValues() throws IOException, SyntaxException
+	{
+		String asm = compile("int main() { int i; i = in(); out((i & 255) % 8); out(i % 8); return 0; }");
+		assertTrue(asm.contains("and     R"));
+		assertTrue(asm.contains(", =7\n"));
+		assertTrue(asm.contains("mod     R"));
+	}
+
+	@Test
+	public void pointerDifferenceIsArithmeticShift() throws IOException, SyntaxException
+	{
+		String asm = compile("int a[4][8]; int main() { int (*p)[8]; p = a + in(); out(p - a); return 0; }");
+		assertTrue(asm.contains("shra    R"));
+		assertFalse(asm.contains("div"));
+	}
+
+	@Test
+	public void uncalledFunctionsAreNotEmitted() throws IOException, SyntaxException
+	{
+		String asm = compile("int f() { return 1; } int g() { return f(); } int h() { return 2; }"
+				+ " int main() { return g(); }");
+		assertTrue(asm.contains("f_Ret"));
+		assertTrue(asm.contains("g_Ret"));
+		assertFalse(asm.contains("h_Ret"));
+	}
+
+	@Test
+	public void uncalledFunctionsAreCheckedForErrors() throws IOException
+	{
+		testErr("int h() { return x; } int main() { return 0; }",
+				"Undeclared identifier \"x\".", 0, 17);
+	}
+
+	@Test
+	public void unreachableCodeIsNotEmitted() throws IOException, SyntaxException
+	{
+		String asm = compile("int main() { int a; a = in(); if (0) out(a + 1); return 0; out(a + 2); }");
+		assertFalse(asm.contains("out"));
+	}
+
+	@Test
+	public void storesToUnreadLocalsAreRemoved() throws IOException, SyntaxException
+	{
+		String asm = compile("int main() { int a; int b; a = in(); b = a * 7; out(a); return 0; }");
+		assertFalse(asm.contains("=7"));
+	}
+
+	@Test
+	public void globalArrayElementsUseIndexedAddressing() throws IOException, SyntaxException
+	{
+		String asm = compile("int t[4]; int main() { int a; a = in(); t[a] = a; out(t[a + 1]); out(t[2]); return 0; }");
+		assertTrue(asm.matches("(?s).*store   R[1-5], t\\(R[1-5]\\)\n.*"));
+		assertTrue(asm.matches("(?s).*load    (R[1-5]), t\\(\\1\\)\n.*"));
+		assertTrue(asm.matches("(?s).*load    (R[1-5]), =2\n            load    \\1, t\\(\\1\\)\n.*"));
+		assertFalse(asm.contains("=t"));
+	}
+
+	@Test
+	public void loopInvariantCodeIsHoistedWhenEnabled() throws IOException, SyntaxException
+	{
+		String src = "int main() { int a[8]; int i; int k; k = in(); i = 0;"
+				+ " while (i < 8) { a[i] = (k + 13) & 15; i = i + 1; } return a[3]; }";
+		Compiler c = new Compiler(new StringReader(src));
+		c.setLoopOptimization(true);
+		StringWriter writer = new StringWriter();
+		c.compile(writer);
+		String asm = writer.toString();
+		String loop = asm.substring(asm.indexOf("main_lbl "), asm.indexOf("jles"));
+		assertFalse(loop.contains("=13"));
+		assertFalse(loop.contains("=main_a(fp)"));
+		String plain = compile(src);
+		assertTrue(plain.substring(plain.indexOf("main_lbl "), plain.indexOf("jles")).contains("=13"));
+	}
+
+	@Test
+	public void binaryOutputMatchesAssembledSymbolicOutput()
+			throws IOException, SyntaxException, AssemblerException
+	{
+		String src = "int g = 3; int t[2]; int f(int x) { return x * g; }"
+				+ " int main() { t[1] = f(in()); out(t[1]); return 0; }";
+		Compiler c = new Compiler(new StringReader(src));
+		c.setBinaryOutput(true);
+		StringWriter writer = new StringWriter();
+		c.compile(writer);
+		assertTrue(writer.toString().startsWith("___b91___\n___code___\n0 "));
+		assertTrue(writer.toString().endsWith("___end___\n"));
+
+		ProgramLoader loader = new ProgramLoader();
+		Program binary = loader.loadBinary(new StringReader(writer.toString()));
+		Program symbolic = loader.loadSymbolic(new StringReader(compile(src)));
+		assertArrayEquals(symbolic.getImage(), binary.getImage());
+		assertEquals(symbolic.getCodeSize(), binary.getCodeSize());
+		assertEquals(symbolic.getSymbols(), binary.getSymbols());
+	}
 }
@@ -0,0 +1,106 @@
+package titocc.compiler;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ControlFlowGraphTest
+{
+	private List<Instruction> code;
+
+	@Before
+	public void setUp()
+	{
+		code = new ArrayList<Instruction>();
+	}
+
+	private void add(String label, String mnemonic, String operand1, String operand2)
+	{
+		code.add(new Instruction(label, mnemonic, operand1, operand2));
+	}
+
+	@Test
+	public void straightLineCodeIsOneBlock()
+	{
+		add("", "load", "%0", "=1");
+		add("", "add", "%0", "=2");
+		add("", "out", "%0", "=crt");
+		ControlFlowGraph cfg = new ControlFlowGraph(code);
+		assertEquals(1, cfg.getBlocks().size());
+		assertEquals(code, cfg.getInstructions());
+	}
+
+	@Test
+	public void labelsAndJumpsSplitBlocks()
+	{
+		add("", "load", "%0", "=0");
+		add("loop", "add", "%0", "=1");
+		add("", "comp", "%0", "=10");
+		add("", "jles", "%0", "loop");
+		add("", "out", "%0", "=crt");
+		ControlFlowGraph cfg = new ControlFlowGraph(code);
+		List<BasicBlock> blocks = cfg.getBlocks();
+		assertEquals(3, blocks.size());
+		assertEquals("loop", blocks.get(1).getLabel());
+		assertEquals(1, blocks.get(0).getSuccessors().size());
+		assertTrue(blocks.get(1).getSuccessors().contains(blocks.get(1)));
+		assertTrue(blocks.get(1).getSuccessors().contains(blocks.get(2)));
+		assertEquals(2, blocks.get(1).getPredecessors().size());
+		assertEquals(code, cfg.getInstructions());
+	}
+
+	@Test
+	public void unconditionalJumpDoesNotFallThrough()
+	{
+		add("", "jump", "skip", null);
+		add("", "load", "%0", "=1");
+		add("skip", "nop", "", null);
+		ControlFlowGraph cfg = new ControlFlowGraph(code);
+		List<BasicBlock> blocks = cfg.getBlocks();
+		assertEquals(3, blocks.size());
+		assertEquals(1, blocks.get(0).getSuccessors().size());
+		assertSame(blocks.get(2), blocks.get(0).getSuccessors().get(0));
+		assertTrue(blocks.get(1).getPredecessors().isEmpty());
+	}
+
+	@Test
+	public void dataLabelsDoNotSplitBlocks()
+	{
+		add("", "load", "%0", "=1");
+		add("int", "dc", "70000", null);
+		add("", "load", "%1", "int");
+		assertEquals(1, new ControlFlowGraph(code).getBlocks().size());
+	}
+
+	@Test
+	public void jumpsOutOfGraphHaveNoSuccessor()
+	{
+		add("", "jump", "sp", "f_End");
+		ControlFlowGraph cfg = new ControlFlowGraph(code);
+		assertTrue(cfg.getBlocks().get(0).getSuccessors().isEmpty());
+	}
+
+	@Test
+	public void livenessFollowsLoops()
+	{
+		add("", "load", "%0", "=0");
+		add("", "load", "%1", "=5");
+		add("loop", "add", "%0", "%1");
+		add("", "comp", "%0", "=100");
+		add("", "jles", "%2", "loop");
+		add("", "out", "%0", "=crt");
+		ControlFlowGraph cfg = new ControlFlowGraph(code);
+		cfg.computeLiveness();
+		BasicBlock loop = cfg.getBlocks().get(1);
+		BitSet expected = new BitSet();
+		expected.set(0);
+		expected.set(1);
+		assertEquals(expected, loop.getLiveIn());
+		assertEquals(expected, loop.getLiveOut());
+		assertTrue(cfg.getBlocks().get(0).getLiveIn().isEmpty());
+		assertFalse(cfg.getBlocks().get(2).getLiveIn().get(1));
+	}
+}
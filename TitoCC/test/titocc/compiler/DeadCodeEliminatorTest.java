@@ -0,0 +1,151 @@
+package titocc.compiler;
+
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DeadCodeEliminatorTest
+{
+	private List<Instruction> code;
+	private DeadCodeEliminator eliminator;
+
+	@Before
+	public void setUp()
+	{
+		code = new ArrayList<Instruction>();
+		eliminator = new DeadCodeEliminator();
+	}
+
+	private void add(String label, String mnemonic, String operand1, String operand2)
+	{
+		code.add(new Instruction(label, mnemonic, operand1, operand2));
+	}
+
+	private static String format(List<Instruction> instructions)
+	{
+		StringBuilder sb = new StringBuilder();
+		for (Instruction instr : instructions)
+			sb.append(instr);
+		return sb.toString();
+	}
+
+	@Test
+	public void removesCodeAfterUnconditionalJump()
+	{
+		add("", "load", "%0", "=1");
+		add("", "jump", "sp", "end");
+		add("", "out", "%0", "=crt");
+		add("x", "dc", "300000", null);
+		add("", "load", "%0", "x");
+		add("end", "nop", "", null);
+		String result = format(eliminator.removeUnreachableBlocks(new ControlFlowGraph(code)));
+		assertFalse(result.contains("out"));
+		assertFalse(result.contains("load    %0, x"));
+		assertTrue(result.contains("dc      300000"));
+		assertTrue(result.contains("end         nop"));
+	}
+
+	@Test
+	public void keepsBlocksReachableThroughJumps()
+	{
+		add("", "jump", "sp", "a");
+		add("b", "out", "%0", "=crt");
+		add("", "jump", "sp", "end");
+		add("a", "load", "%0", "=1");
+		add("", "jump", "sp", "b");
+		add("end", "nop", "", null);
+		assertEquals(6, eliminator.removeUnreachableBlocks(new ControlFlowGraph(code)).size());
+	}
+
+	@Test
+	public void removesUnusedDefinitions()
+	{
+		add("", "load", "%0", "=1");
+		add("", "load", "%1", "%0");
+		add("", "add", "%1", "=2");
+		add("", "load", "%2", "=3");
+		add("", "out", "%2", "=crt");
+		String result = format(eliminator.removeDeadDefinitions(code));
+		assertEquals("            load    %2, =3\n"
+				+ "            out     %2, =crt\n", result);
+	}
+
+	@Test
+	public void keepsInstructionsWithSideEffects()
+	{
+		add("", "in", "%0", "=kbd");
+		add("", "pop", "sp", "%1");
+		add("", "load", "%2", "=1");
+		add("", "store", "%2", "x");
+		assertEquals(4, eliminator.removeDeadDefinitions(code).size());
+	}
+
+	@Test
+	public void keepsDefinitionsUsedInLoop()
+	{
+		add("", "load", "%0", "=0");
+		add("loop", "add", "%0", "=1");
+		add("", "comp", "%0", "=10");
+		add("", "jles", "%0", "loop");
+		add("", "load", "%1", "%0");
+		assertEquals(4, eliminator.removeDeadDefinitions(code).size());
+	}
+
+	@Test
+	public void labelOfRemovedInstructionMovesToNext()
+	{
+		add("", "load", "%0", "=0");
+		add("", "jzer", "%0", "l");
+		add("l", "load", "%1", "=5");
+		add("", "out", "%0", "=crt");
+		String result = format(eliminator.removeDeadDefinitions(code));
+		assertFalse(result.contains("=5"));
+		assertTrue(result.contains("l           out     %0, =crt\n"));
+	}
+
+	@Test
+	public void labelledDeadInstructionIsKeptIfLabelCannotMove()
+	{
+		add("", "load", "%0", "=1");
+		add("l", "add", "%0", "=1");
+		add("", "load", "%1", "=2");
+		add("", "div", "%1", "%0");
+		add("x", "dc", "0", null);
+		add("m", "load", "%2", "=3");
+		add("", "out", "%2", "=crt");
+		String result = format(eliminator.removeDeadDefinitions(code));
+		assertEquals("            load    %0, =1\n"
+				+ "l           add     %0, =1\n"
+				+ "x           dc      0\n"
+				+ "m           load    %2, =3\n"
+				+ "            out     %2, =crt\n", result);
+	}
+
+	@Test
+	public void labelledDeadInstructionIsKeptIfNextInstructionIsLabelled()
+	{
+		add("", "load", "%0", "=1");
+		add("l", "add", "%0", "=1");
+		add("m", "load", "%1", "=2");
+		add("", "out", "%1", "=crt");
+		String result = format(eliminator.removeDeadDefinitions(code));
+		assertEquals("            load    %0, =1\n"
+				+ "l           add     %0, =1\n"
+				+ "m           load    %1, =2\n"
+				+ "            out     %1, =crt\n", result);
+	}
+
+	@Test
+	public void labelMovesPastSeveralRemovedInstructions()
+	{
+		add("", "load", "%0", "=0");
+		add("l", "load", "%1", "=5");
+		add("", "add", "%1", "=1");
+		add("", "out", "%0", "=crt");
+		String result = format(eliminator.removeDeadDefinitions(code));
+		assertEquals("            load    %0, =0\n"
+				+ "l           out     %0, =crt\n", result);
+	}
+}
@@ -0,0 +1,98 @@
+package titocc.compiler;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import titocc.tokenizer.SyntaxException;
+
+/**
+ * Compile time of deeply nested expressions. Type checking used to walk the
+ * whole subexpression tree again on every getType() call, which made these
+ * quadratic or exponential in the nesting depth; with cached types the time
+ * should grow roughly linearly. Not a unit test; run with
+ *
+ * <p> java titocc.compiler.ExpressionTypeBenchmark
+ */
+public class ExpressionTypeBenchmark
+{
+	private static final long MIN_TIME = 200000000;
+
+	public static void main(String[] args) throws Exception
+	{
+		// Deep expressions need a deep stack for the recursive parser.
+		Thread thread = new Thread(null, new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try {
+					runBenchmarks();
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			}
+		}, "benchmark", 1 << 28);
+		thread.start();
+		thread.join();
+	}
+
+	private static void runBenchmarks() throws IOException, SyntaxException
+	{
+		String[] operators = {"+", "*", "-", "<<", "&"};
+
+		System.out.println("Right nested arithmetic: a + (b * (a - (b << ...)))");
+		for (int depth = 16; depth <= 1024; depth *= 2) {
+			String expr = "a";
+			for (int i = 0; i < depth; ++i)
+				expr = (i % 2 == 0 ? "b" : "a") + " " + operators[i % operators.length] + " (" + expr + ")";
+			report(depth, "int a; int b; int main() { a = " + expr + "; return 0; }");
+		}
+
+		System.out.println("Balanced arithmetic of depth d (2^d leaves)");
+		for (int depth = 4; depth <= 12; depth += 2)
+			report(depth, "int a; int b; int main() { a = " + balanced(depth, operators) + "; return 0; }");
+
+		System.out.println("Address/dereference pairs: *&*&...*&a");
+		for (int depth = 4; depth <= 64; depth *= 2) {
+			String expr = "a";
+			for (int i = 0; i < depth; ++i)
+				expr = "*&" + expr;
+			report(depth, "int a; int main() { return " + expr + "; }");
+		}
+
+		System.out.println("Nested subscripts: a[a[a[...]]]");
+		for (int depth = 4; depth <= 256; depth *= 2) {
+			String expr = "0";
+			for (int i = 0; i < depth; ++i)
+				expr = "a[" + expr + "]";
+			report(depth, "int a[2]; int main() { return " + expr + "; }");
+		}
+	}
+
+	private static String balanced(int depth, String[] operators)
+	{
+		if (depth == 0)
+			return "a";
+		return "(" + balanced(depth - 1, operators) + " " + operators[depth % operators.length]
+				+ " " + balanced(depth - 1, operators) + ")";
+	}
+
+	private static void report(int depth, String source) throws IOException, SyntaxException
+	{
+		compile(source); // warm up
+		long start = System.nanoTime(), time;
+		int rounds = 0;
+		do {
+			compile(source);
+			++rounds;
+			time = System.nanoTime() - start;
+		} while (time < MIN_TIME);
+		double ms = time / 1e6 / rounds;
+		System.out.printf("  depth %5d: %10.3f ms%n", depth, ms);
+	}
+
+	private static void compile(String source) throws IOException, SyntaxException
+	{
+		new Compiler(new StringReader(source)).compile(new StringWriter());
+	}
+}
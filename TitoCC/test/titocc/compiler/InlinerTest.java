@@ -0,0 +1,98 @@
+package titocc.compiler;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import titocc.compiler.elements.Declaration;
+import titocc.compiler.elements.Function;
+import titocc.compiler.elements.TranslationUnit;
+import titocc.tokenizer.SyntaxException;
+import titocc.tokenizer.Tokenizer;
+
+public class InlinerTest
+{
+	private TranslationUnit translationUnit;
+
+	private Inliner analyze(String code, int maxSize) throws IOException, SyntaxException
+	{
+		translationUnit = Parser.parse(new Tokenizer(new StringReader(code)));
+		Inliner inliner = new Inliner(maxSize);
+		inliner.analyze(new CallGraph(translationUnit));
+		return inliner;
+	}
+
+	private Function function(String name)
+	{
+		for (Declaration decl : translationUnit.getDeclarations()) {
+			if (decl instanceof Function && ((Function) decl).getName().equals(name))
+				return (Function) decl;
+		}
+		return null;
+	}
+
+	private String compile(String code) throws IOException, SyntaxException
+	{
+		Compiler c = new Compiler(new StringReader(code));
+		c.setInliner(new Inliner());
+		StringWriter writer = new StringWriter();
+		c.compile(writer);
+		return writer.toString();
+	}
+
+	@Test
+	public void smallFunctionsAreInlined() throws IOException, SyntaxException
+	{
+		analyze("int f(int x) { return x + 1; } int main() { return f(1); }", 16);
+		assertTrue(function("f").isInlined());
+	}
+
+	@Test
+	public void recursiveFunctionsAreNotInlined() throws IOException, SyntaxException
+	{
+		analyze("int f(int x) { if (x) return f(x - 1); return 0; }"
+				+ " int main() { return f(1); }", 16);
+		assertFalse(function("f").isInlined());
+	}
+
+	@Test
+	public void largeFunctionsAreNotInlined() throws IOException, SyntaxException
+	{
+		String code = "int f(int x) { return x + x + x + x; } int main() { return f(1); }";
+		analyze(code, 9);
+		assertTrue(function("f").isInlined());
+		analyze(code, 8);
+		assertFalse(function("f").isInlined());
+	}
+
+	@Test
+	public void functionsWithLocalVariablesAreNotInlined() throws IOException, SyntaxException
+	{
+		Inliner inliner = analyze("int f() { int a; a = 1; return a; } int main() { return f(); }", 16);
+		assertFalse(function("f").isInlined());
+		assertFalse(inliner.getInlinedFunctions().contains(function("f")));
+	}
+
+	@Test
+	public void inlinedCallDoesNotUseStack() throws IOException, SyntaxException
+	{
+		String asm = compile("int t[4]; int get(int i) { return t[i]; }"
+				+ " int main() { int i; i = in(); out(get(i) + get(2)); return 0; }");
+		String main = asm.substring(asm.indexOf("main_Ret"));
+		assertFalse(main.contains("call"));
+		assertFalse(main.contains("add     sp, =1"));
+		assertTrue(main.contains("main_get_End"));
+		assertTrue(main.contains("main_get2_End"));
+		assertFalse(asm.contains("get_Ret"));
+	}
+
+	@Test
+	public void inlinedFunctionDoesNotSeeCallerLocals() throws IOException, SyntaxException
+	{
+		String asm = compile("int x; int f() { return x; }"
+				+ " int main() { int x; x = 5; return f(); }");
+		String main = asm.substring(asm.indexOf("main_Ret"));
+		assertTrue(main.matches("(?s).*load    R[1-5], x\n.*"));
+	}
+}
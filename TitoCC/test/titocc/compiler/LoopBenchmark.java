@@ -0,0 +1,165 @@
+package titocc.compiler;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import titocc.assembler.AssemblerException;
+import titocc.assembler.ProgramLoader;
+import titocc.sim.InputDevice;
+import titocc.sim.Simulator;
+import titocc.sim.SimulatorException;
+import titocc.tokenizer.SyntaxException;
+
+/**
+ * Compares the code generated for loop-heavy programs with and without loop
+ * optimization. Not a unit test; run with
+ *
+ * <p> java titocc.compiler.LoopBenchmark [file.c ...]
+ *
+ * <p> For each program the number of instructions inside loops is reported.
+ * It is the number of instructions executed per iteration, summed over the
+ * loops, so an instruction in a nested loop is counted once for each loop
+ * around it. The number of instructions executed in the simulator is also
+ * reported; "in()" returns 50. Without arguments a set of built-in programs
+ * is used.
+ */
+public class LoopBenchmark
+{
+	private static final long MAX_INSTRUCTIONS = 100000000;
+	private static final String[][] PROGRAMS = {
+		{"array sum", "int t[64];\n"
+			+ "int main()\n{\n\tint i; int s;\n\ti = 0; s = 0;\n"
+			+ "\twhile (i < 64) {\n\t\ts = s + t[i];\n\t\ti = i + 1;\n\t}\n"
+			+ "\tout(s);\n}\n"},
+		{"local array", "int main()\n{\n\tint a[32]; int i; int k;\n\tk = in(); i = 0;\n"
+			+ "\twhile (i < 32) {\n\t\ta[i] = (k + 13) & 15;\n\t\ti = i + 1;\n\t}\n"
+			+ "\ti = 0;\n\twhile (i < 32) {\n\t\tout(a[i] * 3);\n\t\ti = i + 1;\n\t}\n}\n"},
+		{"matrix product", "int a[8][8]; int b[8][8]; int c[8][8];\n"
+			+ "int main()\n{\n\tint i; int j; int k; int s;\n\ti = 0;\n"
+			+ "\twhile (i < 8) {\n\t\tj = 0;\n\t\twhile (j < 8) {\n\t\t\ts = 0; k = 0;\n"
+			+ "\t\t\twhile (k < 8) {\n\t\t\t\ts = s + a[i][k] * b[k][j];\n\t\t\t\tk = k + 1;\n"
+			+ "\t\t\t}\n\t\t\tc[i][j] = s;\n\t\t\tj = j + 1;\n\t\t}\n\t\ti = i + 1;\n\t}\n}\n"},
+		{"ring buffer", "int state[16];\n"
+			+ "int main()\n{\n\tint index; int n; int x;\n\tindex = in(); n = 0;\n"
+			+ "\twhile (n < 100) {\n\t\tx = state[(index + 13) & 15] ^ state[(index + 9) & 15];\n"
+			+ "\t\tstate[index] = x;\n\t\tindex = (index + 15) & 15;\n\t\tn = n + 1;\n\t}\n"
+			+ "\tout(state[index]);\n}\n"},
+		{"scaled counter", "int main()\n{\n\tint i; int k; int n;\n\tn = in(); k = in(); i = 0;\n"
+			+ "\twhile (i < n) {\n\t\tout(i * 12 + k * k);\n\t\ti = i + 1;\n\t}\n}\n"},
+	};
+
+	public static void main(String[] args)
+			throws IOException, SyntaxException, AssemblerException, SimulatorException
+	{
+		System.out.printf("%-20s %8s %8s %8s %8s %10s %10s%n", "", "loop", "loop", "size", "size",
+				"executed", "executed");
+		System.out.printf("%-20s %8s %8s %8s %8s %10s %10s%n", "program", "off", "on", "off",
+				"on", "off", "on");
+		if (args.length == 0) {
+			for (String[] program : PROGRAMS)
+				run(program[0], program[1]);
+		}
+		for (String path : args)
+			run(new File(path).getName(), readFile(path));
+	}
+
+	private static void run(String name, String source)
+			throws IOException, SyntaxException, AssemblerException, SimulatorException
+	{
+		String plainAsm = compile(source, false);
+		String optimizedAsm = compile(source, true);
+		List<String[]> plain = parse(plainAsm);
+		List<String[]> optimized = parse(optimizedAsm);
+		System.out.printf("%-20s %8d %8d %8d %8d %10d %10d%n", name, countLoopInstructions(plain),
+				countLoopInstructions(optimized), plain.size(), optimized.size(),
+				execute(plainAsm), execute(optimizedAsm));
+	}
+
+	private static long execute(String asm) throws IOException, AssemblerException, SimulatorException
+	{
+		Simulator sim = new Simulator(new ProgramLoader().loadSymbolic(new StringReader(asm)));
+		sim.setKeyboard(new InputDevice()
+		{
+			@Override
+			public int read()
+			{
+				return 50;
+			}
+		});
+		sim.run(MAX_INSTRUCTIONS);
+		return sim.getInstructionCount();
+	}
+
+	private static String compile(String source, boolean loopOptimization)
+			throws IOException, SyntaxException
+	{
+		Compiler compiler = new Compiler(new StringReader(source));
+		compiler.setPeepholeOptimizer(new PeepholeOptimizer());
+		compiler.setLoopOptimization(loopOptimization);
+		StringWriter writer = new StringWriter();
+		compiler.compile(writer);
+		return writer.toString();
+	}
+
+	/**
+	 * Splits the assembly code to instructions, each an array of label,
+	 * mnemonic and the last operand. Pseudo instructions are left out.
+	 */
+	private static List<String[]> parse(String asm)
+	{
+		List<String[]> instructions = new ArrayList<String[]>();
+		for (String line : asm.split("\n")) {
+			if (line.trim().isEmpty())
+				continue;
+			String[] parts = line.split("[ \t,]+");
+			String label = parts[0];
+			parts = Arrays.copyOfRange(parts, 1, parts.length);
+			String mnemonic = parts[0];
+			if (mnemonic.equals("dc") || mnemonic.equals("ds") || mnemonic.equals("equ"))
+				continue;
+			instructions.add(new String[]{label, mnemonic, parts[parts.length - 1]});
+		}
+		return instructions;
+	}
+
+	private static int countLoopInstructions(List<String[]> instructions)
+	{
+		// A jump backwards closes a loop from the target to the jump.
+		Map<String, Integer> labels = new HashMap<String, Integer>();
+		for (int i = 0; i < instructions.size(); ++i) {
+			if (!instructions.get(i)[0].isEmpty())
+				labels.put(instructions.get(i)[0], i);
+		}
+		int count = 0;
+		for (int i = 0; i < instructions.size(); ++i) {
+			Integer target = labels.get(instructions.get(i)[2]);
+			if (instructions.get(i)[1].startsWith("j") && target != null && target <= i)
+				count += i - target + 1;
+		}
+		return count;
+	}
+
+	private static String readFile(String path) throws IOException
+	{
+		StringBuilder sb = new StringBuilder();
+		char[] buf = new char[8192];
+		Reader reader = new InputStreamReader(new FileInputStream(new File(path)), "UTF-8");
+		try {
+			int n;
+			while ((n = reader.read(buf)) != -1)
+				sb.append(buf, 0, n);
+		} finally {
+			reader.close();
+		}
+		return sb.toString();
+	}
+}
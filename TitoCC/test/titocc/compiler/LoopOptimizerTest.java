@@ -0,0 +1,248 @@
+package titocc.compiler;
+
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LoopOptimizerTest
+{
+	private List<Instruction> code;
+
+	@Before
+	public void setUp()
+	{
+		code = new ArrayList<Instruction>();
+	}
+
+	private void add(String label, String mnemonic, String operand1, String operand2)
+	{
+		code.add(new Instruction(label, mnemonic, operand1, operand2));
+	}
+
+	/**
+	 * Adds a loop "while (%0 < 10) { body; %0 += 1; }" around the
+	 * instructions added by the body.
+	 */
+	private void loop(Runnable body)
+	{
+		add("", "load", "%0", "=0");
+		add("", "jump", "sp", "test");
+		add("loop", "nop", "", null);
+		body.run();
+		add("", "add", "%0", "=1");
+		add("test", "comp", "%0", "=10");
+		add("", "jles", "%0", "loop");
+	}
+
+	private String optimize()
+	{
+		StringBuilder sb = new StringBuilder();
+		for (Instruction instr : new LoopOptimizer(100).optimize(code))
+			sb.append(instr);
+		return sb.toString();
+	}
+
+	private static String before(String asm)
+	{
+		return asm.substring(0, asm.indexOf("loop "));
+	}
+
+	private static String inside(String asm)
+	{
+		return asm.substring(asm.indexOf("loop "));
+	}
+
+	@Test
+	public void invariantComputationIsHoisted()
+	{
+		add("", "in", "%1", "=kbd");
+		loop(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				add("", "load", "%2", "%1");
+				add("", "add", "%2", "=13");
+				add("", "and", "%2", "=15");
+				add("", "out", "%2", "=crt");
+			}
+		});
+		String asm = optimize();
+		assertTrue(before(asm).contains("add     %2, =13\n            and     %2, =15\n"
+				+ "            jump    sp, test\n"));
+		assertFalse(inside(asm).contains("=13"));
+		assertTrue(inside(asm).contains("out     %2, =crt"));
+	}
+
+	@Test
+	public void addressOfLoadIsHoisted()
+	{
+		add("", "in", "%1", "=kbd");
+		loop(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				add("", "load", "%2", "=a(fp)");
+				add("", "add", "%2", "%1");
+				add("", "load", "%2", "@%2");
+				add("", "out", "%2", "=crt");
+			}
+		});
+		String asm = optimize();
+		assertTrue(before(asm).contains("load    %100, =a(fp)\n            add     %100, %1\n"));
+		assertTrue(inside(asm).contains("load    %2, @%100\n"));
+		assertFalse(inside(asm).contains("=a(fp)"));
+	}
+
+	@Test
+	public void linearAddressBecomesInductionVariable()
+	{
+		loop(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				add("", "load", "%2", "=a(fp)");
+				add("", "add", "%2", "%0");
+				add("", "load", "%2", "@%2");
+				add("", "out", "%2", "=crt");
+				add("", "load", "%3", "=a(fp)");
+				add("", "add", "%3", "%0");
+				add("", "store", "%2", "0(%3)");
+			}
+		});
+		String asm = optimize();
+		assertTrue(before(asm).contains("load    %100, =a(fp)\n            add     %100, %0\n"));
+		assertTrue(inside(asm).contains("load    %2, @%100\n"));
+		assertTrue(inside(asm).contains("store   %2, 0(%100)\n"));
+		assertTrue(inside(asm).contains("add     %0, =1\n            add     %100, =1\n"));
+		assertFalse(inside(asm).contains("=a(fp)"));
+	}
+
+	@Test
+	public void scaledInductionVariableIsIncrementedByScaledStep()
+	{
+		loop(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				add("", "load", "%2", "%0");
+				add("", "mul", "%2", "=3");
+				add("", "out", "%2", "=crt");
+			}
+		});
+		String asm = optimize();
+		assertFalse(inside(asm).contains("mul"));
+		assertTrue(inside(asm).contains("out     %100, =crt\n"));
+		assertTrue(inside(asm).contains("add     %100, =3\n"));
+	}
+
+	@Test
+	public void copyBackIsFolded()
+	{
+		loop(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				add("", "load", "%5", "%0");
+				add("", "add", "%5", "=2");
+				add("", "load", "%0", "%5");
+			}
+		});
+		String asm = optimize();
+		assertTrue(inside(asm).contains("add     %0, =2\n            add     %0, =1\n"));
+		assertFalse(asm.contains("%5"));
+	}
+
+	@Test
+	public void memoryIsNotReadOutsideLoopThatWritesIt()
+	{
+		loop(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				add("", "load", "%2", "g");
+				add("", "add", "%2", "=1");
+				add("", "out", "%2", "=crt");
+				add("", "store", "%0", "g");
+			}
+		});
+		assertTrue(inside(optimize()).contains("load    %2, g\n"));
+	}
+
+	@Test
+	public void memoryIsReadOutsideLoopThatDoesNotWriteIt()
+	{
+		loop(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				add("", "load", "%2", "g");
+				add("", "add", "%2", "=1");
+				add("", "out", "%2", "=crt");
+			}
+		});
+		assertTrue(before(optimize()).contains("load    %2, g\n"));
+	}
+
+	@Test
+	public void valueLiveAtLoopEntryIsNotHoisted()
+	{
+		add("", "load", "%2", "=7");
+		loop(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				add("", "out", "%2", "=crt");
+				add("", "load", "%2", "=1");
+				add("", "add", "%2", "=1");
+			}
+		});
+		String asm = optimize();
+		assertTrue(inside(asm).contains("load    %2, =1\n"));
+	}
+
+	@Test
+	public void divisionIsNotHoisted()
+	{
+		add("", "in", "%1", "=kbd");
+		loop(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				add("", "load", "%2", "=100");
+				add("", "div", "%2", "%1");
+				add("", "out", "%2", "=crt");
+			}
+		});
+		assertTrue(inside(optimize()).contains("div"));
+	}
+
+	@Test
+	public void nothingIsHoistedWithoutFreeRegisters()
+	{
+		for (int i = 1; i <= 4; ++i)
+			add("", "in", "%" + i, "=kbd");
+		loop(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				add("", "load", "%5", "=3");
+				add("", "add", "%5", "=4");
+				for (int i = 1; i <= 5; ++i)
+					add("", "out", "%" + i, "=crt");
+			}
+		});
+		assertTrue(inside(optimize()).contains("load    %5, =3\n"));
+	}
+}
@@ -0,0 +1,97 @@
+package titocc.compiler;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.List;
+import titocc.compiler.elements.ParseRule;
+import titocc.compiler.elements.TranslationUnit;
+import titocc.tokenizer.SyntaxException;
+import titocc.tokenizer.Token;
+import titocc.tokenizer.TokenStream;
+import titocc.tokenizer.Tokenizer;
+
+/**
+ * Compares plain backtracking parsing with packrat parsing: number of token
+ * reads (including re-reads after backtracking) and parse time. Not a unit
+ * test; run with
+ *
+ * <p> java titocc.compiler.ParserBenchmark [file.c ...]
+ *
+ * <p> Without arguments a generated source with deeply nested expressions is
+ * used.
+ */
+public class ParserBenchmark
+{
+	private static final int ROUNDS = 50;
+
+	public static void main(String[] args) throws IOException, SyntaxException
+	{
+		if (args.length == 0)
+			run("generated", generateSource());
+		for (String path : args)
+			run(path, readFile(path));
+	}
+
+	private static void run(String name, String source) throws IOException, SyntaxException
+	{
+		List<Token> tokens = new Tokenizer(new StringReader(source)).tokenize();
+
+		TokenStream plain = new TokenStream(tokens);
+		String plainTree = TranslationUnit.parse(plain).toString();
+		TokenStream packrat = new TokenStream(tokens);
+		packrat.enableMemoization(ParseRule.COUNT);
+		String packratTree = TranslationUnit.parse(packrat).toString();
+		if (!plainTree.equals(packratTree))
+			throw new AssertionError("Parse trees differ for " + name);
+
+		long plainTime = time(tokens, false), packratTime = time(tokens, true);
+
+		System.out.println(name + ": " + tokens.size() + " tokens");
+		System.out.printf("  plain   %8d token reads %10.1f us%n", plain.getReadCount(),
+				plainTime / 1e3 / ROUNDS);
+		System.out.printf("  packrat %8d token reads %10.1f us%n", packrat.getReadCount(),
+				packratTime / 1e3 / ROUNDS);
+	}
+
+	private static long time(List<Token> tokens, boolean packrat) throws SyntaxException
+	{
+		// Warm up before measuring.
+		for (int i = 0; i < ROUNDS; ++i)
+			Parser.parse(tokens, packrat);
+
+		long start = System.nanoTime();
+		for (int i = 0; i < ROUNDS; ++i)
+			Parser.parse(tokens, packrat);
+		return System.nanoTime() - start;
+	}
+
+	private static String readFile(String path) throws IOException
+	{
+		StringBuilder sb = new StringBuilder();
+		char[] buf = new char[8192];
+		Reader reader = new InputStreamReader(new FileInputStream(new File(path)), "UTF-8");
+		try {
+			int n;
+			while ((n = reader.read(buf)) != -1)
+				sb.append(buf, 0, n);
+		} finally {
+			reader.close();
+		}
+		return sb.toString();
+	}
+
+	private static String generateSource()
+	{
+		StringBuilder expr = new StringBuilder("x");
+		for (int i = 0; i < 40; ++i)
+			expr.insert(0, "(-a[" + i + "] + ").append(" * f(b, " + i + "))");
+		StringBuilder sb = new StringBuilder("int main()\n{\n\tint x;\n");
+		for (int i = 0; i < 20; ++i)
+			sb.append("\tx = ").append(expr).append(";\n");
+		return sb.append("\treturn x;\n}\n").toString();
+	}
+}
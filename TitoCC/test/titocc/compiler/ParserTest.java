@@ -13,9 +13,16 @@ public class ParserTest
 	private Tokenizer tokenizer;
 
 	private String parse(String code) throws IOException, SyntaxException
+	{
+		String result = parse(code, false);
+		assertEquals("Packrat mode result differs.", result, parse(code, true));
+		return result;
+	}
+
+	private String parse(String code, boolean packrat) throws IOException, SyntaxException
 	{
 		tokenizer = new Tokenizer(new StringReader(code));
-		TranslationUnit translationUnit = Parser.parse(tokenizer.tokenize());
+		TranslationUnit translationUnit = Parser.parse(tokenizer.tokenize(), packrat);
 		return translationUnit.toString();
 	}
 
@@ -210,6 +217,21 @@ public class ParserTest
 				parse("void f() { while(y == 2) {} }"));
 	}
 
+	@Test
+	public void packratParsingWorksWithStreamLongerThanBuffer() throws IOException, SyntaxException
+	{
+		// A function body keeps the tokens buffered, so the streaming token
+		// buffer and the memo tables grow while the parser uses them.
+		StringBuilder code = new StringBuilder("int f() { int a;");
+		for (int i = 0; i < 500; ++i)
+			code.append(" a = a + ").append(i).append(';');
+		code.append(" return a; }");
+		String expected = Parser.parse(new Tokenizer(new StringReader(code.toString())),
+				false).toString();
+		assertEquals(expected, Parser.parse(new Tokenizer(new StringReader(code.toString())),
+				true).toString());
+	}
+
 	@Test
 	public void throwsOnIllegalSyntax() throws IOException, SyntaxException
 	{
@@ -222,13 +244,15 @@ public class ParserTest
 
 	private void testFailure(String code, String unexpectedToken, int line, int column) throws IOException
 	{
-		try {
-			parse(code);
-			fail("SyntaxException not thrown for following code: " + code);
-		} catch (SyntaxException e) {
-			assertEquals("Unexpected token \"" + unexpectedToken + "\".", e.getMessage());
-			assertEquals(line, e.getLine());
-			assertEquals(column, e.getColumn());
+		for (boolean packrat : new boolean[]{false, true}) {
+			try {
+				parse(code, packrat);
+				fail("SyntaxException not thrown for following code: " + code);
+			} catch (SyntaxException e) {
+				assertEquals("Unexpected token \"" + unexpectedToken + "\".", e.getMessage());
+				assertEquals(line, e.getLine());
+				assertEquals(column, e.getColumn());
+			}
 		}
 	}
 
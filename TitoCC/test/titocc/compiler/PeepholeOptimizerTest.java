@@ -0,0 +1,140 @@
+package titocc.compiler;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.EnumSet;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+import titocc.compiler.PeepholeOptimizer.Rule;
+
+public class PeepholeOptimizerTest
+{
+	private PeepholeOptimizer optimizer;
+	private Assembler asm;
+
+	@Before
+	public void setUp()
+	{
+		optimizer = new PeepholeOptimizer();
+		asm = new Assembler(new StringWriter(), optimizer);
+	}
+
+	private String output() throws IOException
+	{
+		asm.finish();
+		return asm.getWriter().toString();
+	}
+
+	@Test
+	public void instructionsAreBufferedUntilFlush() throws IOException
+	{
+		asm.emit(Mnemonic.LOAD, Register.R1, 1);
+		assertEquals("", asm.getWriter().toString());
+		asm.flush();
+		assertEquals("            load    R1, =1\n", asm.getWriter().toString());
+	}
+
+	@Test
+	public void loadAfterStoreIsRemoved() throws IOException
+	{
+		asm.emit(Mnemonic.STORE, Register.R1, "x(fp)");
+		asm.emit(Mnemonic.LOAD, Register.R1, "x(fp)");
+		assertEquals("            store   R1, x(fp)\n", output());
+		assertEquals(1, optimizer.getHitCount(Rule.REDUNDANT_LOAD));
+	}
+
+	@Test
+	public void loadAfterStoreIsKeptIfLabeled() throws IOException
+	{
+		asm.emit(Mnemonic.STORE, Register.R1, "x(fp)");
+		asm.addLabel("lbl");
+		asm.emit(Mnemonic.LOAD, Register.R1, "x(fp)");
+		assertEquals("            store   R1, x(fp)\n"
+				+ "lbl         load    R1, x(fp)\n", output());
+		assertEquals(0, optimizer.getRemovedCount());
+	}
+
+	@Test
+	public void overwrittenLoadIsRemoved() throws IOException
+	{
+		asm.addLabel("lbl");
+		asm.emit(Mnemonic.LOAD, Register.R1, 0);
+		asm.emit(Mnemonic.LOAD, Register.R1, "x(fp)");
+		asm.emit(Mnemonic.LOAD, Register.R2, 0);
+		asm.emit(Mnemonic.LOAD, Register.R2, "@R2");
+		assertEquals("lbl         load    R1, x(fp)\n"
+				+ "            load    R2, =0\n"
+				+ "            load    R2, @R2\n", output());
+		assertEquals(1, optimizer.getHitCount(Rule.OVERWRITTEN_LOAD));
+	}
+
+	@Test
+	public void comparisonFeedingJzerBecomesBranch() throws IOException
+	{
+		asm.emit(Mnemonic.COMP, Register.R1, Register.R2);
+		asm.emit(Mnemonic.LOAD, Register.R1, 1);
+		asm.emit(Mnemonic.JLES, Register.R1, "lbl");
+		asm.emit(Mnemonic.LOAD, Register.R1, 0);
+		asm.addLabel("lbl");
+		asm.emit(Mnemonic.JZER, Register.R1, "else");
+		asm.emit(Mnemonic.NOP, "");
+		assertEquals("            comp    R1, R2\n"
+				+ "            load    R1, =0\n"
+				+ "            jnles   R1, else\n"
+				+ "            load    R1, =1\n"
+				+ "            nop     \n", output());
+		assertEquals(1, optimizer.getHitCount(Rule.BOOLEAN_BRANCH));
+	}
+
+	@Test
+	public void comparisonFeedingJnzerBecomesBranch() throws IOException
+	{
+		asm.emit(Mnemonic.COMP, Register.R1, Register.R2);
+		asm.emit(Mnemonic.LOAD, Register.R1, 1);
+		asm.emit(Mnemonic.JEQU, Register.R1, "lbl");
+		asm.emit(Mnemonic.LOAD, Register.R1, 0);
+		asm.addLabel("lbl");
+		asm.emit(Mnemonic.JNZER, Register.R1, "loop");
+		assertEquals("            comp    R1, R2\n"
+				+ "            load    R1, =1\n"
+				+ "            jequ    R1, loop\n"
+				+ "            load    R1, =0\n", output());
+	}
+
+	@Test
+	public void comparisonIsKeptIfLabelIsReferencedElsewhere() throws IOException
+	{
+		asm.emit(Mnemonic.JUMP, "lbl");
+		asm.emit(Mnemonic.COMP, Register.R1, Register.R2);
+		asm.emit(Mnemonic.LOAD, Register.R1, 1);
+		asm.emit(Mnemonic.JEQU, Register.R1, "lbl");
+		asm.emit(Mnemonic.LOAD, Register.R1, 0);
+		asm.addLabel("lbl");
+		asm.emit(Mnemonic.JZER, Register.R1, "else");
+		asm.finish();
+		assertEquals(0, optimizer.getHitCount(Rule.BOOLEAN_BRANCH));
+	}
+
+	@Test
+	public void jumpToNextInstructionIsRemoved() throws IOException
+	{
+		asm.emit(Mnemonic.JUMP, Register.SP, "end");
+		asm.addLabel("end");
+		asm.emit(Mnemonic.POPR, Register.SP);
+		assertEquals("end         popr    sp\n", output());
+		assertEquals(1, optimizer.getHitCount(Rule.JUMP_TO_NEXT));
+	}
+
+	@Test
+	public void disabledRulesAreNotApplied() throws IOException
+	{
+		optimizer = new PeepholeOptimizer(EnumSet.of(Rule.JUMP_TO_NEXT));
+		asm = new Assembler(new StringWriter(), optimizer);
+		asm.emit(Mnemonic.STORE, Register.R1, "x");
+		asm.emit(Mnemonic.LOAD, Register.R1, "x");
+		assertEquals("            store   R1, x\n"
+				+ "            load    R1, x\n", output());
+		assertEquals(0, optimizer.getRemovedCount());
+	}
+}
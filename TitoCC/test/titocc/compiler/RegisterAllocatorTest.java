@@ -0,0 +1,192 @@
+package titocc.compiler;
+
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+import titocc.compiler.types.Types;
+
+public class RegisterAllocatorTest
+{
+	private List<Instruction> code;
+	private RegisterAllocator allocator;
+
+	@Before
+	public void setUp()
+	{
+		code = new ArrayList<Instruction>();
+		allocator = new RegisterAllocator(new Scope(null, "f_"));
+	}
+
+	private void add(String label, String mnemonic, String operand1, String operand2)
+	{
+		code.add(new Instruction(label, mnemonic, operand1, operand2));
+	}
+
+	private String allocate()
+	{
+		StringBuilder sb = new StringBuilder();
+		for (Instruction instr : allocator.allocate(new ControlFlowGraph(code)))
+			sb.append(instr);
+		return sb.toString();
+	}
+
+	private static String registerOf(String asm, String instruction)
+	{
+		for (String line : asm.split("\n")) {
+			if (line.contains(instruction))
+				return line.replaceAll(".*(R[1-5]).*", "$1");
+		}
+		return null;
+	}
+
+	@Test
+	public void registersAreReusedAfterLastUse()
+	{
+		add("", "load", "%0", "=1");
+		add("", "load", "%1", "=2");
+		add("", "add", "%0", "%1");
+		add("", "load", "%2", "0(%0)");
+		add("", "out", "%2", "=crt");
+		String asm = allocate();
+		assertEquals(5, asm.split("\n").length);
+		assertFalse(asm.contains("R3"));
+		assertTrue(asm.matches("(?s).*load    (R[12]), 0\\(R[12]\\)\n +out     \\1, =crt\n"));
+		assertTrue(allocator.getSpillSlots().isEmpty());
+	}
+
+	@Test
+	public void registersLiveAcrossLoopAreNotShared()
+	{
+		add("", "load", "%0", "=0");
+		add("", "load", "%1", "=5");
+		add("loop", "load", "%2", "=1");
+		add("", "add", "%0", "%2");
+		add("", "add", "%0", "%1");
+		add("", "comp", "%0", "=100");
+		add("", "jles", "%0", "loop");
+		String asm = allocate();
+		String temporary = registerOf(asm, "loop");
+		assertNotNull(registerOf(asm, "=5"));
+		assertFalse(temporary.equals(registerOf(asm, "=5")));
+		assertFalse(temporary.equals(registerOf(asm, "comp")));
+	}
+
+	@Test
+	public void manyLiveRegistersAreSpilled()
+	{
+		for (int i = 0; i < 7; ++i)
+			add("", "in", "%" + i, "=kbd");
+		for (int i = 1; i < 7; ++i)
+			add("", "add", "%0", "%" + i);
+		add("", "out", "%0", "=crt");
+		String asm = allocate();
+		assertFalse(asm.contains("%"));
+		assertFalse(allocator.getSpillSlots().isEmpty());
+		// Spilled values are used directly as memory operands.
+		assertTrue(asm.matches("(?s).*add     R[1-5], f_Spill[0-9]*\\(fp\\).*"));
+	}
+
+	@Test
+	public void spilledConstantsAreUsedAsImmediateOperands()
+	{
+		for (int i = 0; i < 7; ++i)
+			add("", "load", "%" + i, "=" + (i + 10));
+		for (int i = 1; i < 7; ++i)
+			add("", "add", "%0", "%" + i);
+		add("", "out", "%0", "=crt");
+		String asm = allocate();
+		assertFalse(asm.contains("%"));
+		assertTrue(allocator.getSpillSlots().isEmpty());
+		assertTrue(asm.matches("(?s).*add     R[1-5], =1[0-6]\n.*"));
+	}
+
+	@Test
+	public void unrelatedUsesOfVirtualRegisterAreAllocatedSeparately()
+	{
+		// %0 holds two unrelated values, so it doesn't interfere with %1.
+		add("", "in", "%0", "=kbd");
+		add("", "out", "%0", "=crt");
+		for (int i = 1; i < 6; ++i)
+			add("", "in", "%" + i, "=kbd");
+		add("", "load", "%0", "%1");
+		for (int i = 2; i < 6; ++i)
+			add("", "add", "%0", "%" + i);
+		add("", "out", "%0", "=crt");
+		String asm = allocate();
+		assertFalse(asm.contains("%"));
+		assertTrue(allocator.getSpillSlots().isEmpty());
+	}
+
+	@Test
+	public void copiesAreCoalesced()
+	{
+		add("", "in", "%0", "=kbd");
+		add("", "load", "%1", "%0");
+		add("", "out", "%1", "=crt");
+		assertEquals("            in      R1, =kbd\n"
+				+ "            out     R1, =crt\n", allocate());
+	}
+
+	@Test
+	public void localVariableIsPromotedToRegister()
+	{
+		Scope scope = new Scope(null, "f_");
+		Symbol x = new InternalSymbol("x", scope, "(fp)", Types.INT);
+		allocator = new RegisterAllocator(scope);
+		allocator.addVariable(x, false);
+		add("", "in", "%0", "=kbd");
+		add("", "store", "%0", "f_x(fp)");
+		add("", "load", "%0", "f_x(fp)");
+		add("", "add", "%0", "f_x(fp)");
+		add("", "out", "%0", "=crt");
+		String asm = allocate();
+		assertFalse(asm.contains("f_x"));
+		assertEquals(x, allocator.getPromotedVariables().get(0));
+	}
+
+	@Test
+	public void parameterIsLoadedOnceAtEntry()
+	{
+		Scope scope = new Scope(null, "f_");
+		Symbol p = new InternalSymbol("p", scope, "(fp)", Types.INT);
+		allocator = new RegisterAllocator(scope);
+		allocator.addVariable(p, true);
+		add("loop", "load", "%0", "f_p(fp)");
+		add("", "out", "%0", "=crt");
+		add("", "jump", "sp", "loop");
+		String asm = allocate();
+		assertTrue(asm.startsWith("            load    R1, f_p(fp)\nloop "));
+		assertEquals(1, asm.split("f_p").length - 1);
+	}
+
+	@Test
+	public void variableWithTakenAddressIsNotPromoted()
+	{
+		Scope scope = new Scope(null, "f_");
+		Symbol x = new InternalSymbol("x", scope, "(fp)", Types.INT);
+		allocator = new RegisterAllocator(scope);
+		allocator.addVariable(x, false);
+		add("", "load", "%0", "=f_x(fp)");
+		add("", "load", "%1", "f_x(fp)");
+		add("", "out", "%1", "=crt");
+		String asm = allocate();
+		assertTrue(asm.contains(", f_x(fp)"));
+		assertTrue(allocator.getPromotedVariables().isEmpty());
+	}
+
+	@Test
+	public void labelIsKeptOnFirstInstructionOfSpillCode()
+	{
+		for (int i = 0; i < 6; ++i)
+			add("", "load", "%" + i, "=" + i);
+		add("lbl", "add", "%5", "%4");
+		for (int i = 0; i < 5; ++i)
+			add("", "add", "%" + i, "%5");
+		add("", "out", "%0", "=crt");
+		String asm = allocate();
+		assertTrue(asm.matches("(?s).*\nlbl +(load|add) .*"));
+		assertEquals(1, asm.split("lbl ").length - 1);
+	}
+}
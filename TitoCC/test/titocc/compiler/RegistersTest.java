@@ -27,7 +27,7 @@ public class RegistersTest
 	public void newManagerHasOneActiveRegister()
 	{
 		assertEquals(1, regs.getActiveRegisterCount());
-		assertEquals(Register.R1, regs.get(0));
+		assertEquals(Register.virtual(0), regs.get(0));
 	}
 
 	@Test
@@ -35,8 +35,8 @@ public class RegistersTest
 	{
 		regs.allocate(asm);
 		assertEquals(2, regs.getActiveRegisterCount());
-		assertEquals(Register.R1, regs.get(0));
-		assertEquals(Register.R2, regs.get(1));
+		assertEquals(Register.virtual(0), regs.get(0));
+		assertEquals(Register.virtual(1), regs.get(1));
 		assertEquals("", writer.toString());
 	}
 
@@ -46,7 +46,7 @@ public class RegistersTest
 		regs.allocate(asm);
 		regs.deallocate(asm);
 		assertEquals(1, regs.getActiveRegisterCount());
-		assertEquals(Register.R1, regs.get(0));
+		assertEquals(Register.virtual(0), regs.get(0));
 		assertEquals("", writer.toString());
 	}
 
@@ -56,7 +56,7 @@ public class RegistersTest
 		regs.allocate(asm);
 		regs.removeFirst();
 		assertEquals(1, regs.getActiveRegisterCount());
-		assertEquals(Register.R2, regs.get(0));
+		assertEquals(Register.virtual(1), regs.get(0));
 		assertEquals("", writer.toString());
 	}
 
@@ -67,8 +67,8 @@ public class RegistersTest
 		regs.removeFirst();
 		regs.addFirst();
 		assertEquals(2, regs.getActiveRegisterCount());
-		assertEquals(Register.R1, regs.get(0));
-		assertEquals(Register.R2, regs.get(1));
+		assertEquals(Register.virtual(0), regs.get(0));
+		assertEquals(Register.virtual(1), regs.get(1));
 		assertEquals("", writer.toString());
 	}
 
@@ -111,58 +111,6 @@ public class RegistersTest
 		}
 	}
 
-	@Test
-	public void canAllocateFiveBeforePushing() throws IOException
-	{
-		for (int i = 0; i < 4; ++i)
-			regs.allocate(asm);
-		assertEquals(5, regs.getActiveRegisterCount());
-		assertEquals(Register.R5, regs.get(4));
-		assertEquals("", writer.toString());
-	}
-
-	@Test
-	public void pushesToStackWhenAllocatedMoreThanFiveRegisters() throws IOException
-	{
-		for (int i = 0; i < 4; ++i)
-			regs.allocate(asm);
-		regs.removeFirst();
-		regs.allocate(asm);
-
-		assertEquals(5, regs.getActiveRegisterCount());
-		assertEquals(Register.R2, regs.get(0));
-		assertEquals(Register.R1, regs.get(4));
-		assertTrue(writer.toString().matches(".*push.*R1.*\n"));
-	}
-
-	@Test
-	public void deallocatePopsPushedRegister() throws IOException
-	{
-		for (int i = 0; i < 4; ++i)
-			regs.allocate(asm);
-		regs.removeFirst();
-		regs.allocate(asm);
-		regs.deallocate(asm);
-
-		assertEquals(4, regs.getActiveRegisterCount());
-		assertEquals(Register.R2, regs.get(0));
-		assertEquals(Register.R5, regs.get(3));
-		assertTrue(writer.toString().matches(".*push.*R1.*\n.*pop.*R1.*\n"));
-	}
-
-	@Test
-	public void allocateThrowsWhenTooManyActiveRegisters() throws IOException
-	{
-		regs.removeFirst();
-		for (int i = 0; i < 5; ++i)
-			regs.allocate(asm);
-		try {
-			regs.allocate(asm);
-			fail("InternalCompilerException not thrown.");
-		} catch (InternalCompilerException e) {
-		}
-	}
-
 	@Test
 	public void deallocateThrowsIfNoActiveRegisters() throws IOException
 	{
@@ -175,23 +123,7 @@ public class RegistersTest
 	}
 
 	@Test
-	public void pushedRegisterCanbeReactivated() throws IOException
-	{
-		for (int i = 0; i < 4; ++i)
-			regs.allocate(asm);
-		regs.removeFirst();
-		regs.allocate(asm);
-		regs.deallocate(asm);
-		regs.addFirst();
-
-		assertEquals(5, regs.getActiveRegisterCount());
-		assertEquals(Register.R1, regs.get(0));
-		assertEquals(Register.R5, regs.get(4));
-		assertTrue(writer.toString().matches(".*push.*R1.*\n.*pop.*R1.*\n"));
-	}
-
-	@Test
-	public void canPushArbitraryNumberOfRegisters() throws IOException
+	public void canAllocateArbitraryNumberOfRegisters() throws IOException
 	{
 		for (int i = 0; i < 20; ++i) {
 			regs.allocate(asm);
@@ -202,6 +134,21 @@ public class RegistersTest
 			regs.addFirst();
 		}
 		assertEquals(1, regs.getActiveRegisterCount());
-		assertEquals(Register.R1, regs.get(0));
+		assertEquals(Register.virtual(0), regs.get(0));
+		assertEquals("", writer.toString());
+	}
+
+	@Test
+	public void registersAreNeverPushed() throws IOException
+	{
+		for (int i = 0; i < 10; ++i)
+			regs.allocate(asm);
+		assertEquals(11, regs.getActiveRegisterCount());
+		assertTrue(regs.get(0).isVirtual());
+		assertEquals("%10", regs.get(10).toString());
+		for (int i = 0; i < 10; ++i)
+			regs.deallocate(asm);
+		assertEquals(1, regs.getActiveRegisterCount());
+		assertEquals("", writer.toString());
 	}
 }
@@ -0,0 +1,63 @@
+package titocc.compiler.types;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class TypesTest
+{
+	@Test
+	public void fundamentalTypesAreCanonical()
+	{
+		assertSame(Types.INT, Types.intern(new IntType()));
+		assertSame(Types.VOID, Types.intern(new VoidType()));
+		assertSame(Types.INVALID, Types.intern(new InvalidType()));
+		assertSame(Types.INVALID, Types.INT.dereference());
+	}
+
+	@Test
+	public void pointerTypesAreCanonical()
+	{
+		CType t = Types.pointerTo(Types.pointerTo(Types.INT));
+		assertSame(t, Types.pointerTo(Types.pointerTo(new IntType())));
+		assertSame(t, Types.intern(new PointerType(new PointerType(new IntType()))));
+		assertSame(Types.pointerTo(Types.INT), t.dereference());
+		assertEquals(new PointerType(new PointerType(new IntType())), t);
+		assertFalse(t.equals(Types.pointerTo(Types.VOID)));
+	}
+
+	@Test
+	public void arrayTypesAreCanonical()
+	{
+		CType t = Types.arrayOf(Types.arrayOf(Types.INT, 6), 7);
+		assertSame(t, Types.arrayOf(new ArrayType(new IntType(), 6), 7));
+		assertSame(t, Types.intern(new ArrayType(new ArrayType(new IntType(), 6), 7)));
+		assertEquals(new ArrayType(new ArrayType(new IntType(), 6), 7), t);
+		assertFalse(t.equals(Types.arrayOf(Types.arrayOf(Types.INT, 6), 8)));
+	}
+
+	@Test
+	public void decayReturnsCanonicalPointer()
+	{
+		CType t = Types.arrayOf(Types.INT, 3);
+		assertSame(Types.pointerTo(Types.INT), t.decay());
+		assertSame(t.decay(), t.decay());
+	}
+
+	@Test
+	public void functionTypesAreCanonical()
+	{
+		CType t = Types.function(Types.INT, Arrays.asList(Types.INT, Types.pointerTo(Types.INT)));
+		assertSame(t, Types.function(new IntType(),
+				Arrays.<CType>asList(new IntType(), new PointerType(new IntType()))));
+		assertFalse(t.equals(Types.function(Types.VOID, Arrays.asList(Types.INT, Types.pointerTo(Types.INT)))));
+		assertFalse(t.equals(Types.function(Types.INT, new ArrayList<CType>())));
+	}
+
+	@Test
+	public void invalidTypeEqualsNothing()
+	{
+		assertFalse(Types.INVALID.equals(Types.INVALID));
+	}
+}
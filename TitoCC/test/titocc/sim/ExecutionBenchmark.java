@@ -0,0 +1,115 @@
+package titocc.sim;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import titocc.assembler.AssemblerException;
+import titocc.assembler.Program;
+import titocc.assembler.ProgramLoader;
+import titocc.compiler.Compiler;
+import titocc.compiler.Inliner;
+import titocc.compiler.PeepholeOptimizer;
+import titocc.tokenizer.SyntaxException;
+
+/**
+ * Measures the cost of the compiled code with each optimization enabled in
+ * turn: code size, executed instructions and data memory accesses in the
+ * simulator. Not a unit test; run with
+ *
+ * <p> java titocc.sim.ExecutionBenchmark [file.c ...]
+ *
+ * <p> Without arguments the programs in ../tests are used. Programs read 5,
+ * 11 and then -1 from the keyboard and are stopped after 100 outputs.
+ */
+public class ExecutionBenchmark
+{
+	private static final String[] SETTINGS = {"none", "peephole", "+inliner", "+loops"};
+	private static final int MAX_OUTPUTS = 100;
+	private static final long MAX_INSTRUCTIONS = 100000000;
+
+	public static void main(String[] args)
+			throws IOException, SyntaxException, AssemblerException, SimulatorException
+	{
+		if (args.length == 0) {
+			File[] files = new File("../tests").listFiles();
+			if (files != null) {
+				Arrays.sort(files);
+				for (File file : files) {
+					if (file.getName().endsWith(".c"))
+						run(file);
+				}
+			}
+		}
+		for (String path : args)
+			run(new File(path));
+	}
+
+	private static void run(File file) throws IOException, SyntaxException, AssemblerException, SimulatorException
+	{
+		String source = readFile(file);
+		System.out.println(file.getName());
+		for (int level = 0; level < SETTINGS.length; ++level) {
+			Program program = new ProgramLoader().loadSymbolic(new StringReader(
+					compile(source, level)));
+			Simulator sim = new Simulator(program);
+			final int[] input = {5, 11, -1};
+			final int[] counts = {0, 0};
+			sim.setKeyboard(new InputDevice()
+			{
+				@Override
+				public int read()
+				{
+					return counts[0] < input.length ? input[counts[0]++] : -1;
+				}
+			});
+			sim.setCrt(new OutputDevice()
+			{
+				@Override
+				public void write(int value)
+				{
+					++counts[1];
+				}
+			});
+			while (!sim.isHalted() && counts[1] < MAX_OUTPUTS
+					&& sim.getInstructionCount() < MAX_INSTRUCTIONS)
+				sim.step();
+			System.out.printf("  %-9s %6d words %10d instructions %10d memory accesses%n",
+					SETTINGS[level], program.getCodeSize(), sim.getInstructionCount(),
+					sim.getMemoryAccessCount());
+		}
+	}
+
+	private static String compile(String source, int level) throws IOException, SyntaxException
+	{
+		Compiler compiler = new Compiler(new StringReader(source));
+		if (level >= 1)
+			compiler.setPeepholeOptimizer(new PeepholeOptimizer());
+		if (level >= 2)
+			compiler.setInliner(new Inliner());
+		if (level >= 3)
+			compiler.setLoopOptimization(true);
+		StringWriter writer = new StringWriter();
+		compiler.compile(writer);
+		return writer.toString();
+	}
+
+	private static String readFile(File file) throws IOException
+	{
+		StringBuilder sb = new StringBuilder();
+		char[] buf = new char[8192];
+		Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+		try {
+			int n;
+			while ((n = reader.read(buf)) != -1)
+				sb.append(buf, 0, n);
+		} finally {
+			reader.close();
+		}
+		return sb.toString();
+	}
+}
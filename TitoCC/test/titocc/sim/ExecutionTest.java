@@ -0,0 +1,161 @@
+package titocc.sim;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import titocc.assembler.AssemblerException;
+import titocc.assembler.Program;
+import titocc.assembler.ProgramLoader;
+import titocc.compiler.Compiler;
+import titocc.compiler.Inliner;
+import titocc.compiler.PeepholeOptimizer;
+import titocc.tokenizer.SyntaxException;
+
+/**
+ * Compiles the test programs in the tests directory with different
+ * optimization settings and checks their output in the simulator.
+ */
+public class ExecutionTest
+{
+	/**
+	 * Directory of the test programs, relative to the project directory.
+	 */
+	private static final File testDirectory = new File("../tests");
+	/**
+	 * Number of outputs after which programs that never halt are stopped.
+	 */
+	private static final int maxOutputs = 200;
+	/**
+	 * Instruction limit in case a program gets stuck.
+	 */
+	private static final long maxInstructions = 10000000;
+
+	private static String readFile(String name) throws IOException
+	{
+		StringBuilder sb = new StringBuilder();
+		char[] buf = new char[4096];
+		Reader reader = new InputStreamReader(new FileInputStream(new File(testDirectory, name)),
+				"UTF-8");
+		try {
+			int n;
+			while ((n = reader.read(buf)) != -1)
+				sb.append(buf, 0, n);
+		} finally {
+			reader.close();
+		}
+		return sb.toString();
+	}
+
+	private static String compile(String source, int optimizationLevel)
+			throws IOException, SyntaxException
+	{
+		Compiler compiler = new Compiler(new StringReader(source));
+		if (optimizationLevel >= 1)
+			compiler.setPeepholeOptimizer(new PeepholeOptimizer());
+		if (optimizationLevel >= 2) {
+			compiler.setInliner(new Inliner());
+			compiler.setLoopOptimization(true);
+		}
+		StringWriter writer = new StringWriter();
+		compiler.compile(writer);
+		return writer.toString();
+	}
+
+	/**
+	 * Runs a test program with all optimization levels and returns the
+	 * outputs, which must be the same for all levels.
+	 */
+	private static List<Integer> execute(String name, Integer... input)
+			throws IOException, SyntaxException, AssemblerException, SimulatorException
+	{
+		String source = readFile(name);
+		List<Integer> expected = null;
+		for (int level = 0; level <= 2; ++level) {
+			Program program = new ProgramLoader().loadSymbolic(new StringReader(
+					compile(source, level)));
+			Simulator sim = new Simulator(program);
+			final Iterator<Integer> in = Arrays.asList(input).iterator();
+			final List<Integer> out = new ArrayList<Integer>();
+			sim.setKeyboard(new InputDevice()
+			{
+				@Override
+				public int read() throws SimulatorException
+				{
+					if (!in.hasNext())
+						throw new SimulatorException("End of input.");
+					return in.next();
+				}
+			});
+			sim.setCrt(new OutputDevice()
+			{
+				@Override
+				public void write(int value)
+				{
+					out.add(value);
+				}
+			});
+			while (!sim.isHalted() && out.size() < maxOutputs
+					&& sim.getInstructionCount() < maxInstructions)
+				sim.step();
+			if (expected == null)
+				expected = out;
+			else
+				assertEquals(name + " at optimization level " + level, expected, out);
+		}
+		return expected;
+	}
+
+	private static void assertAllOnes(List<Integer> output)
+	{
+		for (int value : output)
+			assertEquals(1, value);
+	}
+
+	@Test
+	public void basicFeatures() throws IOException, SyntaxException, AssemblerException, SimulatorException
+	{
+		List<Integer> output = execute("test_basic_features.c");
+		assertEquals(135, output.size());
+		assertAllOnes(output);
+	}
+
+	@Test
+	public void pointersAndArrays() throws IOException, SyntaxException, AssemblerException, SimulatorException
+	{
+		List<Integer> output = execute("test_pointers_and_arrays.c");
+		assertEquals(54, output.size());
+		assertAllOnes(output);
+	}
+
+	@Test
+	public void randomNumberGenerator() throws IOException, SyntaxException, AssemblerException, SimulatorException
+	{
+		List<Integer> output = execute("example_random_number_generator.c");
+		assertEquals(Arrays.asList(1174520813, 1516304396, 950030359, -1098122639, 112202824),
+				output.subList(0, 5));
+	}
+
+	@Test
+	public void fibonacci() throws IOException, SyntaxException, AssemblerException, SimulatorException
+	{
+		List<Integer> output = execute("example_fibonacci.c");
+		assertEquals(Arrays.asList(1, 2, 3, 5, 8, 13, 21, 34, 55, 89), output.subList(0, 10));
+	}
+
+	@Test
+	public void recursiveFactorial() throws IOException, SyntaxException, AssemblerException, SimulatorException
+	{
+		assertEquals(Arrays.asList(120, 1, 39916800), execute("example_recursive_factorial.c",
+				5, 0, 11, -1));
+	}
+}
@@ -0,0 +1,168 @@
+package titocc.sim;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+import titocc.assembler.AssemblerException;
+import titocc.assembler.InstructionSet;
+import titocc.assembler.ProgramLoader;
+
+public class SimulatorTest
+{
+	private List<Integer> output;
+
+	@Before
+	public void setUp()
+	{
+		output = new ArrayList<Integer>();
+	}
+
+	private Simulator load(String code) throws IOException, AssemblerException, SimulatorException
+	{
+		Simulator sim = new Simulator(new ProgramLoader().loadSymbolic(new StringReader(code)));
+		sim.setCrt(new OutputDevice()
+		{
+			@Override
+			public void write(int value)
+			{
+				output.add(value);
+			}
+		});
+		return sim;
+	}
+
+	private Simulator run(String code) throws IOException, AssemblerException, SimulatorException
+	{
+		Simulator sim = load(code);
+		assertTrue(sim.run(1000));
+		return sim;
+	}
+
+	@Test
+	public void arithmeticInstructions() throws IOException, AssemblerException, SimulatorException
+	{
+		run("            load    R1, =-7\n"
+				+ "            mul     R1, =3\n"
+				+ "            out     R1, =crt\n"
+				+ "            load    R2, R1\n"
+				+ "            div     R2, =4\n"
+				+ "            out     R2, =crt\n"
+				+ "            mod     R1, =4\n"
+				+ "            out     R1, =crt\n"
+				+ "            load    R1, =-16\n"
+				+ "            shra    R1, =2\n"
+				+ "            out     R1, =crt\n"
+				+ "            shr     R1, =28\n"
+				+ "            out     R1, =crt\n"
+				+ "            not     R1\n"
+				+ "            out     R1, =crt\n"
+				+ "            svc     sp, =halt\n");
+		assertEquals("[-21, -5, -1, -4, 15, -16]", output.toString());
+	}
+
+	@Test
+	public void memoryOperandsAreCounted() throws IOException, AssemblerException, SimulatorException
+	{
+		Simulator sim = run("            load    R1, =t\n"
+				+ "            load    R2, =5\n"
+				+ "            store   R2, 1(R1)\n"
+				+ "            load    R3, =x\n"
+				+ "            load    R3, @R3\n"
+				+ "            add     R3, 1(R1)\n"
+				+ "            out     R3, =crt\n"
+				+ "            svc     sp, =halt\n"
+				+ "x           dc      1\n"
+				+ "t           ds      2\n");
+		assertEquals("[6]", output.toString());
+		assertEquals(8, sim.getInstructionCount());
+		assertEquals(3, sim.getMemoryAccessCount());
+		assertEquals(5, sim.getMemory(10));
+	}
+
+	@Test
+	public void comparisonsAndJumps() throws IOException, AssemblerException, SimulatorException
+	{
+		Simulator sim = run("            load    R1, =0\n"
+				+ "            load    R2, =0\n"
+				+ "loop        add     R2, R1\n"
+				+ "            add     R1, =1\n"
+				+ "            comp    R1, =10\n"
+				+ "            jles    loop\n"
+				+ "            out     R2, =crt\n"
+				+ "            svc     sp, =halt\n");
+		assertEquals("[45]", output.toString());
+		assertEquals(2 + 4 * 10 + 2, sim.getInstructionCount());
+	}
+
+	@Test
+	public void callAndExitUseStack() throws IOException, AssemblerException, SimulatorException
+	{
+		Simulator sim = run("            push    sp, =0\n"
+				+ "            push    sp, =20\n"
+				+ "            call    sp, double\n"
+				+ "            pop     sp, R1\n"
+				+ "            out     R1, =crt\n"
+				+ "            svc     sp, =halt\n"
+				+ "double      load    R1, -2(fp)\n"
+				+ "            add     R1, R1\n"
+				+ "            store   R1, -3(fp)\n"
+				+ "            exit    sp, =1\n");
+		assertEquals("[40]", output.toString());
+		assertEquals(9, sim.getRegister(InstructionSet.SP));
+		assertEquals(9, sim.getRegister(InstructionSet.FP));
+	}
+
+	@Test
+	public void keyboardReadsInput() throws IOException, AssemblerException, SimulatorException
+	{
+		Simulator sim = load("            in      R1, =kbd\n"
+				+ "            in      R2, =kbd\n"
+				+ "            sub     R1, R2\n"
+				+ "            out     R1, =crt\n"
+				+ "            svc     sp, =halt\n");
+		sim.setKeyboard(new TextInputDevice(new StringReader(" 12\n5 ")));
+		StringWriter screen = new StringWriter();
+		sim.setCrt(new TextOutputDevice(screen));
+		assertTrue(sim.run(10));
+		assertEquals("7\n", screen.toString());
+	}
+
+	@Test
+	public void runStopsAtInstructionLimit() throws IOException, AssemblerException, SimulatorException
+	{
+		Simulator sim = load("loop        jump    loop\n");
+		assertFalse(sim.run(100));
+		assertEquals(100, sim.getInstructionCount());
+	}
+
+	@Test
+	public void divisionByZeroFails() throws IOException, AssemblerException, SimulatorException
+	{
+		Simulator sim = load("            load    R1, =1\n"
+				+ "            div     R1, =0\n");
+		try {
+			sim.run(10);
+			fail("SimulatorException not thrown.");
+		} catch (SimulatorException e) {
+			assertEquals("Address 1: Division by zero.", e.getMessage());
+		}
+	}
+
+	@Test
+	public void memoryAccessOutOfBoundsFails() throws IOException, AssemblerException, SimulatorException
+	{
+		Simulator sim = load("            load    R1, =-1\n"
+				+ "            load    R2, 0(R1)\n");
+		try {
+			sim.run(10);
+			fail("SimulatorException not thrown.");
+		} catch (SimulatorException e) {
+			assertEquals("Address 1: Memory read out of bounds: -1.", e.getMessage());
+		}
+	}
+}
@@ -77,4 +77,54 @@ public class CodeReaderTest
 		codeReader.skipWhiteSpace();
 		assertEquals('i', codeReader.read());
 	}
+
+	@Test
+	public void peekDoesNotConsume() throws IOException
+	{
+		codeReader.read();
+		assertEquals('b', codeReader.peek());
+		assertEquals('\n', codeReader.peek(2));
+		assertEquals('b', codeReader.read());
+		assertEquals(0, codeReader.getLineNumber());
+		assertEquals(2, codeReader.getColumn());
+	}
+
+	@Test
+	public void peekPastEndReturnsNullCharacter() throws IOException
+	{
+		assertEquals('\0', codeReader.peek(text.length()));
+	}
+
+	@Test
+	public void unreadingMultipleCharactersAcrossLinesWorks() throws IOException
+	{
+		for (int i = 0; i < text.indexOf('h') + 1; ++i)
+			codeReader.read();
+		codeReader.unread(text.indexOf('h'));
+		assertEquals(0, codeReader.getLineNumber());
+		assertEquals(1, codeReader.getColumn());
+		assertEquals('b', codeReader.read());
+	}
+
+	@Test
+	public void lineTerminatorsAreConvertedToNewline() throws IOException
+	{
+		codeReader = new CodeReader(new StringReader("a\r\nb\rc"));
+		assertEquals('a', codeReader.read());
+		assertEquals('\n', codeReader.read());
+		assertEquals('b', codeReader.read());
+		assertEquals('\n', codeReader.read());
+		assertEquals(2, codeReader.getLineNumber());
+		assertEquals('c', codeReader.read());
+		assertEquals('\0', codeReader.read());
+	}
+
+	@Test
+	public void lineNumberDoesNotChangeAtEndOfStream() throws IOException
+	{
+		for (int i = 0; i < text.length() + 2; ++i)
+			codeReader.read();
+		assertEquals(2, codeReader.getLineNumber());
+		assertEquals(5, codeReader.getColumn());
+	}
 }
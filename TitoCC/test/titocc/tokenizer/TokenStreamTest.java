@@ -1,5 +1,7 @@
 package titocc.tokenizer;
 
+import java.io.IOException;
+import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.List;
 import org.junit.After;
@@ -99,4 +101,51 @@ public class TokenStreamTest
 		assertEquals(token2.getLine(), stream.getLine());
 		assertSame(token2, stream.read());
 	}
+
+	@Test
+	public void readsLazilyFromTokenizer() throws IOException
+	{
+		StringBuilder source = new StringBuilder();
+		for (int i = 0; i < 200; ++i)
+			source.append("x").append(i).append(' ');
+		TokenStream ts = new TokenStream(new Tokenizer(new StringReader(source.toString())));
+
+		ts.read();
+		ts.pushMark();
+		for (int i = 1; i < 200; ++i)
+			assertEquals("x" + i, ts.read().toString());
+		assertTrue(ts.hasNext());
+		assertTrue(ts.read() instanceof EofToken);
+		assertFalse(ts.hasNext());
+		ts.popMark(true);
+		assertEquals(0, ts.getLine());
+		assertEquals(3, ts.getColumn());
+		assertEquals("x1", ts.read().toString());
+	}
+
+	@Test
+	public void tokenizerErrorIsStored() throws IOException
+	{
+		TokenStream ts = new TokenStream(new Tokenizer(new StringReader("a #")));
+		assertEquals("a", ts.read().toString());
+		assertNull(ts.getTokenizerError());
+		assertTrue(ts.read() instanceof EofToken);
+		assertTrue(ts.getTokenizerError() instanceof SyntaxException);
+	}
+
+	@Test
+	public void deeplyNestedMarksWork()
+	{
+		for (int i = 0; i < 100; ++i)
+			stream.pushMark();
+		stream.read();
+		stream.pushMark();
+		stream.read();
+		stream.popMark(true);
+		for (int i = 0; i < 99; ++i)
+			stream.popMark(false);
+		assertSame(token2, stream.read());
+		stream.popMark(true);
+		assertSame(token1, stream.read());
+	}
 }
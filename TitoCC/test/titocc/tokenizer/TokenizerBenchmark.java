@@ -0,0 +1,227 @@
+package titocc.tokenizer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import titocc.util.AsciiUtil;
+
+/**
+ * Measures tokenizer throughput (tokens/second) of the table-driven Tokenizer
+ * against the previous implementation that tried every token class in turn.
+ * Not a unit test; run with
+ *
+ * <p> java titocc.tokenizer.TokenizerBenchmark [file.c ...]
+ *
+ * <p> Without arguments a generated source of about one megabyte is used.
+ */
+public class TokenizerBenchmark
+{
+	private static final int ROUNDS = 20;
+
+	public static void main(String[] args) throws IOException, SyntaxException
+	{
+		String source = args.length > 0 ? readFiles(args) : generateSource(1 << 20);
+
+		int tokens = new Tokenizer(new StringReader(source)).tokenize().size();
+		int legacyTokens = new LegacyTokenizer(new StringReader(source)).tokenize().size();
+		if (tokens != legacyTokens)
+			throw new AssertionError("Token counts differ: " + tokens + " vs " + legacyTokens);
+
+		System.out.println("Source: " + source.length() + " characters, " + tokens + " tokens");
+
+		// Warm up both implementations before measuring.
+		for (int i = 0; i < ROUNDS; ++i) {
+			new LegacyTokenizer(new StringReader(source)).tokenize();
+			new Tokenizer(new StringReader(source)).tokenize();
+		}
+
+		long legacyTime = 0, time = 0;
+		for (int i = 0; i < ROUNDS; ++i) {
+			long start = System.nanoTime();
+			new LegacyTokenizer(new StringReader(source)).tokenize();
+			legacyTime += System.nanoTime() - start;
+
+			start = System.nanoTime();
+			new Tokenizer(new StringReader(source)).tokenize();
+			time += System.nanoTime() - start;
+		}
+
+		report("legacy", tokens, legacyTime);
+		report("table-driven", tokens, time);
+		System.out.printf("speedup: %.2fx%n", (double) legacyTime / time);
+	}
+
+	private static void report(String name, int tokens, long nanos)
+	{
+		double seconds = nanos / 1e9 / ROUNDS;
+		System.out.printf("%-14s %12.0f tokens/s%n", name, tokens / seconds);
+	}
+
+	private static String readFiles(String[] paths) throws IOException
+	{
+		StringBuilder sb = new StringBuilder();
+		char[] buf = new char[8192];
+		for (String path : paths) {
+			Reader reader = new InputStreamReader(new FileInputStream(new File(path)), "UTF-8");
+			try {
+				int n;
+				while ((n = reader.read(buf)) != -1)
+					sb.append(buf, 0, n);
+			} finally {
+				reader.close();
+			}
+			sb.append('\n');
+		}
+		return sb.toString();
+	}
+
+	private static String generateSource(int size)
+	{
+		String function =
+				"int fN(int a, int b)\n"
+				+ "{\n"
+				+ "\tint i = 0;\n"
+				+ "\tint sum = 0;\n"
+				+ "\twhile (i < a && sum <= 10000) {\n"
+				+ "\t\tsum += (a * i) % 17 - (b << 2) / 3;\n"
+				+ "\t\tif (sum != 0 || i == b)\n"
+				+ "\t\t\tsum >>= 1;\n"
+				+ "\t\t++i;\n"
+				+ "\t}\n"
+				+ "\treturn sum;\n"
+				+ "}\n\n";
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; sb.length() < size; ++i)
+			sb.append(function.replace("fN", "f" + i));
+		return sb.toString();
+	}
+
+	/**
+	 * Copy of the tokenizer before it was made table-driven: every token class
+	 * is tried in turn, each reading characters and unreading on mismatch.
+	 */
+	private static class LegacyTokenizer
+	{
+		private static final Set<String> punctuators = new HashSet<String>(Arrays.asList(
+				"+", "++", "+=", "-", "--", "-=", "*", "*=", "/", "/=", "%", "%=",
+				"|", "|=", "||", "&", "&=", "&&", "~", "~=", "^", "^=", "!", "=",
+				">>", ">>=", "<<", "<<=", "==", "!=", "<", "<=", ">", ">=",
+				"{", "}", "(", ")", "[", "]", ";", ","));
+		private final CodeReader input;
+
+		LegacyTokenizer(Reader input)
+		{
+			this.input = new CodeReader(input);
+		}
+
+		List<Token> tokenize() throws IOException, SyntaxException
+		{
+			List<Token> tokens = new LinkedList<Token>();
+			Token token;
+			do {
+				input.skipWhiteSpace();
+				token = getNextToken();
+				tokens.add(token);
+			} while (!(token instanceof EofToken));
+			return tokens;
+		}
+
+		private Token getNextToken() throws IOException, SyntaxException
+		{
+			Token token = parseIntegerLiteral();
+			if (token != null)
+				return token;
+			token = parsePunctuator();
+			if (token != null)
+				return token;
+			token = parseWord();
+			if (token != null)
+				return token;
+			token = parseEof();
+			if (token != null)
+				return token;
+			throw new SyntaxException("Unrecognized token.", input.getLineNumber(),
+					input.getColumn());
+		}
+
+		private Token parseIntegerLiteral() throws IOException
+		{
+			Token token = null;
+			int line = input.getLineNumber(), column = input.getColumn();
+			StringBuilder digits = new StringBuilder();
+			char c = input.read();
+			while (Character.isDigit(c)) {
+				digits.append(c);
+				c = input.read();
+			}
+			String digitStr = digits.toString();
+			if (digitStr.length() > 0) {
+				StringBuilder suffix = new StringBuilder();
+				while (AsciiUtil.isIdentifierCharacter(c)) {
+					suffix.append(c);
+					c = input.read();
+				}
+				token = new IntegerLiteralToken(digitStr + suffix.toString(),
+						line, column, digitStr, suffix.toString());
+			}
+			if (c != '\0')
+				input.unread();
+			return token;
+		}
+
+		private Token parsePunctuator() throws IOException
+		{
+			Token token = null;
+			int line = input.getLineNumber(), column = input.getColumn();
+			StringBuilder tokenString = new StringBuilder();
+			char c = input.read();
+			while (punctuators.contains(tokenString.toString() + c)) {
+				tokenString.append(c);
+				c = input.read();
+			}
+			if (tokenString.length() > 0)
+				token = new PunctuatorToken(tokenString.toString(), line, column);
+			if (c != '\0')
+				input.unread();
+			return token;
+		}
+
+		private Token parseWord() throws IOException
+		{
+			Token token = null;
+			int line = input.getLineNumber(), column = input.getColumn();
+			char c = input.read();
+			if (AsciiUtil.isIdentifierStart(c)) {
+				StringBuilder tokenString = new StringBuilder();
+				do {
+					tokenString.append(c);
+					c = input.read();
+				} while (AsciiUtil.isIdentifierCharacter(c));
+				if (KeywordToken.isKeyword(tokenString.toString()))
+					token = new KeywordToken(tokenString.toString(), line, column);
+				else
+					token = new IdentifierToken(tokenString.toString(), line, column);
+			}
+			if (c != '\0')
+				input.unread();
+			return token;
+		}
+
+		private Token parseEof() throws IOException
+		{
+			int line = input.getLineNumber(), column = input.getColumn();
+			if (input.read() == '\0')
+				return new EofToken(line, column);
+			input.unread();
+			return null;
+		}
+	}
+}
@@ -60,4 +60,30 @@ public class TokenizerTest
 		} catch (SyntaxException e) {
 		}
 	}
+
+	@Test
+	public void adjacentTokensAreSplitCorrectly() throws IOException, SyntaxException
+	{
+		Tokenizer t = new Tokenizer(new StringReader("x<<=12u>>y&&!z--+w"));
+		List<Token> tokens = t.tokenize();
+		String[] expected = {"x", "<<=", "12u", ">>", "y", "&&", "!", "z", "--",
+			"+", "w", "<End of file>"};
+
+		assertEquals(expected.length, tokens.size());
+		for (int i = 0; i < expected.length; ++i)
+			assertEquals(expected[i], tokens.get(i).toString());
+		assertEquals(17, tokens.get(10).getColumn());
+	}
+
+	@Test
+	public void errorPositionIsAtUnrecognizedCharacter() throws IOException
+	{
+		try {
+			new Tokenizer(new StringReader("x\n  y @")).tokenize();
+			fail("SyntaxException not thrown.");
+		} catch (SyntaxException e) {
+			assertEquals(1, e.getLine());
+			assertEquals(4, e.getColumn());
+		}
+	}
 }